@@ -1,5 +1,7 @@
 package com.conveyal.gtfs;
 
+import com.conveyal.gtfs.loader.ColumnRegistry;
+import com.conveyal.gtfs.loader.EntityCache;
 import com.conveyal.gtfs.loader.Feed;
 import com.conveyal.gtfs.loader.FeedLoadResult;
 import com.conveyal.gtfs.loader.JdbcGtfsExporter;
@@ -52,6 +54,20 @@ public abstract class GTFS {
         return result;
     }
 
+    /**
+     * Export a feed ID from the database to a zipped GTFS file, exporting up to the given number of tables at the same
+     * time (each on its own connection from the data source).
+     * @see JdbcGtfsExporter#withParallelism(int)
+     */
+    public static FeedLoadResult export (
+        String feedId, String outFile, DataSource dataSource, boolean fromEditor, int parallelism
+    ) {
+        JdbcGtfsExporter exporter = new JdbcGtfsExporter(feedId, outFile, dataSource, fromEditor)
+            .withParallelism(parallelism);
+        FeedLoadResult result = exporter.exportTables();
+        return result;
+    }
+
     /**
      * Load the GTFS data in the specified file into the given JDBC DataSource.
      *
@@ -73,6 +89,17 @@ public abstract class GTFS {
         return result;
     }
 
+    /**
+     * Load the GTFS data in the specified file into the given JDBC DataSource, loading up to the given number of
+     * tables at the same time (each on its own connection from the data source).
+     * @see JdbcGtfsLoader#withParallelism(int)
+     */
+    public static FeedLoadResult load (String filePath, DataSource dataSource, int parallelism) {
+        JdbcGtfsLoader loader = new JdbcGtfsLoader(filePath, dataSource).withParallelism(parallelism);
+        FeedLoadResult result = loader.loadTables();
+        return result;
+    }
+
     /**
      * Copy all tables for a given feed ID (schema namespace) into a new namespace in the given JDBC DataSource.
      *
@@ -100,6 +127,17 @@ public abstract class GTFS {
         return result;
     }
 
+    /**
+     * Validate a feed that has been loaded into the database, running up to the given number of validators at the
+     * same time.
+     * @see Feed#withParallelism(int)
+     */
+    public static ValidationResult validate (String feedId, DataSource dataSource, int parallelism) {
+        Feed feed = new Feed(dataSource, feedId).withParallelism(parallelism);
+        ValidationResult result = feed.validate();
+        return result;
+    }
+
     /**
      * Deletes all tables for the specified feed. Simply put, this is a "drop schema" SQL statement called on the feed's
      * namespace.
@@ -131,6 +169,8 @@ public abstract class GTFS {
             dropSchemaStatement.executeUpdate();
             // Commit the changes.
             connection.commit();
+            EntityCache.invalidate(feedId);
+            ColumnRegistry.invalidate(feedId);
             LOG.info("Drop schema successful!");
         } catch (InvalidNamespaceException | SQLException e) {
             LOG.error(String.format("Could not drop feed for namespace %s", feedId), e);
@@ -10,19 +10,22 @@ import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
 import com.conveyal.gtfs.validator.service.GeoUtils;
-import com.google.common.collect.HashMultimap;
-import com.google.common.collect.Multimap;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.CoordinateList;
 import com.vividsolutions.jts.geom.LineString;
+import gnu.trove.impl.Constants;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Collection;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
-import java.util.Iterator;
+import java.util.LinkedHashMap;
 import java.util.List;
 import java.util.Locale;
 import java.util.Map;
@@ -43,8 +46,25 @@ public class PatternFinder {
 
     private static final Logger LOG = LoggerFactory.getLogger(PatternFinder.class);
 
-    // A multi-map that groups trips together by their sequence of stops
-    private Multimap<TripPatternKey, Trip> tripsForPattern = HashMultimap.create();
+    private static final int INITIAL_CAPACITY = 1024;
+
+    // Route and stop IDs are interned to small ints, with zero reserved for null IDs.
+    private final TObjectIntMap<String> indexForId = new TObjectIntHashMap<>(
+        Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, -1);
+    private final List<String> idForIndex = new ArrayList<>(Collections.singletonList(null));
+
+    // Trips grouped by the route and sequence of stops (with pickup and drop off types) they visit. Patterns and their
+    // trips are kept in the order they are first encountered, so that pattern IDs and exemplar trips do not depend on
+    // hashing.
+    private final List<PatternGroup> patternGroups = new ArrayList<>();
+
+    // An open addressing hash table (with linear probing) over the encoded keys of the pattern groups. Each slot holds
+    // the index of a pattern group plus one, so that zero marks an empty slot.
+    private int[] slots = new int[INITIAL_CAPACITY];
+
+    // Scratch space reused for each trip's encoded key and stop times.
+    private int[] encodedKey = new int[64];
+    private final List<StopTime> stopTimesForTrip = new ArrayList<>();
 
     private int nTripsProcessed = 0;
 
@@ -68,13 +88,107 @@ public class PatternFinder {
             LOG.info("trip {}", human(nTripsProcessed));
         }
         // No need to scope the route ID here, patterns are built within the context of a single feed.
-        // Create a key that might already be in the map (by semantic equality)
-        TripPatternKey key = new TripPatternKey(trip.route_id);
+        // Encode the trip's route and stops as a key that might already be in the table (by semantic equality).
+        stopTimesForTrip.clear();
+        int length = 0;
+        encodedKey[length++] = intern(trip.route_id);
         for (StopTime st : orderedStopTimes) {
-            key.addStopTime(st);
+            stopTimesForTrip.add(st);
+            if (length + 3 > encodedKey.length) encodedKey = Arrays.copyOf(encodedKey, encodedKey.length * 2);
+            encodedKey[length++] = intern(st.stop_id);
+            encodedKey[length++] = st.pickup_type;
+            encodedKey[length++] = st.drop_off_type;
+        }
+        PatternGroup group = getPatternGroup(length);
+        if (group == null) {
+            // The first trip on a pattern supplies the full key, including the times used for pattern stops.
+            TripPatternKey key = new TripPatternKey(trip.route_id);
+            for (StopTime st : stopTimesForTrip) {
+                key.addStopTime(st);
+            }
+            group = addPatternGroup(length, key);
+        }
+        // Add the current trip to the group, possibly extending an existing list of trips on this pattern.
+        group.trips.add(trip);
+    }
+
+    /**
+     * Add the trips grouped by another pattern finder that processed trips coming after all of the trips processed by
+     * this one. Merging the pattern finders for consecutive ranges of trips in order gives the same patterns (and
+     * pattern IDs) as processing all of the trips with a single pattern finder.
+     */
+    public void merge (PatternFinder other) {
+        for (PatternGroup otherGroup : other.patternGroups) {
+            // Translate the other pattern finder's interned IDs into this one's.
+            int length = otherGroup.encodedKey.length;
+            if (length > encodedKey.length) encodedKey = new int[length];
+            encodedKey[0] = intern(other.idForIndex.get(otherGroup.encodedKey[0]));
+            for (int i = 1; i < length; i += 3) {
+                encodedKey[i] = intern(other.idForIndex.get(otherGroup.encodedKey[i]));
+                encodedKey[i + 1] = otherGroup.encodedKey[i + 1];
+                encodedKey[i + 2] = otherGroup.encodedKey[i + 2];
+            }
+            PatternGroup group = getPatternGroup(length);
+            if (group == null) group = addPatternGroup(length, otherGroup.key);
+            group.trips.addAll(otherGroup.trips);
+        }
+        nTripsProcessed += other.nTripsProcessed;
+    }
+
+    /** @return the small int standing in for a route or stop ID, assigning the next one if the ID is new. */
+    private int intern (String id) {
+        if (id == null) return 0;
+        int index = indexForId.get(id);
+        if (index < 0) {
+            index = idForIndex.size();
+            indexForId.put(id, index);
+            idForIndex.add(id);
+        }
+        return index;
+    }
+
+    /** @return the pattern group whose key equals the first length ints of the encoded key, or null if none does. */
+    private PatternGroup getPatternGroup (int length) {
+        long hash = hash(encodedKey, length);
+        int mask = slots.length - 1;
+        for (int slot = (int) hash & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            PatternGroup group = patternGroups.get(slots[slot] - 1);
+            if (group.hash == hash && group.keyEquals(encodedKey, length)) return group;
+        }
+        return null;
+    }
+
+    /** Add a group for the first length ints of the encoded key, which must not already be in the table. */
+    private PatternGroup addPatternGroup (int length, TripPatternKey key) {
+        PatternGroup group = new PatternGroup(Arrays.copyOf(encodedKey, length), hash(encodedKey, length), key);
+        patternGroups.add(group);
+        // Keep the table at most half full.
+        if (patternGroups.size() * 2 > slots.length) {
+            slots = new int[slots.length * 2];
+            for (int i = 0; i < patternGroups.size() - 1; i++) insertSlot(patternGroups.get(i).hash, i);
         }
-        // Add the current trip to the map, possibly extending an existing list of trips on this pattern.
-        tripsForPattern.put(key, trip);
+        insertSlot(group.hash, patternGroups.size() - 1);
+        return group;
+    }
+
+    private void insertSlot (long hash, int groupIndex) {
+        int mask = slots.length - 1;
+        int slot = (int) hash & mask;
+        while (slots[slot] != 0) slot = (slot + 1) & mask;
+        slots[slot] = groupIndex + 1;
+    }
+
+    /** A 64-bit hash of the first length ints of the encoded key, mixed so that the low bits can pick a slot. */
+    private static long hash (int[] encodedKey, int length) {
+        long hash = length;
+        for (int i = 0; i < length; i++) hash = hash * 0x9E3779B97F4A7C15L + encodedKey[i];
+        // Finalization step from MurmurHash3.
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
     }
 
     /**
@@ -86,10 +200,11 @@ public class PatternFinder {
         // Make pattern ID one-based to avoid any JS type confusion between an ID of zero vs. null value.
         int nextPatternId = 1;
         // Create an in-memory list of Patterns because we will later rename them before inserting them into storage.
-        Map<TripPatternKey, Pattern> patterns = new HashMap<>();
+        Map<TripPatternKey, Pattern> patterns = new LinkedHashMap<>();
         // TODO assign patterns sequential small integer IDs (may include route)
-        for (TripPatternKey key : tripsForPattern.keySet()) {
-            Collection<Trip> trips = tripsForPattern.get(key);
+        for (PatternGroup group : patternGroups) {
+            TripPatternKey key = group.key;
+            List<Trip> trips = group.trips;
             Pattern pattern = new Pattern(key.stops, trips, null);
             // Overwrite long UUID with sequential integer pattern ID
             pattern.pattern_id = Integer.toString(nextPatternId++);
@@ -109,7 +224,7 @@ public class PatternFinder {
         }
         // Name patterns before storing in SQL database.
         renamePatterns(patterns.values(), stopById);
-        LOG.info("Total patterns: {}", tripsForPattern.keySet().size());
+        LOG.info("Total patterns: {}", patternGroups.size());
         return patterns;
     }
 
@@ -141,13 +256,16 @@ public class PatternFinder {
             String fromName = stopById.get(pattern.orderedStops.get(0)).stop_name;
             String toName = stopById.get(pattern.orderedStops.get(pattern.orderedStops.size() - 1)).stop_name;
 
-            namingInfo.fromStops.put(fromName, pattern);
-            namingInfo.toStops.put(toName, pattern);
-
+            // Group the patterns on the route by the names of their first and last stops, counting the patterns in each
+            // group that pass through a stop with each other name.
+            EndpointGroup endpointGroup = namingInfo.endpointGroups
+                .computeIfAbsent(Arrays.asList(fromName, toName), k -> new EndpointGroup());
+            endpointGroup.patterns.add(pattern);
+            Set<String> viaNames = new HashSet<>();
             for (String stopId : pattern.orderedStops) {
                 Stop stop = stopById.get(stopId);
                 if (fromName.equals(stop.stop_name) || toName.equals(stop.stop_name)) continue;
-                namingInfo.vias.put(stop.stop_name, pattern);
+                if (viaNames.add(stop.stop_name)) endpointGroup.patternCountForVia.adjustOrPutValue(stop.stop_name, 1, 1);
             }
             namingInfo.patternsOnRoute.add(pattern);
         }
@@ -160,8 +278,8 @@ public class PatternFinder {
                 String toName = stopById.get(pattern.orderedStops.get(pattern.orderedStops.size() - 1)).stop_name;
 
                 // check if combination from, to is unique
-                Set<Pattern> intersection = new HashSet<>(info.fromStops.get(fromName));
-                intersection.retainAll(info.toStops.get(toName));
+                EndpointGroup endpointGroup = info.endpointGroups.get(Arrays.asList(fromName, toName));
+                List<Pattern> intersection = endpointGroup.patterns;
 
                 if (intersection.size() == 1) {
                     pattern.name = String.format(Locale.US, "from %s to %s", fromName, toName);
@@ -169,21 +287,18 @@ public class PatternFinder {
                 }
 
                 // check for unique via stop
-                pattern.orderedStops.stream().map(stopById::get).forEach(stop -> {
-                    Set<Pattern> viaIntersection = new HashSet<>(intersection);
-                    viaIntersection.retainAll(info.vias.get(stop.stop_name));
-
-                    if (viaIntersection.size() == 1) {
+                for (String stopId : pattern.orderedStops) {
+                    Stop stop = stopById.get(stopId);
+                    if (endpointGroup.patternCountForVia.get(stop.stop_name) == 1) {
                         pattern.name = String.format(Locale.US, "from %s to %s via %s", fromName, toName, stop.stop_name);
                     }
-                });
+                }
 
                 if (pattern.name == null) {
                     // no unique via, one pattern is subset of other.
                     if (intersection.size() == 2) {
-                        Iterator<Pattern> it = intersection.iterator();
-                        Pattern p0 = it.next();
-                        Pattern p1 = it.next();
+                        Pattern p0 = intersection.get(0);
+                        Pattern p1 = intersection.get(1);
                         if (p0.orderedStops.size() > p1.orderedStops.size()) {
                             p1.name = String.format(Locale.US, "from %s to %s express", fromName, toName);
                             p0.name = String.format(Locale.US, "from %s to %s local", fromName, toName);
@@ -213,12 +328,42 @@ public class PatternFinder {
      * modeled on https://github.com/opentripplanner/OpenTripPlanner/blob/master/src/main/java/org/opentripplanner/routing/edgetype/TripPattern.java#L379
      */
     private static class PatternNamingInfo {
-        // These are all maps from ?
-        // FIXME For type safety and clarity maybe we should have a parameterized ID type, i.e. EntityId<Stop> stopId.
-        Multimap<String, Pattern> fromStops = HashMultimap.create();
-        Multimap<String, Pattern> toStops = HashMultimap.create();
-        Multimap<String, Pattern> vias = HashMultimap.create();
+        // Patterns on the route grouped by the names of their first and last stops.
+        Map<List<String>, EndpointGroup> endpointGroups = new HashMap<>();
         List<Pattern> patternsOnRoute = new ArrayList<>();
     }
 
+    /**
+     * The patterns on a route that share the names of their first and last stops, and how many of them pass through a
+     * stop with each other name. A via stop name identifies a pattern uniquely within the group if its count is one.
+     */
+    private static class EndpointGroup {
+        List<Pattern> patterns = new ArrayList<>();
+        TObjectIntMap<String> patternCountForVia = new TObjectIntHashMap<>();
+    }
+
+    /**
+     * The trips on one pattern, with the pattern's key encoded as ints: the interned route ID followed by the interned
+     * stop ID, pickup type and drop off type of each stop time.
+     */
+    private static class PatternGroup {
+        final int[] encodedKey;
+        final long hash;
+        // The full key of the first trip on this pattern.
+        final TripPatternKey key;
+        final List<Trip> trips = new ArrayList<>();
+
+        PatternGroup (int[] encodedKey, long hash, TripPatternKey key) {
+            this.encodedKey = encodedKey;
+            this.hash = hash;
+            this.key = key;
+        }
+
+        boolean keyEquals (int[] otherKey, int length) {
+            if (encodedKey.length != length) return false;
+            for (int i = 0; i < length; i++) if (encodedKey[i] != otherKey[i]) return false;
+            return true;
+        }
+    }
+
 }
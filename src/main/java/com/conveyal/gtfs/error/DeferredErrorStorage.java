@@ -0,0 +1,64 @@
+package com.conveyal.gtfs.error;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * An error storage that holds errors in memory instead of writing them to the database. The errors can later be
+ * transferred into a real {@link SQLErrorStorage} at a moment chosen by the caller.
+ *
+ * This is used when several GTFS tables are loaded concurrently. Each table load collects its own errors, and once all
+ * tables are finished the errors are transferred in the normal table load order. The stored errors (including their
+ * IDs) are then identical to those produced by a sequential load. Instances are not thread safe: each one should only
+ * be used by a single table load at a time.
+ */
+public class DeferredErrorStorage extends SQLErrorStorage {
+
+    private final List<NewGTFSError> errors = new ArrayList<>();
+
+    @Override
+    public void storeError (NewGTFSError error) {
+        errors.add(error);
+    }
+
+    /**
+     * Insert an error at the given position among the errors held in memory, for an error that was held back and
+     * turns out to belong earlier in the sequence (see SpeedTripValidator).
+     */
+    public void insert (int index, NewGTFSError error) {
+        errors.add(index, error);
+    }
+
+    /**
+     * @return the number of errors currently held in memory (i.e., not yet transferred).
+     */
+    @Override
+    public int getErrorCount () {
+        return errors.size();
+    }
+
+    /**
+     * There is no connection to commit or close, so this does nothing. Errors remain held until {@link #transferTo}.
+     */
+    @Override
+    public void commitAndClose () { }
+
+    /** Errors are held until {@link #transferTo}, so there is nothing to flush. */
+    @Override
+    public void flush () { }
+
+    /** Errors held in memory cannot be discarded by a rollback, so the count is always correct. */
+    @Override
+    public void recount () { }
+
+    /**
+     * Store all the errors held in memory into the target error storage, in the order they were encountered, and then
+     * forget them.
+     */
+    public void transferTo (SQLErrorStorage target) {
+        for (NewGTFSError error : errors) {
+            target.storeError(error);
+        }
+        errors.clear();
+    }
+}
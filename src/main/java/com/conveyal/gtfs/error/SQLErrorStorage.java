@@ -11,8 +11,14 @@ import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
 
 import static com.conveyal.gtfs.util.Util.ensureValidNamespace;
 
@@ -43,11 +49,25 @@ public class SQLErrorStorage {
     private String tablePrefix;
 
     // This serves as a unique ID, so it must persist across multiple validator runs. It is, however, distinct from the
-    // count, which should only be determined with a SQL query.
+    // count, because IDs are not necessarily contiguous (see reconnectErrorTables).
     private int errorId;
 
+    // Running counts of the errors in the errors table (including errors not yet inserted), so that counting errors
+    // does not require committing and querying the table. Entity types are keyed on their simple class name as in the
+    // entity_type column, which is null for errors that do not concern a particular table.
+    private int errorCount = 0;
+    private final Map<NewGTFSErrorType, Integer> errorCountByType = new HashMap<>();
+    private final Map<String, Integer> errorCountByEntityType = new HashMap<>();
+
+    // If not null, errors are handed to this thread to be inserted on its own connection.
+    private BackgroundWriter backgroundWriter;
+
     // How many errors to insert at a time in a batch, for efficiency.
     private static final long INSERT_BATCH_SIZE = 500;
+    // The background writer inserts (and commits) at most this many errors at a time.
+    private static final int BACKGROUND_BATCH_SIZE = 10_000;
+    // The number of errors that may wait for the background writer before storing an error blocks.
+    private static final int BACKGROUND_QUEUE_SIZE = 100_000;
 
     public SQLErrorStorage (Connection connection, String tablePrefix, boolean createTables) throws InvalidNamespaceException {
         ensureValidNamespace(tablePrefix);
@@ -56,10 +76,40 @@ public class SQLErrorStorage {
         this.connection = connection;
         if (createTables) createErrorTables();
         else reconnectErrorTables();
-        createPreparedStatements();
+        insertError = prepareInsertError(connection);
+        insertInfo = prepareInsertInfo(connection);
     }
 
-    public void storeError (NewGTFSError error) {
+    /**
+     * Fluent method to insert errors on a background thread. Storing an error then only hands it to a bounded queue,
+     * which the background thread drains into the error tables in large batches on the supplied connection, so that
+     * loading or validation code storing many errors does not wait on the database. Errors are still assigned the
+     * same IDs in the order they are stored, and {@link #flush()} and {@link #commitAndClose()} wait until all stored
+     * errors have been committed. The writer connection is closed by commitAndClose.
+     *
+     * @param writerConnection a connection that is not used for anything else, to which the error tables are visible
+     */
+    public SQLErrorStorage withBackgroundWriter (Connection writerConnection) {
+        if (backgroundWriter != null) throw new IllegalStateException("Background writer was already started.");
+        // Commit anything already inserted on the main connection, so that errors are committed in order.
+        this.commit();
+        backgroundWriter = new BackgroundWriter(writerConnection);
+        return this;
+    }
+
+    /**
+     * Constructor for subclasses that hold errors somewhere other than the SQL tables, e.g. {@link DeferredErrorStorage}.
+     * Such subclasses must override every method that touches the connection.
+     */
+    protected SQLErrorStorage () { }
+
+    public synchronized void storeError (NewGTFSError error) {
+        if (backgroundWriter != null) {
+            backgroundWriter.enqueue(errorId, error);
+            errorId += 1;
+            countError(error);
+            return;
+        }
         try {
             // Insert one row for the error itself
             insertError.setInt(1, errorId);
@@ -83,11 +133,18 @@ public class SQLErrorStorage {
                 insertInfo.executeBatch();
             }
             errorId += 1;
+            countError(error);
         } catch (SQLException ex) {
             throw new StorageException(ex);
         }
     }
 
+    private void countError (NewGTFSError error) {
+        errorCount += 1;
+        errorCountByType.merge(error.errorType, 1, Integer::sum);
+        errorCountByEntityType.merge(error.entityType == null ? null : error.entityType.getSimpleName(), 1, Integer::sum);
+    }
+
     public void storeErrors (Set<NewGTFSError> errors) {
         for (NewGTFSError error : errors) {
             storeError(error);
@@ -95,18 +152,75 @@ public class SQLErrorStorage {
     }
 
     /**
-     * Commits any outstanding error inserts and returns the error count via a SQL query.
+     * @return the number of errors in the errors table, including any that have been stored but not yet inserted.
+     * This is counted as errors are stored, so it does not commit or query the database.
+     */
+    public synchronized int getErrorCount () {
+        return errorCount;
+    }
+
+    /**
+     * @return the number of errors of each type (see {@link #getErrorCount()}).
+     */
+    public synchronized Map<NewGTFSErrorType, Integer> getErrorCountByType () {
+        return new HashMap<>(errorCountByType);
+    }
+
+    /**
+     * @return the number of errors for each entity type, keyed on the entity type's simple class name as stored in the
+     * entity_type column, e.g., "StopTime" (see {@link #getErrorCount()}). Errors without an entity type have a null key.
      */
-    public int getErrorCount () {
+    public synchronized Map<String, Integer> getErrorCountByEntityType () {
+        return new HashMap<>(errorCountByEntityType);
+    }
+
+    /**
+     * Insert and commit all errors stored so far, so that they are visible to other connections. If a background
+     * writer is in use, this waits until it has committed them.
+     */
+    public void flush () {
+        if (backgroundWriter != null) backgroundWriter.awaitWritten(getErrorIdForFlush());
+        else synchronized (this) { this.commit(); }
+    }
+
+    private synchronized int getErrorIdForFlush () {
+        return errorId;
+    }
+
+    /**
+     * Insert any outstanding errors and recompute the error counts from the errors table. This is needed if the main
+     * connection was rolled back by its owner (e.g., after a fatal error while loading a table), which may discard
+     * errors that were inserted on it but not yet committed.
+     */
+    public void recount () {
+        flush();
+        synchronized (this) {
+            countErrorsInTable(connection);
+        }
+    }
+
+    /**
+     * Set the error counts to the contents of the errors table.
+     */
+    private void countErrorsInTable (Connection connection) {
         try {
-            // Ensure any outstanding inserts are committed so that count is accurate.
-            this.commit();
             Statement statement = connection.createStatement();
-            statement.execute(String.format("select count(*) from %serrors", tablePrefix));
+            statement.execute(String.format(
+                "select error_type, entity_type, count(*) from %serrors group by error_type, entity_type", tablePrefix));
             ResultSet resultSet = statement.getResultSet();
-            resultSet.next();
-            int count = resultSet.getInt(1);
-            return count;
+            errorCount = 0;
+            errorCountByType.clear();
+            errorCountByEntityType.clear();
+            while (resultSet.next()) {
+                int count = resultSet.getInt(3);
+                errorCount += count;
+                try {
+                    errorCountByType.merge(NewGTFSErrorType.valueOf(resultSet.getString(1)), count, Integer::sum);
+                } catch (IllegalArgumentException | NullPointerException e) {
+                    LOG.warn("Unrecognized error type {} in errors table.", resultSet.getString(1));
+                }
+                errorCountByEntityType.merge(resultSet.getString(2), count, Integer::sum);
+            }
         } catch (SQLException ex) {
             throw new StorageException(ex);
         }
@@ -132,9 +246,22 @@ public class SQLErrorStorage {
      */
     public void commitAndClose() {
         LOG.info("Committing errors and closing SQL connection.");
-        this.commit();
-        // Close the connection permanently (should be called only after errorStorage instance no longer needed).
-        DbUtils.closeQuietly(connection);
+        try {
+            if (backgroundWriter != null) {
+                try {
+                    flush();
+                } finally {
+                    // Close the writer connection even if the writer failed.
+                    backgroundWriter.close();
+                }
+            }
+            synchronized (this) {
+                this.commit();
+            }
+        } finally {
+            // Close the connection permanently (should be called only after errorStorage instance no longer needed).
+            DbUtils.closeQuietly(connection);
+        }
     }
 
     private void createErrorTables() {
@@ -158,11 +285,18 @@ public class SQLErrorStorage {
         }
     }
 
-    private void createPreparedStatements () {
+    private PreparedStatement prepareInsertError (Connection connection) {
         try {
-            insertError = connection.prepareStatement(
+            return connection.prepareStatement(
                     String.format("insert into %serrors values (?, ?, ?, ?, ?, ?, ?)", tablePrefix));
-            insertInfo = connection.prepareStatement(
+        } catch (SQLException ex) {
+            throw new StorageException(ex);
+        }
+    }
+
+    private PreparedStatement prepareInsertInfo (Connection connection) {
+        try {
+            return connection.prepareStatement(
                     String.format("insert into %serror_info values (?, ?, ?)", tablePrefix));
         } catch (SQLException ex) {
             throw new StorageException(ex);
@@ -178,9 +312,170 @@ public class SQLErrorStorage {
             errorId = resultSet.getInt(1);
             LOG.info("Reconnected to errors table, max error ID is {}.", errorId);
             errorId += 1; // Error count is zero based, add one to avoid duplicate error key
+            // Errors stored during earlier stages (e.g., while loading the feed) count toward the total.
+            countErrorsInTable(connection);
         } catch (SQLException ex) {
             throw new StorageException(ex);
         }
     }
 
+    /**
+     * Inserts errors handed over by the storing thread on a separate connection, committing after each batch.
+     */
+    private class BackgroundWriter {
+        private final Connection writerConnection;
+        private final PreparedStatement writerInsertError;
+        private final PreparedStatement writerInsertInfo;
+        private final BlockingQueue<QueuedError> queue = new ArrayBlockingQueue<>(BACKGROUND_QUEUE_SIZE);
+        private final Thread thread;
+        // All errors with IDs below this have been committed. Guarded by this writer's monitor.
+        private int writtenErrorId;
+        private Exception failure;
+        private boolean closed = false;
+
+        BackgroundWriter (Connection writerConnection) {
+            this.writerConnection = writerConnection;
+            this.writerInsertError = prepareInsertError(writerConnection);
+            this.writerInsertInfo = prepareInsertInfo(writerConnection);
+            this.writtenErrorId = errorId;
+            thread = new Thread(this::run, "error-writer-" + tablePrefix);
+            thread.setDaemon(true);
+            thread.start();
+        }
+
+        void enqueue (int id, NewGTFSError error) {
+            put(new QueuedError(id, error));
+        }
+
+        private void put (QueuedError queuedError) {
+            throwIfFailed();
+            try {
+                // Poll so that a failed writer is noticed rather than blocking forever on a full queue.
+                while (!queue.offer(queuedError, 100, TimeUnit.MILLISECONDS)) {
+                    throwIfFailed();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new StorageException(e);
+            }
+        }
+
+        private void run () {
+            List<QueuedError> batch = new ArrayList<>(BACKGROUND_BATCH_SIZE);
+            try {
+                while (true) {
+                    batch.add(queue.take());
+                    queue.drainTo(batch, BACKGROUND_BATCH_SIZE - 1);
+                    for (QueuedError queuedError : batch) {
+                        if (queuedError == QueuedError.END) {
+                            write(batch.subList(0, batch.indexOf(QueuedError.END)));
+                            return;
+                        }
+                    }
+                    write(batch);
+                    batch.clear();
+                }
+            } catch (Exception e) {
+                LOG.error("Background error writer failed.", e);
+                synchronized (this) {
+                    failure = e;
+                    notifyAll();
+                }
+                // Let a storing thread that is blocked on a full queue move on.
+                queue.clear();
+            }
+        }
+
+        private void write (List<QueuedError> batch) throws SQLException {
+            if (batch.isEmpty()) return;
+            for (QueuedError queuedError : batch) {
+                NewGTFSError error = queuedError.error;
+                writerInsertError.setInt(1, queuedError.id);
+                writerInsertError.setString(2, error.errorType.name());
+                writerInsertError.setObject(3, error.entityType == null ? null : error.entityType.getSimpleName());
+                writerInsertError.setObject(4, error.lineNumber);
+                writerInsertError.setObject(5, error.entityId);
+                writerInsertError.setObject(6, error.entitySequenceNumber);
+                writerInsertError.setObject(7, error.badValue);
+                writerInsertError.addBatch();
+                for (Map.Entry<String, String> entry : error.errorInfo.entrySet()) {
+                    writerInsertInfo.setInt(1, queuedError.id);
+                    writerInsertInfo.setString(2, entry.getKey());
+                    writerInsertInfo.setString(3, entry.getValue());
+                    writerInsertInfo.addBatch();
+                }
+            }
+            writerInsertError.executeBatch();
+            writerInsertInfo.executeBatch();
+            writerConnection.commit();
+            synchronized (this) {
+                writtenErrorId = batch.get(batch.size() - 1).id + 1;
+                notifyAll();
+            }
+        }
+
+        /** Wait until all errors with IDs below the supplied one have been committed. */
+        synchronized void awaitWritten (int errorId) {
+            while (writtenErrorId < errorId) {
+                throwIfFailed();
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new StorageException(e);
+                }
+            }
+        }
+
+        private synchronized void throwIfFailed () {
+            if (failure != null) throw new StorageException(failure);
+            if (closed) throw new IllegalStateException("Background error writer is closed.");
+        }
+
+        /**
+         * Stop the writer thread once it has written everything already queued, and close its connection. The
+         * connection is closed even if the writer has failed, in which case the failure is thrown afterward.
+         */
+        void close () {
+            synchronized (this) {
+                if (closed) return;
+            }
+            try {
+                // A failed writer has already stopped, so it does not need the end marker (and put would throw).
+                if (!hasFailed()) put(QueuedError.END);
+            } finally {
+                try {
+                    thread.join();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                synchronized (this) {
+                    closed = true;
+                }
+                DbUtils.closeQuietly(writerConnection);
+            }
+            synchronized (this) {
+                if (failure != null) throw new StorageException(failure);
+            }
+        }
+
+        private synchronized boolean hasFailed () {
+            return failure != null;
+        }
+    }
+
+    /** An error waiting to be inserted by the background writer, with the ID it was assigned when stored. */
+    private static class QueuedError {
+        // Marks the end of the queue, so that the writer stops.
+        static final QueuedError END = new QueuedError(-1, null);
+
+        final int id;
+        final NewGTFSError error;
+
+        QueuedError (int id, NewGTFSError error) {
+            this.id = id;
+            this.error = error;
+        }
+    }
+
 }
@@ -1,10 +1,20 @@
 package com.conveyal.gtfs.graphql;
 
 import graphql.GraphQL;
+import graphql.execution.instrumentation.InstrumentationState;
+import graphql.execution.instrumentation.dataloader.DataLoaderDispatcherInstrumentation;
+import graphql.execution.instrumentation.parameters.InstrumentationCreateStateParameters;
+import graphql.schema.DataFetchingEnvironment;
+import org.dataloader.BatchLoader;
+import org.dataloader.DataLoader;
+import org.dataloader.DataLoaderRegistry;
 
 import javax.sql.DataSource;
 import java.sql.Connection;
 import java.sql.SQLException;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
 
 /**
  * This provides a GraphQL API around the gtfs-lib JDBC storage.
@@ -19,13 +29,32 @@ public class GTFSGraphQL {
     // Analysis-backend creates a new GraphQL object on every request.
     private static GraphQL GRAPHQL;
 
+    // The batch loading functions of the fetchers that load the rows for many parent entities at once, by name. Each
+    // execution gets its own data loaders for these functions (see BatchLoadingInstrumentation).
+    private static final Map<String, BatchLoader<?, ?>> batchLoaders = new ConcurrentHashMap<>();
+
     /** Username and password can be null if connecting to a local instance with host-based authentication. */
     public static void initialize (DataSource dataSource) {
         GTFSGraphQL.dataSource = dataSource;
         GRAPHQL = GraphQL.newGraphQL(GraphQLGtfsSchema.feedBasedSchema)
+            // Gives each execution its data loaders and dispatches them at the end of each level of the query, so e.g.
+            // the trips of all the routes in a query are fetched in one SQL query.
+            .instrumentation(new BatchLoadingInstrumentation())
             .build();
     }
 
+    /**
+     * Register a function that loads the values for many keys at once, for which every execution will have a data
+     * loader.
+     * @return the name under which the data loader for the function can be found with
+     * {@link DataFetchingEnvironment#getDataLoader(String)}
+     */
+    public static synchronized <K, V> String registerBatchLoader (BatchLoader<K, V> batchLoader) {
+        String name = "gtfs-loader-" + batchLoaders.size();
+        batchLoaders.put(name, batchLoader);
+        return name;
+    }
+
     public static Connection getConnection() {
         try {
             return dataSource.getConnection();
@@ -34,8 +63,33 @@ public class GTFSGraphQL {
         }
     }
 
+    public static DataSource getDataSource () {
+        return dataSource;
+    }
+
     public static GraphQL getGraphQl () {
         return GRAPHQL;
     }
 
+    /**
+     * Adds a data loader for each of the registered batch loading functions to the data loader registry of every
+     * execution, before the registry is taken up for dispatching. Unless the caller gives an execution a registry of
+     * its own, each execution input has a new registry, so the data loaders (and the rows they cache) last for one
+     * execution only and the execution's context is left to the caller. Data loaders the caller has registered under
+     * the same names are kept.
+     */
+    private static class BatchLoadingInstrumentation extends DataLoaderDispatcherInstrumentation {
+        @Override
+        public InstrumentationState createState (InstrumentationCreateStateParameters parameters) {
+            DataLoaderRegistry dataLoaderRegistry = parameters.getExecutionInput().getDataLoaderRegistry();
+            Set<String> names = dataLoaderRegistry.getKeys();
+            for (Map.Entry<String, BatchLoader<?, ?>> entry : batchLoaders.entrySet()) {
+                if (!names.contains(entry.getKey())) {
+                    dataLoaderRegistry.register(entry.getKey(), DataLoader.newDataLoader(entry.getValue()));
+                }
+            }
+            return super.createState(parameters);
+        }
+    }
+
 }
@@ -1,5 +1,6 @@
 package com.conveyal.gtfs.graphql;
 
+import com.conveyal.gtfs.graphql.fetchers.CursorFetcher;
 import com.conveyal.gtfs.graphql.fetchers.ErrorCountFetcher;
 import com.conveyal.gtfs.graphql.fetchers.FeedFetcher;
 import com.conveyal.gtfs.graphql.fetchers.JDBCFetcher;
@@ -60,6 +61,7 @@ public class GraphQLGtfsSchema {
     public static final GraphQLObjectType agencyType = newObject().name("agency")
             .description("A GTFS agency object")
             .field(MapFetcher.field("id", GraphQLInt))
+            .field(CursorFetcher.field("agency"))
             .field(MapFetcher.field("agency_id"))
             .field(MapFetcher.field("agency_name"))
             .field(MapFetcher.field("agency_url"))
@@ -75,6 +77,7 @@ public class GraphQLGtfsSchema {
     public static final GraphQLObjectType calendarType = newObject()
             .name("calendar")
             .field(MapFetcher.field("id", GraphQLInt))
+            .field(CursorFetcher.field("calendar"))
             .field(MapFetcher.field("service_id"))
             .field(MapFetcher.field("monday", GraphQLInt))
             .field(MapFetcher.field("tuesday", GraphQLInt))
@@ -95,6 +98,7 @@ public class GraphQLGtfsSchema {
     public static final GraphQLObjectType scheduleExceptionType = newObject().name("scheduleException")
             .description("A GTFS Editor schedule exception type")
             .field(MapFetcher.field("id", GraphQLInt))
+            .field(CursorFetcher.field("schedule_exceptions"))
             .field(MapFetcher.field("name"))
             .field(MapFetcher.field("exemplar", GraphQLInt))
             .field(MapFetcher.field("dates", stringList))
@@ -119,6 +123,7 @@ public class GraphQLGtfsSchema {
     public static final GraphQLObjectType fareType = newObject().name("fare_attributes")
             .description("A GTFS agency object")
             .field(MapFetcher.field("id", GraphQLInt))
+            .field(CursorFetcher.field("fare_attributes"))
             .field(MapFetcher.field("agency_id"))
             .field(MapFetcher.field("fare_id"))
             .field(MapFetcher.field("price", GraphQLFloat))
@@ -178,6 +183,7 @@ public class GraphQLGtfsSchema {
     public static final GraphQLObjectType tripType = newObject()
             .name("trip")
             .field(MapFetcher.field("id", GraphQLInt))
+            .field(CursorFetcher.field("trips"))
             .field(MapFetcher.field("trip_id"))
             .field(MapFetcher.field("trip_headsign"))
             .field(MapFetcher.field("trip_short_name"))
@@ -244,6 +250,7 @@ public class GraphQLGtfsSchema {
             .field(MapFetcher.field("trip_id"))
             .field(MapFetcher.field("stop_id"))
             .field(MapFetcher.field("stop_sequence", GraphQLInt))
+            .field(CursorFetcher.field("stop_times"))
             .field(MapFetcher.field("arrival_time", GraphQLInt))
             .field(MapFetcher.field("departure_time", GraphQLInt))
             .field(MapFetcher.field("stop_headsign"))
@@ -258,6 +265,7 @@ public class GraphQLGtfsSchema {
     public static final GraphQLObjectType routeType = newObject().name("route")
             .description("A line from a GTFS routes.txt table")
             .field(MapFetcher.field("id", GraphQLInt))
+            .field(CursorFetcher.field("routes"))
             .field(MapFetcher.field("agency_id"))
             .field(MapFetcher.field("route_id"))
             .field(MapFetcher.field("route_short_name"))
@@ -324,6 +332,7 @@ public class GraphQLGtfsSchema {
     public static final GraphQLObjectType stopType = newObject().name("stop")
             .description("A GTFS stop object")
             .field(MapFetcher.field("id", GraphQLInt))
+            .field(CursorFetcher.field("stops"))
             .field(MapFetcher.field("stop_id"))
             .field(MapFetcher.field("stop_name"))
             .field(MapFetcher.field("stop_code"))
@@ -466,6 +475,7 @@ public class GraphQLGtfsSchema {
     public static final GraphQLObjectType patternType = newObject().name("pattern")
             .description("A sequence of stops that characterizes a set of trips on a single route.")
             .field(MapFetcher.field("id", GraphQLInt))
+            .field(CursorFetcher.field("patterns"))
             .field(MapFetcher.field("pattern_id"))
             .field(MapFetcher.field("shape_id"))
             .field(MapFetcher.field("route_id"))
@@ -636,6 +646,7 @@ public class GraphQLGtfsSchema {
                     .argument(intArg(ID_ARG))
                     .argument(intArg(LIMIT_ARG))
                     .argument(intArg(OFFSET_ARG))
+                    .argument(stringArg(AFTER_ARG))
                     .argument(floatArg(MIN_LAT))
                     .argument(floatArg(MIN_LON))
                     .argument(floatArg(MAX_LAT))
@@ -653,6 +664,7 @@ public class GraphQLGtfsSchema {
                     .argument(intArg(ID_ARG))
                     .argument(intArg(LIMIT_ARG))
                     .argument(intArg(OFFSET_ARG))
+                    .argument(stringArg(AFTER_ARG))
                     .dataFetcher(new JDBCFetcher("agency"))
                     .build()
             )
@@ -664,6 +676,7 @@ public class GraphQLGtfsSchema {
                     .argument(intArg(ID_ARG))
                     .argument(intArg(LIMIT_ARG))
                     .argument(intArg(OFFSET_ARG))
+                    .argument(stringArg(AFTER_ARG))
                     .dataFetcher(new JDBCFetcher("calendar"))
                     .build()
             )
@@ -675,6 +688,7 @@ public class GraphQLGtfsSchema {
                     .argument(intArg(ID_ARG))
                     .argument(intArg(LIMIT_ARG))
                     .argument(intArg(OFFSET_ARG))
+                    .argument(stringArg(AFTER_ARG))
                     .dataFetcher(new JDBCFetcher("fare_attributes"))
                     .build()
             )
@@ -687,6 +701,7 @@ public class GraphQLGtfsSchema {
                     .argument(intArg(ID_ARG))
                     .argument(intArg(LIMIT_ARG))
                     .argument(intArg(OFFSET_ARG))
+                    .argument(stringArg(AFTER_ARG))
                     .dataFetcher(new JDBCFetcher("routes"))
                     .build()
             )
@@ -704,6 +719,7 @@ public class GraphQLGtfsSchema {
                     .argument(intArg(ID_ARG))
                     .argument(intArg(LIMIT_ARG))
                     .argument(intArg(OFFSET_ARG))
+                    .argument(stringArg(AFTER_ARG))
                     .dataFetcher(new JDBCFetcher("stops"))
                     .build()
             )
@@ -719,6 +735,7 @@ public class GraphQLGtfsSchema {
                     .argument(intArg(FROM_ARG))
                     .argument(intArg(TO_ARG))
                     .argument(intArg(OFFSET_ARG))
+                    .argument(stringArg(AFTER_ARG))
                     .dataFetcher(new JDBCFetcher("trips"))
                     .build()
             )
@@ -729,6 +746,7 @@ public class GraphQLGtfsSchema {
                     .argument(intArg(ID_ARG))
                     .argument(intArg(LIMIT_ARG))
                     .argument(intArg(OFFSET_ARG))
+                    .argument(stringArg(AFTER_ARG))
                     .dataFetcher(new JDBCFetcher("schedule_exceptions"))
                     .build()
             )
@@ -738,6 +756,7 @@ public class GraphQLGtfsSchema {
                     .argument(stringArg("namespace"))
                     .argument(intArg(LIMIT_ARG))
                     .argument(intArg(OFFSET_ARG))
+                    .argument(stringArg(AFTER_ARG))
                     .dataFetcher(new JDBCFetcher("stop_times"))
                     .build()
             )
@@ -0,0 +1,98 @@
+package com.conveyal.gtfs.graphql.fetchers;
+
+import com.conveyal.gtfs.loader.Table;
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import graphql.schema.DataFetcher;
+import graphql.schema.DataFetchingEnvironment;
+import graphql.schema.GraphQLFieldDefinition;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import static graphql.Scalars.GraphQLString;
+import static graphql.schema.GraphQLFieldDefinition.newFieldDefinition;
+
+/**
+ * Produces the opaque cursor for a row, which can be passed as the "after" argument of a list field to fetch the rows
+ * that follow it (see {@link JDBCFetcher#AFTER_ARG}). The cursor holds the values of the columns the table is paged on
+ * (see {@link #getKeysetColumns(String)}), so that the next page is found with an index seek rather than by scanning
+ * and discarding all of the preceding rows as with an offset.
+ */
+public class CursorFetcher implements DataFetcher<String> {
+
+    private static final ObjectMapper mapper = new ObjectMapper();
+    private static final TypeReference<List<Object>> VALUE_LIST = new TypeReference<List<Object>>() {};
+
+    private final List<String> keysetColumns;
+
+    public CursorFetcher (String tableName) {
+        this.keysetColumns = getKeysetColumns(tableName);
+    }
+
+    @Override
+    public String get (DataFetchingEnvironment environment) {
+        Map<String, Object> row = environment.getSource();
+        List<Object> values = new ArrayList<>();
+        for (String column : keysetColumns) values.add(row.get(column));
+        return encode(values);
+    }
+
+    /** A "cursor" field for the rows of the given table. */
+    public static GraphQLFieldDefinition field (String tableName) {
+        return newFieldDefinition()
+                .name("cursor")
+                .type(GraphQLString)
+                .dataFetcher(new CursorFetcher(tableName))
+                .build();
+    }
+
+    /**
+     * @return the columns on which rows of the table are ordered and paged: the key and sequence fields for tables whose
+     * rows are grouped in sequences (e.g. trip_id and stop_sequence for stop_times), which are indexed when the feed is
+     * loaded, or otherwise the unique integer ID.
+     */
+    static List<String> getKeysetColumns (String tableName) {
+        for (Table table : Table.tablesInOrder) {
+            if (!table.name.equals(tableName)) continue;
+            String orderField = table.getOrderFieldName();
+            // Compound keys (e.g. transfers) are not unique, so they cannot be used to page through the rows.
+            if (orderField != null && orderField.endsWith("_sequence")) {
+                return Arrays.asList(table.getKeyFieldName(), orderField);
+            }
+        }
+        return Collections.singletonList("id");
+    }
+
+    static String encode (List<Object> values) {
+        try {
+            return Base64.getUrlEncoder().withoutPadding().encodeToString(mapper.writeValueAsBytes(values));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * @param expectedSize the number of values expected in the cursor, i.e. the number of keyset columns
+     * @throws IllegalArgumentException if the cursor was not produced by this class for the same table
+     */
+    static List<Object> decode (String cursor, int expectedSize) {
+        List<Object> values;
+        try {
+            byte[] json = Base64.getUrlDecoder().decode(cursor.getBytes(StandardCharsets.UTF_8));
+            values = mapper.readValue(json, VALUE_LIST);
+        } catch (IllegalArgumentException | IOException e) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor, e);
+        }
+        if (values == null || values.size() != expectedSize || values.contains(null)) {
+            throw new IllegalArgumentException("Invalid cursor: " + cursor);
+        }
+        return values;
+    }
+}
@@ -2,18 +2,20 @@ package com.conveyal.gtfs.graphql.fetchers;
 
 import com.conveyal.gtfs.graphql.GTFSGraphQL;
 import com.conveyal.gtfs.graphql.GraphQLGtfsSchema;
+import com.conveyal.gtfs.loader.ColumnRegistry;
+import com.conveyal.gtfs.loader.Table;
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
 import graphql.schema.GraphQLFieldDefinition;
 import graphql.schema.GraphQLList;
 import org.apache.commons.dbutils.DbUtils;
+import org.dataloader.DataLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
-import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
@@ -21,9 +23,13 @@ import java.util.Collection;
 import java.util.Collections;
 import java.util.HashMap;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 import java.util.stream.Collectors;
 import java.util.stream.Stream;
 
@@ -33,18 +39,34 @@ import static graphql.schema.GraphQLFieldDefinition.newFieldDefinition;
 
 /**
  * A generic fetcher to get fields out of an SQL database table.
+ *
+ * When nested within another GTFS entity, the fetcher returns a future and the rows for all of the parent entities at
+ * the same level of the query are fetched together when the level is complete (see {@link #loadBatch(List)}), rather
+ * than with one query per parent entity.
  */
-public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
+public class JDBCFetcher implements DataFetcher<Object> {
 
     public static final Logger LOG = LoggerFactory.getLogger(JDBCFetcher.class);
 
     // Make this an option to the GraphQL query.
     private static final int DEFAULT_ROWS_TO_FETCH = 50;
     private static final int MAX_ROWS_TO_FETCH = 500;
+    // When fetching the rows for many parent entities at once, the columns holding the position of each row in the
+    // order the rows would be fetched for a single parent, the value each row was joined on, the parent entity each row
+    // belongs to and the position of each row among the rows for that parent.
+    private static final String ROW_ORDER_COLUMN = "batch_row_order";
+    private static final String JOIN_VALUE_COLUMN = "batch_join_value";
+    private static final String PARENT_COLUMN = "batch_parent";
+    private static final String ROW_NUMBER_COLUMN = "row_number_for_parent";
+    private static final List<String> BATCH_COLUMNS =
+        Arrays.asList(ROW_ORDER_COLUMN, JOIN_VALUE_COLUMN, PARENT_COLUMN, ROW_NUMBER_COLUMN);
     // Symbolic constants for argument names used to prevent misspellings.
     public static final String ID_ARG = "id";
     public static final String LIMIT_ARG = "limit";
     public static final String OFFSET_ARG = "offset";
+    // An opaque cursor from the row after which to start (see CursorFetcher). Providing the argument, even as an empty
+    // string to fetch the first page, orders the rows on the table's keyset columns.
+    public static final String AFTER_ARG = "after";
     public static final String SEARCH_ARG = "search";
     public static final String DATE_ARG = "date";
     public static final String FROM_ARG = "from";
@@ -53,15 +75,12 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
     public static final String MIN_LON = "minLon";
     public static final String MAX_LAT = "maxLat";
     public static final String MAX_LON = "maxLon";
-    // Lists of column names to be used when searching for string matches in the respective tables.
-    private static final String[] stopSearchColumns = new String[]{"stop_id", "stop_code", "stop_name"};
-    private static final String[] routeSearchColumns = new String[]{"route_id", "route_short_name", "route_long_name"};
     // The following lists of arguments are considered non-standard, i.e., they are not handled by filtering entities
     // with a simple WHERE clause. They are all bundled together in argsToSkip as a convenient way to pass over them
     // when constructing said WHERE clause.
     private static final List<String> boundingBoxArgs = Arrays.asList(MIN_LAT, MIN_LON, MAX_LAT, MAX_LON);
     private static final List<String> dateTimeArgs = Arrays.asList("date", "from", "to");
-    private static final List<String> otherNonStandardArgs = Arrays.asList(SEARCH_ARG, LIMIT_ARG, OFFSET_ARG);
+    private static final List<String> otherNonStandardArgs = Arrays.asList(SEARCH_ARG, LIMIT_ARG, OFFSET_ARG, AFTER_ARG);
     private static final List<String> argsToSkip = Stream.of(boundingBoxArgs, dateTimeArgs, otherNonStandardArgs)
             .flatMap(Collection::stream)
             .collect(Collectors.toList());
@@ -69,7 +88,10 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
     final String parentJoinField;
     private final String sortField;
     private final boolean autoLimit;
-    private final String childJoinField;
+    final String childJoinField;
+    // The name of the data loader that loads the rows for many parent entities at once (see
+    // GTFSGraphQL#registerBatchLoader). Null for fetchers that are not nested within other entities.
+    private final String dataLoaderName;
 
     /**
      * Constructor for tables that need neither restriction by a where clause nor sorting based on the enclosing entity.
@@ -113,6 +135,7 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
         this.sortField = sortField;
         this.autoLimit = autoLimit;
         this.childJoinField = childJoinField != null ? childJoinField : parentJoinField;
+        this.dataLoaderName = parentJoinField != null ? GTFSGraphQL.registerBatchLoader(this::loadBatch) : null;
     }
 
     // We can't automatically generate JDBCFetcher based field definitions for inclusion in a GraphQL schema (as we
@@ -139,11 +162,39 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
     // Unfortunately we can't just apply DataFetchers directly to the ResultSets because they're cursors, and we'd
     // have to somehow advance them at the right moment. So we need to transform the SQL results into fully materialized
     // Java objects, then transform those into GraphQL fields. Fortunately the final transformation is trivial fetching
-    // from a Map<String, Object>.
+    // from a Map<String, Object>. To keep that step cheap for long lists (e.g. stop times or shape points), each row
+    // is an array of values behind a Map interface (ResultRow), sharing the column names with the other rows.
     // But what are the internal GraphQL objects, i.e. what does an ExecutionResult return? Are they Map<String, Object>?
 
     @Override
-    public List<Map<String, Object>> get (DataFetchingEnvironment environment) {
+    public Object get (DataFetchingEnvironment environment) {
+        if (parentJoinField == null) return getResults(environment);
+        return loadResults(environment);
+    }
+
+    /**
+     * Fetch the rows for the enclosing entity. If we are fetching an item nested within a GTFS entity in the GraphQL
+     * query, the join value is queued and fetched along with those of the other entities at the same level of the
+     * query (unless the execution has no data loader for this fetcher, in which case the rows are fetched right away).
+     */
+    public CompletionStage<List<Map<String, Object>>> loadResults (DataFetchingEnvironment environment) {
+        DataLoader<BatchKey, List<Map<String, Object>>> dataLoader =
+            dataLoaderName != null ? environment.getDataLoader(dataLoaderName) : null;
+        Map<String, Object> enclosingEntity = environment.getSource();
+        Object parentJoinValue = parentJoinField != null ? enclosingEntity.get(parentJoinField) : null;
+        // Check for null parentJoinValue to protect against NPE.
+        if (dataLoader == null || parentJoinValue == null) {
+            return CompletableFuture.completedFuture(getResults(environment));
+        }
+        String namespace = (String) enclosingEntity.get("namespace");
+        return dataLoader.load(new BatchKey(namespace, parentJoinValue.toString(), environment.getArguments()));
+    }
+
+    /**
+     * Fetch the rows for the enclosing entity right away, rather than along with those of the other entities at the
+     * same level of the query.
+     */
+    public List<Map<String, Object>> getResults (DataFetchingEnvironment environment) {
         // GetSource is the context in which this this DataFetcher has been created, in this case a map representing
         // the parent feed (FeedFetcher).
         Map<String, Object> parentEntityMap = environment.getSource();
@@ -161,21 +212,65 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
         // clause using the values found here. Note, these are used in the below getResults call.
         List<String> parentJoinValues = new ArrayList<>();
         if (parentJoinField != null) {
-            Map<String, Object> enclosingEntity = environment.getSource();
-            // FIXME: THIS IS BROKEN if parentJoinValue is null!!!!
-            Object parentJoinValue = enclosingEntity.get(parentJoinField);
+            Object parentJoinValue = parentEntityMap.get(parentJoinField);
             // Check for null parentJoinValue to protect against NPE.
-            String parentJoinString = parentJoinValue == null ? null : parentJoinValue.toString();
-            parentJoinValues.add(parentJoinString);
             if (parentJoinValue == null) {
                 return new ArrayList<>();
             }
+            parentJoinValues.add(parentJoinValue.toString());
         }
         Map<String, Object> arguments = environment.getArguments();
 
         return getResults(namespace, parentJoinValues, arguments);
     }
 
+    /**
+     * Fetch the rows for a batch of parent entities, with one query for each namespace and set of arguments (i.e. one
+     * query in all, unless the GraphQL query uses aliases to fetch the same field with different arguments).
+     * @return the rows for each key, in the same order as the keys
+     */
+    private CompletionStage<List<List<Map<String, Object>>>> loadBatch (List<BatchKey> keys) {
+        Map<List<Object>, Set<String>> joinValuesForGroup = BatchKey.getJoinValuesForGroup(keys);
+        Map<List<Object>, Map<String, List<Map<String, Object>>>> resultsForGroup = new HashMap<>();
+        List<List<Map<String, Object>>> results = new ArrayList<>();
+        for (BatchKey key : keys) {
+            Map<String, List<Map<String, Object>>> resultsForParent = resultsForGroup.computeIfAbsent(
+                key.getGroup(),
+                group -> {
+                    // Each parent entity is joined on its own join value.
+                    Map<String, Set<String>> parentsForJoinValue = new LinkedHashMap<>();
+                    for (String joinValue : joinValuesForGroup.get(group)) {
+                        parentsForJoinValue.put(joinValue, Collections.singleton(joinValue));
+                    }
+                    return getResultsForParents(key.namespace, parentsForJoinValue, key.arguments);
+                }
+            );
+            results.add(resultsForParent.getOrDefault(key.joinValue, new ArrayList<>()));
+        }
+        return CompletableFuture.completedFuture(results);
+    }
+
+    /**
+     * Fetch the rows for many parent entities at once, where each parent entity is joined on one or more join values
+     * (e.g., a stop joined to the routes of all the patterns that serve it). The limit and offset arguments are applied
+     * in the database to the rows for each parent entity separately, as if each parent had been fetched with a query
+     * of its own.
+     * @param parentsForJoinValue the parent entities joined on each join value
+     * @return the rows for each parent entity, in the order in which they would have been fetched for that parent
+     */
+    Map<String, List<Map<String, Object>>> getResultsForParents (
+        String namespace,
+        Map<String, ? extends Collection<String>> parentsForJoinValue,
+        Map<String, Object> graphQLQueryArguments
+    ) {
+        Map<String, List<Map<String, Object>>> resultsForParent = new HashMap<>();
+        List<String> joinValues = new ArrayList<>(parentsForJoinValue.keySet());
+        for (ResultRow result : getResults(namespace, joinValues, graphQLQueryArguments, parentsForJoinValue)) {
+            resultsForParent.computeIfAbsent(result.getBatchParent(), parent -> new ArrayList<>()).add(result);
+        }
+        return resultsForParent;
+    }
+
     /**
      * Handle fetching functionality for a given namespace, set of join values, and arguments. This is broken out from
      * the standard get function so that it can be reused in other fetchers (i.e., NestedJdbcFetcher)
@@ -185,10 +280,25 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
         List<String> parentJoinValues,
         Map<String, Object> graphQLQueryArguments
     ) {
-        // Track the parameters for setting prepared statement parameters
-        List<String> preparedStatementParameters = new ArrayList<>();
+        return new ArrayList<>(getResults(namespace, parentJoinValues, graphQLQueryArguments, null));
+    }
+
+    /**
+     * @param parentsForJoinValue if not null, the parent entities joined on each join value. The limit and offset then
+     *                            apply to the rows for each parent entity separately, and each row records its parent.
+     */
+    private List<ResultRow> getResults (
+        String namespace,
+        List<String> parentJoinValues,
+        Map<String, Object> graphQLQueryArguments,
+        Map<String, ? extends Collection<String>> parentsForJoinValue
+    ) {
+        boolean limitPerParent = parentsForJoinValue != null;
+        // Track the parameters for setting prepared statement parameters (strings, or string arrays for any clauses, or
+        // the numbers in a cursor).
+        List<Object> preparedStatementParameters = new ArrayList<>();
         // This will contain one Map<String, Object> for each row fetched from the database table.
-        List<Map<String, Object>> results = new ArrayList<>();
+        List<ResultRow> results = new ArrayList<>();
         if (graphQLQueryArguments == null) graphQLQueryArguments = new HashMap<>();
         // Ensure namespace exists and is clean. Note: FeedFetcher will have executed before this and validated that an
         // entry exists in the feeds table and the schema actually exists in the database.
@@ -203,6 +313,17 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
         // By default, select only from the primary table. Other tables may be added to this list to handle joins.
         fromTables.add(String.join(".", namespace, tableName));
         sqlBuilder.append("select *");
+        if (limitPerParent) {
+            // Number the rows in the order they would be fetched for a single parent (by ID if there is no sort field),
+            // and label each with its join value, which the rows are matched to their parents on below.
+            sqlBuilder.append(String.format(
+                ", row_number() over (order by %s) as %s, %s as %s",
+                sortField != null ? sortField : String.join(".", namespace, tableName, "id"),
+                ROW_ORDER_COLUMN,
+                String.join(".", namespace, tableName, childJoinField),
+                JOIN_VALUE_COLUMN
+            ));
+        }
 
         // We will build up additional sql clauses in this List (note: must be a List so that the order is preserved).
         List<String> whereConditions = new ArrayList<>();
@@ -214,9 +335,15 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
         if (childJoinField != null && parentJoinValues != null && !parentJoinValues.isEmpty()) {
             // Ensure that child join field exists in join table.
             if (filterByExistingColumns(namespace, childJoinField).contains(childJoinField)) {
-                whereConditions.add(
-                    makeInClause(childJoinField, parentJoinValues, preparedStatementParameters)
-                );
+                if (limitPerParent) {
+                    // Pass all of the join values as a single array parameter.
+                    whereConditions.add(String.format("%s = any(?)", childJoinField));
+                    preparedStatementParameters.add(parentJoinValues.toArray(new String[0]));
+                } else {
+                    whereConditions.add(
+                        makeInClause(childJoinField, parentJoinValues, preparedStatementParameters)
+                    );
+                }
             } else {
                 // If the child join field does not exist, a query with the where clause would
                 // result in a SQL exception. If we omitted the where clause, we would query for
@@ -270,6 +397,17 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
                 String fieldWithNamespace = String.join(".", namespace, "stops", field);
                 boundsConditions.add(String.join(delimiter, fieldWithNamespace, value.toString()));
             }
+            // The same bounds as a box containing the stop location, which uses the spatial index on stops (see
+            // Table#addSpatialIndex). PostgreSQL's geometric operators allow for a tiny rounding error, so the exact
+            // range conditions above are kept as well.
+            boundsConditions.add(String.format(
+                "point(%1$s.stops.stop_lon, %1$s.stops.stop_lat) <@ box(point(%2$s, %3$s), point(%4$s, %5$s))",
+                namespace,
+                graphQLQueryArguments.get(MIN_LON),
+                graphQLQueryArguments.get(MIN_LAT),
+                graphQLQueryArguments.get(MAX_LON),
+                graphQLQueryArguments.get(MAX_LAT)
+            ));
             if ("stops".equals(tableName)) {
                 whereConditions.addAll(boundsConditions);
             } else if ("patterns".equals(tableName)) {
@@ -293,119 +431,194 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
             String tripsTable = String.format("%s.trips", namespace);
             fromTables.add(tripsTable);
             String date = getDateArgument(graphQLQueryArguments);
-            // Gather all service IDs that run on the provided date.
-            fromTables.add(String.format(
-                    "(select distinct service_id from %s.service_dates where service_date = ?) as unique_service_ids_in_operation",
-                    namespace)
-            );
-            // Add date to beginning of parameters list (it is used to pre-select a table in the from clause before any
-            // other conditions or parameters are appended).
-            preparedStatementParameters.add(0, date);
-            if (argumentKeys.contains(FROM_ARG) && argumentKeys.contains(TO_ARG)) {
-                // Determine which trips start in the specified time window by joining to filtered stop times.
-                String timeFilteredTrips = "trips_beginning_in_time_period";
-                whereConditions.add(String.format("%s.trip_id = %s.trip_id", timeFilteredTrips, tripsTable));
-                // Select all trip IDs that start during the specified time window. Note: the departure and arrival times
-                // are divided by 86399 to account for trips that begin after midnight. FIXME: Should this be 86400?
+            boolean filterByTime = argumentKeys.contains(FROM_ARG) && argumentKeys.contains(TO_ARG);
+            if (filterByTime && tableExists(namespace, "trip_spans")) {
+                // Select the trips on the services running on the date that start during the specified time window from
+                // the first departure times found during validation, using the index on trip_spans rather than scanning
+                // the stop times. Note: the departure times are divided by 86399 to account for trips that begin after
+                // midnight. FIXME: Should this be 86400?
+                whereConditions.add(String.format(
+                    "%s.trip_id in (select trip_id from %s.trip_spans " +
+                    "where service_id in (select service_id from %s.service_dates where service_date = ?) " +
+                    "and first_departure_time %% 86399 >= %d and first_departure_time %% 86399 <= %d)",
+                    tripsTable,
+                    namespace,
+                    namespace,
+                    (int) graphQLQueryArguments.get(FROM_ARG),
+                    (int) graphQLQueryArguments.get(TO_ARG)
+                ));
+                preparedStatementParameters.add(date);
+            } else {
+                // Filter by date only, or by time for feeds validated before the trip_spans table was added.
+                // Gather all service IDs that run on the provided date.
                 fromTables.add(String.format(
-                        "(select trip_id " +
-                        "from (select distinct on (trip_id) * from %s.stop_times order by trip_id, stop_sequence) as first_stop_times " +
-                        "where departure_time %% 86399 >= %d and departure_time %% 86399 <= %d) as %s",
-                        namespace,
-                        (int) graphQLQueryArguments.get(FROM_ARG),
-                        (int) graphQLQueryArguments.get(TO_ARG),
-                        timeFilteredTrips));
+                        "(select distinct service_id from %s.service_dates where service_date = ?) as unique_service_ids_in_operation",
+                        namespace)
+                );
+                // Add date to beginning of parameters list (it is used to pre-select a table in the from clause before any
+                // other conditions or parameters are appended).
+                preparedStatementParameters.add(0, date);
+                if (filterByTime) {
+                    // Determine which trips start in the specified time window by joining to filtered stop times.
+                    String timeFilteredTrips = "trips_beginning_in_time_period";
+                    whereConditions.add(String.format("%s.trip_id = %s.trip_id", timeFilteredTrips, tripsTable));
+                    // Select all trip IDs that start during the specified time window. Note: the departure and arrival times
+                    // are divided by 86399 to account for trips that begin after midnight. FIXME: Should this be 86400?
+                    fromTables.add(String.format(
+                            "(select trip_id " +
+                            "from (select distinct on (trip_id) * from %s.stop_times order by trip_id, stop_sequence) as first_stop_times " +
+                            "where departure_time %% 86399 >= %d and departure_time %% 86399 <= %d) as %s",
+                            namespace,
+                            (int) graphQLQueryArguments.get(FROM_ARG),
+                            (int) graphQLQueryArguments.get(TO_ARG),
+                            timeFilteredTrips));
+                }
+                // Join trips to service_dates (unique_service_ids_in_operation).
+                whereConditions.add(String.format("%s.service_id = unique_service_ids_in_operation.service_id", tripsTable));
             }
-            // Join trips to service_dates (unique_service_ids_in_operation).
-            whereConditions.add(String.format("%s.service_id = unique_service_ids_in_operation.service_id", tripsTable));
         }
+        // An expression ranking the matches of a string search, used to order the rows if nothing else does, and the
+        // parameters for the expression.
+        String searchRank = null;
+        List<Object> searchRankParameters = new ArrayList<>();
         if (argumentKeys.contains(SEARCH_ARG)) {
             // Handle string search argument
             String value = (String) graphQLQueryArguments.get(SEARCH_ARG);
             // Only apply string search if string is not empty.
             if (!value.isEmpty()) {
                 // Determine which search columns exist in database table (to avoid "column does not
-                // exist" postgres exception).
-                String[] searchColumns = new String[]{};
-                switch (tableName) {
-                    case "stops":
-                        searchColumns = stopSearchColumns;
-                        break;
-                    case "routes":
-                        searchColumns = routeSearchColumns;
-                        break;
-                    // TODO: add string search on other tables? For example, trips: id, headway;
-                    //  agency: name; patterns: name.
-                    default:
-                        // Search columns will be an empty set, which will ultimately return an empty set.
-                        break;
-                }
-                Set<String> searchFields = filterByExistingColumns(namespace, searchColumns);
+                // exist" postgres exception). Tables without search fields (e.g., trips) will ultimately return an
+                // empty set. TODO: add string search on other tables? For example, trips: id, headway;
+                //  agency: name; patterns: name.
+                Set<String> searchFields = filterByExistingColumns(namespace, getSearchFields(tableName));
                 List<String> searchClauses = new ArrayList<>();
+                List<String> rankClauses = new ArrayList<>();
                 for (String field : searchFields) {
-                    // Double percent signs format as single percents, which are used for the string matching.
+                    // Double percent signs format as single percents, which are used for the string matching. If the
+                    // feed has search indexes (see SearchIndexer), ILIKE uses the trigram index on the field.
                     // FIXME: is ILIKE compatible with non-Postgres? LIKE doesn't work well enough (even when setting
                     // the strings to lower case).
                     searchClauses.add(String.format("%s ILIKE ?", field));
                     preparedStatementParameters.add(String.format("%%%s%%", value));
+                    // Exact matches rank first, then matches at the start of the field, then any other matches.
+                    rankClauses.add(String.format("case when lower(%s) = lower(?) then 0 when %s ILIKE ? then 1 else 2 end",
+                        field, field));
+                    searchRankParameters.add(value);
+                    searchRankParameters.add(String.format("%s%%", value));
                 }
                 if (!searchClauses.isEmpty()) {
                     // Wrap string search in parentheses to isolate from other conditions.
                     whereConditions.add(String.format(("(%s)"), String.join(" OR ", searchClauses)));
+                    searchRank = String.format("least(%s)", String.join(", ", rankClauses));
                 }
             }
         }
+        if (argumentKeys.contains(AFTER_ARG)) {
+            // Page on the keyset columns, which replace any sort field so that the rows are in cursor order.
+            List<String> keysetColumns = new ArrayList<>();
+            for (String column : CursorFetcher.getKeysetColumns(tableName)) {
+                keysetColumns.add(String.join(".", namespace, tableName, column));
+            }
+            String cursor = (String) graphQLQueryArguments.get(AFTER_ARG);
+            if (cursor != null && !cursor.isEmpty()) {
+                // A row comparison, which PostgreSQL can use to seek directly to the first row in the index.
+                whereConditions.add(String.format(
+                    "(%s) > (%s)",
+                    String.join(", ", keysetColumns),
+                    String.join(", ", Collections.nCopies(keysetColumns.size(), "?"))
+                ));
+                preparedStatementParameters.addAll(CursorFetcher.decode(cursor, keysetColumns.size()));
+            }
+            sortBy = String.format(" order by %s", String.join(", ", keysetColumns));
+        }
+        if (searchRank != null && sortBy.isEmpty() && !limitPerParent) {
+            // Order the best matches first, by ID within the same rank. The rank parameters follow those of the where
+            // clause.
+            sortBy = String.format(" order by %s, %s", searchRank, String.join(".", namespace, tableName, "id"));
+            preparedStatementParameters.addAll(searchRankParameters);
+        }
         sqlBuilder.append(String.format(" from %s", String.join(", ", fromTables)));
         if (!whereConditions.isEmpty()) {
             sqlBuilder.append(" where ");
             sqlBuilder.append(String.join(" and ", whereConditions));
         }
-        // The default value for sortBy is an empty string, so it's safe to always append it here. Also, there is no
-        // threat of SQL injection because the sort field value is not user input.
-        sqlBuilder.append(sortBy);
-        Integer limit = (Integer) graphQLQueryArguments.get(LIMIT_ARG);
-        if (limit == null) {
-            limit = autoLimit ? DEFAULT_ROWS_TO_FETCH : -1;
-        }
-        if (limit > MAX_ROWS_TO_FETCH) {
-            limit = MAX_ROWS_TO_FETCH;
-        }
-        if (limit == -1) {
-            // Do not append limit if explicitly set to -1 or autoLimit is disabled. NOTE: this conditional block is
-            // empty simply because it is clearer to define the condition in this way (vs. if limit > 0).
-            // FIXME: Skipping limit is not scalable in many cases and should possibly be removed/limited.
-        } else {
-            sqlBuilder.append(" limit ").append(limit);
-        }
+        int limit = getLimit(graphQLQueryArguments);
         Integer offset = (Integer) graphQLQueryArguments.get(OFFSET_ARG);
-        if (offset != null && offset >= 0) {
-            sqlBuilder.append(" offset ").append(offset);
+        if (limitPerParent) {
+            // Match the rows to their parent entities on their join values, number the rows for each parent in order
+            // and apply the limit and offset to those numbers. The rows for each parent are in order, although the rows
+            // for different parents are interleaved.
+            List<String> joinValues = new ArrayList<>();
+            List<String> parents = new ArrayList<>();
+            for (Map.Entry<String, ? extends Collection<String>> entry : parentsForJoinValue.entrySet()) {
+                for (String parent : entry.getValue()) {
+                    joinValues.add(entry.getKey());
+                    parents.add(parent);
+                }
+            }
+            int rowsToSkip = offset != null && offset >= 0 ? offset : 0;
+            sqlBuilder.insert(0, String.format(
+                "select * from (select batch_rows.*, batch_parents.parent as %s, " +
+                "row_number() over (partition by batch_parents.parent order by batch_rows.%s) as %s from (",
+                PARENT_COLUMN,
+                ROW_ORDER_COLUMN,
+                ROW_NUMBER_COLUMN
+            ));
+            sqlBuilder.append(String.format(
+                ") as batch_rows join unnest(?, ?) as batch_parents(join_value, parent) " +
+                "on batch_rows.%s = batch_parents.join_value) as numbered_rows where %s > %d",
+                JOIN_VALUE_COLUMN,
+                ROW_NUMBER_COLUMN,
+                rowsToSkip
+            ));
+            if (limit != -1) {
+                sqlBuilder.append(String.format(" and %s <= %d", ROW_NUMBER_COLUMN, rowsToSkip + limit));
+            }
+            sqlBuilder.append(" order by ").append(ROW_NUMBER_COLUMN);
+            preparedStatementParameters.add(joinValues.toArray(new String[0]));
+            preparedStatementParameters.add(parents.toArray(new String[0]));
+        } else {
+            // The default value for sortBy is an empty string, so it's safe to always append it here. Also, there is
+            // no threat of SQL injection because the sort field value is not user input.
+            sqlBuilder.append(sortBy);
+            if (limit == -1) {
+                // Do not append limit if explicitly set to -1 or autoLimit is disabled. NOTE: this conditional block is
+                // empty simply because it is clearer to define the condition in this way (vs. if limit > 0).
+                // FIXME: Skipping limit is not scalable in many cases and should possibly be removed/limited.
+            } else {
+                sqlBuilder.append(" limit ").append(limit);
+            }
+            if (offset != null && offset >= 0) {
+                sqlBuilder.append(" offset ").append(offset);
+            }
         }
         Connection connection = null;
         try {
             connection = GTFSGraphQL.getConnection();
             PreparedStatement preparedStatement = connection.prepareStatement(sqlBuilder.toString());
             int oneBasedIndex = 1;
-            for (String parameter : preparedStatementParameters) {
-                preparedStatement.setString(oneBasedIndex++, parameter);
+            for (Object parameter : preparedStatementParameters) {
+                if (parameter instanceof String[]) {
+                    preparedStatement.setArray(oneBasedIndex++, connection.createArrayOf("varchar", (String[]) parameter));
+                } else if (parameter instanceof String) {
+                    preparedStatement.setString(oneBasedIndex++, (String) parameter);
+                } else {
+                    // Numeric keyset values from a cursor.
+                    preparedStatement.setObject(oneBasedIndex++, parameter);
+                }
             }
             // This logging produces a lot of noise during testing due to large numbers of joined sub-queries
 //            LOG.info("table name={}", tableName);
             LOG.info("SQL: {}", preparedStatement.toString());
             if (preparedStatement.execute()) {
                 ResultSet resultSet = preparedStatement.getResultSet();
-                ResultSetMetaData meta = resultSet.getMetaData();
-                int nColumns = meta.getColumnCount();
+                // The column names are looked up once and shared by the maps for all of the rows.
+                ResultRow.Columns columns =
+                    new ResultRow.Columns(resultSet.getMetaData(), BATCH_COLUMNS, PARENT_COLUMN);
                 // Iterate over result rows
                 while (resultSet.next()) {
-                    // Create a Map to hold the contents of this row, injecting the sql schema namespace into every map
-                    Map<String, Object> resultMap = new HashMap<>();
-                    resultMap.put("namespace", namespace);
-                    // One-based iteration: start at one and use <=.
-                    for (int i = 1; i <= nColumns; i++) {
-                        resultMap.put(meta.getColumnName(i), resultSet.getObject(i));
-                    }
-                    results.add(resultMap);
+                    // Create a Map holding the contents of this row, injecting the sql schema namespace into every map
+                    results.add(columns.readRow(resultSet, namespace));
                 }
             }
         } catch (SQLException e) {
@@ -418,6 +631,21 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
         return results;
     }
 
+    /**
+     * @return the maximum number of rows to fetch (for each parent entity) given the query arguments, or -1 for no
+     * limit.
+     */
+    int getLimit (Map<String, Object> graphQLQueryArguments) {
+        Integer limit = (Integer) graphQLQueryArguments.get(LIMIT_ARG);
+        if (limit == null) {
+            limit = autoLimit ? DEFAULT_ROWS_TO_FETCH : -1;
+        }
+        if (limit > MAX_ROWS_TO_FETCH) {
+            limit = MAX_ROWS_TO_FETCH;
+        }
+        return limit;
+    }
+
     private static String getDateArgument(Map<String, Object> arguments) {
         String date = (String) arguments.get(DATE_ARG);
         if (date == null || date.length() != 8) {
@@ -448,9 +676,9 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
     }
 
     /**
-     * Check for the existence of the specified columns in the table. Note: this query seems to take
-     * between 10 and 30 milliseconds to get column names. This seems acceptable to avoid errors on,
-     * e.g., where conditions that include columns which don't exist.
+     * Check for the existence of the specified columns in the table. The columns of every table in the namespace are
+     * read from the database metadata once and then held in the {@link ColumnRegistry}, rather than spending 10 to 30
+     * milliseconds on a metadata query for each field of each GraphQL query.
      * @param namespace         table namespace/feed ID
      * @param columnsToCheck    columns to verify existence in table
      * @return                  filtered set of columns verified to exist in table
@@ -458,32 +686,42 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
     private Set<String> filterByExistingColumns(String namespace, String... columnsToCheck) {
         // Collect existing columns here.
         Set<String> columnsForTable = new HashSet<>();
-        // Check table metadata for presence of columns.
-        Connection connection = null;
         try {
-            connection = GTFSGraphQL.getConnection();
-            ResultSet columns = connection
-                .getMetaData()
-                .getColumns(null, namespace, tableName, null);
-            while (columns.next()) {
-                // Column name is in the 4th index
-                String column = columns.getString(4);
-                columnsForTable.add(column);
-            }
+            columnsForTable.addAll(ColumnRegistry.getColumns(GTFSGraphQL.getDataSource(), namespace, tableName));
         } catch (SQLException e) {
             e.printStackTrace();
-        } finally {
-            DbUtils.closeQuietly(connection);
         }
         // Filter available columns in table by search columns.
         columnsForTable.retainAll(Arrays.asList(columnsToCheck));
         return columnsForTable;
     }
 
+    /**
+     * @return whether the table exists in the namespace, e.g. a derived table that is only created by validation.
+     */
+    private static boolean tableExists(String namespace, String tableName) {
+        try {
+            return !ColumnRegistry.getColumns(GTFSGraphQL.getDataSource(), namespace, tableName).isEmpty();
+        } catch (SQLException e) {
+            e.printStackTrace();
+            return false;
+        }
+    }
+
+    /**
+     * @return the fields of the table matched by the search argument, or an empty array if the table is not searchable.
+     */
+    private static String[] getSearchFields(String tableName) {
+        for (Table table : Table.tablesInOrder) {
+            if (table.name.equals(tableName)) return table.getSearchFields();
+        }
+        return new String[0];
+    }
+
     /**
      * Construct filter clause with '=' (single string) and add values to list of parameters.
      * */
-    static String filterEquals(String filterField, String string, List<String> parameters) {
+    static String filterEquals(String filterField, String string, List<? super String> parameters) {
         // Add string to list of parameters (to be later used to set parameters for prepared statement).
         parameters.add(string);
         return String.format("%s = ?", filterField);
@@ -493,7 +731,7 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
      * Construct filter clause with '=' (single string) or 'in' (multiple strings) and add values to
      * list of parameters.
      */
-    static String makeInClause(String filterField, List<String> strings, List<String> parameters) {
+    static String makeInClause(String filterField, List<String> strings, List<? super String> parameters) {
         if (strings.size() == 1) {
             return filterEquals(filterField, strings.get(0), parameters);
         } else {
@@ -504,4 +742,34 @@ public class JDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
         }
     }
 
+    /**
+     * The parent join value of a nested fetch, along with the namespace and arguments that determine which query it
+     * can be fetched with.
+     */
+    static class BatchKey {
+        final String namespace;
+        final String joinValue;
+        final Map<String, Object> arguments;
+
+        BatchKey (String namespace, String joinValue, Map<String, Object> arguments) {
+            this.namespace = namespace;
+            this.joinValue = joinValue;
+            this.arguments = arguments;
+        }
+
+        /** @return the namespace and arguments, which keys must share to be fetched with the same query. */
+        List<Object> getGroup () {
+            return Arrays.asList(namespace, arguments);
+        }
+
+        /** @return the distinct join values of the keys in each group, in order of first appearance. */
+        static Map<List<Object>, Set<String>> getJoinValuesForGroup (List<BatchKey> keys) {
+            Map<List<Object>, Set<String>> joinValuesForGroup = new LinkedHashMap<>();
+            for (BatchKey key : keys) {
+                joinValuesForGroup.computeIfAbsent(key.getGroup(), group -> new LinkedHashSet<>()).add(key.joinValue);
+            }
+            return joinValuesForGroup;
+        }
+    }
+
 }
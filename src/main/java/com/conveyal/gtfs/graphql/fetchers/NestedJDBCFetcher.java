@@ -1,18 +1,24 @@
 package com.conveyal.gtfs.graphql.fetchers;
 
+import com.conveyal.gtfs.graphql.GTFSGraphQL;
 import com.conveyal.gtfs.graphql.GraphQLGtfsSchema;
-import com.google.common.collect.ListMultimap;
-import com.google.common.collect.MultimapBuilder;
 import graphql.schema.DataFetcher;
 import graphql.schema.DataFetchingEnvironment;
 import graphql.schema.GraphQLFieldDefinition;
 import graphql.schema.GraphQLList;
+import org.dataloader.DataLoader;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionStage;
 
 import static com.conveyal.gtfs.graphql.GraphQLUtil.multiStringArg;
 import static com.conveyal.gtfs.graphql.GraphQLUtil.stringArg;
@@ -23,11 +29,17 @@ import static graphql.schema.GraphQLFieldDefinition.newFieldDefinition;
  * joins to leap frog from one entity to another more distantly-related entity. For example, if we want to know the
  * routes that serve a specific stop, starting with a top-level stop type, we can nest joins from stop ABC -> pattern
  * stops -> patterns -> routes (see below example implementation for more details).
+ *
+ * The joins for all of the parent entities at the same level of the query are followed together, with one query per
+ * join, rather than with one series of queries per parent entity.
  */
-public class NestedJDBCFetcher implements DataFetcher<List<Map<String, Object>>> {
+public class NestedJDBCFetcher implements DataFetcher<Object> {
 
     private static final Logger LOG = LoggerFactory.getLogger(NestedJDBCFetcher.class);
     private final JDBCFetcher[] jdbcFetchers;
+    // The name of the data loader that follows the joins for many parent entities at once (see
+    // GTFSGraphQL#registerBatchLoader).
+    private final String dataLoaderName = GTFSGraphQL.registerBatchLoader(this::loadBatch);
 
     // Supply an SQL result row -> Object transformer
 
@@ -59,10 +71,7 @@ public class NestedJDBCFetcher implements DataFetcher<List<Map<String, Object>>>
     }
 
     @Override
-    public List<Map<String, Object>> get (DataFetchingEnvironment environment) {
-        // Store the join values here.
-        ListMultimap<String, String> joinValuesForJoinField = MultimapBuilder.treeKeys().arrayListValues().build();
-
+    public Object get (DataFetchingEnvironment environment) {
         // GetSource is the context in which this this DataFetcher has been created, in this case a map representing
         // the parent feed (FeedFetcher).
         Map<String, Object> parentEntityMap = environment.getSource();
@@ -71,58 +80,88 @@ public class NestedJDBCFetcher implements DataFetcher<List<Map<String, Object>>>
         // So it should always be represented as a map with a namespace key.
         String namespace = (String) parentEntityMap.get("namespace");
 
-        // Arguments are only applied for the final fetcher iteration.
-        // FIXME: NestedJDBCFetcher may need to be refactored so that it avoids conventions of JDBCFetcher (like the
-        // implied limit of 50 records). For now, the autoLimit field has been added to JDBCFetcher, so that certain
-        // fetchers (like the nested ones used solely for joins here) will not apply the limit by default.
-        Map<String, Object> arguments = null;
+        // Use the parent entity to get the join value for the first fetcher.
+        Object parentJoinValue = parentEntityMap.get(jdbcFetchers[0].parentJoinField);
+        // Check for null parentJoinValue to protect against NPE.
+        if (parentJoinValue == null) {
+            return new ArrayList<>();
+        }
+        JDBCFetcher.BatchKey key =
+            new JDBCFetcher.BatchKey(namespace, parentJoinValue.toString(), environment.getArguments());
+        DataLoader<JDBCFetcher.BatchKey, List<Map<String, Object>>> dataLoader =
+            environment.getDataLoader(dataLoaderName);
+        if (dataLoader == null) {
+            // The execution has no data loaders, so follow the joins for this entity on its own.
+            return getResultsForParents(key.namespace, Collections.singleton(key.joinValue), key.arguments)
+                .getOrDefault(key.joinValue, new ArrayList<>());
+        }
+        // The join value is queued and the joins are made for all of the entities at the same level of the query at
+        // once.
+        return dataLoader.load(key);
+    }
+
+    /**
+     * Follow the joins for a batch of parent entities, with one query per fetcher for each namespace and set of
+     * arguments.
+     * @return the final rows for each key, in the same order as the keys
+     */
+    private CompletionStage<List<List<Map<String, Object>>>> loadBatch (List<JDBCFetcher.BatchKey> keys) {
+        Map<List<Object>, Set<String>> joinValuesForGroup = JDBCFetcher.BatchKey.getJoinValuesForGroup(keys);
+        Map<List<Object>, Map<String, List<Map<String, Object>>>> resultsForGroup = new HashMap<>();
+        List<List<Map<String, Object>>> results = new ArrayList<>();
+        for (JDBCFetcher.BatchKey key : keys) {
+            Map<String, List<Map<String, Object>>> resultsForJoinValue = resultsForGroup.computeIfAbsent(
+                key.getGroup(),
+                group -> getResultsForParents(key.namespace, joinValuesForGroup.get(group), key.arguments)
+            );
+            results.add(resultsForJoinValue.getOrDefault(key.joinValue, new ArrayList<>()));
+        }
+        return CompletableFuture.completedFuture(results);
+    }
 
-        // Store each iteration's fetch results here.
-        List<Map<String, Object>> fetchResults = null;
-        for (int i = 0; i < jdbcFetchers.length; i++) {
+    /**
+     * Follow the chain of joins from many parent join values at once, keeping track of which parent join values each
+     * row was reached from. The final fetcher then applies its limit and offset in the database to the final rows for
+     * each parent join value separately, as if the joins had been followed for each parent on its own.
+     */
+    Map<String, List<Map<String, Object>>> getResultsForParents (
+        String namespace,
+        Set<String> parentJoinValues,
+        Map<String, Object> arguments
+    ) {
+        // The parent join values from which each join value for the current fetcher was reached.
+        Map<String, Set<String>> parentsForJoinValue = new HashMap<>();
+        for (String parentJoinValue : parentJoinValues) {
+            parentsForJoinValue.put(parentJoinValue, Collections.singleton(parentJoinValue));
+        }
+        for (int i = 0; i < jdbcFetchers.length - 1; i++) {
             JDBCFetcher fetcher = jdbcFetchers[i];
-            List<String> joinValues;
-            if (i == 0) {
-                // For first iteration of fetching, use parent entity to get join values.
-                Map<String, Object> enclosingEntity = environment.getSource();
-                // FIXME SQL injection: enclosing entity's ID could contain malicious character sequences; quote and sanitize the string.
-                // FIXME: THIS IS BROKEN if parentJoinValue is null!!!!
-                Object parentJoinValue = enclosingEntity.get(fetcher.parentJoinField);
-                // Check for null parentJoinValue to protect against NPE.
-                joinValues = new ArrayList<>();
-                String parentJoinString = parentJoinValue == null ? null : parentJoinValue.toString();
-                joinValues.add(parentJoinString);
-                if (parentJoinValue == null) {
-                    return new ArrayList<>();
-                }
-            } else {
-                // Otherwise, get join values stored by previous fetcher.
-                joinValues = joinValuesForJoinField.get(fetcher.parentJoinField);
-                if (i == jdbcFetchers.length - 1) {
-                    // Apply arguments only to the final fetched table
-                    arguments = environment.getArguments();
-                    LOG.info("{} args: {}", fetcher.tableName, arguments.keySet().toString());
-                }
+            List<String> joinValues = new ArrayList<>(parentsForJoinValue.keySet());
+            LOG.info("Join values for {}: {}", fetcher.tableName, joinValues.size());
+            // FIXME: NestedJDBCFetcher may need to be refactored so that it avoids conventions of JDBCFetcher (like the
+            // implied limit of 50 records). For now, the autoLimit field has been added to JDBCFetcher, so that certain
+            // fetchers (like the nested ones used solely for joins here) will not apply the limit by default.
+            List<Map<String, Object>> fetchResults = fetcher.getResults(namespace, joinValues, null);
+            // Store the join values for the next fetcher, along with the parents they were reached from.
+            JDBCFetcher nextFetcher = jdbcFetchers[i + 1];
+            Map<String, Set<String>> parentsForNextJoinValue = new HashMap<>();
+            for (Map<String, Object> entity : fetchResults) {
+                Object joinValue = entity.get(nextFetcher.parentJoinField);
+                if (joinValue == null) continue;
+                parentsForNextJoinValue
+                    .computeIfAbsent(joinValue.toString(), value -> new HashSet<>())
+                    .addAll(parentsForJoinValue.get(entity.get(fetcher.childJoinField).toString()));
             }
-            LOG.info("Join values: {}", joinValues.toString());
-            fetchResults = fetcher.getResults(namespace, joinValues, arguments);
-            if (fetchResults.size() == 0) {
+            if (parentsForNextJoinValue.isEmpty()) {
                 // If there are no results, the following queries will have no results to join to, so we can simply
-                // return the empty list.
-                return fetchResults;
-            } else if (i < jdbcFetchers.length - 1) {
-                // Otherwise, iterate over results from current fetcher to store for next iteration for all but the last
-                // iteration (the last iteration's fetchResults will contain the final results).
-                JDBCFetcher nextFetcher = jdbcFetchers[i + 1];
-                for (Map<String, Object> entity : fetchResults) {
-                    Object joinValue = entity.get(nextFetcher.parentJoinField);
-                    // Store join values in multimap for
-                    if (joinValue != null)
-                        joinValuesForJoinField.put(nextFetcher.parentJoinField, joinValue.toString());
-                }
+                // return no results.
+                return new HashMap<>();
             }
+            parentsForJoinValue = parentsForNextJoinValue;
         }
-        // Last iteration should finally return results.
-        return fetchResults;
+        // Apply arguments only to the final fetched table.
+        JDBCFetcher finalFetcher = jdbcFetchers[jdbcFetchers.length - 1];
+        LOG.info("{} args: {}", finalFetcher.tableName, arguments.keySet().toString());
+        return finalFetcher.getResultsForParents(namespace, parentsForJoinValue, arguments);
     }
 }
@@ -0,0 +1,126 @@
+package com.conveyal.gtfs.graphql.fetchers;
+
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * One row fetched from the database as a read-only map from column name to value, which is the source object for the
+ * fields of the corresponding GraphQL type (see {@link MapFetcher}). The column names and positions are shared by all
+ * of the rows from the same result set, so each row holds only an array of its values, rather than a hash map with an
+ * entry object for every column. When fetching hundreds of stop times or shape points this is most of the garbage
+ * produced per row.
+ */
+class ResultRow extends AbstractMap<String, Object> {
+
+    private final Columns columns;
+    private final Object[] values;
+
+    private ResultRow (Columns columns, Object[] values) {
+        this.columns = columns;
+        this.values = values;
+    }
+
+    /**
+     * @return the parent entity this row was fetched for, when the rows for many parent entities are fetched at once,
+     * otherwise null.
+     */
+    String getBatchParent () {
+        return columns.parentIndex < 0 ? null : (String) values[columns.parentIndex];
+    }
+
+    @Override
+    public Object get (Object key) {
+        Integer index = columns.indexForName.get(key);
+        return index == null ? null : values[index];
+    }
+
+    @Override
+    public boolean containsKey (Object key) {
+        return columns.indexForName.containsKey(key);
+    }
+
+    @Override
+    public int size () {
+        return columns.names.size();
+    }
+
+    @Override
+    public Set<Entry<String, Object>> entrySet () {
+        return new AbstractSet<Entry<String, Object>>() {
+            @Override
+            public Iterator<Entry<String, Object>> iterator () {
+                Iterator<String> names = columns.names.iterator();
+                return new Iterator<Entry<String, Object>>() {
+                    @Override
+                    public boolean hasNext () {
+                        return names.hasNext();
+                    }
+
+                    @Override
+                    public Entry<String, Object> next () {
+                        String name = names.next();
+                        return new SimpleImmutableEntry<>(name, get(name));
+                    }
+                };
+            }
+
+            @Override
+            public int size () {
+                return columns.names.size();
+            }
+        };
+    }
+
+    /**
+     * The names and positions of the columns of a result set, plus the namespace, which is injected into every row so
+     * that fetchers for nested entities know which feed they are in.
+     */
+    static class Columns {
+        private final int columnCount;
+        private final Map<String, Integer> indexForName = new HashMap<>();
+        // Each name only once, in the order the names first appear.
+        private final List<String> names = new ArrayList<>();
+        // The position of the column holding the parent entity of each row, or -1 if there is no such column.
+        private int parentIndex = -1;
+
+        /**
+         * @param excludedColumns columns that are not included in the rows (e.g. ones used only to filter the results)
+         * @param parentColumn the excluded column holding the parent entity of each row (see {@link #getBatchParent()})
+         */
+        Columns (ResultSetMetaData meta, Collection<String> excludedColumns, String parentColumn) throws SQLException {
+            columnCount = meta.getColumnCount();
+            // Index zero holds the namespace. One-based iteration over the columns: start at one and use <=.
+            addName("namespace", 0);
+            for (int i = 1; i <= columnCount; i++) {
+                String name = meta.getColumnName(i);
+                if (name.equals(parentColumn)) parentIndex = i;
+                if (!excludedColumns.contains(name)) addName(name, i);
+            }
+        }
+
+        /** If more than one column has the same name (e.g. with joined tables), the last one is used. */
+        private void addName (String name, int index) {
+            if (indexForName.put(name, index) == null) names.add(name);
+        }
+
+        /** Read the values in the current row of the result set. */
+        ResultRow readRow (ResultSet resultSet, String namespace) throws SQLException {
+            Object[] values = new Object[columnCount + 1];
+            values[0] = namespace;
+            for (int i = 1; i <= columnCount; i++) {
+                values[i] = resultSet.getObject(i);
+            }
+            return new ResultRow(this, values);
+        }
+    }
+}
@@ -8,13 +8,14 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CompletionStage;
 
 /**
  * This wraps an SQL row fetcher, extracting only a single column of the specified type.
  * Because there's only one column, it collapses the result down into a list of elements of that column's type,
  * rather than a list of maps (one for each row) as the basic SQL fetcher does.
  */
-public class SQLColumnFetcher<T> implements DataFetcher<List<T>> {
+public class SQLColumnFetcher<T> implements DataFetcher<CompletionStage<List<T>>> {
 
     public static final Logger LOG = LoggerFactory.getLogger(SQLColumnFetcher.class);
 
@@ -32,14 +33,20 @@ public class SQLColumnFetcher<T> implements DataFetcher<List<T>> {
 
     }
 
+    /**
+     * The rows are loaded by the wrapped row fetcher, so that those of all the entities at the same level of the query
+     * are fetched together.
+     */
     @Override
-    public List<T> get (DataFetchingEnvironment environment) {
-        List<T> result = new ArrayList<>();
-        // Ideally we'd only fetch one column in the wrapped row fetcher.
-        for (Map<String, Object> row : jdbcFetcher.get(environment)) {
-            result.add((T)row.get(columnName));
-        }
-        return result;
+    public CompletionStage<List<T>> get (DataFetchingEnvironment environment) {
+        return jdbcFetcher.loadResults(environment).thenApply(rows -> {
+            List<T> result = new ArrayList<>();
+            // Ideally we'd only fetch one column in the wrapped row fetcher.
+            for (Map<String, Object> row : rows) {
+                result.add((T)row.get(columnName));
+            }
+            return result;
+        });
     }
 
 }
@@ -0,0 +1,101 @@
+package com.conveyal.gtfs.loader;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.conveyal.gtfs.util.Util.normalizeNamespace;
+
+/**
+ * The names of the columns in each table of each namespace (schema), read from the database metadata once for all of
+ * the tables in a namespace and then held until {@link #invalidate(String)} is called for the namespace. Reading the
+ * metadata takes tens of milliseconds, which would otherwise be spent on every lookup (e.g. for every field of a
+ * GraphQL query that checks whether a column exists before filtering on it).
+ *
+ * Tables missing from a namespace are remembered like any other, so anything that creates, drops or changes the columns
+ * of tables in a namespace must call {@link #invalidate(String)} once the change is committed (as the loader,
+ * snapshotter, table writer and validators that create derived tables do). Deleting a namespace must also invalidate
+ * it, so that nothing is held for namespaces that no longer exist (see GTFS#delete). All methods are thread safe.
+ */
+public class ColumnRegistry {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ColumnRegistry.class);
+
+    private static final ConcurrentMap<String, Map<String, Set<String>>> columnsForTableForNamespace =
+        new ConcurrentHashMap<>();
+    // The number of invalidations of any namespace, so that metadata read before an invalidation is not cached. This
+    // is counted for all namespaces together so that nothing is left behind for a namespace once it is invalidated.
+    private static final AtomicLong invalidationCount = new AtomicLong();
+
+    /**
+     * @param namespace the namespace (schema) containing the table, with or without a separator dot
+     * @return the names of the columns in the table, or an empty set if the table does not exist. The set must not be
+     * modified.
+     */
+    public static Set<String> getColumns (DataSource dataSource, String namespace, String tableName)
+        throws SQLException {
+        String schema = normalizeNamespace(namespace);
+        Map<String, Set<String>> columnsForTable = columnsForTableForNamespace.get(schema);
+        if (columnsForTable == null) {
+            long count = invalidationCount.get();
+            Map<String, Set<String>> readColumnsForTable = readColumns(dataSource, schema);
+            // Do not cache the metadata if any namespace was invalidated while it was being read, or if the namespace
+            // has no tables (e.g., it does not exist), so that lookups of arbitrary namespaces are not all held.
+            if (!readColumnsForTable.isEmpty()) {
+                columnsForTableForNamespace.compute(schema, (key, cachedColumnsForTable) ->
+                    count == invalidationCount.get() ? readColumnsForTable : cachedColumnsForTable);
+            }
+            columnsForTable = readColumnsForTable;
+        }
+        return columnsForTable.getOrDefault(tableName, Collections.emptySet());
+    }
+
+    /**
+     * Forget the tables and columns of the namespace (schema). This should be called after tables in the namespace are
+     * created or dropped or their columns are changed, and after the namespace is deleted.
+     */
+    public static void invalidate (String namespace) {
+        String schema = normalizeNamespace(namespace);
+        invalidationCount.incrementAndGet();
+        columnsForTableForNamespace.remove(schema);
+    }
+
+    /** @return whether the tables and columns of the namespace (schema) are held. */
+    static boolean isCached (String namespace) {
+        return columnsForTableForNamespace.containsKey(normalizeNamespace(namespace));
+    }
+
+    /** Read the columns of all of the tables in the namespace (schema) with a single metadata query. */
+    private static Map<String, Set<String>> readColumns (DataSource dataSource, String schema) throws SQLException {
+        Map<String, Set<String>> columnsForTable = new HashMap<>();
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            ResultSet columns = connection.getMetaData().getColumns(null, schema, null, null);
+            while (columns.next()) {
+                // The schema name argument is a pattern in which underscores match any character, so check it here.
+                if (!schema.equals(columns.getString("TABLE_SCHEM"))) continue;
+                columnsForTable
+                    .computeIfAbsent(columns.getString("TABLE_NAME"), table -> new HashSet<>())
+                    .add(columns.getString("COLUMN_NAME"));
+            }
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+        LOG.debug("Read columns of {} tables in {}", columnsForTable.size(), schema);
+        return columnsForTable;
+    }
+}
@@ -8,8 +8,9 @@ import java.sql.JDBCType;
 import java.sql.PreparedStatement;
 import java.sql.SQLType;
 import java.time.LocalDate;
+import java.time.Month;
+import java.time.Year;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.Collections;
 import java.util.Set;
 
@@ -29,25 +30,62 @@ public class DateField extends Field {
         super(name, requirement);
     }
 
+    /** Returned by {@link #parseDate(String)} for a string that is not a valid date. */
+    public static final int INVALID_DATE = -1;
+
     public static ValidateFieldResult<String> validate (String string) {
-        // Initialize default value as null (i.e., don't use the input value).
-        ValidateFieldResult<String> result = new ValidateFieldResult<>();
         // Parse the date out of the supplied string.
-        LocalDate date;
-        try {
-            date = LocalDate.parse(string, GTFS_DATE_FORMATTER);
-            // Only set the clean result after the date parse is successful.
-            result.clean = string;
-        } catch (DateTimeParseException ex) {
+        int date = parseDate(string);
+        if (date == INVALID_DATE) {
+            // Use null as the clean value (i.e., don't use the input value).
+            ValidateFieldResult<String> result = new ValidateFieldResult<>();
             result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.DATE_FORMAT, string));
             return result;
         }
         // Range check on year. Parsing operation above should already have checked month and day ranges.
-        int year = date.getYear();
+        int year = date / 10000;
         if (year < 2000 || year > 2100) {
+            ValidateFieldResult<String> result = new ValidateFieldResult<>(string);
             result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.DATE_RANGE, string));
+            return result;
+        }
+        // The clean value is the input string, so nothing but the result itself is allocated for a valid date.
+        return new ValidateFieldResult<>(string, Collections.emptySet());
+    }
+
+    /**
+     * Parse a date in the format YYYYMMDD by scanning its characters, without allocating any objects. This accepts
+     * exactly the dates that {@link #GTFS_DATE_FORMATTER} does (with its default smart resolver): the year must not be
+     * zero, the month must be 1-12 and the day 1-31, and a day past the end of a shorter month is moved back to the
+     * last day of the month (e.g., 20170231 is February 28th).
+     *
+     * @return the date as the integer YYYYMMDD (with the day adjusted as described), or INVALID_DATE.
+     */
+    public static int parseDate (String string) {
+        if (string.length() != 8) return INVALID_DATE;
+        int date = 0;
+        for (int i = 0; i < 8; i++) {
+            char c = string.charAt(i);
+            if (c < '0' || c > '9') return INVALID_DATE;
+            date = date * 10 + (c - '0');
         }
-        return result;
+        int year = date / 10000;
+        int month = date / 100 % 100;
+        int day = date % 100;
+        if (year == 0 || month < 1 || month > 12 || day < 1 || day > 31) return INVALID_DATE;
+        int lastDay = Month.of(month).length(Year.isLeap(year));
+        if (day > lastDay) date = date - day + lastDay;
+        return date;
+    }
+
+    /**
+     * Parse a date in the format YYYYMMDD, following the rules of {@link #parseDate(String)}.
+     * @return the date, or null if it could not be parsed.
+     */
+    public static LocalDate parseLocalDate (String string) {
+        int date = parseDate(string);
+        if (date == INVALID_DATE) return null;
+        return LocalDate.of(date / 10000, date / 100 % 100, date % 100);
     }
 
     @Override
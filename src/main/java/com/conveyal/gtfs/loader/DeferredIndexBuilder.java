@@ -0,0 +1,119 @@
+package com.conveyal.gtfs.loader;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Collects the indexes of tables as they are loaded (or copied) and creates all of them at the end, each index on its
+ * own connection from the data source and several indexes at the same time. Building indexes after all of the data has
+ * been ingested, rather than after each table, keeps index builds from holding up the next table's ingest and lets
+ * the database build the indexes of different tables concurrently.
+ */
+class DeferredIndexBuilder {
+
+    private static final Logger LOG = LoggerFactory.getLogger(DeferredIndexBuilder.class);
+
+    private final DataSource dataSource;
+    private final int parallelism;
+    private final String maintenanceWorkMem;
+    // Index statements for each table in the order the tables were added.
+    private final Map<Table, List<String>> indexSqlForTable = new LinkedHashMap<>();
+
+    /**
+     * @param parallelism        the maximum number of indexes to build at the same time
+     * @param maintenanceWorkMem Postgres maintenance_work_mem for each index build (e.g., "512MB"), or null to use the
+     *                           server's setting. Note: this is memory per build, so it is multiplied by parallelism.
+     */
+    DeferredIndexBuilder(DataSource dataSource, int parallelism, String maintenanceWorkMem) {
+        if (parallelism < 1) throw new IllegalArgumentException("Index parallelism must be at least one.");
+        if (maintenanceWorkMem != null && !maintenanceWorkMem.matches("\\d+\\s*(kB|MB|GB|TB)?")) {
+            throw new IllegalArgumentException("Invalid maintenance_work_mem setting: " + maintenanceWorkMem);
+        }
+        this.dataSource = dataSource;
+        this.parallelism = parallelism;
+        this.maintenanceWorkMem = maintenanceWorkMem;
+    }
+
+    /**
+     * Add the indexes of a spec table (see {@link Table#getCreateIndexSql(String)}). This may be called concurrently
+     * by tables loaded in parallel.
+     */
+    synchronized void add(Table table, String namespace) {
+        indexSqlForTable.computeIfAbsent(table, t -> new ArrayList<>()).addAll(table.getCreateIndexSql(namespace));
+    }
+
+    /**
+     * Create all of the indexes that have been added. Tables must be committed before this is called so that their
+     * data is visible to the index connections.
+     * @return for each table that had an index fail to build, the first exception encountered.
+     */
+    Map<Table, Exception> createIndexes() {
+        Map<Table, List<String>> indexes;
+        synchronized (this) {
+            indexes = new LinkedHashMap<>(indexSqlForTable);
+            indexSqlForTable.clear();
+        }
+        long startTime = System.currentTimeMillis();
+        Map<Table, Exception> failures = new ConcurrentHashMap<>();
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<CompletableFuture<Void>> builds = new ArrayList<>();
+            for (Map.Entry<Table, List<String>> entry : indexes.entrySet()) {
+                for (String indexSql : entry.getValue()) {
+                    builds.add(CompletableFuture.runAsync(() -> {
+                        try {
+                            createIndex(indexSql);
+                        } catch (SQLException ex) {
+                            LOG.error("Could not create index: " + indexSql, ex);
+                            failures.putIfAbsent(entry.getKey(), ex);
+                        }
+                    }, executor));
+                }
+            }
+            CompletableFuture.allOf(builds.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+        LOG.info("Creating {} tables' indexes with parallelism {} took {} sec", indexes.size(), parallelism,
+            (System.currentTimeMillis() - startTime) / 1000);
+        return failures;
+    }
+
+    /**
+     * Create a single index on a fresh connection and commit it.
+     */
+    private void createIndex(String indexSql) throws SQLException {
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            Statement statement = connection.createStatement();
+            if (maintenanceWorkMem != null) {
+                // Set local only applies to this transaction, so the setting does not leak into pooled connections.
+                statement.execute(String.format("set local maintenance_work_mem = '%s'", maintenanceWorkMem));
+            }
+            LOG.info(indexSql);
+            statement.execute(indexSql);
+            connection.commit();
+        } catch (SQLException ex) {
+            if (connection != null) DbUtils.rollbackAndCloseQuietly(connection);
+            connection = null;
+            throw ex;
+        } finally {
+            if (connection != null) DbUtils.closeQuietly(connection);
+        }
+    }
+}
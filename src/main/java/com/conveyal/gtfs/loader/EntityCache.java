@@ -0,0 +1,130 @@
+package com.conveyal.gtfs.loader;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+
+import static com.conveyal.gtfs.util.Util.normalizeNamespace;
+
+/**
+ * A size-bounded cache of the entities in one table of a feed, keyed on the table's key field (e.g. stop_id), which
+ * evicts the least recently used entity when it is full. Caches for a feed are invalidated by calling
+ * {@link #invalidate(String)} with the feed's namespace whenever changes to any of its tables are committed (as
+ * JdbcTableWriter does), since a change to one table can cascade to others.
+ *
+ * The cached entities are shared between callers and must not be modified. All methods are thread safe.
+ */
+public class EntityCache<T> {
+
+    // The caches for each namespace, so that invalidating a namespace can clear them. The caches are weakly referenced,
+    // so a namespace is only tracked for as long as some reader still holds a cache for it.
+    private static final Map<String, Set<EntityCache<?>>> cachesForNamespace = new HashMap<>();
+
+    private final String namespace;
+    private final int maximumSize;
+    private final Map<String, T> entityForKey;
+    // The number of times this cache has been invalidated, so that entities read before an invalidation are not cached.
+    private long version = 0;
+    private long hitCount = 0;
+    private long missCount = 0;
+
+    /**
+     * @param namespace the namespace (schema) of the feed whose table is cached, with or without a separator dot
+     * @param maximumSize the number of entities held before the least recently used one is evicted
+     */
+    public EntityCache (String namespace, int maximumSize) {
+        if (maximumSize < 1) throw new IllegalArgumentException("Cache size must be at least one.");
+        this.namespace = normalizeNamespace(namespace);
+        this.maximumSize = maximumSize;
+        // An access-ordered map keeps the least recently used entry first.
+        this.entityForKey = new LinkedHashMap<String, T>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry (Map.Entry<String, T> eldest) {
+                return size() > EntityCache.this.maximumSize;
+            }
+        };
+        synchronized (cachesForNamespace) {
+            // Forget namespaces whose caches have all been garbage collected.
+            cachesForNamespace.values().removeIf(Set::isEmpty);
+            cachesForNamespace
+                .computeIfAbsent(this.namespace, n -> Collections.newSetFromMap(new WeakHashMap<>()))
+                .add(this);
+        }
+    }
+
+    /**
+     * Clear every cache for the namespace (schema). This should be called after changes to any table in the namespace
+     * are committed, and after the namespace is dropped.
+     */
+    public static void invalidate (String namespace) {
+        String normalizedNamespace = normalizeNamespace(namespace);
+        synchronized (cachesForNamespace) {
+            Set<EntityCache<?>> caches = cachesForNamespace.get(normalizedNamespace);
+            if (caches == null) return;
+            for (EntityCache<?> cache : caches) cache.clear();
+            if (caches.isEmpty()) cachesForNamespace.remove(normalizedNamespace);
+        }
+    }
+
+    /** @return whether any live cache is tracked for the namespace (schema). */
+    static boolean isTracked (String namespace) {
+        synchronized (cachesForNamespace) {
+            return cachesForNamespace.containsKey(normalizeNamespace(namespace));
+        }
+    }
+
+    /**
+     * @return the current version of this cache, to be passed to {@link #put(String, Object, long)} for entities read
+     * from the database after this call.
+     */
+    public synchronized long getVersion () {
+        return version;
+    }
+
+    /**
+     * @return the cached entity with the given key, or null if it is not cached. Either way the lookup is counted in
+     * the hit and miss statistics.
+     */
+    public synchronized T get (String key) {
+        T entity = entityForKey.get(key);
+        if (entity == null) missCount++;
+        else hitCount++;
+        return entity;
+    }
+
+    /**
+     * Cache an entity that was read from the database, unless the cache has been invalidated since the given version,
+     * in which case the entity may already be out of date.
+     * @param version the value of {@link #getVersion()} from before the entity was read
+     */
+    public synchronized void put (String key, T entity, long version) {
+        if (version == this.version) entityForKey.put(key, entity);
+    }
+
+    private synchronized void clear () {
+        entityForKey.clear();
+        version++;
+    }
+
+    /** @return the number of entities currently cached. */
+    public synchronized int size () {
+        return entityForKey.size();
+    }
+
+    public synchronized long getHitCount () {
+        return hitCount;
+    }
+
+    public synchronized long getMissCount () {
+        return missCount;
+    }
+
+    @Override
+    public synchronized String toString () {
+        return String.format("%d entities cached in %s, %d hits and %d misses", entityForKey.size(),
+            namespace.isEmpty() ? "default namespace" : namespace, hitCount, missCount);
+    }
+}
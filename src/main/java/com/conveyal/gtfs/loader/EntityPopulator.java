@@ -35,9 +35,9 @@ import static com.conveyal.gtfs.model.ScheduleException.exemplarFromInt;
  * For now we will copy all available fields into Java model objects.
  *
  * We could also have entity cursors with accessor functions that move along the results, and only look at
- * the fields we need. We could even select only the required fields from the backend database but that gets
- * messy. Anecdotal evidence suggests this would give about a 1/3 speedup. But other observations show no speedup at all.
- * The main benefit would be grabbing arbitrary extension columns.
+ * the fields we need. Callers can select only the columns they need from the backend database with
+ * {@link JDBCTableReader#selectColumns(String...)}, in which case the fields for the other columns are left with missing
+ * values. Anecdotal evidence suggests this gives about a 1/3 speedup.
  *
  * TODO associate EntityPopulator more closely with Entity types and Table instances, so you can get one from the other.
  * e.g. getEntityPopulator() and getTableSpec() on Entity classes.
@@ -53,180 +53,157 @@ import static com.conveyal.gtfs.model.ScheduleException.exemplarFromInt;
  */
 public interface EntityPopulator<T> {
     Logger LOG = LoggerFactory.getLogger(EntityPopulator.class);
-    EntityPopulator<PatternStop> PATTERN_STOP = (result, columnForName) -> {
-        PatternStop patternStop = new PatternStop();
-        patternStop.stop_id = getStringIfPresent(result, "stop_id", columnForName);
-        patternStop.default_dwell_time = getIntIfPresent(result, "default_dwell_time", columnForName);
-        patternStop.default_travel_time = getIntIfPresent(result, "default_travel_time", columnForName);
-        patternStop.pattern_id = getStringIfPresent(result, "pattern_id", columnForName);
-        patternStop.drop_off_type = getIntIfPresent(result, "drop_off_type", columnForName);
-        patternStop.pickup_type = getIntIfPresent(result, "pickup_type", columnForName);
-        patternStop.stop_sequence = getIntIfPresent(result, "stop_sequence", columnForName);
-        patternStop.timepoint = getIntIfPresent(result, "timepoint", columnForName);
-        patternStop.shape_dist_traveled = getDoubleIfPresent(result, "shape_dist_traveled", columnForName);
-        return patternStop;
-    };
+    EntityPopulator<PatternStop> PATTERN_STOP = new FieldPopulator<PatternStop>(PatternStop::new)
+        .stringField("stop_id", (e, v) -> e.stop_id = v)
+        .intField("default_dwell_time", (e, v) -> e.default_dwell_time = v)
+        .intField("default_travel_time", (e, v) -> e.default_travel_time = v)
+        .stringField("pattern_id", (e, v) -> e.pattern_id = v)
+        .intField("drop_off_type", (e, v) -> e.drop_off_type = v)
+        .intField("pickup_type", (e, v) -> e.pickup_type = v)
+        .intField("stop_sequence", (e, v) -> e.stop_sequence = v)
+        .intField("timepoint", (e, v) -> e.timepoint = v)
+        .doubleField("shape_dist_traveled", (e, v) -> e.shape_dist_traveled = v);
 
     T populate (ResultSet results, TObjectIntMap<String> columnForName) throws SQLException;
 
-    EntityPopulator<Agency> AGENCY = (result, columnForName) -> {
-        Agency agency              = new Agency();
-        agency.agency_id           = getStringIfPresent(result, "agency_id", columnForName);
-        agency.agency_name         = getStringIfPresent(result, "agency_name", columnForName);
-        agency.agency_url          = getUrlIfPresent   (result, "agency_url", columnForName);
-        agency.agency_timezone     = getStringIfPresent(result, "agency_timezone", columnForName);
-        agency.agency_lang         = getStringIfPresent(result, "agency_lang", columnForName);
-        agency.agency_phone        = getStringIfPresent(result, "agency_phone", columnForName);
-        agency.agency_fare_url     = getUrlIfPresent   (result, "agency_fare_url", columnForName);
-        agency.agency_email        = getStringIfPresent(result, "agency_email", columnForName);
-        agency.agency_branding_url = getUrlIfPresent   (result, "agency_branding_url", columnForName);
-        return agency;
-    };
-
-    EntityPopulator<Calendar> CALENDAR = (result, columnForName) -> {
-        Calendar calendar   = new Calendar();
-        calendar.service_id = getStringIfPresent(result, "service_id", columnForName);
-        calendar.start_date = getDateIfPresent  (result, "start_date", columnForName);
-        calendar.end_date   = getDateIfPresent  (result, "end_date",   columnForName);
-        calendar.monday     = getIntIfPresent   (result, "monday",     columnForName);
-        calendar.tuesday    = getIntIfPresent   (result, "tuesday",    columnForName);
-        calendar.wednesday  = getIntIfPresent   (result, "wednesday",  columnForName);
-        calendar.thursday   = getIntIfPresent   (result, "thursday",   columnForName);
-        calendar.friday     = getIntIfPresent   (result, "friday",     columnForName);
-        calendar.saturday   = getIntIfPresent   (result, "saturday",   columnForName);
-        calendar.sunday     = getIntIfPresent   (result, "sunday",     columnForName);
-        return calendar;
-    };
-
-    EntityPopulator<CalendarDate> CALENDAR_DATE = (result, columnForName) -> {
-        CalendarDate calendarDate   = new CalendarDate();
-        calendarDate.service_id     = getStringIfPresent(result, "service_id",     columnForName);
-        calendarDate.date           = getDateIfPresent  (result, "date",           columnForName);
-        calendarDate.exception_type = getIntIfPresent   (result, "exception_type", columnForName);
-        return calendarDate;
-    };
-
-    EntityPopulator<FareAttribute> FARE_ATTRIBUTE = (result, columnForName) -> {
-        FareAttribute fareAttribute     = new FareAttribute();
-        fareAttribute.fare_id           = getStringIfPresent(result, "fare_id",     columnForName);
-        fareAttribute.agency_id         = getStringIfPresent(result, "agency_id",     columnForName);
-        fareAttribute.price             = getDoubleIfPresent(result, "price",           columnForName);
-        fareAttribute.payment_method    = getIntIfPresent   (result, "payment_method", columnForName);
-        fareAttribute.transfers         = getIntIfPresent   (result, "transfers", columnForName);
-        fareAttribute.transfer_duration = getIntIfPresent   (result, "transfer_duration", columnForName);
-        return fareAttribute;
-    };
-
-    EntityPopulator<Frequency> FREQUENCY = (result, columnForName) -> {
-        Frequency frequency    = new Frequency();
-        frequency.trip_id      = getStringIfPresent(result, "trip_id",     columnForName);
-        frequency.start_time   = getIntIfPresent   (result, "start_time", columnForName);
-        frequency.end_time     = getIntIfPresent   (result, "end_time", columnForName);
-        frequency.headway_secs = getIntIfPresent   (result, "headway_secs", columnForName);
-        frequency.exact_times  = getIntIfPresent   (result, "exact_times", columnForName);
-        return frequency;
-    };
-
-    EntityPopulator<ScheduleException> SCHEDULE_EXCEPTION = (result, columnForName) -> {
-        ScheduleException scheduleException = new ScheduleException();
-        scheduleException.name              = getStringIfPresent    (result, "name", columnForName);
-        scheduleException.dates             = getDateListIfPresent  (result, "dates", columnForName);
-        scheduleException.exemplar          = exemplarFromInt(getIntIfPresent(result, "exemplar", columnForName));
-        scheduleException.customSchedule    = getStringListIfPresent(result, "custom_schedule", columnForName);
-        scheduleException.addedService      = getStringListIfPresent(result, "added_service", columnForName);
-        scheduleException.removedService    = getStringListIfPresent(result, "removed_service", columnForName);
-        return scheduleException;
-    };
-
-    EntityPopulator<Route> ROUTE = (result, columnForName) -> {
-        Route route              = new Route();
-        route.route_id           = getStringIfPresent(result, "route_id",           columnForName);
-        route.agency_id          = getStringIfPresent(result, "agency_id",          columnForName);
-        route.route_short_name   = getStringIfPresent(result, "route_short_name",   columnForName);
-        route.route_long_name    = getStringIfPresent(result, "route_long_name",    columnForName);
-        route.route_desc         = getStringIfPresent(result, "route_desc",         columnForName);
-        route.route_type         = getIntIfPresent   (result, "route_type",         columnForName);
-        route.route_color        = getStringIfPresent(result, "route_color",        columnForName);
-        route.route_text_color   = getStringIfPresent(result, "route_text_color",   columnForName);
-        route.route_url          = getUrlIfPresent   (result, "route_url",          columnForName);
-        route.route_branding_url = getUrlIfPresent   (result, "route_branding_url", columnForName);
-        return route;
-    };
-
-    EntityPopulator<Stop> STOP = (result, columnForName) -> {
-        Stop stop           = new Stop();
-        stop.stop_id        = getStringIfPresent(result, "stop_id",        columnForName);
-        stop.stop_code      = getStringIfPresent(result, "stop_code",      columnForName);
-        stop.stop_name      = getStringIfPresent(result, "stop_name",      columnForName);
-        stop.stop_desc      = getStringIfPresent(result, "stop_desc",      columnForName);
-        stop.stop_lat       = getDoubleIfPresent(result, "stop_lat",       columnForName);
-        stop.stop_lon       = getDoubleIfPresent(result, "stop_lon",       columnForName);
-        stop.zone_id        = getStringIfPresent(result, "zone_id",        columnForName);
-        stop.parent_station = getStringIfPresent(result, "parent_station", columnForName);
-        stop.stop_timezone  = getStringIfPresent(result, "stop_timezone",  columnForName);
-        stop.stop_url       = getUrlIfPresent   (result, "stop_url",       columnForName);
-        stop.location_type  = getIntIfPresent   (result, "location_type",  columnForName);
-        stop.wheelchair_boarding = Integer.toString(getIntIfPresent(result, "wheelchair_boarding", columnForName));
-        return stop;
-    };
-
-    EntityPopulator<Trip> TRIP = (result, columnForName) -> {
-        Trip trip            = new Trip();
-        trip.trip_id         = getStringIfPresent(result, "trip_id", columnForName);
-        trip.route_id        = getStringIfPresent(result, "route_id", columnForName);
-        trip.service_id      = getStringIfPresent(result, "service_id", columnForName);
-        trip.trip_headsign   = getStringIfPresent(result, "trip_headsign", columnForName);
-        trip.trip_short_name = getStringIfPresent(result, "trip_short_name", columnForName);
-        trip.block_id        = getStringIfPresent(result, "block_id", columnForName);
-        trip.shape_id        = getStringIfPresent(result, "shape_id", columnForName);
-        trip.direction_id    = getIntIfPresent   (result, "direction_id", columnForName);
-        trip.bikes_allowed   = getIntIfPresent   (result, "bikes_allowed", columnForName);
-        trip.wheelchair_accessible = getIntIfPresent(result, "wheelchair_accessible", columnForName);
-        return trip;
-    };
-
-    EntityPopulator<ShapePoint> SHAPE_POINT = (result, columnForName) -> {
-        ShapePoint shapePoint          = new ShapePoint();
-        shapePoint.shape_id            = getStringIfPresent(result, "shape_id", columnForName);
-        shapePoint.shape_pt_lat        = getDoubleIfPresent(result, "shape_pt_lat", columnForName);
-        shapePoint.shape_pt_lon        = getDoubleIfPresent(result, "shape_pt_lon", columnForName);
-        shapePoint.shape_pt_sequence   = getIntIfPresent   (result, "shape_pt_sequence", columnForName);
-        shapePoint.shape_dist_traveled = getDoubleIfPresent(result, "shape_dist_traveled", columnForName);
-        return shapePoint;
-    };
-
-    EntityPopulator<StopTime> STOP_TIME = (result, columnForName) -> {
-        StopTime stopTime            = new StopTime();
-        stopTime.trip_id             = getStringIfPresent(result, "trip_id", columnForName);
-        stopTime.arrival_time        = getIntIfPresent   (result, "arrival_time", columnForName);
-        stopTime.departure_time      = getIntIfPresent   (result, "departure_time", columnForName);
-        stopTime.stop_id             = getStringIfPresent(result, "stop_id", columnForName);
-        stopTime.stop_sequence       = getIntIfPresent   (result, "stop_sequence", columnForName);
-        stopTime.stop_headsign       = getStringIfPresent(result, "stop_headsign", columnForName);
-        stopTime.pickup_type         = getIntIfPresent   (result, "pickup_type", columnForName);
-        stopTime.drop_off_type       = getIntIfPresent   (result, "drop_off_type", columnForName);
-        stopTime.timepoint           = getIntIfPresent   (result, "timepoint", columnForName);
-        stopTime.shape_dist_traveled = getDoubleIfPresent(result, "shape_dist_traveled", columnForName);
-        return stopTime;
-    };
+    /**
+     * @return a populator for the rows of a result set with the given columns, which may resolve the columns it reads
+     * once rather than for every row (see {@link FieldPopulator}). By default this is the populator itself.
+     */
+    default EntityPopulator<T> forColumns (TObjectIntMap<String> columnForName) {
+        return this;
+    }
+
+    EntityPopulator<Agency> AGENCY = new FieldPopulator<Agency>(Agency::new)
+        .stringField("agency_id", (e, v) -> e.agency_id = v)
+        .stringField("agency_name", (e, v) -> e.agency_name = v)
+        .urlField("agency_url", (e, v) -> e.agency_url = v)
+        .stringField("agency_timezone", (e, v) -> e.agency_timezone = v)
+        .stringField("agency_lang", (e, v) -> e.agency_lang = v)
+        .stringField("agency_phone", (e, v) -> e.agency_phone = v)
+        .urlField("agency_fare_url", (e, v) -> e.agency_fare_url = v)
+        .stringField("agency_email", (e, v) -> e.agency_email = v)
+        .urlField("agency_branding_url", (e, v) -> e.agency_branding_url = v);
+
+    EntityPopulator<Calendar> CALENDAR = new FieldPopulator<Calendar>(Calendar::new)
+        .stringField("service_id", (e, v) -> e.service_id = v)
+        .dateField("start_date", (e, v) -> e.start_date = v)
+        .dateField("end_date", (e, v) -> e.end_date = v)
+        .intField("monday", (e, v) -> e.monday = v)
+        .intField("tuesday", (e, v) -> e.tuesday = v)
+        .intField("wednesday", (e, v) -> e.wednesday = v)
+        .intField("thursday", (e, v) -> e.thursday = v)
+        .intField("friday", (e, v) -> e.friday = v)
+        .intField("saturday", (e, v) -> e.saturday = v)
+        .intField("sunday", (e, v) -> e.sunday = v);
+
+    EntityPopulator<CalendarDate> CALENDAR_DATE = new FieldPopulator<CalendarDate>(CalendarDate::new)
+        .stringField("service_id", (e, v) -> e.service_id = v)
+        .dateField("date", (e, v) -> e.date = v)
+        .intField("exception_type", (e, v) -> e.exception_type = v);
+
+    EntityPopulator<FareAttribute> FARE_ATTRIBUTE = new FieldPopulator<FareAttribute>(FareAttribute::new)
+        .stringField("fare_id", (e, v) -> e.fare_id = v)
+        .stringField("agency_id", (e, v) -> e.agency_id = v)
+        .doubleField("price", (e, v) -> e.price = v)
+        .intField("payment_method", (e, v) -> e.payment_method = v)
+        .intField("transfers", (e, v) -> e.transfers = v)
+        .intField("transfer_duration", (e, v) -> e.transfer_duration = v);
+
+    EntityPopulator<Frequency> FREQUENCY = new FieldPopulator<Frequency>(Frequency::new)
+        .stringField("trip_id", (e, v) -> e.trip_id = v)
+        .intField("start_time", (e, v) -> e.start_time = v)
+        .intField("end_time", (e, v) -> e.end_time = v)
+        .intField("headway_secs", (e, v) -> e.headway_secs = v)
+        .intField("exact_times", (e, v) -> e.exact_times = v);
+
+    EntityPopulator<ScheduleException> SCHEDULE_EXCEPTION = new FieldPopulator<ScheduleException>(ScheduleException::new)
+        .stringField("name", (e, v) -> e.name = v)
+        .dateListField("dates", (e, v) -> e.dates = v)
+        .intField("exemplar", (e, v) -> e.exemplar = exemplarFromInt(v))
+        .stringListField("custom_schedule", (e, v) -> e.customSchedule = v)
+        .stringListField("added_service", (e, v) -> e.addedService = v)
+        .stringListField("removed_service", (e, v) -> e.removedService = v);
+
+    EntityPopulator<Route> ROUTE = new FieldPopulator<Route>(Route::new)
+        .stringField("route_id", (e, v) -> e.route_id = v)
+        .stringField("agency_id", (e, v) -> e.agency_id = v)
+        .stringField("route_short_name", (e, v) -> e.route_short_name = v)
+        .stringField("route_long_name", (e, v) -> e.route_long_name = v)
+        .stringField("route_desc", (e, v) -> e.route_desc = v)
+        .intField("route_type", (e, v) -> e.route_type = v)
+        .stringField("route_color", (e, v) -> e.route_color = v)
+        .stringField("route_text_color", (e, v) -> e.route_text_color = v)
+        .urlField("route_url", (e, v) -> e.route_url = v)
+        .urlField("route_branding_url", (e, v) -> e.route_branding_url = v);
+
+    EntityPopulator<Stop> STOP = new FieldPopulator<Stop>(Stop::new)
+        .stringField("stop_id", (e, v) -> e.stop_id = v)
+        .stringField("stop_code", (e, v) -> e.stop_code = v)
+        .stringField("stop_name", (e, v) -> e.stop_name = v)
+        .stringField("stop_desc", (e, v) -> e.stop_desc = v)
+        .doubleField("stop_lat", (e, v) -> e.stop_lat = v)
+        .doubleField("stop_lon", (e, v) -> e.stop_lon = v)
+        .stringField("zone_id", (e, v) -> e.zone_id = v)
+        .stringField("parent_station", (e, v) -> e.parent_station = v)
+        .stringField("stop_timezone", (e, v) -> e.stop_timezone = v)
+        .urlField("stop_url", (e, v) -> e.stop_url = v)
+        .intField("location_type", (e, v) -> e.location_type = v)
+        .intField("wheelchair_boarding", (e, v) -> e.wheelchair_boarding = Integer.toString(v));
+
+    EntityPopulator<Trip> TRIP = new FieldPopulator<Trip>(Trip::new)
+        .stringField("trip_id", (e, v) -> e.trip_id = v)
+        .stringField("route_id", (e, v) -> e.route_id = v)
+        .stringField("service_id", (e, v) -> e.service_id = v)
+        .stringField("trip_headsign", (e, v) -> e.trip_headsign = v)
+        .stringField("trip_short_name", (e, v) -> e.trip_short_name = v)
+        .stringField("block_id", (e, v) -> e.block_id = v)
+        .stringField("shape_id", (e, v) -> e.shape_id = v)
+        .intField("direction_id", (e, v) -> e.direction_id = v)
+        .intField("bikes_allowed", (e, v) -> e.bikes_allowed = v)
+        .intField("wheelchair_accessible", (e, v) -> e.wheelchair_accessible = v);
+
+    EntityPopulator<ShapePoint> SHAPE_POINT = new FieldPopulator<ShapePoint>(ShapePoint::new)
+        .stringField("shape_id", (e, v) -> e.shape_id = v)
+        .doubleField("shape_pt_lat", (e, v) -> e.shape_pt_lat = v)
+        .doubleField("shape_pt_lon", (e, v) -> e.shape_pt_lon = v)
+        .intField("shape_pt_sequence", (e, v) -> e.shape_pt_sequence = v)
+        .doubleField("shape_dist_traveled", (e, v) -> e.shape_dist_traveled = v);
+
+    EntityPopulator<StopTime> STOP_TIME = new FieldPopulator<StopTime>(StopTime::new)
+        .stringField("trip_id", (e, v) -> e.trip_id = v)
+        .intField("arrival_time", (e, v) -> e.arrival_time = v)
+        .intField("departure_time", (e, v) -> e.departure_time = v)
+        .stringField("stop_id", (e, v) -> e.stop_id = v)
+        .intField("stop_sequence", (e, v) -> e.stop_sequence = v)
+        .stringField("stop_headsign", (e, v) -> e.stop_headsign = v)
+        .intField("pickup_type", (e, v) -> e.pickup_type = v)
+        .intField("drop_off_type", (e, v) -> e.drop_off_type = v)
+        .intField("timepoint", (e, v) -> e.timepoint = v)
+        .doubleField("shape_dist_traveled", (e, v) -> e.shape_dist_traveled = v);
 
     // The reason we're passing in the columnForName map is that resultSet.getX(columnName) throws an exception
     // when the column is not present.
     // Exceptions should only be used in exceptional circumstances (ones that should be logged as errors).
-    // Conceivably we could iterate over the fields present using ResultSetMetaData and set the object fields only
-    // for those fields present. Or we could create cursor objects that allow accessing the fields of the ResultSet
-    // in a typed way. Those cursor objects would make their own columnForName map when constructed.
+    // Each getter below also has a positional version, which takes a column index that has already been looked up in
+    // the columnForName map (zero meaning the column is not present).
 
     static String getStringIfPresent (ResultSet resultSet, String columnName,
                                              TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getStringIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static String getStringIfPresent (ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return null;
         else return resultSet.getString(columnIndex);
     }
 
     static LocalDate getDateIfPresent (ResultSet resultSet, String columnName,
                                              TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getDateIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static LocalDate getDateIfPresent (ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return null;
         else {
             try {
@@ -241,7 +218,10 @@ public interface EntityPopulator<T> {
 
     static List<String> getStringListIfPresent(ResultSet resultSet, String columnName,
                                        TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getStringListIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static List<String> getStringListIfPresent(ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return new ArrayList<>();
         try {
             List<String> strings = Arrays.asList((String[]) resultSet.getArray(columnIndex).getArray());
@@ -254,7 +234,10 @@ public interface EntityPopulator<T> {
 
     static List<LocalDate> getDateListIfPresent(ResultSet resultSet, String columnName,
                                         TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getDateListIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static List<LocalDate> getDateListIfPresent(ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return new ArrayList<>();
         try {
             String[] dateStrings = (String[]) resultSet.getArray(columnIndex).getArray();
@@ -268,7 +251,10 @@ public interface EntityPopulator<T> {
 
     static URL getUrlIfPresent (ResultSet resultSet, String columnName,
                                        TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getUrlIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static URL getUrlIfPresent (ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return null;
         try {
             URL url = new URL(resultSet.getString(columnIndex));
@@ -280,7 +266,10 @@ public interface EntityPopulator<T> {
 
     static double getDoubleIfPresent (ResultSet resultSet, String columnName,
                                              TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getDoubleIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static double getDoubleIfPresent (ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return Entity.DOUBLE_MISSING;
         double doubleValue = resultSet.getDouble(columnIndex);
         // If SQL value for column was null, resultSet.getDouble will return 0.0. If this is the case, override value with
@@ -291,7 +280,10 @@ public interface EntityPopulator<T> {
 
     static int getIntIfPresent (ResultSet resultSet, String columnName,
                                        TObjectIntMap<String> columnForName) throws SQLException {
-        int columnIndex = columnForName.get(columnName);
+        return getIntIfPresent(resultSet, columnForName.get(columnName));
+    }
+
+    static int getIntIfPresent (ResultSet resultSet, int columnIndex) throws SQLException {
         if (columnIndex == 0) return Entity.INT_MISSING;
         int intValue = resultSet.getInt(columnIndex);
         // If SQL value for column was null, resultSet.getInt will return 0. If this is the case, override value with
@@ -1,5 +1,6 @@
 package com.conveyal.gtfs.loader;
 
+import com.conveyal.gtfs.error.DeferredErrorStorage;
 import com.conveyal.gtfs.error.GTFSError;
 import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.SQLErrorStorage;
@@ -15,7 +16,15 @@ import java.sql.Connection;
 import java.sql.SQLException;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.function.Function;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.VALIDATOR_FAILED;
 
@@ -47,6 +56,15 @@ public class Feed {
     // TODO remove this and use only NewGTFSErrors in Validators, loaded into a JDBC table
     public final List<GTFSError> errors = new ArrayList<>();
 
+    // Whether validation errors are inserted into the database by a background thread on a separate connection.
+    private boolean backgroundErrorWriter = false;
+
+    // The maximum number of validators run at the same time.
+    private int parallelism = 1;
+
+    // How close together two stops must be to be reported as duplicates (see DuplicateStopsValidator).
+    private double duplicateStopThresholdMeters = DuplicateStopsValidator.DEFAULT_THRESHOLD_METERS;
+
     /**
      * Create a feed that reads tables over a JDBC connection. The connection should already be set to the right
      * schema within the database.
@@ -69,6 +87,54 @@ public class Feed {
         stopTimes = new JDBCTableReader(Table.STOP_TIMES, dataSource, tablePrefix, EntityPopulator.STOP_TIME);
     }
 
+    /**
+     * Fluent method to keep up to the given number of routes, stops and trips fetched by ID in memory (see
+     * {@link JDBCTableReader#withCache(int)}), for callers that fetch the same entities many times. Entities returned
+     * from the caches are shared, so callers must not modify them.
+     */
+    public Feed withEntityCache (int maximumSize) {
+        ((JDBCTableReader<Route>) routes).withCache(maximumSize);
+        ((JDBCTableReader<Stop>) stops).withCache(maximumSize);
+        ((JDBCTableReader<Trip>) trips).withCache(maximumSize);
+        return this;
+    }
+
+    /**
+     * Fluent method to insert the errors found by validation into the database on a background thread with its own
+     * connection (see {@link SQLErrorStorage#withBackgroundWriter(Connection)}), so that validators that find very
+     * many errors are not held up by error inserts.
+     */
+    public Feed withBackgroundErrorWriter (boolean backgroundErrorWriter) {
+        this.backgroundErrorWriter = backgroundErrorWriter;
+        return this;
+    }
+
+    /**
+     * Fluent method to run up to the given number of validators at the same time. Validators that declare which tables
+     * they read (see {@link Validator#getTablesRead()}) run concurrently, each reading over its own connections from
+     * the data source, which should therefore allow at least this many connections. Each validator holds its errors in
+     * memory and they are stored in the usual validator order, so the stored errors are the same as when validating
+     * one validator at a time. The complete stages then run one at a time, with any validator that writes a derived
+     * table completing before validators that read it. NewTripTimesValidator also uses this many threads of its own to
+     * validate ranges of trips (see {@link NewTripTimesValidator#withParallelism(int)}).
+     */
+    public Feed withParallelism (int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least one.");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Fluent method to set how close together (in projected meters along each axis) two stops must be to be reported
+     * as duplicates by validation (see {@link DuplicateStopsValidator#withThresholdMeters(double)}). Defaults to two
+     * meters.
+     */
+    public Feed withDuplicateStopThresholdMeters (double thresholdMeters) {
+        if (!(thresholdMeters > 0)) throw new IllegalArgumentException("Duplicate stop threshold must be positive.");
+        this.duplicateStopThresholdMeters = thresholdMeters;
+        return this;
+    }
+
     /**
      * TODO check whether validation has already occurred, overwrite results.
      * TODO allow validation within feed loading process, so the same connection can be used, and we're certain loaded data is 100% visible.
@@ -83,46 +149,35 @@ public class Feed {
         SQLErrorStorage errorStorage = null;
         try {
             errorStorage = new SQLErrorStorage(dataSource.getConnection(), tablePrefix, false);
+            if (backgroundErrorWriter) errorStorage.withBackgroundWriter(dataSource.getConnection());
         } catch (SQLException | InvalidNamespaceException ex) {
             throw new StorageException(ex);
         }
         int errorCountBeforeValidation = errorStorage.getErrorCount();
 
-        List<FeedValidator> feedValidators = Arrays.asList(
-                new MisplacedStopValidator(this, errorStorage, validationResult),
-                new DuplicateStopsValidator(this, errorStorage),
-                new FaresValidator(this, errorStorage),
-                new FrequencyValidator(this, errorStorage),
-                new TimeZoneValidator(this, errorStorage),
-                new NewTripTimesValidator(this, errorStorage),
-                new NamesValidator(this, errorStorage));
-
-        for (FeedValidator feedValidator : feedValidators) {
-            String validatorName = feedValidator.getClass().getSimpleName();
-            try {
-                LOG.info("Running {}.", validatorName);
-                int errorCountBefore = errorStorage.getErrorCount();
-                // todo why not just pass the feed and errorstorage in here?
-                feedValidator.validate();
-                LOG.info("{} found {} errors.", validatorName, errorStorage.getErrorCount() - errorCountBefore);
-            } catch (Exception e) {
-                // store an error if the validator fails
-                // FIXME: should the exception be stored?
-                String badValue = String.join(":", validatorName, e.toString());
-                errorStorage.storeError(NewGTFSError.forFeed(VALIDATOR_FAILED, badValue));
-                LOG.error("{} failed.", validatorName);
-                LOG.error(e.toString());
-                e.printStackTrace();
+        List<Function<SQLErrorStorage, FeedValidator>> validatorFactories = Arrays.asList(
+                storage -> new MisplacedStopValidator(this, storage, validationResult),
+                storage -> new DuplicateStopsValidator(this, storage)
+                    .withThresholdMeters(duplicateStopThresholdMeters),
+                storage -> new FaresValidator(this, storage),
+                storage -> new FrequencyValidator(this, storage),
+                storage -> new TimeZoneValidator(this, storage),
+                storage -> new NewTripTimesValidator(this, storage).withParallelism(parallelism),
+                storage -> new NamesValidator(this, storage));
+
+        List<FeedValidator> feedValidators = new ArrayList<>();
+        if (parallelism > 1) {
+            feedValidators.addAll(validateInParallel(validatorFactories, errorStorage, validationResult));
+        } else {
+            for (Function<SQLErrorStorage, FeedValidator> factory : validatorFactories) {
+                feedValidators.add(factory.apply(errorStorage));
             }
-        }
-        // Signal to all validators that validation is complete and allow them to report on results / status.
-        for (FeedValidator feedValidator : feedValidators) {
-            try {
-                feedValidator.complete(validationResult);
-            } catch (Exception e) {
-                String badValue = String.join(":", feedValidator.getClass().getSimpleName(), e.toString());
-                errorStorage.storeError(NewGTFSError.forFeed(VALIDATOR_FAILED, badValue));
-                LOG.error("Validator failed completion stage.", e);
+            for (FeedValidator feedValidator : feedValidators) {
+                runValidator(feedValidator, errorStorage);
+            }
+            // Signal to all validators that validation is complete and allow them to report on results / status.
+            for (FeedValidator feedValidator : feedValidators) {
+                completeValidator(feedValidator, validationResult, errorStorage);
             }
         }
         // Total validation errors accounts for errors found during both loading and validation. Otherwise, this value
@@ -144,6 +199,130 @@ public class Feed {
         return validationResult;
     }
 
+    /**
+     * Run the validate stage of a single validator, storing a VALIDATOR_FAILED error if it throws an exception.
+     */
+    private static void runValidator (FeedValidator feedValidator, SQLErrorStorage errorStorage) {
+        String validatorName = feedValidator.getClass().getSimpleName();
+        try {
+            LOG.info("Running {}.", validatorName);
+            int errorCountBefore = errorStorage.getErrorCount();
+            // todo why not just pass the feed and errorstorage in here?
+            feedValidator.validate();
+            LOG.info("{} found {} errors.", validatorName, errorStorage.getErrorCount() - errorCountBefore);
+        } catch (Exception e) {
+            // store an error if the validator fails
+            // FIXME: should the exception be stored?
+            String badValue = String.join(":", validatorName, e.toString());
+            errorStorage.storeError(NewGTFSError.forFeed(VALIDATOR_FAILED, badValue));
+            LOG.error("{} failed.", validatorName);
+            LOG.error(e.toString());
+            e.printStackTrace();
+        }
+    }
+
+    /**
+     * Run the complete stage of a single validator, storing a VALIDATOR_FAILED error if it throws an exception.
+     */
+    private static void completeValidator (FeedValidator feedValidator, ValidationResult validationResult,
+                                           SQLErrorStorage errorStorage) {
+        try {
+            feedValidator.complete(validationResult);
+        } catch (Exception e) {
+            String badValue = String.join(":", feedValidator.getClass().getSimpleName(), e.toString());
+            errorStorage.storeError(NewGTFSError.forFeed(VALIDATOR_FAILED, badValue));
+            LOG.error("Validator failed completion stage.", e);
+        }
+    }
+
+    /**
+     * Create the validators, each with its own in-memory error storage, and run their validate stages concurrently
+     * with up to {@link #parallelism} threads. A validator that does not declare the tables it reads is run on its own.
+     * Once every validate stage is done, the complete stages run one at a time in dependency order. The errors of each
+     * stage are transferred to the shared error storage in the same order as sequential validation would store them.
+     * @return the validators in their original order
+     */
+    private List<FeedValidator> validateInParallel (List<Function<SQLErrorStorage, FeedValidator>> validatorFactories,
+                                                    SQLErrorStorage errorStorage, ValidationResult validationResult) {
+        LOG.info("Running validators with parallelism {}", parallelism);
+        Map<FeedValidator, DeferredErrorStorage> validatorErrors = new LinkedHashMap<>();
+        for (Function<SQLErrorStorage, FeedValidator> factory : validatorFactories) {
+            DeferredErrorStorage errors = new DeferredErrorStorage();
+            validatorErrors.put(factory.apply(errors), errors);
+        }
+        List<FeedValidator> feedValidators = new ArrayList<>(validatorErrors.keySet());
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < feedValidators.size(); i++) {
+                FeedValidator feedValidator = feedValidators.get(i);
+                // Derived tables are only written in the complete stage, so a validate stage only needs to wait for an
+                // earlier one when either of the two validators has not declared what it reads.
+                boolean runAlone = feedValidator.getTablesRead() == null;
+                List<CompletableFuture<Void>> dependencies = new ArrayList<>();
+                for (int j = 0; j < i; j++) {
+                    if (runAlone || feedValidators.get(j).getTablesRead() == null) dependencies.add(futures.get(j));
+                }
+                DeferredErrorStorage errors = validatorErrors.get(feedValidator);
+                futures.add(CompletableFuture.allOf(dependencies.toArray(new CompletableFuture[0]))
+                    .thenRunAsync(() -> runValidator(feedValidator, errors), executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } finally {
+            executor.shutdown();
+        }
+        for (DeferredErrorStorage errors : validatorErrors.values()) errors.transferTo(errorStorage);
+        // Signal to all validators that validation is complete and allow them to report on results / status.
+        for (FeedValidator feedValidator : getCompletionOrder(feedValidators)) {
+            DeferredErrorStorage errors = validatorErrors.get(feedValidator);
+            completeValidator(feedValidator, validationResult, errors);
+            errors.transferTo(errorStorage);
+        }
+        return feedValidators;
+    }
+
+    /**
+     * Order validators so that each one that writes a derived table completes before any validator that reads it (or
+     * that does not declare what it reads), keeping the original order wherever there is no such dependency.
+     */
+    private static List<FeedValidator> getCompletionOrder (List<FeedValidator> feedValidators) {
+        List<FeedValidator> remaining = new ArrayList<>(feedValidators);
+        List<FeedValidator> ordered = new ArrayList<>();
+        while (!remaining.isEmpty()) {
+            FeedValidator next = null;
+            for (FeedValidator candidate : remaining) {
+                boolean ready = remaining.stream()
+                    .noneMatch(other -> other != candidate && mustCompleteBefore(other, candidate, feedValidators));
+                if (ready) {
+                    next = candidate;
+                    break;
+                }
+            }
+            if (next == null) {
+                // The declarations form a cycle, so fall back on the original order for the validators involved.
+                next = remaining.get(0);
+                LOG.warn("Circular derived table dependency involving {}.", next.getClass().getSimpleName());
+            }
+            remaining.remove(next);
+            ordered.add(next);
+        }
+        return ordered;
+    }
+
+    /**
+     * @return whether the first validator must complete before the second, because the first writes a derived table
+     * that the second reads, or both write the same table and the first comes earlier in the list.
+     */
+    private static boolean mustCompleteBefore (FeedValidator first, FeedValidator second,
+                                               List<FeedValidator> feedValidators) {
+        Set<String> written = first.getDerivedTablesWritten();
+        if (written.isEmpty()) return false;
+        Set<String> read = second.getTablesRead();
+        if (read == null || !Collections.disjoint(written, read)) return true;
+        return !Collections.disjoint(written, second.getDerivedTablesWritten())
+            && feedValidators.indexOf(first) < feedValidators.indexOf(second);
+    }
+
     /**
      * @return a JDBC connection to the database underlying this Feed.
      */
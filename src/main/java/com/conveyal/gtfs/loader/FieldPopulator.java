@@ -0,0 +1,110 @@
+package com.conveyal.gtfs.loader;
+
+import gnu.trove.map.TObjectIntMap;
+
+import java.net.URL;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.BiConsumer;
+import java.util.function.ObjDoubleConsumer;
+import java.util.function.ObjIntConsumer;
+import java.util.function.Supplier;
+
+/**
+ * An {@link EntityPopulator} described as a list of columns, each with a setter for the corresponding entity field.
+ * When it is bound to the columns of a result set with {@link #forColumns(TObjectIntMap)}, the position of each column
+ * is looked up once and every row is then read by position, rather than looking up every column by name for every row.
+ * Columns missing from the result set (e.g., because they were not selected) are given the usual missing values.
+ */
+public class FieldPopulator<T> implements EntityPopulator<T> {
+
+    private final Supplier<T> constructor;
+    private final List<String> columnNames = new ArrayList<>();
+    private final List<ColumnReader<T>> columnReaders = new ArrayList<>();
+
+    public FieldPopulator (Supplier<T> constructor) {
+        this.constructor = constructor;
+    }
+
+    public FieldPopulator<T> stringField (String columnName, BiConsumer<T, String> setter) {
+        return addField(columnName, (result, column, entity) ->
+            setter.accept(entity, EntityPopulator.getStringIfPresent(result, column)));
+    }
+
+    public FieldPopulator<T> intField (String columnName, ObjIntConsumer<T> setter) {
+        return addField(columnName, (result, column, entity) ->
+            setter.accept(entity, EntityPopulator.getIntIfPresent(result, column)));
+    }
+
+    public FieldPopulator<T> doubleField (String columnName, ObjDoubleConsumer<T> setter) {
+        return addField(columnName, (result, column, entity) ->
+            setter.accept(entity, EntityPopulator.getDoubleIfPresent(result, column)));
+    }
+
+    public FieldPopulator<T> dateField (String columnName, BiConsumer<T, LocalDate> setter) {
+        return addField(columnName, (result, column, entity) ->
+            setter.accept(entity, EntityPopulator.getDateIfPresent(result, column)));
+    }
+
+    public FieldPopulator<T> urlField (String columnName, BiConsumer<T, URL> setter) {
+        return addField(columnName, (result, column, entity) ->
+            setter.accept(entity, EntityPopulator.getUrlIfPresent(result, column)));
+    }
+
+    public FieldPopulator<T> stringListField (String columnName, BiConsumer<T, List<String>> setter) {
+        return addField(columnName, (result, column, entity) ->
+            setter.accept(entity, EntityPopulator.getStringListIfPresent(result, column)));
+    }
+
+    public FieldPopulator<T> dateListField (String columnName, BiConsumer<T, List<LocalDate>> setter) {
+        return addField(columnName, (result, column, entity) ->
+            setter.accept(entity, EntityPopulator.getDateListIfPresent(result, column)));
+    }
+
+    private FieldPopulator<T> addField (String columnName, ColumnReader<T> columnReader) {
+        columnNames.add(columnName);
+        columnReaders.add(columnReader);
+        return this;
+    }
+
+    /**
+     * @return the names of the columns this populator reads.
+     */
+    public List<String> getColumnNames () {
+        return columnNames;
+    }
+
+    /**
+     * Look up each column by name and populate an entity. Prefer {@link #forColumns(TObjectIntMap)} when reading more
+     * than one row.
+     */
+    @Override
+    public T populate (ResultSet results, TObjectIntMap<String> columnForName) throws SQLException {
+        return forColumns(columnForName).populate(results, columnForName);
+    }
+
+    @Override
+    public EntityPopulator<T> forColumns (TObjectIntMap<String> columnForName) {
+        int[] columns = new int[columnNames.size()];
+        for (int i = 0; i < columns.length; i++) {
+            // No entry value is zero, which marks a missing column.
+            columns[i] = columnForName.get(columnNames.get(i));
+        }
+        @SuppressWarnings("unchecked")
+        ColumnReader<T>[] readers = columnReaders.toArray(new ColumnReader[0]);
+        return (results, ignored) -> {
+            T entity = constructor.get();
+            for (int i = 0; i < columns.length; i++) readers[i].read(results, columns[i], entity);
+            return entity;
+        };
+    }
+
+    /** Reads the value in one (one-based) column position of the current row into a field of the entity. */
+    @FunctionalInterface
+    private interface ColumnReader<T> {
+        void read (ResultSet result, int column, T entity) throws SQLException;
+    }
+}
@@ -11,9 +11,14 @@ import org.slf4j.LoggerFactory;
 import javax.sql.DataSource;
 import java.lang.reflect.Field;
 import java.sql.*;
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.stream.Collectors;
 
 import static java.sql.ResultSet.TYPE_FORWARD_ONLY;
@@ -38,13 +43,18 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
 
     private final TObjectIntMap<String> columnForName;
     private final DataSource dataSource;
+    private final String tablePrefix;
     private final String qualifiedTableName;
     private final String selectClause;
+    // If not null, entities fetched by ID are kept in this cache.
+    private EntityCache<T> cache;
+
     /**
      * @param tablePrefix must not be null, can be empty string, should include any separator character (dot)
      */
     public JDBCTableReader(Table specTable, DataSource dataSource, String tablePrefix, EntityPopulator<T> entityPopulator) {
         qualifiedTableName = tablePrefix + specTable.name;
+        this.tablePrefix = tablePrefix;
         this.dataSource = dataSource;
         this.entityPopulator = entityPopulator;
         this.specTable = specTable;
@@ -70,6 +80,62 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
         }
     }
 
+    /**
+     * Create a reader for the given subset of another reader's columns. The column positions are known from the select
+     * clause, so there is no need to query the database for the result set metadata again.
+     */
+    private JDBCTableReader(JDBCTableReader<T> allColumnsReader, List<String> columnNames) {
+        this.tablePrefix = allColumnsReader.tablePrefix;
+        this.qualifiedTableName = allColumnsReader.qualifiedTableName;
+        this.dataSource = allColumnsReader.dataSource;
+        this.entityPopulator = allColumnsReader.entityPopulator;
+        this.specTable = allColumnsReader.specTable;
+        this.columnForName = new TObjectIntHashMap<>();
+        for (int c = 0; c < columnNames.size(); c++) {
+            columnForName.put(columnNames.get(c), c + 1);
+        }
+        this.selectClause = String.format("select %s from %s", String.join(", ", columnNames), qualifiedTableName);
+    }
+
+    /**
+     * @return a reader for the same table that only fetches the given columns (plus the id and key columns) from the
+     * database, and does not share this reader's cache.
+     * Columns that do not exist in the table are ignored, and the entity fields for the columns that are not fetched
+     * are left with missing values, so this should only be used when the caller does not need those fields.
+     */
+    @Override
+    public JDBCTableReader<T> selectColumns (String... columnNames) {
+        List<String> selectedColumns = new ArrayList<>();
+        selectedColumns.add("id");
+        // The key field is needed to look up entities by ID.
+        String keyField = specTable.getKeyFieldName();
+        if (columnForName.containsKey(keyField) && !keyField.equals("id")) selectedColumns.add(keyField);
+        for (String columnName : columnNames) {
+            if (columnForName.containsKey(columnName) && !selectedColumns.contains(columnName)) {
+                selectedColumns.add(columnName);
+            }
+        }
+        return new JDBCTableReader<>(this, selectedColumns);
+    }
+
+    /**
+     * Fluent method to keep up to the given number of entities fetched by ID (with {@link #get(String)} or
+     * {@link #getAll(Collection)}) in a least recently used cache, which is invalidated when JdbcTableWriter commits
+     * changes to the feed. Entities returned from the cache are shared, so callers must not modify them.
+     */
+    public JDBCTableReader<T> withCache (int maximumSize) {
+        this.cache = new EntityCache<>(tablePrefix, maximumSize);
+        return this;
+    }
+
+    /**
+     * @return the cache of entities fetched by ID (e.g. to check its hit and miss statistics), or null if this reader
+     * does not have one.
+     */
+    public EntityCache<T> getCache () {
+        return cache;
+    }
+
     /**
      * As a convenience, the TableReader itself is iterable.
      * Seen as an iterable, the TableReader is equivalent to calling tableReader.getAll().
@@ -84,8 +150,69 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
      */
     @Override
     public T get (final String id) {
-        // This is slightly less efficient than writing custom code, but code reuse is good.
-        return getUnordered(id).iterator().next();
+        if (cache == null) {
+            // This is slightly less efficient than writing custom code, but code reuse is good.
+            return getUnordered(id).iterator().next();
+        }
+        // Get the cache version before reading from the database, so that the entity is not cached if the feed
+        // changes in the meantime.
+        long version = cache.getVersion();
+        T entity = cache.get(id);
+        if (entity == null) {
+            entity = getUnordered(id).iterator().next();
+            cache.put(id, entity, version);
+        }
+        return entity;
+    }
+
+    /**
+     * Get the items from this table with any of the given IDs, using the cache (if any) and fetching the rest in a
+     * single query.
+     * @return a map from each ID found to the item with that ID (the first in order for tables with sequence numbers).
+     * IDs that are not in the table are not in the map.
+     */
+    @Override
+    public Map<String, T> getAll (Collection<String> ids) {
+        Map<String, T> entityForId = new HashMap<>();
+        long version = cache == null ? 0 : cache.getVersion();
+        List<String> uncachedIds = new ArrayList<>();
+        for (String id : new HashSet<>(ids)) {
+            T entity = cache == null ? null : cache.get(id);
+            if (entity == null) uncachedIds.add(id);
+            else entityForId.put(id, entity);
+        }
+        if (uncachedIds.isEmpty()) return entityForId;
+        String keyField = specTable.getKeyFieldName();
+        String orderByField = specTable.getOrderFieldName();
+        String sql = String.format("%s where %s = any(?)", selectClause, keyField);
+        if (orderByField != null) sql += String.format(" order by %s, %s", keyField, orderByField);
+        // Try-with-resources will automatically close the connection when the try block exits.
+        try (Connection connection = dataSource.getConnection()) {
+            PreparedStatement preparedStatement = connection.prepareStatement(sql);
+            preparedStatement.setArray(1, connection.createArrayOf("varchar", uncachedIds.toArray()));
+            LOG.info(preparedStatement.toString());
+            ResultSet results = preparedStatement.executeQuery();
+            EntityPopulator<T> rowPopulator = entityPopulator.forColumns(columnForName);
+            int idColumn = columnForName.get("id");
+            int keyColumn = columnForName.get(keyField);
+            while (results.next()) {
+                String id = results.getString(keyColumn);
+                // Keep only the first item for each ID, which is the one get(id) would return.
+                if (entityForId.containsKey(id)) continue;
+                T entity = rowPopulator.populate(results, columnForName);
+                entity.id = EntityPopulator.getIntIfPresent(results, idColumn);
+                entityForId.put(id, entity);
+                if (cache != null) cache.put(id, entity, version);
+            }
+            return entityForId;
+        } catch (SQLException ex) {
+            if (SQL_STATE_UNDEFINED_TABLE.equals(ex.getSQLState())) {
+                // Table is just missing, as if it were an empty table.
+                return entityForId;
+            } else {
+                throw new StorageException(ex);
+            }
+        }
     }
 
     /**
@@ -123,6 +250,16 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
         return () -> new EntityIterator(null, true);
     }
 
+    /**
+     * Get all the items from this table whose ID is in the range [fromId, toId), in order. This allows a large table
+     * to be read in several parts at the same time (e.g. stop times for ranges of trip IDs), each on its own
+     * connection.
+     */
+    @Override
+    public Iterable<T> getOrderedInRange (final String fromId, final String toId) {
+        return () -> new EntityIterator(null, fromId, toId, true);
+    }
+
     /**
      * @return the total number of rows in this table, or -1 if the table does not exist.
      */
@@ -151,16 +288,41 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
         private Connection connection; // Will remain open for the duration of the iteration.
         private boolean hasMoreEntities;
         private ResultSet results;
+        // The populator and id column position are bound to the columns once, rather than looked up for every row.
+        private final EntityPopulator<T> rowPopulator = entityPopulator.forColumns(columnForName);
+        private final int idColumn = columnForName.get("id");
 
         EntityIterator (String id, boolean ordered) {
+            this(id, null, null, ordered);
+        }
+
+        /**
+         * @param fromId if not null, only entities with an ID greater than or equal to this are returned
+         * @param toId   if not null, only entities with an ID less than this are returned
+         */
+        EntityIterator (String id, String fromId, String toId, boolean ordered) {
             try {
                 connection = dataSource.getConnection();
                 PreparedStatement preparedStatement;
                 String sql = selectClause;
                 String idField = specTable.getKeyFieldName();
                 String orderByField = specTable.getOrderFieldName();
+                List<String> conditions = new ArrayList<>();
+                List<String> parameters = new ArrayList<>();
                 if (id != null) {
-                    sql += String.format(" where %s = ?", idField);
+                    conditions.add(String.format("%s = ?", idField));
+                    parameters.add(id);
+                }
+                if (fromId != null) {
+                    conditions.add(String.format("%s >= ?", idField));
+                    parameters.add(fromId);
+                }
+                if (toId != null) {
+                    conditions.add(String.format("%s < ?", idField));
+                    parameters.add(toId);
+                }
+                if (!conditions.isEmpty()) {
+                    sql += " where " + String.join(" and ", conditions);
                 }
                 if (ordered && orderByField != null) {
                     sql += String.format(" order by %s, %s", idField, orderByField);
@@ -179,9 +341,9 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
                     // Those settings allow cursors to be used efficiently.
                     preparedStatement.setFetchSize(1000);
                 }
-                if (id != null) {
-                    // Fill the primary key into the prepared statement
-                    preparedStatement.setString(1, id);
+                // Fill the primary key (or key range) into the prepared statement
+                for (int i = 0; i < parameters.size(); i++) {
+                    preparedStatement.setString(i + 1, parameters.get(i));
                 }
                 // Display the SQL statement for clarity
                 LOG.info(preparedStatement.toString());
@@ -223,10 +385,10 @@ public class JDBCTableReader<T extends Entity> implements TableReader<T> {
         @Override
         public T next() {
             try {
-                T entity = entityPopulator.populate(results, columnForName);
+                T entity = rowPopulator.populate(results, columnForName);
                 // Set the line number on every entity the same way
                 // rather than repeating this statement in each implementation class.
-                entity.id = EntityPopulator.getIntIfPresent(results, "id", columnForName);
+                entity.id = EntityPopulator.getIntIfPresent(results, idColumn);
                 hasMoreEntities = results.next();
                 if (!hasMoreEntities) {
                     // No more entities to iterate over. We can close the database connection.
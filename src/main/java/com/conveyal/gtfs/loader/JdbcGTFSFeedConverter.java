@@ -125,6 +125,8 @@ public class JdbcGTFSFeedConverter {
 //            result.errorCount = errorStorage.getErrorCount();
             // This will commit and close the single connection that has been shared between all preceding load steps.
             errorStorage.commitAndClose();
+            // Tables of the namespace may have been looked up while it was still being loaded.
+            ColumnRegistry.invalidate(tablePrefix);
             result.completionTime = System.currentTimeMillis();
             result.loadTimeMillis = result.completionTime - startTime;
             LOG.info("Loading tables took {} sec", result.loadTimeMillis / 1000);
@@ -5,6 +5,8 @@ import com.conveyal.gtfs.model.Calendar;
 import com.conveyal.gtfs.model.CalendarDate;
 import com.conveyal.gtfs.model.ScheduleException;
 import com.conveyal.gtfs.model.Service;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
 import org.apache.commons.dbutils.DbUtils;
 import org.postgresql.copy.CopyManager;
 import org.postgresql.core.BaseConnection;
@@ -12,23 +14,24 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import javax.sql.DataSource;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.FileOutputStream;
-import java.io.FilterOutputStream;
 import java.io.IOException;
 import java.io.OutputStream;
-import java.net.URI;
-import java.nio.file.FileSystem;
-import java.nio.file.FileSystems;
 import java.nio.file.Files;
-import java.nio.file.Path;
 import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
 import java.sql.SQLException;
+import java.sql.Statement;
 import java.time.LocalDate;
 import java.util.ArrayList;
-import java.util.HashMap;
 import java.util.List;
-import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipOutputStream;
 
@@ -41,13 +44,19 @@ public class JdbcGtfsExporter {
     private final String outFile;
     private final DataSource dataSource;
     private final boolean fromEditor;
+    private int parallelism = 1;
 
     // These fields will be filled in once feed snapshot begins.
     private Connection connection;
     private ZipOutputStream zipOutputStream;
     // The reference feed ID (namespace) to copy.
     private final String feedIdToExport;
-    private List<String> emptyTableList = new ArrayList<>();
+    // Only used when exporting tables in parallel (see withParallelism).
+    private ExecutorService executor;
+    // The snapshot of the main connection's transaction that each table's connection imports (see exportSnapshot).
+    private String snapshotId;
+    // Tables being copied to temporary files, in the order their entries are to be added to the zip file.
+    private final List<SpooledTable> spooledTables = new ArrayList<>();
 
     public JdbcGtfsExporter(String feedId, String outFile, DataSource dataSource, boolean fromEditor) {
         this.feedIdToExport = feedId;
@@ -56,6 +65,21 @@ public class JdbcGtfsExporter {
         this.fromEditor = fromEditor;
     }
 
+    /**
+     * Fluent method to set the number of tables that may be exported at the same time. With a value greater than one,
+     * each table is copied out of the database on a separate connection taken from the data source into a temporary
+     * file, and the files are added to the zip file in the usual table order as they are finished. Compressing the
+     * largest tables (e.g., stop_times) then overlaps with copying the others, rather than each table waiting its turn.
+     * All of the tables are copied from a single snapshot of the database, so changes committed during the export do
+     * not appear in some tables but not others. The resulting entries are identical to a sequential export of an
+     * unchanging feed. The default of one exports all tables in turn on a single connection directly into the zip file.
+     */
+    public JdbcGtfsExporter withParallelism (int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least one.");
+        this.parallelism = parallelism;
+        return this;
+    }
+
     /**
      * Export primary entity tables as well as Pattern and PatternStops tables.
      *
@@ -79,6 +103,11 @@ public class JdbcGtfsExporter {
                 // This code path currently requires the Postgres text "copy to" format.
                 throw new RuntimeException("Export from SQL database not implemented for non-PostgreSQL databases.");
             }
+            if (parallelism > 1) {
+                LOG.info("Exporting tables with parallelism {}", parallelism);
+                executor = Executors.newFixedThreadPool(parallelism);
+                snapshotId = exportSnapshot(connection);
+            }
             // Construct where clause for routes table to filter only "approved" routes (and entities related to routes)
             // if exporting a feed/schema that represents an editor snapshot.
             String whereRouteIsApproved = String.format("where %s.%s.status = 2", feedIdToExport, Table.ROUTES.name);
@@ -101,23 +130,13 @@ public class JdbcGtfsExporter {
             if (fromEditor) {
                 // Export schedule exceptions in place of calendar dates if exporting a feed/schema that represents an editor snapshot.
                 GTFSFeed feed = new GTFSFeed();
-                // FIXME: The below table readers should probably just share a connection with the exporter.
-                JDBCTableReader<ScheduleException> exceptionsReader =
-                        new JDBCTableReader(Table.SCHEDULE_EXCEPTIONS, dataSource, feedIdToExport + ".",
-                                EntityPopulator.SCHEDULE_EXCEPTION);
-                JDBCTableReader<Calendar> calendarsReader =
-                        new JDBCTableReader(Table.CALENDAR, dataSource, feedIdToExport + ".",
-                                EntityPopulator.CALENDAR);
-                Iterable<Calendar> calendars = calendarsReader.getAll();
-                Iterable<ScheduleException> exceptionsIterator = exceptionsReader.getAll();
-                List<ScheduleException> exceptions = new ArrayList<>();
-                // FIXME: Doing this causes the connection to stay open, but it is closed in the finalizer so it should
-                // not be a big problem.
-                for (ScheduleException exception : exceptionsIterator) {
-                    exceptions.add(exception);
-                }
+                // These are read on the exporter's connection, so that when exporting in parallel they come from the
+                // same snapshot as the tables being copied.
+                List<Calendar> calendars = readAll(Table.CALENDAR, EntityPopulator.CALENDAR);
+                List<ScheduleException> exceptions =
+                    readAll(Table.SCHEDULE_EXCEPTIONS, EntityPopulator.SCHEDULE_EXCEPTION);
                 // check whether the feed is organized in a format with the calendars.txt file
-                if (calendarsReader.getRowCount() > 0) {
+                if (!calendars.isEmpty()) {
                     // feed does have calendars.txt file, continue export with strategy of matching exceptions
                     // to calendar to output calendar_dates.txt
                     int calendarDateCount = 0;
@@ -157,6 +176,8 @@ public class JdbcGtfsExporter {
                         LOG.info("No calendar dates found. Skipping table.");
                     } else {
                         LOG.info("Writing {} calendar dates from schedule exceptions", calendarDateCount);
+                        // Keep the entries in table order when the preceding tables are being exported in parallel.
+                        addSpooledEntries();
                         new CalendarDate.Writer(feed).writeTable(zipOutputStream);
                     }
                 } else {
@@ -298,9 +319,8 @@ public class JdbcGtfsExporter {
                 result.trips = export(Table.TRIPS, connection);
             }
 
+            addSpooledEntries();
             zipOutputStream.close();
-            // Run clean up on the resulting zip file.
-            cleanUpZipFile();
             result.completionTime = System.currentTimeMillis();
             result.loadTimeMillis = result.completionTime - startTime;
             // Exporting primary GTFS tables for GRTA Xpress = 12 sec
@@ -314,38 +334,17 @@ public class JdbcGtfsExporter {
             result.fatalException = ex.toString();
         } finally {
             if (connection != null) DbUtils.closeQuietly(connection);
-        }
-        return result;
-    }
-
-    /**
-     * Removes any empty zip files from the final zip file.
-     */
-    private void cleanUpZipFile() {
-        long startTime = System.currentTimeMillis();
-        // Define ZIP File System Properties in HashMap
-        Map<String, String> zip_properties = new HashMap<>();
-        // We want to read an existing ZIP File, so we set this to False
-        zip_properties.put("create", "false");
-
-        // Specify the path to the ZIP File that you want to read as a File System
-        // (File#toURI allows this to work across different operating systems, including Windows)
-        URI zip_disk = URI.create("jar:" + new File(outFile).toURI());
-
-        // Create ZIP file System
-        try (FileSystem fileSystem = FileSystems.newFileSystem(zip_disk, zip_properties)) {
-            // Get the Path inside ZIP File to delete the ZIP Entry
-            for (String fileName : emptyTableList) {
-                Path filePath = fileSystem.getPath(fileName);
-                // Execute Delete
-                Files.delete(filePath);
-                LOG.info("Empty file {} successfully deleted", fileName);
+            if (executor != null) {
+                // Remove any temporary files left by a failed export once their copies are finished.
+                for (SpooledTable spooledTable : spooledTables) {
+                    spooledTable.copy.join();
+                    spooledTable.file.delete();
+                }
+                spooledTables.clear();
+                executor.shutdown();
             }
-        } catch (IOException e) {
-            LOG.error("Could not remove empty zip files");
-            e.printStackTrace();
         }
-        LOG.info("Deleted {} empty files in {} ms", emptyTableList.size(), System.currentTimeMillis() - startTime);
+        return result;
     }
 
     private TableLoadResult export (Table table, Connection connection) {
@@ -368,7 +367,9 @@ public class JdbcGtfsExporter {
     }
 
     /**
-     * Export a table to the zipOutputStream to be written to the GTFS.
+     * Export a table to the zipOutputStream to be written to the GTFS. When exporting in parallel, the table is instead
+     * copied to a temporary file in the background and the returned result is filled in once the copy is finished,
+     * which is before exportTables returns.
      */
     private TableLoadResult export (Table table, String filterSql) {
         long startTime = System.currentTimeMillis();
@@ -380,36 +381,207 @@ public class JdbcGtfsExporter {
                 // Surround filter SQL in parentheses.
                 filterSql = String.format("(%s)", filterSql);
             }
-
-            // Create entry for table
-            String textFileName = table.name + ".txt";
-            ZipEntry zipEntry = new ZipEntry(textFileName);
-            zipOutputStream.putNextEntry(zipEntry);
-
-            // don't let CSVWriter close the stream when it is garbage-collected
-            OutputStream protectedOut = new FilterOutputStream(zipOutputStream);
             String copySql = String.format("copy %s to STDOUT DELIMITER ',' CSV HEADER", filterSql);
-            LOG.info(copySql);
-            // Our connection pool wraps the Connection objects, so we need to unwrap the Postgres connection interface.
-            CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
-            tableLoadResult.rowCount = (int) copyManager.copyOut(copySql, protectedOut);
-            if (tableLoadResult.rowCount == 0) {
-                // If no rows were exported, keep track of table name for later removal.
-                emptyTableList.add(textFileName);
+            if (executor != null) {
+                spool(table, copySql, tableLoadResult);
+                return tableLoadResult;
             }
-            zipOutputStream.closeEntry();
+
+            // The entry for the table is only created once its first row is copied, so that empty tables have no
+            // entry and the zip file does not need to be rewritten afterward to remove them.
+            TableEntryOutputStream entryOut = new TableEntryOutputStream(zipOutputStream, table.name + ".txt");
+            tableLoadResult.rowCount = copyOut(copySql, connection, entryOut);
+            entryOut.finish();
             LOG.info("Copied {} {} in {} ms.", tableLoadResult.rowCount, table.name, System.currentTimeMillis() - startTime);
             connection.commit();
         } catch (SQLException | IOException | IllegalArgumentException e) {
-            // Rollback connection so that fatal exception does not impact loading of other tables.
-            try {
-                connection.rollback();
-            } catch (SQLException ex) {
-                ex.printStackTrace();
+            // Rollback connection so that fatal exception does not impact loading of other tables. When exporting in
+            // parallel nothing was copied on the connection, and its transaction holds the snapshot the remaining
+            // tables are copied from, so it is left open.
+            if (executor == null) {
+                try {
+                    connection.rollback();
+                } catch (SQLException ex) {
+                    ex.printStackTrace();
+                }
             }
             tableLoadResult.fatalException = e.toString();
             LOG.error("Exception while exporting tables", e);
         }
         return tableLoadResult;
     }
+
+    /**
+     * Read all the rows of a table of the feed into entities on the exporter's connection. A table missing from the
+     * feed is read as empty, without querying it (which would abort the connection's transaction).
+     */
+    private <T> List<T> readAll (Table table, EntityPopulator<T> entityPopulator) throws SQLException {
+        List<T> entities = new ArrayList<>();
+        if (ColumnRegistry.getColumns(dataSource, feedIdToExport, table.name).isEmpty()) return entities;
+        try (Statement statement = connection.createStatement()) {
+            String sql = String.format("select * from %s.%s", feedIdToExport, table.name);
+            LOG.info(sql);
+            ResultSet resultSet = statement.executeQuery(sql);
+            // SQL columns are 1-based, and missing columns default to zero.
+            TObjectIntMap<String> columnForName = new TObjectIntHashMap<>();
+            ResultSetMetaData metaData = resultSet.getMetaData();
+            for (int c = 1; c <= metaData.getColumnCount(); c++) {
+                columnForName.put(metaData.getColumnName(c), c);
+            }
+            EntityPopulator<T> rowPopulator = entityPopulator.forColumns(columnForName);
+            while (resultSet.next()) {
+                entities.add(rowPopulator.populate(resultSet, columnForName));
+            }
+        }
+        return entities;
+    }
+
+    /**
+     * Run the copy statement on the connection, writing the CSV to the output stream.
+     * @return the number of rows copied, not including the header.
+     */
+    private static int copyOut (String copySql, Connection connection, OutputStream out)
+        throws SQLException, IOException {
+        LOG.info(copySql);
+        // Our connection pool wraps the Connection objects, so we need to unwrap the Postgres connection interface.
+        CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
+        return (int) copyManager.copyOut(copySql, out);
+    }
+
+    /**
+     * Begin a repeatable read transaction on the connection and export its snapshot, so that the transactions on other
+     * connections can see exactly the same data by importing it (see useSnapshot). The snapshot can be imported until
+     * the transaction on this connection ends, so nothing may be committed or rolled back on the connection until all
+     * of the tables have been copied.
+     * @return the identifier of the snapshot.
+     */
+    private static String exportSnapshot (Connection connection) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("set transaction isolation level repeatable read");
+            ResultSet resultSet = statement.executeQuery("select pg_export_snapshot()");
+            resultSet.next();
+            return resultSet.getString(1);
+        }
+    }
+
+    /**
+     * Begin a transaction on the connection that sees the data in the snapshot exported by exportSnapshot, rather than
+     * the data as of the start of the transaction. This must precede any other statement in the transaction.
+     */
+    private static void useSnapshot (Connection connection, String snapshotId) throws SQLException {
+        try (Statement statement = connection.createStatement()) {
+            statement.execute("set transaction isolation level repeatable read");
+            statement.execute(String.format("set transaction snapshot '%s'", snapshotId));
+        }
+    }
+
+    /**
+     * Start copying a table to a temporary file on the executor, on its own connection from the data source, using the
+     * snapshot of the main connection's transaction. Its entry is added to the zip file by addSpooledEntries.
+     */
+    private void spool (Table table, String copySql, TableLoadResult tableLoadResult) throws IOException {
+        File file = File.createTempFile(table.name, ".txt");
+        CompletableFuture<Void> copy = CompletableFuture.runAsync(() -> {
+            long startTime = System.currentTimeMillis();
+            Connection tableConnection = null;
+            try {
+                tableConnection = dataSource.getConnection();
+                useSnapshot(tableConnection, snapshotId);
+                try (OutputStream out = new BufferedOutputStream(new FileOutputStream(file))) {
+                    tableLoadResult.rowCount = copyOut(copySql, tableConnection, out);
+                }
+                tableConnection.commit();
+                LOG.info("Copied {} {} in {} ms.", tableLoadResult.rowCount, table.name, System.currentTimeMillis() - startTime);
+            } catch (SQLException | IOException e) {
+                if (tableConnection != null) DbUtils.rollbackAndCloseQuietly(tableConnection);
+                tableConnection = null;
+                tableLoadResult.fatalException = e.toString();
+                LOG.error("Exception while exporting tables", e);
+            } finally {
+                if (tableConnection != null) DbUtils.closeQuietly(tableConnection);
+            }
+        }, executor);
+        spooledTables.add(new SpooledTable(table, file, tableLoadResult, copy));
+    }
+
+    /**
+     * Add an entry to the zip file for each table copied to a temporary file so far, in the order the tables were
+     * exported, waiting for each copy to finish in turn. Tables with no rows (or that failed to export) have no entry.
+     */
+    private void addSpooledEntries () throws IOException {
+        for (SpooledTable spooledTable : spooledTables) {
+            spooledTable.copy.join();
+            if (spooledTable.result.rowCount > 0) {
+                zipOutputStream.putNextEntry(new ZipEntry(spooledTable.table.name + ".txt"));
+                Files.copy(spooledTable.file.toPath(), zipOutputStream);
+                zipOutputStream.closeEntry();
+            }
+            spooledTable.file.delete();
+        }
+        spooledTables.clear();
+    }
+
+    /**
+     * Writes the CSV copied from a table to a new entry of the zip file, which is only created when the first line
+     * after the header begins. The header is held back until then, so tables with no rows have no entry at all. The
+     * zip output stream is not closed with this stream.
+     */
+    private static class TableEntryOutputStream extends OutputStream {
+        private final ZipOutputStream zipOutputStream;
+        private final String entryName;
+        private final ByteArrayOutputStream header = new ByteArrayOutputStream();
+        private boolean headerComplete = false;
+        private boolean entryCreated = false;
+
+        TableEntryOutputStream (ZipOutputStream zipOutputStream, String entryName) {
+            this.zipOutputStream = zipOutputStream;
+            this.entryName = entryName;
+        }
+
+        @Override
+        public void write (int b) throws IOException {
+            write(new byte[] {(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write (byte[] bytes, int offset, int length) throws IOException {
+            if (entryCreated) {
+                zipOutputStream.write(bytes, offset, length);
+                return;
+            }
+            for (int i = offset; i < offset + length; i++) {
+                if (headerComplete) {
+                    // The first row has begun.
+                    zipOutputStream.putNextEntry(new ZipEntry(entryName));
+                    header.writeTo(zipOutputStream);
+                    entryCreated = true;
+                    zipOutputStream.write(bytes, i, offset + length - i);
+                    return;
+                }
+                header.write(bytes[i]);
+                // Field names cannot contain line breaks, so the first one ends the header.
+                if (bytes[i] == '\n') headerComplete = true;
+            }
+        }
+
+        /** Close the entry, if one was created. */
+        void finish () throws IOException {
+            if (entryCreated) zipOutputStream.closeEntry();
+        }
+    }
+
+    /** A table being copied to a temporary file when exporting in parallel. */
+    private static class SpooledTable {
+        final Table table;
+        final File file;
+        final TableLoadResult result;
+        final CompletableFuture<Void> copy;
+
+        SpooledTable (Table table, File file, TableLoadResult result, CompletableFuture<Void> copy) {
+            this.table = table;
+            this.file = file;
+            this.result = result;
+            this.copy = copy;
+        }
+    }
 }
@@ -1,5 +1,6 @@
 package com.conveyal.gtfs.loader;
 
+import com.conveyal.gtfs.error.DeferredErrorStorage;
 import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.NewGTFSErrorType;
 import com.conveyal.gtfs.error.SQLErrorStorage;
@@ -7,7 +8,6 @@ import com.conveyal.gtfs.storage.StorageException;
 import com.csvreader.CsvReader;
 import com.google.common.hash.HashCode;
 import com.google.common.hash.Hashing;
-import com.google.common.io.Files;
 import org.apache.commons.dbutils.DbUtils;
 import org.postgresql.copy.CopyManager;
 import org.postgresql.core.BaseConnection;
@@ -18,11 +18,15 @@ import javax.sql.DataSource;
 import java.io.*;
 import java.sql.*;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.*;
 import static com.conveyal.gtfs.model.Entity.human;
+import static com.conveyal.gtfs.util.Util.hashFile;
 import static com.conveyal.gtfs.util.Util.randomIdString;
 
 /**
@@ -31,8 +35,8 @@ import static com.conveyal.gtfs.util.Util.randomIdString;
  * table definitions and SQL statements to interact with those tables. It retains all columns present in the GTFS,
  * including optional columns, known extensions, and unrecognized proprietary extensions.
  *
- * It supports several ways of putting the data into the tables: batched prepared inserts or loading from an
- * intermediate tab separated text file.
+ * It supports several ways of putting the data into the tables: batched prepared inserts, streaming tab separated text
+ * into a Postgres COPY while the CSV is parsed, or loading from an intermediate tab separated text file.
  *
  * Our previous approach involved loading GTFS CSV tables into Java objects and then using an object-relational mapping
  * to put those objects into a database. In that case a fixed number of fields are represented. If the GTFS feed
@@ -70,11 +74,36 @@ public class JdbcGtfsLoader {
     private static final String POSTGRES_NULL_TEXT = "\\N";
     private static final Logger LOG = LoggerFactory.getLogger(JdbcGtfsLoader.class);
 
+    /**
+     * The GTFS tables in the order they are loaded. When loading sequentially, this order guarantees that every table
+     * is loaded after the tables it references. When loading in parallel, tables only wait on the tables they conflict
+     * with (see {@link #getLoadDependencies(Table)}) and errors are stored in this order once loading is finished.
+     */
+    private static final Table[] TABLES_IN_LOAD_ORDER = {
+        Table.AGENCY,
+        Table.CALENDAR,
+        Table.CALENDAR_DATES,
+        Table.ROUTES,
+        Table.FARE_ATTRIBUTES,
+        Table.FARE_RULES,
+        Table.FEED_INFO,
+        Table.SHAPES,
+        Table.STOPS,
+        Table.TRANSFERS,
+        Table.TRIPS, // refs routes
+        Table.FREQUENCIES, // refs trips
+        Table.STOP_TIMES
+    };
+
     private String gtfsFilePath;
     protected ZipFile zip;
 
     private File tempTextFile;
+    // Receives Postgres text rows, whether they are written to the temporary text file or streamed to a COPY.
     private PrintStream tempTextFileStream;
+    private StreamingCopy streamingCopy;
+    // A table committed before its rows were streamed to a COPY, which must be dropped if the load then fails.
+    private String committedTableName;
     private PreparedStatement insertStatement = null;
 
     private final DataSource dataSource;
@@ -87,11 +116,107 @@ public class JdbcGtfsLoader {
     // Contains references to unique entity IDs during load stage used for referential integrity check.
     private ReferenceTracker referenceTracker = new ReferenceTracker();
 
+    // The number of tables that may be loaded at the same time, each on its own connection.
+    private int parallelism = 1;
+    // Whether Postgres text rows are streamed directly into COPY rather than through a temporary text file.
+    private boolean streamCopy = false;
+    // Whether errors are inserted into the database by a background thread on a separate connection.
+    private boolean backgroundErrorWriter = false;
+    // If not null, indexes are collected here as tables are loaded and only created once all tables are loaded.
+    private DeferredIndexBuilder deferredIndexBuilder;
+    // Whether trigram indexes are created for text searches once all tables have been loaded.
+    private boolean searchIndexes = false;
+
     public JdbcGtfsLoader(String gtfsFilePath, DataSource dataSource) {
         this.gtfsFilePath = gtfsFilePath;
         this.dataSource = dataSource;
     }
 
+    /**
+     * Constructs a loader for a single table within a parallel load. It shares the zip file, namespace and reference
+     * tracker of the parent loader, but has its own connection and error storage.
+     */
+    private JdbcGtfsLoader(JdbcGtfsLoader parent, Connection connection, SQLErrorStorage errorStorage) {
+        this(parent.gtfsFilePath, parent.dataSource);
+        this.zip = parent.zip;
+        this.tablePrefix = parent.tablePrefix;
+        this.referenceTracker = parent.referenceTracker;
+        this.streamCopy = parent.streamCopy;
+        this.deferredIndexBuilder = parent.deferredIndexBuilder;
+        this.connection = connection;
+        this.errorStorage = errorStorage;
+    }
+
+    /**
+     * Fluent method to set the number of tables that may be loaded at the same time. With a value greater than one,
+     * tables that do not depend on one another (e.g., shapes and stops) are loaded concurrently, each on a separate
+     * connection taken from the data source, and dependent tables (e.g., trips or stop_times) wait only for the tables
+     * they reference. The resulting tables and error records are identical to a sequential load. The default of one
+     * loads all tables in turn on a single connection.
+     */
+    public JdbcGtfsLoader withParallelism (int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least one.");
+        this.parallelism = parallelism;
+        return this;
+    }
+
+    /**
+     * Fluent method to choose how rows are handed to Postgres. When true, rows are streamed into a COPY on a second
+     * connection while the CSV is still being parsed, so parsing and database ingest overlap and nothing is written to
+     * local disk. Note that this takes one more connection from the data source for each table being loaded. When
+     * false (the default), each table is first written to a temporary text file that is copied into the database once
+     * the whole CSV has been parsed. This has no effect for databases other than Postgres.
+     */
+    public JdbcGtfsLoader withStreamingCopy (boolean streamCopy) {
+        this.streamCopy = streamCopy;
+        return this;
+    }
+
+    /**
+     * Fluent method to insert errors into the database on a background thread with its own connection (see
+     * {@link SQLErrorStorage#withBackgroundWriter(Connection)}), so that feeds with very many errors are not slowed
+     * down by error inserts.
+     */
+    public JdbcGtfsLoader withBackgroundErrorWriter (boolean backgroundErrorWriter) {
+        this.backgroundErrorWriter = backgroundErrorWriter;
+        return this;
+    }
+
+    /**
+     * Fluent method to defer creating table indexes until all tables have been loaded. By default, each table's
+     * indexes are created right after the table is loaded, which holds up loading the next table. With this option,
+     * all indexes are created at the end, each on its own connection from the data source, building up to
+     * indexParallelism indexes at the same time.
+     *
+     * @param maintenanceWorkMem Postgres maintenance_work_mem used for each index build (e.g., "512MB"), or null to
+     *                           use the database's setting.
+     */
+    public JdbcGtfsLoader withDeferredIndexes (int indexParallelism, String maintenanceWorkMem) {
+        this.deferredIndexBuilder = new DeferredIndexBuilder(dataSource, indexParallelism, maintenanceWorkMem);
+        return this;
+    }
+
+    /**
+     * Fluent method to create trigram indexes on the fields matched by text searches (e.g., stop names) once all tables
+     * have been loaded, if the PostgreSQL pg_trgm extension is available. See {@link SearchIndexer}.
+     */
+    public JdbcGtfsLoader withSearchIndexes (boolean searchIndexes) {
+        this.searchIndexes = searchIndexes;
+        return this;
+    }
+
+    /**
+     * Create the search indexes for a feed whose tables have all been committed. The feed is usable without them, so a
+     * failure is only logged.
+     */
+    static void createSearchIndexes (DataSource dataSource, String tablePrefix) {
+        try {
+            new SearchIndexer(dataSource).createIndexes(tablePrefix);
+        } catch (SQLException e) {
+            LOG.error("Could not create search indexes for " + tablePrefix, e);
+        }
+    }
+
     /** Get SQL string for creating the feed registry table (AKA, the "feeds" table). */
     public static String getCreateFeedRegistrySQL() {
         return "create table if not exists feeds (namespace varchar primary key, md5 varchar, " +
@@ -109,7 +234,8 @@ public class JdbcGtfsLoader {
     // Murmur took 317 msec, 5e5968f9bf5e1cdf711f6f48fcd94355
     // SHA1 took 1072 msec,  9fb356af4be2750f20955203787ec6f95d32ef22
 
-    // There appears to be no advantage to loading tables in parallel, as the whole loading process is I/O bound.
+    // Loading tables in parallel (see withParallelism) mostly pays off for large feeds on multi-core hosts, where the
+    // CSV parsing and validation of tables such as shapes and stop_times would otherwise run one after the other.
     public FeedLoadResult loadTables () {
 
         // This result object will be returned to the caller to summarize the feed and report any critical errors.
@@ -143,29 +269,45 @@ public class JdbcGtfsLoader {
                 createSchema(connection, tablePrefix);
                 //the SQLErrorStorage constructor expects the tablePrefix to contain the dot separator.
                 this.errorStorage = new SQLErrorStorage(connection, tablePrefix + ".", true);
+                if (backgroundErrorWriter) errorStorage.withBackgroundWriter(dataSource.getConnection());
                 //registerFeed accesses this.tablePrefix which shouldn't contain the dot separator.
                 registerFeed(gtfsFile);
                 // Include the dot separator in the table prefix from this point onwards.
                 // This allows everything to work even when there's no prefix.
                 this.tablePrefix += ".";
             }
-            // Load each table in turn, saving some summary information about what happened during each table load
-            result.agency = load(Table.AGENCY);
-            result.calendar = load(Table.CALENDAR);
-            result.calendarDates = load(Table.CALENDAR_DATES);
-            result.routes = load(Table.ROUTES);
-            result.fareAttributes = load(Table.FARE_ATTRIBUTES);
-            result.fareRules = load(Table.FARE_RULES);
-            result.feedInfo = load(Table.FEED_INFO);
-            result.shapes = load(Table.SHAPES);
-            result.stops = load(Table.STOPS);
-            result.transfers = load(Table.TRANSFERS);
-            result.trips = load(Table.TRIPS); // refs routes
-            result.frequencies = load(Table.FREQUENCIES); // refs trips
-            result.stopTimes = load(Table.STOP_TIMES);
+            // Load each table (in turn or in parallel), saving some summary information about what happened during each
+            // table load.
+            Map<Table, TableLoadResult> tableResults = parallelism > 1
+                ? loadTablesInParallel()
+                : loadTablesInTurn();
+            if (deferredIndexBuilder != null) {
+                // All tables are committed, so their indexes can now be built on other connections.
+                Map<Table, Exception> indexFailures = deferredIndexBuilder.createIndexes();
+                indexFailures.forEach((table, ex) -> {
+                    TableLoadResult tableLoadResult = tableResults.get(table);
+                    if (tableLoadResult.fatalException == null) tableLoadResult.fatalException = ex.toString();
+                });
+            }
+            if (searchIndexes) createSearchIndexes(dataSource, tablePrefix);
+            result.agency = tableResults.get(Table.AGENCY);
+            result.calendar = tableResults.get(Table.CALENDAR);
+            result.calendarDates = tableResults.get(Table.CALENDAR_DATES);
+            result.routes = tableResults.get(Table.ROUTES);
+            result.fareAttributes = tableResults.get(Table.FARE_ATTRIBUTES);
+            result.fareRules = tableResults.get(Table.FARE_RULES);
+            result.feedInfo = tableResults.get(Table.FEED_INFO);
+            result.shapes = tableResults.get(Table.SHAPES);
+            result.stops = tableResults.get(Table.STOPS);
+            result.transfers = tableResults.get(Table.TRANSFERS);
+            result.trips = tableResults.get(Table.TRIPS);
+            result.frequencies = tableResults.get(Table.FREQUENCIES);
+            result.stopTimes = tableResults.get(Table.STOP_TIMES);
             result.errorCount = errorStorage.getErrorCount();
             // This will commit and close the single connection that has been shared between all preceding load steps.
             errorStorage.commitAndClose();
+            // Tables of the namespace may have been looked up while it was still being loaded.
+            ColumnRegistry.invalidate(tablePrefix);
             zip.close();
             result.completionTime = System.currentTimeMillis();
             result.loadTimeMillis = result.completionTime - startTime;
@@ -181,6 +323,115 @@ public class JdbcGtfsLoader {
         return result;
     }
     
+    /**
+     * Load each table in turn on the single shared connection.
+     */
+    private Map<Table, TableLoadResult> loadTablesInTurn () {
+        Map<Table, TableLoadResult> tableResults = new HashMap<>();
+        for (Table table : TABLES_IN_LOAD_ORDER) {
+            tableResults.put(table, load(table));
+        }
+        return tableResults;
+    }
+
+    /**
+     * Load tables concurrently on a pool of threads, each table on its own connection. A table is only started once
+     * all of its load dependencies have finished, which ensures that referential integrity and uniqueness checks see
+     * exactly the same IDs they would see in a sequential load. Errors for each table are held in memory while it is
+     * loading and stored in the usual table order afterward, so the error records (and their IDs) are identical to
+     * those of a sequential load.
+     */
+    private Map<Table, TableLoadResult> loadTablesInParallel () {
+        LOG.info("Loading tables with parallelism {}", parallelism);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        Map<Table, DeferredErrorStorage> tableErrors = new HashMap<>();
+        Map<Table, CompletableFuture<TableLoadResult>> futures = new HashMap<>();
+        try {
+            for (Table table : TABLES_IN_LOAD_ORDER) {
+                DeferredErrorStorage errors = new DeferredErrorStorage();
+                tableErrors.put(table, errors);
+                CompletableFuture[] dependencies = getLoadDependencies(table).stream()
+                    .map(futures::get)
+                    .toArray(CompletableFuture[]::new);
+                futures.put(
+                    table,
+                    CompletableFuture.allOf(dependencies).thenApplyAsync(v -> loadOnNewConnection(table, errors), executor)
+                );
+            }
+            Map<Table, TableLoadResult> tableResults = new HashMap<>();
+            for (Table table : TABLES_IN_LOAD_ORDER) {
+                tableResults.put(table, futures.get(table).join());
+                // Tables are visited in load order, so errors receive the same IDs as in a sequential load.
+                tableErrors.get(table).transferTo(errorStorage);
+            }
+            return tableResults;
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Load a single table within a parallel load, on a fresh connection from the data source that is closed when the
+     * table is finished. Errors are collected in the supplied storage rather than written to the database.
+     */
+    private TableLoadResult loadOnNewConnection (Table table, DeferredErrorStorage errors) {
+        Connection tableConnection = null;
+        try {
+            tableConnection = dataSource.getConnection();
+            return new JdbcGtfsLoader(this, tableConnection, errors).load(table);
+        } catch (SQLException ex) {
+            LOG.error("Could not get a connection to load table " + table.name, ex);
+            TableLoadResult tableLoadResult = new TableLoadResult();
+            tableLoadResult.fatalException = ex.toString();
+            return tableLoadResult;
+        } finally {
+            if (tableConnection != null) DbUtils.closeQuietly(tableConnection);
+        }
+    }
+
+    /**
+     * Find the tables that must finish loading before the given table can be loaded in a parallel load. These are the
+     * tables earlier in the load order that conflict with it in the reference tracker: one of them contributes key
+     * values that the other checks references against (e.g., trips must wait for routes, calendar and calendar_dates)
+     * or both contribute values to the same set of unique keys. Tables without such a conflict (e.g., shapes and stops)
+     * are independent and can be loaded at the same time.
+     */
+    static Set<Table> getLoadDependencies (Table table) {
+        Set<Table> dependencies = new HashSet<>();
+        for (Table earlierTable : TABLES_IN_LOAD_ORDER) {
+            if (earlierTable == table) break;
+            String earlierKey = getContributedKey(earlierTable);
+            String key = getContributedKey(table);
+            boolean conflict =
+                (earlierKey != null && (earlierKey.equals(key) || getReferencedKeys(table).contains(earlierKey))) ||
+                (key != null && getReferencedKeys(earlierTable).contains(key));
+            if (conflict) dependencies.add(earlierTable);
+        }
+        return dependencies;
+    }
+
+    /**
+     * @return the key field name under which this table adds IDs to the {@link ReferenceTracker} while loading, or null
+     * if it adds none (e.g., frequencies, whose key field is only a reference to trips). This mirrors the conditions in
+     * {@link ReferenceTracker#checkReferencesAndUniqueness}.
+     */
+    private static String getContributedKey (Table table) {
+        Field keyField = table.fields[0];
+        if (!keyField.isForeignReference() || Table.CALENDAR_DATES.name.equals(table.name)) return keyField.name;
+        return null;
+    }
+
+    /**
+     * @return the key field names of all tables referenced by this table's fields.
+     */
+    private static Set<String> getReferencedKeys (Table table) {
+        Set<String> referencedKeys = new HashSet<>();
+        for (Field field : table.fields) {
+            if (field.isForeignReference()) referencedKeys.add(field.referenceTable.getKeyFieldName());
+        }
+        return referencedKeys;
+    }
+
     /**
      * Creates a schema/namespace in the database WITHOUT committing the changes.
      * This does *not* setup any other tables or enter the schema name in a registry (@see #registerFeed).
@@ -232,10 +483,10 @@ public class JdbcGtfsLoader {
         }
 
         try {
-            HashCode md5 = Files.hash(gtfsFile, Hashing.md5());
-            String md5Hex = md5.toString();
-            HashCode sha1 = Files.hash(gtfsFile, Hashing.sha1());
-            String shaHex = sha1.toString();
+            // Compute both hashes in a single read of the file, which may be large and on slow storage.
+            HashCode[] hashes = hashFile(gtfsFile, Hashing.md5(), Hashing.sha1());
+            String md5Hex = hashes[0].toString();
+            String shaHex = hashes[1].toString();
             createFeedRegistryIfNotExists(connection);
             // TODO try to get the feed_id and feed_version out of the feed_info table
             // statement.execute("select * from feed_info");
@@ -274,6 +525,9 @@ public class JdbcGtfsLoader {
     private TableLoadResult load (Table table) {
         // This object will be returned to the caller to summarize the contents of the table and any errors.
         TableLoadResult tableLoadResult = new TableLoadResult();
+        long startTime = System.currentTimeMillis();
+        // Commit the errors found so far, so that rolling back this table after a fatal error cannot discard them.
+        errorStorage.flush();
         int initialErrorCount = errorStorage.getErrorCount();
         try {
             tableLoadResult.rowCount = loadInternal(table);
@@ -285,6 +539,14 @@ public class JdbcGtfsLoader {
             // Rollback connection so that fatal exception does not impact loading of other tables.
             try {
                 connection.rollback();
+                // A table committed for a streaming copy is not removed by the rollback, so drop it here to leave the
+                // namespace as a failed load without streaming would.
+                if (committedTableName != null) {
+                    connection.createStatement().execute("drop table if exists " + committedTableName);
+                    connection.commit();
+                }
+                // The rollback may have discarded errors found while loading this table, so they must be recounted.
+                errorStorage.recount();
             } catch (SQLException e) {
                 e.printStackTrace();
             }
@@ -293,10 +555,18 @@ public class JdbcGtfsLoader {
             // Otherwise these multi-GB files clutter the drive.
             if (tempTextFile != null) {
                 tempTextFile.delete();
+                tempTextFile = null;
+            }
+            // Release the connection of any streaming copy, cancelling the copy if the load did not complete.
+            if (streamingCopy != null) {
+                streamingCopy.close();
+                streamingCopy = null;
             }
+            committedTableName = null;
         }
         int finalErrorCount = errorStorage.getErrorCount();
         tableLoadResult.errorCount = finalErrorCount - initialErrorCount;
+        tableLoadResult.loadTimeMillis = System.currentTimeMillis() - startTime;
         return tableLoadResult;
     }
 
@@ -350,7 +620,15 @@ public class JdbcGtfsLoader {
         targetTable.createSqlTable(connection);
 
         // TODO are we loading with or without a header row in our Postgres text file?
-        if (postgresText) {
+        if (postgresText && streamCopy) {
+            // The COPY runs on its own connection while this one remains free for storing errors, so the new table
+            // must be committed to be visible to the copy connection.
+            connection.commit();
+            committedTableName = targetTable.name;
+            streamingCopy = new StreamingCopy(dataSource.getConnection(), targetTable.name);
+            tempTextFileStream = new PrintStream(streamingCopy.getOutputStream());
+            LOG.info("Loading via streaming copy into {}", targetTable.name);
+        } else if (postgresText) {
             // No need to output headers to temp text file, our SQL table column order exactly matches our text file.
             tempTextFile = File.createTempFile(targetTable.name, "text");
             tempTextFileStream = new PrintStream(new BufferedOutputStream(new FileOutputStream(tempTextFile)));
@@ -434,6 +712,8 @@ public class JdbcGtfsLoader {
                 // Print a new line in the standard postgres text format:
                 // https://www.postgresql.org/docs/9.1/static/sql-copy.html#AEN64380
                 tempTextFileStream.println(String.join("\t", transformedStrings));
+                // The print stream does not throw, so stop parsing as soon as the COPY has failed.
+                if (streamingCopy != null) streamingCopy.checkFailure();
             } else {
                 insertStatement.addBatch();
                 if (lineNumber % INSERT_BATCH_SIZE == 0) insertStatement.executeBatch();
@@ -453,7 +733,12 @@ public class JdbcGtfsLoader {
 
         // Finalize loading the table, either by copying the pre-validated text file into the database (for Postgres)
         // or inserting any remaining rows (for all others).
-        if (postgresText) {
+        if (postgresText && streamCopy) {
+            LOG.info("Waiting for streaming copy into database table {} to finish...", targetTable.name);
+            // Closing the print stream ends the copy input. Any failure of the copy is reported by finish().
+            tempTextFileStream.close();
+            streamingCopy.finish();
+        } else if (postgresText) {
             LOG.info("Loading into database table {} from temporary text file...", targetTable.name);
             tempTextFileStream.close();
             copyFromFile(connection, tempTextFile, targetTable.name);
@@ -462,7 +747,8 @@ public class JdbcGtfsLoader {
         }
         // Create indexes using spec table. Target table must not be used because fields could be in the wrong order
         // (and the order is currently important to determining the index fields).
-        table.createIndexes(connection, tablePrefix);
+        if (deferredIndexBuilder != null) deferredIndexBuilder.add(table, tablePrefix);
+        else table.createIndexes(connection, tablePrefix);
 
         LOG.info("Committing transaction...");
         connection.commit();
@@ -477,7 +763,8 @@ public class JdbcGtfsLoader {
     public static void copyFromFile(Connection connection, File file, String targetTableName) throws IOException, SQLException {
         // Allows sending over network. This is only slightly slower than a local file copy.
         final String copySql = String.format("copy %s from stdin", targetTableName);
-        // FIXME we should be reading the COPY text from a stream in parallel, not from a temporary text file.
+        // This is how the loader copies each table by default. With withStreamingCopy, the COPY text is instead streamed
+        // to the database while the CSV is still being parsed (see StreamingCopy).
         InputStream stream = new BufferedInputStream(new FileInputStream(file.getAbsolutePath()));
         // Our connection pool wraps the Connection objects, so we need to unwrap the Postgres connection interface.
         CopyManager copyManager = new CopyManager(connection.unwrap(BaseConnection.class));
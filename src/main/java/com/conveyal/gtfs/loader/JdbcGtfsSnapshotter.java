@@ -16,8 +16,10 @@ import java.sql.ResultSet;
 import java.sql.SQLException;
 import java.sql.Statement;
 import java.time.format.DateTimeFormatter;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 import static com.conveyal.gtfs.loader.JdbcGtfsLoader.createFeedRegistryIfNotExists;
@@ -45,6 +47,14 @@ public class JdbcGtfsSnapshotter {
     private String tablePrefix;
     // The reference feed ID (namespace) to copy.
     private final String feedIdToSnapshot;
+    // If not null, indexes are collected here as tables are copied and only created once all tables are copied.
+    private DeferredIndexBuilder deferredIndexBuilder;
+    // The result of copying each table, so that failures to build deferred indexes can be reported for the table.
+    private final Map<Table, TableLoadResult> tableResults = new HashMap<>();
+    // Tables whose editor default values are populated once their deferred indexes exist, in the order copied.
+    private final List<Table> tablesToPopulate = new ArrayList<>();
+    // Whether trigram indexes are created for text searches once all tables have been copied.
+    private boolean searchIndexes = false;
 
     /**
      * @param feedId namespace (schema) to snapshot. If null, a blank snapshot will be created.
@@ -55,6 +65,25 @@ public class JdbcGtfsSnapshotter {
         this.dataSource = dataSource;
     }
 
+    /**
+     * Fluent method to defer creating table indexes until all tables have been copied, then create them on separate
+     * connections, building up to indexParallelism indexes at the same time. See
+     * {@link JdbcGtfsLoader#withDeferredIndexes(int, String)}.
+     */
+    public JdbcGtfsSnapshotter withDeferredIndexes (int indexParallelism, String maintenanceWorkMem) {
+        this.deferredIndexBuilder = new DeferredIndexBuilder(dataSource, indexParallelism, maintenanceWorkMem);
+        return this;
+    }
+
+    /**
+     * Fluent method to create trigram indexes on the fields matched by text searches once all tables have been copied.
+     * See {@link JdbcGtfsLoader#withSearchIndexes(boolean)}.
+     */
+    public JdbcGtfsSnapshotter withSearchIndexes (boolean searchIndexes) {
+        this.searchIndexes = searchIndexes;
+        return this;
+    }
+
     /**
      * Copy primary entity tables as well as Pattern and PatternStops tables.
      */
@@ -94,12 +123,24 @@ public class JdbcGtfsSnapshotter {
             result.scheduleExceptions = createScheduleExceptionsTable();
             result.shapes = copy(Table.SHAPES, true);
             result.stops = copy(Table.STOPS, true);
-            // TODO: Should we defer index creation on stop times?
             // Copying all tables for STIF w/ stop times idx = 156 sec; w/o = 28 sec
             // Other feeds w/ stop times AC Transit = 3 sec; Brooklyn bus =
+            // See withDeferredIndexes to build this and the other indexes in parallel after all tables are copied.
             result.stopTimes = copy(Table.STOP_TIMES, true);
             result.transfers = copy(Table.TRANSFERS, true);
             result.trips = copy(Table.TRIPS, true);
+            if (deferredIndexBuilder != null) {
+                // All tables are committed, so their indexes can now be built on other connections.
+                Map<Table, Exception> indexFailures = deferredIndexBuilder.createIndexes();
+                indexFailures.forEach((table, ex) -> {
+                    TableLoadResult tableLoadResult = tableResults.get(table);
+                    if (tableLoadResult.fatalException == null) tableLoadResult.fatalException = ex.toString();
+                });
+                // The updates that populate editor values join and filter on indexed columns, so they wait for the
+                // indexes rather than scanning the unindexed tables.
+                for (Table table : tablesToPopulate) populateDeferredEditorValues(table);
+            }
+            if (searchIndexes) JdbcGtfsLoader.createSearchIndexes(dataSource, tablePrefix);
             result.completionTime = System.currentTimeMillis();
             result.loadTimeMillis = result.completionTime - startTime;
             LOG.info("Copying tables took {} sec", (result.loadTimeMillis) / 1000);
@@ -123,6 +164,7 @@ public class JdbcGtfsSnapshotter {
         // This object will be returned to the caller to summarize the contents of the table and any errors.
         // FIXME: Should there be a separate TableSnapshotResult? Load result is empty except for fatal exception.
         TableLoadResult tableLoadResult = new TableLoadResult();
+        tableResults.put(table, tableLoadResult);
         try {
             // FIXME this is confusing, we only create a new table object so we can call a couple of methods on it,
             // all of which just need a list of fields.
@@ -141,12 +183,16 @@ public class JdbcGtfsSnapshotter {
             if (success && createIndexes) {
                 addEditorSpecificFields(connection, tablePrefix, table);
                 // Use spec table to create indexes. See createIndexes method for more info on why.
-                table.createIndexes(connection, tablePrefix);
+                if (deferredIndexBuilder != null) deferredIndexBuilder.add(table, tablePrefix);
+                else table.createIndexes(connection, tablePrefix);
                 // Populate default values for editor fields, including normalization of stop time stop sequences.
-                populateDefaultEditorValues(connection, tablePrefix, table);
+                if (deferredIndexBuilder != null) tablesToPopulate.add(table);
+                else populateDefaultEditorValues(connection, tablePrefix, table);
             }
             LOG.info("Committing transaction...");
             connection.commit();
+            // Editor fields may have been added as columns.
+            ColumnRegistry.invalidate(tablePrefix);
             LOG.info("Done.");
         } catch (Exception ex) {
             tableLoadResult.fatalException = ex.toString();
@@ -160,6 +206,26 @@ public class JdbcGtfsSnapshotter {
         return tableLoadResult;
     }
 
+    /**
+     * Populate the default editor values of a table copied with deferred indexes, once the indexes have been created.
+     * A failure is recorded in the table's result like any other failure to copy the table.
+     */
+    private void populateDeferredEditorValues (Table table) {
+        try {
+            populateDefaultEditorValues(connection, tablePrefix, table);
+            connection.commit();
+        } catch (SQLException ex) {
+            LOG.error("Error populating editor values for " + table.name, ex);
+            TableLoadResult tableLoadResult = tableResults.get(table);
+            if (tableLoadResult.fatalException == null) tableLoadResult.fatalException = ex.toString();
+            try {
+                connection.rollback();
+            } catch (SQLException e) {
+                e.printStackTrace();
+            }
+        }
+    }
+
     /**
      * Special logic is needed for creating the schedule_exceptions table.
      *
@@ -302,6 +368,7 @@ public class JdbcGtfsSnapshotter {
                 }
 
                 connection.commit();
+                ColumnRegistry.invalidate(tablePrefix);
             } catch (Exception e) {
                 tableLoadResult.fatalException = e.toString();
                 LOG.error("Error creating schedule Exceptions: ", e);
@@ -135,7 +135,7 @@ public class JdbcTableWriter implements TableWriter {
                     String updatedObject = update(nodeId, node.toString(), false);
                     updatedObjects.add(updatedObject);
                 }
-                if (autoCommit) connection.commit();
+                if (autoCommit) commitTransaction();
                 return mapper.writeValueAsString(updatedObjects);
             }
             // Cast JsonNode to ObjectNode to allow mutations (e.g., updating the ID field).
@@ -235,7 +235,7 @@ public class JdbcTableWriter implements TableWriter {
                 // If nothing failed up to this point, it is safe to assume there were no problems updating/creating the
                 // main entity and any of its children, so we commit the transaction.
                 LOG.info("Committing transaction.");
-                connection.commit();
+                commitTransaction();
             }
             // Add new ID to JSON object.
             jsonObject.put("id", newId);
@@ -277,7 +277,7 @@ public class JdbcTableWriter implements TableWriter {
                 }
             }
             int stopTimesUpdated = updateStopTimesForPatternStops(patternStopsToNormalize);
-            connection.commit();
+            commitTransaction();
             return stopTimesUpdated;
         } catch (Exception e) {
             e.printStackTrace();
@@ -1162,7 +1162,7 @@ public class JdbcTableWriter implements TableWriter {
                 }
                 results.add(result);
             }
-            if (autoCommit) connection.commit();
+            if (autoCommit) commitTransaction();
             LOG.info("Deleted {} {} entities", results.size(), specTable.name);
             return results.size();
         } catch (Exception e) {
@@ -1199,7 +1199,7 @@ public class JdbcTableWriter implements TableWriter {
                 LOG.error("Could not delete {} entity with id: {}", specTable.name, id);
                 throw new SQLException("Could not delete entity");
             }
-            if (autoCommit) connection.commit();
+            if (autoCommit) commitTransaction();
             // FIXME: change return message based on result value
             return result;
         } catch (Exception e) {
@@ -1217,10 +1217,20 @@ public class JdbcTableWriter implements TableWriter {
     @Override
     public void commit() throws SQLException {
         // FIXME: should this take a connection and commit it?
-        connection.commit();
+        commitTransaction();
         connection.close();
     }
 
+    /**
+     * Commit the transaction and invalidate any cached entities for the feed (see {@link EntityCache}). The whole feed
+     * is invalidated because changes to one table can cascade to the tables that reference it.
+     */
+    private void commitTransaction() throws SQLException {
+        connection.commit();
+        EntityCache.invalidate(tablePrefix);
+        ColumnRegistry.invalidate(tablePrefix);
+    }
+
     /**
      * Ensure that database connection closes. This should be called once the table writer is no longer needed.
      */
@@ -1,27 +1,99 @@
 package com.conveyal.gtfs.loader;
 
 import com.conveyal.gtfs.error.NewGTFSError;
+import gnu.trove.impl.Constants;
+import gnu.trove.map.TObjectIntMap;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import gnu.trove.set.TLongSet;
+import gnu.trove.set.hash.TLongHashSet;
 
+import java.util.AbstractSet;
+import java.util.ArrayList;
 import java.util.Collections;
 import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
 import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.BiConsumer;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.DUPLICATE_ID;
 import static com.conveyal.gtfs.error.NewGTFSErrorType.REFERENTIAL_INTEGRITY;
 
 /**
  * This class is used while loading GTFS to track the unique keys that are encountered in a GTFS
- * feed. It has two sets of strings that it tracks, one for single field keys (e.g., route_id or
- * stop_id) and one for keys that are compound, usually made up of a string ID with a sequence field
- * (e.g., trip_id + stop_sequence for tracking unique stop times).
+ * feed. It tracks two kinds of keys, single field keys (e.g., route_id or stop_id) and keys that
+ * are compound, usually made up of a string ID with a sequence field (e.g., trip_id +
+ * stop_sequence for tracking unique stop times).
+ * <p>
+ * To keep memory use low on very large tables, each ID is stored only once: single field keys are
+ * kept in a dictionary per key field that interns each ID to an int, and compound keys are stored
+ * as a pair of interned ints packed into a long. Checking a row that has no errors allocates
+ * nothing.
  * <p>
  * NOTE: Its methods should remain public because they are used during external processes that
  * validate or otherwise iterate over each line of a GTFS file and need to check for reference
  * validity (e.g., while merging GTFS feeds this is used to determine ID conflicts).
+ * <p>
+ * The loader may share a single tracker between tables that are loaded at the same time on
+ * different threads (see {@link JdbcGtfsLoader#withParallelism(int)}). The dictionaries for a
+ * given key field are not themselves thread safe, so this relies on the loader never loading two
+ * tables at once when one of them adds IDs for a key field that the other one reads or adds.
  */
 public class ReferenceTracker {
-    public final Set<String> transitIds = new HashSet<>();
-    public final Set<String> transitIdsWithSequence = new HashSet<>();
+    private static final int NO_ID = -1;
+
+    /** For each key field name (e.g., stop_id), every ID seen for that field interned to an int. */
+    private final Map<String, TObjectIntMap<String>> idsForKeyField = new ConcurrentHashMap<>();
+    /** For each order field name (e.g., stop_sequence), every key + order value pair seen. */
+    private final Map<String, CompoundKeys> compoundKeysForOrderField = new ConcurrentHashMap<>();
+
+    /**
+     * Every single field key seen, as "field:id" strings (e.g., stop_id:1234), which is how this class used to store
+     * them. This is a view of the interned IDs kept for external callers of the string sets; containsId and addId do
+     * the same without building a string for each lookup. Iterating over the view builds a string for every ID.
+     */
+    public final Set<String> transitIds = new IdStrings();
+    /**
+     * Every compound key seen, as "orderField:key:order" strings (e.g., stop_sequence:trip-1:3). Like transitIds, this
+     * is a view kept for external callers; prefer containsCompoundId and addCompoundId.
+     */
+    public final Set<String> transitIdsWithSequence = new CompoundIdStrings();
+
+    /**
+     * @return whether the ID has been seen for the given key field, e.g., containsId("stop_id", "1234").
+     */
+    public boolean containsId(String keyField, String id) {
+        TObjectIntMap<String> ids = idsForKeyField.get(keyField);
+        return ids != null && ids.containsKey(id);
+    }
+
+    /**
+     * @return whether the compound key has been seen for the given order field, e.g.,
+     * containsCompoundId("stop_sequence", "trip-1", "3") for the stop time with trip_id trip-1 and stop_sequence 3.
+     */
+    public boolean containsCompoundId(String orderField, String keyValue, String orderValue) {
+        CompoundKeys compoundKeys = compoundKeysForOrderField.get(orderField);
+        return compoundKeys != null && compoundKeys.contains(keyValue, orderValue);
+    }
+
+    /**
+     * Record that the ID has been seen for the given key field.
+     * @return true if the ID had not been seen before.
+     */
+    public boolean addId(String keyField, String id) {
+        TObjectIntMap<String> ids = idsForKeyField.computeIfAbsent(keyField, k -> newDictionary());
+        return ids.putIfAbsent(id, ids.size()) == NO_ID;
+    }
+
+    /**
+     * Record that the compound key has been seen for the given order field.
+     * @return true if the compound key had not been seen before.
+     */
+    public boolean addCompoundId(String orderField, String keyValue, String orderValue) {
+        return compoundKeysForOrderField.computeIfAbsent(orderField, k -> new CompoundKeys()).add(keyValue, orderValue);
+    }
 
     /**
      * During table load, checks the uniqueness of the entity ID and that references are valid.
@@ -49,7 +121,8 @@ public class ReferenceTracker {
      */
     public Set<NewGTFSError> checkReferencesAndUniqueness(String keyValue, int lineNumber,
         Field field, String value, Table table, String keyField, String orderField) {
-        Set<NewGTFSError> errors = new HashSet<>();
+        // The error set is only allocated when an error is found, so that checking a valid row allocates nothing.
+        Set<NewGTFSError> errors = null;
         // Store field-scoped transit ID for referential integrity check. (Note, entity scoping
         // doesn't work here because we need to cross-check multiple entity types for valid
         // references, e.g., stop times and trips both share trip id.)
@@ -60,7 +133,6 @@ public class ReferenceTracker {
             // If table has no unique key field (e.g., calendar_dates or transfers), there is no
             // need to check for duplicates.
             : !table.hasUniqueKeyField ? null : keyField;
-        String transitId = String.join(":", keyField, keyValue);
 
         // If the field is optional and there is no value present, skip check.
         if (!field.isRequired() && "".equals(value)) return Collections.emptySet();
@@ -71,15 +143,15 @@ public class ReferenceTracker {
             // Check referential integrity if the field is a foreign reference. Note: the
             // reference table must be loaded before the table/value being currently checked.
             String referenceField = field.referenceTable.getKeyFieldName();
-            String referenceTransitId = String.join(":", referenceField, value);
 
-            if (!this.transitIds.contains(referenceTransitId)) {
+            if (!containsId(referenceField, value)) {
                 // If the reference tracker does not contain
                 NewGTFSError referentialIntegrityError = NewGTFSError
-                    .forLine(table, lineNumber, REFERENTIAL_INTEGRITY, referenceTransitId)
+                    .forLine(table, lineNumber, REFERENTIAL_INTEGRITY, String.join(":", referenceField, value))
                     .setEntityId(keyValue);
                 // If the field is an order field, set the sequence for the new error.
                 if (isOrderField) referentialIntegrityError.setSequence(value);
+                errors = new HashSet<>();
                 errors.add(referentialIntegrityError);
             }
         }
@@ -88,39 +160,39 @@ public class ReferenceTracker {
         // reference. However, transfers#to_stop_id is defined as an order field, so we need to
         // check that this field (which is both a foreign ref and order field) is dataset unique
         // in conjunction with the key field.
-        // These hold references to the set of IDs to check for duplicates and the ID to check.
-        // These depend on whether an order field is part of the "unique ID."
-        Set<String> listOfUniqueIds = this.transitIds;
-        String uniqueId = transitId;
 
         // Next, check that the ID is table-unique. For example, the trip_id field is table unique
         // in trips.txt and the the stop_sequence field (joined with trip_id) is table unique in
         // stop_times.txt.
         if (field.name.equals(uniqueKeyField)) {
-            // Check for duplicate IDs and store entity-scoped IDs for referential integrity check
-            if (isOrderField) {
-                // Check duplicate reference in set of field-scoped id:sequence (e.g.,
-                // stop_sequence:12345:2)
-                // This should not be scoped by key field because there may be conflicts (e.g.,
-                // with trip_id="12345:2")
-                listOfUniqueIds = this.transitIdsWithSequence;
-                uniqueId = String.join(":", field.name, keyValue, value);
-            }
-            if (table.required.equals(Requirement.PROPRIETARY)) {
+            // Check for duplicate IDs and store entity-scoped IDs for referential integrity check.
+            // If the field is an order field, the unique ID is the compound of key and order values (e.g.,
+            // stop_sequence:12345:2), which is scoped by the order field rather than the key field because there may
+            // be conflicts (e.g., with trip_id="12345:2").
+            String scope = isOrderField ? field.name : keyField;
+            boolean isProprietary = table.required.equals(Requirement.PROPRIETARY);
+            if (isProprietary) {
                 // Some proprietary tables in the GTFS+ spec do not conform to the general principle in GTFS where a key
                 // field (e.g., stop_id) only acts as the primary key field in the entity's table. For example, stop_id
-                // acts as a primary key on stop_attributes.txt, so we prepend the table name to the unique ID for these
-                // tables when checking for duplicate entries.
-                uniqueId = String.join(":", table.name, uniqueId);
+                // acts as a primary key on stop_attributes.txt, so we prepend the table name to the unique ID scope for
+                // these tables when checking for duplicate entries.
+                scope = String.join(":", table.name, scope);
             }
-             // Add ID and check duplicate reference in entity-scoped IDs (e.g., stop_id:12345)
-            boolean valueAlreadyExists = !listOfUniqueIds.add(uniqueId);
+            // Add ID and check duplicate reference in entity-scoped IDs (e.g., stop_id:12345)
+            boolean valueAlreadyExists = isOrderField
+                ? !addCompoundId(scope, keyValue, value)
+                : !addId(scope, keyValue);
             if (valueAlreadyExists) {
-                // If the value is a duplicate, add an error.
+                // If the value is a duplicate, add an error. The bad value spells out the unique ID.
+                String uniqueId = isOrderField
+                    ? String.join(":", field.name, keyValue, value)
+                    : String.join(":", keyField, keyValue);
+                if (isProprietary) uniqueId = String.join(":", table.name, uniqueId);
                 NewGTFSError duplicateIdError =
                     NewGTFSError.forLine(table, lineNumber, DUPLICATE_ID, uniqueId)
                         .setEntityId(keyValue);
                 if (isOrderField) { duplicateIdError.setSequence(value); }
+                if (errors == null) errors = new HashSet<>();
                 errors.add(duplicateIdError);
             }
         } else if (
@@ -132,8 +204,156 @@ public class ReferenceTracker {
             // example, this is where we add shape_id from the shapes table, so that when we
             // check the referential integrity of trips#shape_id, we know that the shape_id
             // exists in the shapes table. It also handles tracking calendar_dates#service_id values.
-            listOfUniqueIds.add(uniqueId);
+            addId(keyField, keyValue);
+        }
+        return errors == null ? Collections.emptySet() : errors;
+    }
+
+    /**
+     * Find where a "scope:value" string (e.g., stop_id:1234 or stop_attributes:stop_id:1234) is split into its scope
+     * and value, preferring a scope that has already been seen because values may themselves contain colons.
+     * @return the index of the separating colon, or -1 if there is none.
+     */
+    private static int findScopeSeparator(String string, Map<String, ?> scopes) {
+        for (int i = string.indexOf(':'); i >= 0; i = string.indexOf(':', i + 1)) {
+            if (scopes.containsKey(string.substring(0, i))) return i;
+        }
+        return string.indexOf(':');
+    }
+
+    /** The "field:id" string view of the single field keys (see {@link #transitIds}). */
+    private class IdStrings extends AbstractSet<String> {
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof String)) return false;
+            String string = (String) o;
+            int separator = findScopeSeparator(string, idsForKeyField);
+            return separator >= 0 && containsId(string.substring(0, separator), string.substring(separator + 1));
+        }
+
+        @Override
+        public boolean add(String string) {
+            int separator = findScopeSeparator(string, idsForKeyField);
+            if (separator < 0) throw new IllegalArgumentException("Expected field:id but found " + string);
+            return addId(string.substring(0, separator), string.substring(separator + 1));
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (TObjectIntMap<String> ids : idsForKeyField.values()) size += ids.size();
+            return size;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            List<String> strings = new ArrayList<>();
+            idsForKeyField.forEach((keyField, ids) -> ids.forEachKey(id -> strings.add(keyField + ":" + id)));
+            return Collections.unmodifiableList(strings).iterator();
+        }
+    }
+
+    /** The "orderField:key:order" string view of the compound keys (see {@link #transitIdsWithSequence}). */
+    private class CompoundIdStrings extends AbstractSet<String> {
+        @Override
+        public boolean contains(Object o) {
+            if (!(o instanceof String)) return false;
+            String string = (String) o;
+            int separator = findScopeSeparator(string, compoundKeysForOrderField);
+            int orderSeparator = string.lastIndexOf(':');
+            return separator >= 0 && orderSeparator > separator && containsCompoundId(
+                string.substring(0, separator),
+                string.substring(separator + 1, orderSeparator),
+                string.substring(orderSeparator + 1)
+            );
+        }
+
+        @Override
+        public boolean add(String string) {
+            int separator = findScopeSeparator(string, compoundKeysForOrderField);
+            int orderSeparator = string.lastIndexOf(':');
+            if (separator < 0 || orderSeparator <= separator) {
+                throw new IllegalArgumentException("Expected orderField:key:order but found " + string);
+            }
+            return addCompoundId(
+                string.substring(0, separator),
+                string.substring(separator + 1, orderSeparator),
+                string.substring(orderSeparator + 1)
+            );
+        }
+
+        @Override
+        public int size() {
+            int size = 0;
+            for (CompoundKeys compoundKeys : compoundKeysForOrderField.values()) size += compoundKeys.pairs.size();
+            return size;
+        }
+
+        @Override
+        public Iterator<String> iterator() {
+            List<String> strings = new ArrayList<>();
+            compoundKeysForOrderField.forEach((orderField, compoundKeys) -> compoundKeys.forEach(
+                (keyValue, orderValue) -> strings.add(String.join(":", orderField, keyValue, orderValue))
+            ));
+            return Collections.unmodifiableList(strings).iterator();
+        }
+    }
+
+    private static TObjectIntMap<String> newDictionary() {
+        return new TObjectIntHashMap<>(Constants.DEFAULT_CAPACITY, Constants.DEFAULT_LOAD_FACTOR, NO_ID);
+    }
+
+    /**
+     * The compound keys seen for one order field. Key values (e.g., trip IDs) and order values (e.g., stop sequences)
+     * are interned separately and each pair is stored as a single long, with the key value's int in the high bits.
+     * These dictionaries are separate from the single key dictionaries so that a compound key (e.g., from stop_times)
+     * never makes an ID (e.g., a trip_id) appear to exist.
+     */
+    private static class CompoundKeys {
+        private final TObjectIntMap<String> keyValues = newDictionary();
+        private final TObjectIntMap<String> orderValues = newDictionary();
+        private final TLongSet pairs = new TLongHashSet();
+
+        boolean add(String keyValue, String orderValue) {
+            return pairs.add(pack(intern(keyValues, keyValue), intern(orderValues, orderValue)));
+        }
+
+        boolean contains(String keyValue, String orderValue) {
+            int key = keyValues.get(keyValue);
+            int order = orderValues.get(orderValue);
+            return key != NO_ID && order != NO_ID && pairs.contains(pack(key, order));
+        }
+
+        /** Call the consumer with the key and order value of every pair. */
+        void forEach(BiConsumer<String, String> consumer) {
+            String[] keyValueForId = valuesById(keyValues);
+            String[] orderValueForId = valuesById(orderValues);
+            pairs.forEach(pair -> {
+                consumer.accept(keyValueForId[(int) (pair >>> 32)], orderValueForId[(int) pair]);
+                return true;
+            });
+        }
+
+        private static String[] valuesById(TObjectIntMap<String> dictionary) {
+            String[] values = new String[dictionary.size()];
+            dictionary.forEachEntry((value, id) -> {
+                values[id] = value;
+                return true;
+            });
+            return values;
+        }
+
+        private static int intern(TObjectIntMap<String> dictionary, String value) {
+            int id = dictionary.get(value);
+            if (id == NO_ID) {
+                id = dictionary.size();
+                dictionary.put(value, id);
+            }
+            return id;
+        }
+
+        private static long pack(int high, int low) {
+            return ((long) high << 32) | (low & 0xFFFFFFFFL);
         }
-        return errors;
     }
 }
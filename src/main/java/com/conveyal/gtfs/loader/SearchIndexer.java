@@ -0,0 +1,111 @@
+package com.conveyal.gtfs.loader;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Set;
+
+import static com.conveyal.gtfs.util.Util.normalizeNamespace;
+
+/**
+ * Creates trigram indexes on the search fields of a feed's tables (see {@link Table#getSearchFields()}), so that the
+ * substring matches of a text search (ILIKE '%term%') use an index rather than scanning the whole table. This requires
+ * the PostgreSQL pg_trgm extension, which is created in the database if it is available and the user is allowed to.
+ * Otherwise no indexes are created and searches still work, only without an index.
+ *
+ * The indexes are maintained by the database as rows are edited (e.g., with JdbcTableWriter), so they only need to be
+ * created once for each feed, e.g. when it is loaded or snapshotted.
+ */
+public class SearchIndexer {
+
+    private static final Logger LOG = LoggerFactory.getLogger(SearchIndexer.class);
+
+    private final DataSource dataSource;
+
+    public SearchIndexer (DataSource dataSource) {
+        this.dataSource = dataSource;
+    }
+
+    /**
+     * Create the search indexes for all of the searchable tables in the namespace (schema). Indexes that already exist
+     * are left as they are. The tables must be committed before this is called.
+     * @return whether the indexes were created, i.e. false if the pg_trgm extension is not available.
+     */
+    public boolean createIndexes (String namespace) throws SQLException {
+        String schema = normalizeNamespace(namespace);
+        Connection connection = null;
+        try {
+            connection = dataSource.getConnection();
+            if (!createExtensionIfAvailable(connection)) {
+                LOG.warn("pg_trgm extension is not available. Searches in {} will not be indexed.", schema);
+                return false;
+            }
+            long startTime = System.currentTimeMillis();
+            Statement statement = connection.createStatement();
+            for (String indexSql : getCreateIndexSql(schema)) {
+                LOG.info(indexSql);
+                statement.execute(indexSql);
+            }
+            connection.commit();
+            LOG.info("Creating search indexes for {} took {} ms", schema, System.currentTimeMillis() - startTime);
+            return true;
+        } catch (SQLException e) {
+            if (connection != null) DbUtils.rollbackAndCloseQuietly(connection);
+            connection = null;
+            throw e;
+        } finally {
+            if (connection != null) DbUtils.closeQuietly(connection);
+        }
+    }
+
+    /**
+     * Get the statements that create a trigram index on each search field that is a column of its table. Loaded
+     * tables only have columns for the fields found in the GTFS file (e.g., stop_code is often missing).
+     */
+    private List<String> getCreateIndexSql (String schema) throws SQLException {
+        List<String> indexStatements = new ArrayList<>();
+        for (Table table : Table.tablesInOrder) {
+            Set<String> columns = ColumnRegistry.getColumns(dataSource, schema, table.name);
+            for (String field : table.getSearchFields()) {
+                if (!columns.contains(field)) continue;
+                // Indexes are created in the schema of their table, so the schema is left out of the index name to
+                // keep it within the Postgres limit of 63 characters.
+                indexStatements.add(String.format(
+                    "create index if not exists %s_%s_trgm_idx on %s.%s using gin (%s gin_trgm_ops)",
+                    table.name, field, schema, table.name, field
+                ));
+            }
+        }
+        return indexStatements;
+    }
+
+    /**
+     * @return whether the pg_trgm extension is installed in the database, after trying to install it if it is not.
+     */
+    private static boolean createExtensionIfAvailable (Connection connection) throws SQLException {
+        if (!"PostgreSQL".equals(connection.getMetaData().getDatabaseProductName())) return false;
+        Statement statement = connection.createStatement();
+        ResultSet installed = statement.executeQuery("select 1 from pg_extension where extname = 'pg_trgm'");
+        if (installed.next()) return true;
+        ResultSet available = statement.executeQuery("select 1 from pg_available_extensions where name = 'pg_trgm'");
+        if (!available.next()) return false;
+        try {
+            statement.execute("create extension if not exists pg_trgm");
+            connection.commit();
+            return true;
+        } catch (SQLException e) {
+            // Most likely the user is not allowed to create extensions.
+            LOG.warn("Could not create pg_trgm extension: {}", e.getMessage());
+            connection.rollback();
+            return false;
+        }
+    }
+}
@@ -0,0 +1,224 @@
+package com.conveyal.gtfs.loader;
+
+import org.apache.commons.dbutils.DbUtils;
+import org.postgresql.copy.CopyManager;
+import org.postgresql.core.BaseConnection;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Streams Postgres text format rows into a table with the COPY command while they are still being produced, instead
+ * of writing them to a temporary file and copying that file into the database afterward. The producer (the thread
+ * parsing a GTFS CSV file) writes to {@link #getOutputStream()}, which hands chunks of bytes over a bounded queue to a
+ * separate thread running {@link CopyManager#copyIn(String, InputStream)}. Parsing and database ingest therefore
+ * overlap, and at most a few megabytes of rows are held in memory at once.
+ *
+ * The COPY runs on its own connection (so the producer's connection remains free for storing errors). That connection
+ * is committed by {@link #finish()} and closed by {@link #close()}, which also cancels a COPY that did not finish.
+ */
+class StreamingCopy implements AutoCloseable {
+
+    private static final Logger LOG = LoggerFactory.getLogger(StreamingCopy.class);
+
+    private static final int CHUNK_SIZE = 64 * 1024;
+    // The maximum number of chunks waiting to be copied. Together with CHUNK_SIZE this bounds the memory used.
+    private static final int MAX_QUEUED_CHUNKS = 32;
+    // A chunk that is never filled, which marks the end of the stream (or an aborted stream).
+    private static final byte[] END_OF_STREAM = new byte[0];
+
+    private final Connection copyConnection;
+    private final BlockingQueue<byte[]> chunks = new ArrayBlockingQueue<>(MAX_QUEUED_CHUNKS);
+    private final Thread copyThread;
+    private final ChunkOutputStream outputStream = new ChunkOutputStream();
+
+    // Set by the copy thread when it finishes. These are volatile because they are read by the producer thread.
+    private volatile Exception copyFailure;
+    private volatile long rowsCopied = -1;
+    private volatile boolean aborted = false;
+    private boolean finished = false;
+
+    /**
+     * Begin copying into the target table. The copy waits for bytes to be written to the output stream.
+     * @param copyConnection a connection dedicated to this copy. The target table must be visible to it.
+     */
+    StreamingCopy(Connection copyConnection, String targetTableName) {
+        this.copyConnection = copyConnection;
+        final String copySql = String.format("copy %s from stdin", targetTableName);
+        final InputStream inputStream = new ChunkInputStream();
+        copyThread = new Thread(() -> {
+            try {
+                // Our connection pool wraps the Connection objects, so we need to unwrap the Postgres connection interface.
+                CopyManager copyManager = new CopyManager(copyConnection.unwrap(BaseConnection.class));
+                rowsCopied = copyManager.copyIn(copySql, inputStream, CHUNK_SIZE);
+            } catch (Exception e) {
+                copyFailure = e;
+                // Let a producer that is blocked on a full queue move on.
+                chunks.clear();
+            }
+        }, "copy-" + targetTableName);
+        copyThread.setDaemon(true);
+        copyThread.start();
+    }
+
+    /**
+     * @return the stream that rows in Postgres text format should be written to. Closing it ends the COPY input.
+     */
+    OutputStream getOutputStream() {
+        return outputStream;
+    }
+
+    /**
+     * @throws IOException if the COPY has already failed, e.g. because the database rejected a row. Writes to the
+     * output stream also fail in this case, but callers that write through a PrintStream never see those exceptions.
+     */
+    void checkFailure() throws IOException {
+        if (copyFailure != null) throw new IOException("COPY into database failed.", copyFailure);
+    }
+
+    /**
+     * Wait for the COPY to consume all the bytes written to the (closed) output stream and commit it.
+     * @return the number of rows copied into the table.
+     */
+    long finish() throws IOException, SQLException {
+        outputStream.close();
+        try {
+            copyThread.join();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for COPY to finish.", e);
+        }
+        if (copyFailure instanceof SQLException) throw (SQLException) copyFailure;
+        if (copyFailure != null) throw new IOException("COPY into database failed.", copyFailure);
+        copyConnection.commit();
+        finished = true;
+        return rowsCopied;
+    }
+
+    /**
+     * Cancel the COPY if it was not finished (rolling back anything it loaded) and release the copy connection.
+     */
+    @Override
+    public void close() {
+        if (!finished) {
+            aborted = true;
+            chunks.clear();
+            chunks.offer(END_OF_STREAM);
+            try {
+                copyThread.join();
+                copyConnection.rollback();
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+            } catch (SQLException e) {
+                LOG.error("Could not roll back COPY connection", e);
+            }
+        }
+        DbUtils.closeQuietly(copyConnection);
+    }
+
+    /**
+     * Collects written bytes into chunks and hands each full chunk to the copy thread, blocking while the queue is full.
+     */
+    private class ChunkOutputStream extends OutputStream {
+        private byte[] chunk = new byte[CHUNK_SIZE];
+        private int position = 0;
+        private boolean closed = false;
+
+        @Override
+        public void write(int b) throws IOException {
+            if (position == CHUNK_SIZE) sendChunk();
+            chunk[position++] = (byte) b;
+        }
+
+        @Override
+        public void write(byte[] bytes, int offset, int length) throws IOException {
+            while (length > 0) {
+                if (position == CHUNK_SIZE) sendChunk();
+                int n = Math.min(length, CHUNK_SIZE - position);
+                System.arraycopy(bytes, offset, chunk, position, n);
+                position += n;
+                offset += n;
+                length -= n;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            if (closed) return;
+            closed = true;
+            if (position > 0) sendChunk();
+            put(END_OF_STREAM);
+        }
+
+        private void sendChunk() throws IOException {
+            byte[] full = position == CHUNK_SIZE ? chunk : Arrays.copyOf(chunk, position);
+            put(full);
+            chunk = new byte[CHUNK_SIZE];
+            position = 0;
+        }
+
+        private void put(byte[] bytes) throws IOException {
+            checkFailure();
+            try {
+                // Poll for copy failure rather than blocking forever on a queue that is no longer being drained.
+                while (!chunks.offer(bytes, 100, TimeUnit.MILLISECONDS)) {
+                    checkFailure();
+                }
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IOException("Interrupted while streaming rows to COPY.", e);
+            }
+        }
+    }
+
+    /**
+     * Reads the chunks handed over by the producer, on the copy thread.
+     */
+    private class ChunkInputStream extends InputStream {
+        private byte[] chunk = null;
+        private int position = 0;
+        private boolean ended = false;
+
+        /** @return false if there are no more bytes to read. */
+        private boolean ensureBytes() throws IOException {
+            while (!ended && (chunk == null || position == chunk.length)) {
+                try {
+                    chunk = chunks.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IOException("Interrupted while waiting for rows to COPY.", e);
+                }
+                position = 0;
+                if (chunk == END_OF_STREAM) ended = true;
+            }
+            // Fail the COPY (which makes the driver cancel it) rather than committing a partially streamed table.
+            if (aborted) throw new IOException("Streaming COPY was aborted.");
+            return !ended;
+        }
+
+        @Override
+        public int read() throws IOException {
+            if (!ensureBytes()) return -1;
+            return chunk[position++] & 0xFF;
+        }
+
+        @Override
+        public int read(byte[] bytes, int offset, int length) throws IOException {
+            if (length == 0) return 0;
+            if (!ensureBytes()) return -1;
+            int n = Math.min(length, chunk.length - position);
+            System.arraycopy(chunk, position, bytes, offset, n);
+            position += n;
+            return n;
+        }
+    }
+}
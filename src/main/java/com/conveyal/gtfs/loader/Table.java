@@ -88,6 +88,10 @@ public class Table {
      * table uniqueness(e.g., transfers#to_stop_id).
      * */
     private boolean compoundKey;
+    /** Fields matched by text searches on the table (e.g., stop names), which may be indexed with SearchIndexer. */
+    private String[] searchFields = new String[0];
+    /** The longitude and latitude fields of tables whose rows have a location, which are indexed spatially. */
+    private String[] locationFields;
 
     public Table (String name, Class<? extends Entity> entityClass, Requirement required, Field... fields) {
         // TODO: verify table name is OK for use in constructing dynamic SQL queries
@@ -189,7 +193,7 @@ public class Table {
         new IntegerField("route_sort_order", OPTIONAL, 0, Integer.MAX_VALUE),
         // Status values are In progress (0), Pending approval (1), and Approved (2).
         new ShortField("status", EDITOR,  2)
-    ).addPrimaryKey();
+    ).addPrimaryKey().addSearchFields("route_id", "route_short_name", "route_long_name");
 
     public static final Table FARE_RULES = new Table("fare_rules", FareRule.class, OPTIONAL,
             new StringField("fare_id", REQUIRED).isReferenceTo(FARE_ATTRIBUTES),
@@ -239,13 +243,14 @@ public class Table {
         new StringField("parent_station",  OPTIONAL), //.isReferenceToSelf()
         new StringField("stop_timezone",  OPTIONAL),
         new ShortField("wheelchair_boarding", OPTIONAL, 2)
-    ).restrictDelete().addPrimaryKey();
+    ).restrictDelete().addPrimaryKey().addSearchFields("stop_id", "stop_code", "stop_name")
+        .addSpatialIndex("stop_lon", "stop_lat");
 
     public static final Table PATTERN_STOP = new Table("pattern_stops", PatternStop.class, OPTIONAL,
             new StringField("pattern_id", REQUIRED).isReferenceTo(PATTERNS),
             new IntegerField("stop_sequence", REQUIRED, 0, Integer.MAX_VALUE),
-            // FIXME: Do we need an index on stop_id?
-            new StringField("stop_id", REQUIRED).isReferenceTo(STOPS),
+            // Indexed to find the patterns serving the stops within a bounding box.
+            new StringField("stop_id", REQUIRED).isReferenceTo(STOPS).indexThisColumn(),
             // Editor-specific fields
             new IntegerField("default_travel_time", EDITOR,0, Integer.MAX_VALUE),
             new IntegerField("default_dwell_time", EDITOR, 0, Integer.MAX_VALUE),
@@ -369,6 +374,32 @@ public class Table {
         return this;
     }
 
+    /**
+     * Fluent method to set the fields matched by text searches on the table, e.g. with the search argument of GraphQL
+     * queries. See {@link SearchIndexer} for indexing these fields.
+     */
+    public Table addSearchFields (String... searchFields) {
+        this.searchFields = searchFields;
+        return this;
+    }
+
+    /**
+     * Fluent method to index the locations of the table's rows, so that the rows within a bounding box (e.g., the stops
+     * in a map viewport) are found without scanning the whole table. The index is a PostgreSQL GiST index on the
+     * expression point(lonField, latField), which queries must repeat in order to use the index, e.g.
+     * point(stop_lon, stop_lat) <@ box(point(minLon, minLat), point(maxLon, maxLat)). Being an expression index, it
+     * is kept up to date by the database as rows are edited.
+     */
+    public Table addSpatialIndex (String lonField, String latField) {
+        this.locationFields = new String[] {lonField, latField};
+        return this;
+    }
+
+    /** @return the fields matched by text searches on the table, or an empty array if the table is not searchable. */
+    public String[] getSearchFields () {
+        return searchFields;
+    }
+
     /**
      * Registers the table with a parent table. When updates are made to the parent table, updates to child entities
      * nested in the JSON string will be made. For example, pattern stops and shape points use this method to point to
@@ -786,12 +817,25 @@ public class Table {
      * FIXME: add foreign reference indexes?
      */
     public void createIndexes(Connection connection, String namespace) throws SQLException {
+        for (String indexSql : getCreateIndexSql(namespace)) {
+            LOG.info(indexSql);
+            connection.createStatement().execute(indexSql);
+        }
+    }
+
+    /**
+     * Get the SQL statements that create the indexes for this table (see {@link #createIndexes}) without executing
+     * them. Each statement creates one index, so they may be executed separately (e.g., in parallel on different
+     * connections once all tables have been loaded). WARNING: this MUST be called on a spec table.
+     */
+    public List<String> getCreateIndexSql(String namespace) {
+        List<String> indexStatements = new ArrayList<>();
         if ("agency".equals(name) || "feed_info".equals(name)) {
             // Skip indexing for the small tables that have so few records that indexes are unlikely to
             // improve query performance or that are unlikely to be joined to other tables. NOTE: other tables could be
             // added here in the future as needed.
             LOG.info("Skipping indexes for {} table", name);
-            return;
+            return indexStatements;
         }
         LOG.info("Indexing {}...", name);
         String tableName;
@@ -809,23 +853,24 @@ public class Table {
         // TODO use line number as primary key
         // Note: SQLITE requires specifying a name for indexes.
         String indexName = String.join("_", tableName.replace(".", "_"), "idx");
-        String indexSql = String.format("create index %s on %s (%s)", indexName, tableName, indexColumns);
+        indexStatements.add(String.format("create index %s on %s (%s)", indexName, tableName, indexColumns));
         //String indexSql = String.format("alter table %s add primary key (%s)", tableName, indexColumns);
-        LOG.info(indexSql);
-        connection.createStatement().execute(indexSql);
         // TODO add foreign key constraints, and recover recording errors as needed.
 
         // More indexing
         // TODO integrate with the above indexing code, iterating over a List<String> of index column expressions
         for (Field field : fields) {
             if (field.shouldBeIndexed()) {
-                Statement statement = connection.createStatement();
                 String fieldIndex = String.join("_", tableName.replace(".", "_"), field.name, "idx");
-                String sql = String.format("create index %s on %s (%s)", fieldIndex, tableName, field.name);
-                LOG.info(sql);
-                statement.execute(sql);
+                indexStatements.add(String.format("create index %s on %s (%s)", fieldIndex, tableName, field.name));
             }
         }
+        if (locationFields != null) {
+            String locationIndex = String.join("_", tableName.replace(".", "_"), "location", "idx");
+            indexStatements.add(String.format("create index %s on %s using gist (point(%s, %s))",
+                locationIndex, tableName, locationFields[0], locationFields[1]));
+        }
+        return indexStatements;
     }
 
     /**
@@ -13,6 +13,8 @@ public class TableLoadResult implements Serializable {
     public int errorCount;
     public String fatalException = null;
     public int fileSize;
+    /** Wall-clock time spent loading this table, including any wait on the database. */
+    public long loadTimeMillis;
 
     /** No-arg constructor for Mongo */
     public TableLoadResult () { }
@@ -2,6 +2,9 @@ package com.conveyal.gtfs.loader;
 
 import com.conveyal.gtfs.model.Entity;
 
+import java.util.Collection;
+import java.util.Map;
+
 /**
  * This is an interface for classes that can iterate over all entities in a single GTFS table, or fetch single entities
  * by ID, or fetch ordered groups of entities with the same ID (e.g. all stop times with the same trip_id).
@@ -15,6 +18,24 @@ public interface TableReader <T extends Entity> extends Iterable<T> {
 
     Iterable<T> getAll ();
 
+    /**
+     * Get the entities with any of the given IDs at once.
+     * @return a map from each ID found to the (first) entity with that ID.
+     */
+    Map<String, T> getAll (Collection<String> ids);
+
     Iterable<T> getAllOrdered ();
 
+    /**
+     * Get all the items whose ID is at least fromId and less than toId, in order. Either bound may be null to leave
+     * that end of the range open.
+     */
+    Iterable<T> getOrderedInRange (String fromId, String toId);
+
+    /**
+     * @return a reader for the same table that only fetches the named columns, leaving the fields for other columns
+     * with missing values. This saves reading and transferring columns the caller does not use.
+     */
+    TableReader<T> selectColumns (String... columnNames);
+
 }
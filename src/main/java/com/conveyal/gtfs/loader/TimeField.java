@@ -19,11 +19,24 @@ public class TimeField extends Field {
         super(name, requirement);
     }
 
+    /** Returned by {@link #getSeconds(String)} for a time that is malformed or out of range. */
+    public static final int INVALID_TIME = Integer.MIN_VALUE;
+    /** Returned by {@link #getComponent(String, int)} when the string is not three colon-separated integers. */
+    public static final long NOT_A_NUMBER = Long.MIN_VALUE;
+    // Other than the Moscow-Pyongyang route at 8.5 days, most of the longest services are around 6 days.
+    private static final int MAX_HOURS = 150;
+
     @Override
     public Set<NewGTFSError> setParameter(PreparedStatement preparedStatement, int oneBasedIndex, String string) {
         try {
-            ValidateFieldResult<Integer> result = getSeconds(string);
-            preparedStatement.setInt(oneBasedIndex, result.clean);
+            int seconds = getSeconds(string);
+            if (seconds != INVALID_TIME) {
+                preparedStatement.setInt(oneBasedIndex, seconds);
+                return Collections.emptySet();
+            }
+            ValidateFieldResult<Integer> result = validate(string);
+            if (result.clean == null) setNull(preparedStatement, oneBasedIndex);
+            else preparedStatement.setInt(oneBasedIndex, result.clean);
             return result.errors;
         } catch (Exception ex) {
             throw new StorageException(ex);
@@ -33,32 +46,108 @@ public class TimeField extends Field {
     // Actually this is converting the string. Can we use some JDBC existing functions for this?
     @Override
     public ValidateFieldResult<String> validateAndConvert(String hhmmss) {
-        return ValidateFieldResult.from(getSeconds(hhmmss));
+        int seconds = getSeconds(hhmmss);
+        if (seconds != INVALID_TIME) return new ValidateFieldResult<>(Integer.toString(seconds), Collections.emptySet());
+        ValidateFieldResult<Integer> result = validate(hhmmss);
+        // A malformed time has no clean value, which is stored as null.
+        String clean = result.clean == null ? null : Integer.toString(result.clean);
+        return new ValidateFieldResult<>(clean, result.errors);
     }
 
-    private static ValidateFieldResult<Integer> getSeconds (String hhmmss) {
-        ValidateFieldResult<Integer> result = new ValidateFieldResult<>();
+    /**
+     * Convert a time in the format HH:MM:SS or H:MM:SS to seconds after midnight, without allocating any objects. This
+     * is called for two fields on every stop_times row, so it scans the characters directly rather than splitting.
+     * @return the number of seconds, or INVALID_TIME if the time is malformed or out of range (in which case
+     * {@link #validateAndConvert(String)} reports the errors).
+     */
+    public static int getSeconds (String hhmmss) {
         // Accept hh:mm:ss or h:mm:ss for single-digit hours.
-        if (hhmmss.length() != 8 && hhmmss.length() != 7) {
-            result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.TIME_FORMAT, hhmmss));
-            return result;
+        if (hhmmss.length() != 8 && hhmmss.length() != 7) return INVALID_TIME;
+        long h = getComponent(hhmmss, 0);
+        long m = getComponent(hhmmss, 1);
+        long s = getComponent(hhmmss, 2);
+        // NOT_A_NUMBER is negative, so this also catches malformed components.
+        if (h < 0 || h > MAX_HOURS || m < 0 || m > 59 || s < 0 || s > 59) return INVALID_TIME;
+        return (int) (((h * 60) + m) * 60 + s);
+    }
+
+    /**
+     * Get one component of a time in the format H:M:S (hours may be greater than 24 and there is no limit on the number
+     * of digits) without allocating any objects. Components are parsed like Integer.parseInt, so they may be signed.
+     * NOTE: trailing colons are ignored, as they were when times were parsed with String.split.
+     *
+     * @param component 0 for hours, 1 for minutes or 2 for seconds
+     * @return the value of the component, or NOT_A_NUMBER if the time does not consist of three colon-separated integers.
+     */
+    public static long getComponent (String time, int component) {
+        int end = time.length();
+        while (end > 0 && time.charAt(end - 1) == ':') end--;
+        int start = 0;
+        int componentCount = 0;
+        int componentStart = -1;
+        int componentEnd = -1;
+        for (int i = 0; i <= end; i++) {
+            if (i == end || time.charAt(i) == ':') {
+                if (componentCount == component) {
+                    componentStart = start;
+                    componentEnd = i;
+                }
+                componentCount++;
+                start = i + 1;
+            }
         }
-        String[] fields = hhmmss.split(":");
-        if (fields.length != 3) {
+        if (componentCount != 3) return NOT_A_NUMBER;
+        return parseInt(time, componentStart, componentEnd);
+    }
+
+    /**
+     * Parse part of a string with the same rules as Integer.parseInt, without creating a substring.
+     * @return the parsed value or NOT_A_NUMBER.
+     */
+    private static long parseInt (String string, int start, int end) {
+        if (start >= end) return NOT_A_NUMBER;
+        boolean negative = false;
+        char first = string.charAt(start);
+        if (first == '-' || first == '+') {
+            negative = first == '-';
+            start++;
+            if (start == end) return NOT_A_NUMBER;
+        }
+        long value = 0;
+        for (int i = start; i < end; i++) {
+            int digit = Character.digit(string.charAt(i), 10);
+            if (digit < 0) return NOT_A_NUMBER;
+            value = value * 10 + digit;
+            if (value > (long) Integer.MAX_VALUE + 1) return NOT_A_NUMBER;
+        }
+        if (negative) value = -value;
+        if (value > Integer.MAX_VALUE) return NOT_A_NUMBER;
+        return value;
+    }
+
+    /**
+     * Validate a time that {@link #getSeconds(String)} rejected, collecting the errors. This is only called for invalid
+     * values, so it is not optimized.
+     */
+    private static ValidateFieldResult<Integer> validate (String hhmmss) {
+        ValidateFieldResult<Integer> result = new ValidateFieldResult<>();
+        long h = getComponent(hhmmss, 0);
+        long m = getComponent(hhmmss, 1);
+        long s = getComponent(hhmmss, 2);
+        if (
+            (hhmmss.length() != 8 && hhmmss.length() != 7) ||
+            h == NOT_A_NUMBER || m == NOT_A_NUMBER || s == NOT_A_NUMBER
+        ) {
             result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.TIME_FORMAT, hhmmss));
             return result;
         }
-        int h = Integer.parseInt(fields[0]);
-        int m = Integer.parseInt(fields[1]);
-        int s = Integer.parseInt(fields[2]);
-        // Other than the Moscow-Pyongyang route at 8.5 days, most of the longest services are around 6 days.
         if (h < 0) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_NEGATIVE, hhmmss));
-        if (h > 150) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_TOO_LARGE, hhmmss));
+        if (h > MAX_HOURS) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_TOO_LARGE, hhmmss));
         if (m < 0) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_NEGATIVE, hhmmss));
         if (m > 59) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_TOO_LARGE, hhmmss));
         if (s < 0) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_NEGATIVE, hhmmss));
         if (s > 59) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_TOO_LARGE, hhmmss));
-        result.clean = ((h * 60) + m) * 60 + s;
+        result.clean = (int) (((h * 60) + m) * 60 + s);
         return result;
     }
 
@@ -15,13 +15,25 @@ import java.util.Set;
  */
 public class ValidateFieldResult<T> {
     public T clean;
-    public Set<NewGTFSError> errors = new HashSet<>();
+    public Set<NewGTFSError> errors;
 
-    public ValidateFieldResult() {}
+    public ValidateFieldResult() {
+        this.errors = new HashSet<>();
+    }
 
     /** Constructor used to set a default value (which may then be updated with the clean value). */
     public ValidateFieldResult(T defaultValue) {
         this.clean = defaultValue;
+        this.errors = new HashSet<>();
+    }
+
+    /**
+     * Constructor used to return a final result, e.g., with Collections.emptySet() for a valid value so that no error
+     * set is allocated. Errors must not be added to the result afterward if the supplied set is immutable.
+     */
+    public ValidateFieldResult(T clean, Set<NewGTFSError> errors) {
+        this.clean = clean;
+        this.errors = errors;
     }
 
     /** Builder method that constructs a ValidateFieldResult with type String from the input result. */
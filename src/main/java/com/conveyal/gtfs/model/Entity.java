@@ -14,6 +14,7 @@ import com.conveyal.gtfs.error.TableInSubdirectoryError;
 import com.conveyal.gtfs.error.TimeParseError;
 import com.conveyal.gtfs.error.URLParseError;
 import com.conveyal.gtfs.loader.DateField;
+import com.conveyal.gtfs.loader.TimeField;
 import com.conveyal.gtfs.util.Deduplicator;
 import com.csvreader.CsvReader;
 import com.csvreader.CsvWriter;
@@ -35,7 +36,6 @@ import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.time.LocalDate;
 import java.time.format.DateTimeFormatter;
-import java.time.format.DateTimeParseException;
 import java.util.Enumeration;
 import java.util.Iterator;
 import java.util.Locale;
@@ -182,21 +182,17 @@ public abstract class Entity implements Serializable {
             int val = INT_MISSING;
             
             if (str != null) {
-                String[] fields = str.split(":");
-                if (fields.length != 3) {
+                // Scan the string directly rather than splitting it, because this is called for every stop time.
+                long hours = TimeField.getComponent(str, 0);
+                long minutes = TimeField.getComponent(str, 1);
+                long seconds = TimeField.getComponent(str, 2);
+                if (hours == TimeField.NOT_A_NUMBER || minutes == TimeField.NOT_A_NUMBER || seconds == TimeField.NOT_A_NUMBER) {
                     feed.errors.add(new TimeParseError(tableName, row, column));
                 } else {
-                    try {
-                        int hours = Integer.parseInt(fields[0]);
-                        int minutes = Integer.parseInt(fields[1]);
-                        int seconds = Integer.parseInt(fields[2]);
-                        checkRangeInclusive(0, 72, hours); // GTFS hours can go past midnight. Some trains run for 3 days.
-                        checkRangeInclusive(0, 59, minutes);
-                        checkRangeInclusive(0, 59, seconds);
-                        val = (hours * 60 * 60) + minutes * 60 + seconds;
-                    } catch (NumberFormatException nfe) {
-                        feed.errors.add(new TimeParseError(tableName, row, column));
-                    }
+                    checkRangeInclusive(0, 72, hours); // GTFS hours can go past midnight. Some trains run for 3 days.
+                    checkRangeInclusive(0, 59, minutes);
+                    checkRangeInclusive(0, 59, seconds);
+                    val = ((int) hours * 60 * 60) + (int) minutes * 60 + (int) seconds;
                 }
             }
             
@@ -211,11 +207,10 @@ public abstract class Entity implements Serializable {
         protected LocalDate getDateField(String column, boolean required) throws IOException {
             String str = getFieldCheckRequired(column, required);
             LocalDate dateTime = null;
-            if (str != null) try {
-                dateTime = LocalDate.parse(str, DateField.GTFS_DATE_FORMATTER);
-                checkRangeInclusive(2000, 2100, dateTime.getYear());
-            } catch (IllegalArgumentException | DateTimeParseException e) {
-                feed.errors.add(new DateParseError(tableName, row, column));
+            if (str != null) {
+                dateTime = DateField.parseLocalDate(str);
+                if (dateTime == null) feed.errors.add(new DateParseError(tableName, row, column));
+                else checkRangeInclusive(2000, 2100, dateTime.getYear());
             }
             return dateTime;
         }
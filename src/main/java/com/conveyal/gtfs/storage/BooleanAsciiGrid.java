@@ -1,6 +1,10 @@
 package com.conveyal.gtfs.storage;
 
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
 import java.io.*;
+import java.nio.ByteBuffer;
 import java.util.BitSet;
 import java.util.zip.GZIPInputStream;
 
@@ -10,6 +14,15 @@ import java.util.zip.GZIPInputStream;
  */
 public class BooleanAsciiGrid {
 
+    private static final Logger LOG = LoggerFactory.getLogger(BooleanAsciiGrid.class);
+
+    private static final String EARTH_POPULATION_ASCII = "gpwv3-quarter-boolean.asc";
+    private static final String EARTH_POPULATION_BINARY = "gpwv3-quarter-boolean.bin";
+
+    /** Identifies the binary grid format written by {@link #writeBinary(OutputStream)}, followed by a version. */
+    private static final int BINARY_MAGIC = 0x42475244; // "BGRD"
+    private static final int BINARY_VERSION = 1;
+
     int ncols;
     int nrows;
     double xllcorner;
@@ -19,6 +32,8 @@ public class BooleanAsciiGrid {
 
     BitSet grid;
 
+    private BooleanAsciiGrid () { }
+
     public BooleanAsciiGrid (InputStream inputStream, boolean gzipped) {
 
         try {
@@ -57,16 +72,92 @@ public class BooleanAsciiGrid {
      * and all others a value of zero (since the no data value in the grid is -9999). This was then exported as another
      * ASCII grid file, which zips well. The license for this data set is Creative Commons Attribution.
      * See http://sedac.ciesin.columbia.edu/data/collection/gpw-v3
+     *
+     * The same grid instance is returned to all callers.
      */
     public static BooleanAsciiGrid forEarthPopulation() {
+        return EarthPopulationHolder.GRID;
+    }
+
+    /**
+     * Holds the earth population grid, which is loaded once per JVM the first time it is requested and then shared by
+     * all validations. The grid is never modified after loading.
+     */
+    private static class EarthPopulationHolder {
+        static final BooleanAsciiGrid GRID = loadEarthPopulation();
+    }
+
+    /**
+     * Load the earth population grid from its binary resource, which is generated from the ASCII grid of the same name
+     * and committed alongside it (see BooleanAsciiGridTest, which checks that the two agree). If the binary resource is
+     * missing (e.g., it was left out of a repackaged jar), the ASCII grid is parsed instead, which is much slower.
+     */
+    private static BooleanAsciiGrid loadEarthPopulation() {
         try {
-            InputStream gridStream = BooleanAsciiGrid.class.getResourceAsStream("gpwv3-quarter-boolean.asc");
-            return new BooleanAsciiGrid(gridStream, false);
-        } catch (Exception ex) {
+            InputStream binaryStream = BooleanAsciiGrid.class.getResourceAsStream(EARTH_POPULATION_BINARY);
+            if (binaryStream != null) {
+                try (InputStream stream = binaryStream) {
+                    return readBinary(stream);
+                }
+            }
+            LOG.warn("Binary population grid {} not found, parsing ASCII grid {} instead.",
+                EARTH_POPULATION_BINARY, EARTH_POPULATION_ASCII);
+            try (InputStream gridStream = BooleanAsciiGrid.class.getResourceAsStream(EARTH_POPULATION_ASCII)) {
+                if (gridStream == null) throw new IOException("Missing grid resource " + EARTH_POPULATION_ASCII);
+                return new BooleanAsciiGrid(gridStream, false);
+            }
+        } catch (IOException ex) {
             throw new RuntimeException(ex);
         }
     }
 
+    /**
+     * Write this grid in a compact binary format: a header with the magic number, format version, dimensions and
+     * georeferencing, followed by the packed bits of the grid as longs.
+     */
+    public void writeBinary (OutputStream outputStream) throws IOException {
+        DataOutputStream output = new DataOutputStream(new BufferedOutputStream(outputStream));
+        long[] words = grid.toLongArray();
+        output.writeInt(BINARY_MAGIC);
+        output.writeInt(BINARY_VERSION);
+        output.writeInt(ncols);
+        output.writeInt(nrows);
+        output.writeDouble(xllcorner);
+        output.writeDouble(yllcorner);
+        output.writeDouble(cellsize);
+        output.writeDouble(nodata);
+        output.writeInt(words.length);
+        for (long word : words) output.writeLong(word);
+        output.flush();
+    }
+
+    /**
+     * Read a grid written by {@link #writeBinary(OutputStream)}. The packed bits are read in a single bulk read.
+     */
+    public static BooleanAsciiGrid readBinary (InputStream inputStream) throws IOException {
+        DataInputStream input = new DataInputStream(new BufferedInputStream(inputStream));
+        if (input.readInt() != BINARY_MAGIC) throw new IOException("Not a binary boolean grid.");
+        int version = input.readInt();
+        if (version != BINARY_VERSION) throw new IOException("Unsupported binary grid version: " + version);
+        BooleanAsciiGrid booleanGrid = new BooleanAsciiGrid();
+        booleanGrid.ncols = input.readInt();
+        booleanGrid.nrows = input.readInt();
+        booleanGrid.xllcorner = input.readDouble();
+        booleanGrid.yllcorner = input.readDouble();
+        booleanGrid.cellsize = input.readDouble();
+        booleanGrid.nodata = input.readDouble();
+        int nWords = input.readInt();
+        if (nWords < 0 || nWords > ((long) booleanGrid.ncols * booleanGrid.nrows + 63) / 64) {
+            throw new IOException("Wrong number of grid words: " + nWords);
+        }
+        byte[] bytes = new byte[nWords * Long.BYTES];
+        input.readFully(bytes);
+        long[] words = new long[nWords];
+        ByteBuffer.wrap(bytes).asLongBuffer().get(words);
+        booleanGrid.grid = BitSet.valueOf(words);
+        return booleanGrid;
+    }
+
     /**
      * @param fields
      * @return whether we appear to still be in the header lines of the file
@@ -1,11 +1,18 @@
 package com.conveyal.gtfs.util;
 
 import com.conveyal.gtfs.model.Stop;
+import com.google.common.hash.HashCode;
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
 import com.vividsolutions.jts.geom.Coordinate;
 import com.vividsolutions.jts.geom.GeometryFactory;
 import org.apache.commons.math3.random.MersenneTwister;
 import org.apache.commons.math3.util.FastMath;
 
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
@@ -98,4 +105,34 @@ public abstract class Util {
         }
     }
 
+    /**
+     * Namespaces are used both with and without the separator dot that precedes the table name.
+     * @return the namespace (schema name) without a trailing dot, or the empty string for a null namespace.
+     */
+    public static String normalizeNamespace (String namespace) {
+        if (namespace == null) return "";
+        return namespace.endsWith(".") ? namespace.substring(0, namespace.length() - 1) : namespace;
+    }
+
+    /**
+     * Hash the contents of a file with several hash functions while reading the file only once. For large files on
+     * slow storage this is much faster than hashing the file separately with each function (e.g., with Guava's
+     * Files.hash), and the resulting hashes are identical.
+     * @return the hash codes, in the same order as the supplied hash functions.
+     */
+    public static HashCode[] hashFile(File file, HashFunction... hashFunctions) throws IOException {
+        Hasher[] hashers = new Hasher[hashFunctions.length];
+        for (int i = 0; i < hashFunctions.length; i++) hashers[i] = hashFunctions[i].newHasher();
+        byte[] buffer = new byte[1024 * 1024];
+        try (InputStream inputStream = new FileInputStream(file)) {
+            int bytesRead;
+            while ((bytesRead = inputStream.read(buffer)) != -1) {
+                for (Hasher hasher : hashers) hasher.putBytes(buffer, 0, bytesRead);
+            }
+        }
+        HashCode[] hashCodes = new HashCode[hashers.length];
+        for (int i = 0; i < hashers.length; i++) hashCodes[i] = hashers[i].hash();
+        return hashCodes;
+    }
+
 }
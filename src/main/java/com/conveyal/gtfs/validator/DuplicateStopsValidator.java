@@ -3,14 +3,20 @@ package com.conveyal.gtfs.validator;
 import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.Table;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.util.Util;
+import com.google.common.collect.ImmutableSet;
 import com.vividsolutions.jts.geom.Coordinate;
-import com.vividsolutions.jts.geom.Envelope;
-import com.vividsolutions.jts.index.strtree.STRtree;
+import gnu.trove.list.TDoubleList;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TDoubleArrayList;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.TLongIntMap;
+import gnu.trove.map.hash.TLongIntHashMap;
 
-import java.util.HashMap;
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Set;
 import java.util.stream.Collectors;
@@ -20,42 +26,66 @@ import static com.conveyal.gtfs.util.Util.getCoordString;
 
 /**
  * Find stops that are very close together.
+ *
+ * Stops are projected to meters and binned into a uniform grid whose cells are as wide as the duplicate threshold, so
+ * all of the stops within the threshold of a stop are in the 3x3 block of cells around it.
  */
 public class DuplicateStopsValidator extends FeedValidator {
 
-    private static final double BUFFER_METERS = 2.0;
+    public static final double DEFAULT_THRESHOLD_METERS = 2.0;
+
+    private double thresholdMeters = DEFAULT_THRESHOLD_METERS;
 
     public DuplicateStopsValidator(Feed feed, SQLErrorStorage errorStorage) {
         super(feed, errorStorage);
     }
 
+    /**
+     * Set how close together (in projected meters along each axis) two stops must be to be reported as duplicates.
+     * Defaults to two meters.
+     */
+    public DuplicateStopsValidator withThresholdMeters (double thresholdMeters) {
+        if (!(thresholdMeters > 0)) throw new IllegalArgumentException("Duplicate stop threshold must be positive.");
+        this.thresholdMeters = thresholdMeters;
+        return this;
+    }
+
+    @Override
+    public Set<String> getTablesRead () {
+        return ImmutableSet.of(Table.STOPS.name);
+    }
+
     @Override
     public void validate () {
-        // Project all stop coordinates and put them in a spatial index
-        HashMap<Stop, Coordinate> projectedCoordinateForStop = new HashMap<>();
-        STRtree stopSpatialIndex = new STRtree();
+        // Project all stop coordinates.
+        List<Stop> stops = new ArrayList<>();
+        TDoubleList xs = new TDoubleArrayList();
+        TDoubleList ys = new TDoubleArrayList();
         for (Stop stop : feed.stops) {
             // Only validate point where vehicles stop, excluding logical "parent stations"
             if (stop.location_type != 0) continue;
             Coordinate projectedStopCoordinate = Util.projectLatLonToMeters(stop.stop_lat, stop.stop_lon);
-            stopSpatialIndex.insert(new Envelope(projectedStopCoordinate), stop);
-            projectedCoordinateForStop.put(stop, projectedStopCoordinate);
+            stops.add(stop);
+            xs.add(projectedStopCoordinate.x);
+            ys.add(projectedStopCoordinate.y);
         }
-        stopSpatialIndex.build();
+        StopGrid stopGrid = new StopGrid(xs.toArray(), ys.toArray(), thresholdMeters);
 
         // Track which stops have already been reported in an error message so we don't report them more than once.
-        Set<Stop> reportedStops = new HashSet<>();
-        projectedCoordinateForStop.forEach((stop, coord) -> {
-            if (reportedStops.contains(stop)) return;
-            Envelope queryEnvelope = new Envelope(coord);
-            queryEnvelope.expandBy(BUFFER_METERS);
-            List<Stop> nearby = (List<Stop>)stopSpatialIndex.query(queryEnvelope).stream()
-                    .filter(s -> !reportedStops.contains(s)).collect(Collectors.toList());
+        boolean[] reported = new boolean[stops.size()];
+        for (int s = 0; s < stops.size(); s++) {
+            if (reported[s]) continue;
+            Stop stop = stops.get(s);
             // The nearby stops list will include at least one stop, the one for which we're performing the query.
             // We want to include that one in the referenced entities along with the duplicates.
+            List<Stop> nearby = new ArrayList<>();
+            TIntList nearbyIndexes = stopGrid.findNearby(s);
+            for (int i = 0; i < nearbyIndexes.size(); i++) {
+                if (!reported[nearbyIndexes.get(i)]) nearby.add(stops.get(nearbyIndexes.get(i)));
+            }
             if (nearby.size() > 1) {
                 // TODO including bad_value and info entries - settle on one or the other
-                String badStopIds = nearby.stream().map(Stop::getId).filter(s -> !s.equals(stop.stop_id))
+                String badStopIds = nearby.stream().map(Stop::getId).filter(sid -> !sid.equals(stop.stop_id))
                         .map(sid -> "stopId=" + sid).collect(Collectors.joining("; "));
                 NewGTFSError error = NewGTFSError.forEntity(stop, DUPLICATE_STOP).setBadValue(badStopIds);
                 int i = 1;
@@ -64,9 +94,90 @@ public class DuplicateStopsValidator extends FeedValidator {
                     i += 1;
                 }
                 registerError(error);
-                reportedStops.addAll(nearby);
+                for (int n = 0; n < nearbyIndexes.size(); n++) reported[nearbyIndexes.get(n)] = true;
             }
-        });
+        }
+    }
+
+    /**
+     * A uniform spatial hash over projected stop coordinates. The stops in each cell are held in one array ordered by
+     * cell (with the stops in a cell in their original order), with the position of each cell's first stop looked up
+     * by cell key.
+     */
+    static class StopGrid {
+
+        private final double[] xs;
+        private final double[] ys;
+        private final double thresholdMeters;
+        // The ordinal of each non-empty cell, in the order cells are first encountered.
+        private final TLongIntMap ordinalForCell;
+        // The stops in each cell are stopIndexes[cellStart[ordinal]] up to (but not including) cellStart[ordinal + 1].
+        private final int[] cellStart;
+        private final int[] stopIndexes;
+
+        StopGrid (double[] xs, double[] ys, double thresholdMeters) {
+            this.xs = xs;
+            this.ys = ys;
+            this.thresholdMeters = thresholdMeters;
+            int nStops = xs.length;
+            ordinalForCell = new TLongIntHashMap(Math.max(nStops, 1), 0.5f, 0, -1);
+            int[] ordinalForStop = new int[nStops];
+            TIntList stopCounts = new TIntArrayList();
+            for (int s = 0; s < nStops; s++) {
+                long cell = cellKey(cell(xs[s]), cell(ys[s]));
+                int ordinal = ordinalForCell.get(cell);
+                if (ordinal < 0) {
+                    ordinal = stopCounts.size();
+                    ordinalForCell.put(cell, ordinal);
+                    stopCounts.add(0);
+                }
+                ordinalForStop[s] = ordinal;
+                stopCounts.set(ordinal, stopCounts.get(ordinal) + 1);
+            }
+            cellStart = new int[stopCounts.size() + 1];
+            for (int c = 0; c < stopCounts.size(); c++) cellStart[c + 1] = cellStart[c] + stopCounts.get(c);
+            int[] nextPosition = Arrays.copyOf(cellStart, stopCounts.size());
+            stopIndexes = new int[nStops];
+            for (int s = 0; s < nStops; s++) stopIndexes[nextPosition[ordinalForStop[s]]++] = s;
+        }
+
+        /**
+         * @return the indexes (in ascending order) of the stops within the threshold of the given stop along both axes,
+         * including the stop itself. These are the same stops that intersect an envelope around the stop expanded by the
+         * threshold.
+         */
+        TIntList findNearby (int s) {
+            double minX = xs[s] - thresholdMeters;
+            double maxX = xs[s] + thresholdMeters;
+            double minY = ys[s] - thresholdMeters;
+            double maxY = ys[s] + thresholdMeters;
+            TIntList nearby = new TIntArrayList();
+            // Usually the 3x3 block of cells around the stop. Cell numbers are monotonic in the coordinates, so these
+            // cells contain every stop inside the envelope.
+            // Loop over longs so that cells at the limits of the int range do not overflow.
+            for (long cx = cell(minX); cx <= cell(maxX); cx++) {
+                for (long cy = cell(minY); cy <= cell(maxY); cy++) {
+                    int ordinal = ordinalForCell.get(cellKey((int) cx, (int) cy));
+                    if (ordinal < 0) continue;
+                    for (int i = cellStart[ordinal]; i < cellStart[ordinal + 1]; i++) {
+                        int other = stopIndexes[i];
+                        if (xs[other] >= minX && xs[other] <= maxX && ys[other] >= minY && ys[other] <= maxY) {
+                            nearby.add(other);
+                        }
+                    }
+                }
+            }
+            nearby.sort();
+            return nearby;
+        }
+
+        private int cell (double meters) {
+            return (int) Math.floor(meters / thresholdMeters);
+        }
+
+        private static long cellKey (int cx, int cy) {
+            return ((long) cx << 32) | (cy & 0xFFFFFFFFL);
+        }
     }
 
 }
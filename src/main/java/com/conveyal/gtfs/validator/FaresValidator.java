@@ -3,7 +3,11 @@ package com.conveyal.gtfs.validator;
 import com.conveyal.gtfs.error.NewGTFSErrorType;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.Table;
 import com.conveyal.gtfs.model.FareAttribute;
+import com.google.common.collect.ImmutableSet;
+
+import java.util.Set;
 
 /**
  * Validator for fares that currently just checks that the transfers and transfer_duration fields are harmonious.
@@ -13,6 +17,11 @@ public class FaresValidator extends FeedValidator {
         super(feed, errorStorage);
     }
 
+    @Override
+    public Set<String> getTablesRead () {
+        return ImmutableSet.of(Table.FARE_ATTRIBUTES.name);
+    }
+
     @Override
     public void validate() {
         for (FareAttribute fareAttribute : feed.fareAttributes) {
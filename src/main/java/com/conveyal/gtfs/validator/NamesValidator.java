@@ -2,12 +2,15 @@ package com.conveyal.gtfs.validator;
 
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.Table;
 import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.Trip;
+import com.google.common.collect.ImmutableSet;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.Set;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.*;
 
@@ -17,6 +20,11 @@ public class NamesValidator extends FeedValidator {
         super(feed, errorStorage);
     }
 
+    @Override
+    public Set<String> getTablesRead () {
+        return ImmutableSet.of(Table.ROUTES.name, Table.STOPS.name, Table.TRIPS.name);
+    }
+
     @Override
     public void validate() {
         // Check routes
@@ -1,19 +1,32 @@
 package com.conveyal.gtfs.validator;
 
+import com.conveyal.gtfs.error.DeferredErrorStorage;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.Table;
+import com.conveyal.gtfs.loader.TableReader;
 import com.conveyal.gtfs.model.Entity;
 import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.ShapePoint;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
+import com.conveyal.gtfs.storage.StorageException;
 import com.google.common.collect.ListMultimap;
 import com.google.common.collect.MultimapBuilder;
+import org.apache.commons.dbutils.DbUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
 import java.util.*;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 import static com.conveyal.gtfs.error.NewGTFSErrorType.*;
 
@@ -29,8 +42,20 @@ public class NewTripTimesValidator extends FeedValidator {
 
     private static final Logger LOG = LoggerFactory.getLogger(NewTripTimesValidator.class);
 
+    // When validating in parallel, trips are split into this many ranges per thread so that the threads stay busy even
+    // if some ranges take longer than others.
+    private static final int PARTITIONS_PER_THREAD = 4;
+
+    // The stop_times columns used by the trip validators and pattern finder. The others (e.g. stop_headsign) are not
+    // fetched from the database.
+    private static final String[] STOP_TIME_COLUMNS = {"trip_id", "stop_sequence", "stop_id", "arrival_time",
+        "departure_time", "pickup_type", "drop_off_type", "timepoint", "shape_dist_traveled"};
+
     int tripCount = 0;
 
+    // The number of threads used to validate ranges of trips at the same time.
+    private int parallelism = 1;
+
     // Caching stops and trips gives a massive speed improvement by avoiding database calls.
     // TODO build this same kind of caching into the table reader class.
 //    ListMultimap<String, ShapePoint> shapeById = MultimapBuilder.treeKeys().arrayListValues().build();
@@ -52,6 +77,41 @@ public class NewTripTimesValidator extends FeedValidator {
         };
     }
 
+    /**
+     * This reads stops, trips, routes and stop times itself, plus whatever its trip validators read.
+     */
+    @Override
+    public Set<String> getTablesRead () {
+        Set<String> tablesRead = new HashSet<>(Arrays.asList(
+            Table.STOPS.name, Table.TRIPS.name, Table.ROUTES.name, Table.STOP_TIMES.name));
+        for (TripValidator tripValidator : tripValidators) {
+            Set<String> tripValidatorTables = tripValidator.getTablesRead();
+            if (tripValidatorTables == null) return null;
+            tablesRead.addAll(tripValidatorTables);
+        }
+        return tablesRead;
+    }
+
+    @Override
+    public Set<String> getDerivedTablesWritten () {
+        Set<String> tablesWritten = new HashSet<>();
+        for (TripValidator tripValidator : tripValidators) {
+            tablesWritten.addAll(tripValidator.getDerivedTablesWritten());
+        }
+        return tablesWritten;
+    }
+
+    /**
+     * Fluent method to validate ranges of trips on up to the given number of threads at the same time, each reading its
+     * stop times over its own connection. Each range has its own trip validators, which are merged in trip order once
+     * all ranges are done, so the errors and patterns are the same as when validating on a single thread.
+     */
+    public NewTripTimesValidator withParallelism (int parallelism) {
+        if (parallelism < 1) throw new IllegalArgumentException("Parallelism must be at least one.");
+        this.parallelism = parallelism;
+        return this;
+    }
+
     @Override
     public void validate () {
         // TODO cache automatically in feed or TableReader object
@@ -62,11 +122,98 @@ public class NewTripTimesValidator extends FeedValidator {
         for (Trip trip: feed.trips) tripById.put(trip.trip_id, trip);
         for (Route route: feed.routes) routeById.put(route.route_id, route);
         LOG.info("Done.");
+        if (parallelism > 1) validateInParallel();
+        else processTrips(feed.stopTimes.selectColumns(STOP_TIME_COLUMNS).getAllOrdered());
+    }
+
+    /**
+     * Split the trips into ranges of trip IDs and validate the ranges on several threads, each range with its own
+     * validators and in-memory error storage sharing the cached stops, trips and routes. Then merge the state of each
+     * range's trip validators into this validator's, and store its errors, in trip order.
+     */
+    private void validateInParallel () {
+        List<String> lowerBounds = getPartitionLowerBounds(parallelism * PARTITIONS_PER_THREAD);
+        LOG.info("Validating {} ranges of trips with parallelism {}", lowerBounds.size(), parallelism);
+        List<NewTripTimesValidator> partitions = new ArrayList<>();
+        List<DeferredErrorStorage> partitionErrors = new ArrayList<>();
+        TableReader<StopTime> stopTimes = feed.stopTimes.selectColumns(STOP_TIME_COLUMNS);
+        ExecutorService executor = Executors.newFixedThreadPool(parallelism);
+        try {
+            List<CompletableFuture<Void>> futures = new ArrayList<>();
+            for (int i = 0; i < lowerBounds.size(); i++) {
+                String fromId = lowerBounds.get(i);
+                String toId = i + 1 < lowerBounds.size() ? lowerBounds.get(i + 1) : null;
+                DeferredErrorStorage errors = new DeferredErrorStorage();
+                NewTripTimesValidator partition = new NewTripTimesValidator(feed, errors);
+                partition.stopById = stopById;
+                partition.tripById = tripById;
+                partition.routeById = routeById;
+                partitions.add(partition);
+                partitionErrors.add(errors);
+                futures.add(CompletableFuture.runAsync(
+                    () -> partition.processTrips(stopTimes.getOrderedInRange(fromId, toId)), executor));
+            }
+            CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        } catch (CompletionException e) {
+            // Report the underlying failure as this validator's failure.
+            if (e.getCause() instanceof RuntimeException) throw (RuntimeException) e.getCause();
+            throw e;
+        } finally {
+            executor.shutdown();
+        }
+        for (int i = 0; i < partitions.size(); i++) {
+            NewTripTimesValidator partition = partitions.get(i);
+            DeferredErrorStorage errors = partitionErrors.get(i);
+            for (int v = 0; v < tripValidators.length; v++) {
+                tripValidators[v].mergePartition(partition.tripValidators[v], errors);
+            }
+            errors.transferTo(errorStorage);
+            tripCount += partition.tripCount;
+        }
+        LOG.info("Validated {} trips", tripCount);
+    }
+
+    /**
+     * Split the trip IDs into about the given number of ranges of similar size, in the database's ordering of trip IDs
+     * (the same ordering used to read the stop times).
+     * @return the lowest trip ID in each range, starting with null for the first range so that it also includes any
+     * stop times with trip IDs below the lowest trip ID in the trips table.
+     */
+    private List<String> getPartitionLowerBounds (int partitionCount) {
+        List<String> lowerBounds = new ArrayList<>();
+        lowerBounds.add(null);
+        Connection connection = null;
+        try {
+            connection = feed.getConnection();
+            String sql = String.format("select min(trip_id) from (select trip_id, ntile(?) over (order by trip_id) " +
+                "as part from (select distinct trip_id from %strips where trip_id is not null) as ids) as parts " +
+                "group by part order by part", feed.tablePrefix);
+            PreparedStatement statement = connection.prepareStatement(sql);
+            statement.setInt(1, partitionCount);
+            LOG.info(statement.toString());
+            ResultSet resultSet = statement.executeQuery();
+            // Skip the lowest trip ID, which is covered by the open-ended first range.
+            if (resultSet.next()) {
+                while (resultSet.next()) lowerBounds.add(resultSet.getString(1));
+            }
+        } catch (SQLException e) {
+            throw new StorageException(e);
+        } finally {
+            DbUtils.closeQuietly(connection);
+        }
+        return lowerBounds;
+    }
+
+    /**
+     * Validate each trip found in the supplied stop times.
+     * @param orderedStopTimes stop times ordered by trip ID and sequence number
+     */
+    private void processTrips (Iterable<StopTime> orderedStopTimes) {
         // Accumulate StopTimes with the same trip_id into a list, then process each trip separately.
         List<StopTime> stopTimesForTrip = new ArrayList<>();
         String previousTripId = null;
         // Order stop times by trip ID and sequence number (i.e. scan through the stops in each trip in order)
-        for (StopTime stopTime : feed.stopTimes.getAllOrdered()) {
+        for (StopTime stopTime : orderedStopTimes) {
             // All bad references should already be caught elsewhere, this should just be a continue
             if (stopTime.trip_id == null) continue;
             if (!stopTime.trip_id.equals(previousTripId) && !stopTimesForTrip.isEmpty()) {
@@ -2,8 +2,10 @@ package com.conveyal.gtfs.validator;
 
 import com.conveyal.gtfs.PatternFinder;
 import com.conveyal.gtfs.TripPatternKey;
+import com.conveyal.gtfs.error.DeferredErrorStorage;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.BatchTracker;
+import com.conveyal.gtfs.loader.ColumnRegistry;
 import com.conveyal.gtfs.loader.Feed;
 import com.conveyal.gtfs.loader.Requirement;
 import com.conveyal.gtfs.loader.Table;
@@ -13,6 +15,7 @@ import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
+import com.google.common.collect.ImmutableSet;
 import org.apache.commons.dbutils.DbUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -30,6 +33,7 @@ import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.conveyal.gtfs.loader.JdbcGtfsLoader.copyFromFile;
 import static com.conveyal.gtfs.model.Entity.INT_MISSING;
@@ -55,12 +59,27 @@ public class PatternFinderValidator extends TripValidator {
         patternFinder = new PatternFinder();
     }
 
+    @Override
+    public Set<String> getTablesRead () {
+        return ImmutableSet.of(Table.STOPS.name);
+    }
+
+    @Override
+    public Set<String> getDerivedTablesWritten () {
+        return ImmutableSet.of(Table.PATTERNS.name, Table.PATTERN_STOP.name, Table.TRIPS.name);
+    }
+
     @Override
     public void validateTrip (Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
         // As we hit each trip, accumulate them into the wrapped PatternFinder object.
         patternFinder.processTrip(trip, stopTimes);
     }
 
+    @Override
+    public void mergePartition (TripValidator partition, DeferredErrorStorage partitionErrors) {
+        patternFinder.merge(((PatternFinderValidator) partition).patternFinder);
+    }
+
     /**
      * Store patterns and pattern stops in the database. Also, update the trips table with a pattern_id column.
      */
@@ -214,11 +233,15 @@ public class PatternFinderValidator extends TripValidator {
             statement.executeUpdate(String.format("alter table %s add primary key (pattern_id)", patternsTableName));
             LOG.info("Creating index on pattern stops");
             statement.executeUpdate(String.format("alter table %s add primary key (pattern_id, stop_sequence)", patternStopsTableName));
+            // Index stop_id to find the patterns serving a set of stops (e.g., the stops in a bounding box).
+            statement.execute(String.format("create index pattern_stops_stop_id_idx on %s (stop_id)", patternStopsTableName));
             // Index new pattern_id column on trips. The other tables are already indexed because they have primary keys.
             LOG.info("Indexing trips on pattern id.");
             statement.execute(String.format("create index trips_pattern_id_idx on %s (pattern_id)", tripsTableName));
             LOG.info("Done indexing.");
             connection.commit();
+            // The trips table has a new pattern_id column.
+            ColumnRegistry.invalidate(feed.tablePrefix);
         } catch (SQLException | IOException e) {
             // Rollback transaction if failure occurs on creating patterns.
             DbUtils.rollbackAndCloseQuietly(connection);
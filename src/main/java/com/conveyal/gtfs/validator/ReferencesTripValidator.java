@@ -1,12 +1,15 @@
 package com.conveyal.gtfs.validator;
 
+import com.conveyal.gtfs.error.DeferredErrorStorage;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.Table;
 import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.ShapePoint;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
+import com.google.common.collect.ImmutableSet;
 
 import java.util.HashSet;
 import java.util.List;
@@ -33,6 +36,11 @@ public class ReferencesTripValidator extends TripValidator {
         super(feed, errorStorage);
     }
 
+    @Override
+    public Set<String> getTablesRead () {
+        return ImmutableSet.of(Table.STOPS.name, Table.TRIPS.name, Table.ROUTES.name);
+    }
+
     @Override
     public void validateTrip(Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
         if (trip != null) referencedTrips.add(trip.trip_id);
@@ -46,6 +54,14 @@ public class ReferencesTripValidator extends TripValidator {
         }
     }
 
+    @Override
+    public void mergePartition (TripValidator partition, DeferredErrorStorage partitionErrors) {
+        ReferencesTripValidator other = (ReferencesTripValidator) partition;
+        referencedStops.addAll(other.referencedStops);
+        referencedTrips.addAll(other.referencedTrips);
+        referencedRoutes.addAll(other.referencedRoutes);
+    }
+
     @Override
     public void complete (ValidationResult validationResult) {
         for (Stop stop : feed.stops) {
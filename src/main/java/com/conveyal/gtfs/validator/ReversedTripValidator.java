@@ -14,9 +14,11 @@ import com.vividsolutions.jts.geom.GeometryFactory;
 import org.mapdb.Fun;
 
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 /**
  * TODO re-implement as a TripValidator
@@ -31,6 +33,11 @@ public class ReversedTripValidator extends TripValidator {
         super(feed, errorStorage);
     }
 
+    @Override
+    public Set<String> getTablesRead () {
+        return Collections.emptySet();
+    }
+
     @Override
     public void validateTrip(Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
         // TODO implement
@@ -0,0 +1,103 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.model.Calendar;
+import com.conveyal.gtfs.model.CalendarDate;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.util.BitSet;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * The days on which each service in a feed is active, merged from the repeating weekly calendars and their exceptions
+ * (calendar dates). Each service's days are held as a bitset of day numbers counted from the earliest date that appears
+ * in either table, so a service running every day for a year takes 365 bits rather than 365 LocalDate objects in a
+ * hash set, and checking whether two services share a day is a bitwise intersection.
+ */
+class ServiceCalendar {
+
+    private static final Logger LOG = LoggerFactory.getLogger(ServiceCalendar.class);
+
+    /** The epoch day of day number zero. */
+    private final long firstEpochDay;
+    private final Map<String, BitSet> activeDaysForServiceId = new LinkedHashMap<>();
+
+    /**
+     * Merge the calendars and calendar dates into active days per service. Calendar dates are applied after all of the
+     * calendars, in order, so a later exception overrides an earlier one for the same service and date. The tables are
+     * read twice: once to find the earliest date and once to record the active days.
+     */
+    ServiceCalendar (Iterable<Calendar> calendars, Iterable<CalendarDate> calendarDates) {
+        long minEpochDay = Long.MAX_VALUE;
+        for (Calendar calendar : calendars) {
+            if (calendar.start_date != null) minEpochDay = Math.min(minEpochDay, calendar.start_date.toEpochDay());
+        }
+        for (CalendarDate calendarDate : calendarDates) {
+            if (calendarDate.date != null) minEpochDay = Math.min(minEpochDay, calendarDate.date.toEpochDay());
+        }
+        firstEpochDay = minEpochDay == Long.MAX_VALUE ? 0 : minEpochDay;
+
+        // First handle the calendar entries, which define repeating weekly schedules.
+        for (Calendar calendar : calendars) {
+            if (calendar.start_date == null || calendar.end_date == null) {
+                LOG.error("Calendar for service {} is missing a start or end date.", calendar.service_id);
+                continue;
+            }
+            // Days of the week starting with Monday, which is how epoch days are numbered below.
+            int[] activeOnDayOfWeek = {calendar.monday, calendar.tuesday, calendar.wednesday, calendar.thursday,
+                calendar.friday, calendar.saturday, calendar.sunday};
+            int startDay = getDay(calendar.start_date);
+            int endDay = getDay(calendar.end_date);
+            for (int day = startDay; day <= endDay; day++) {
+                // Epoch day zero (1970-01-01) was a Thursday.
+                if (activeOnDayOfWeek[(int) Math.floorMod(firstEpochDay + day + 3, 7L)] > 0) {
+                    // Service is active on this date.
+                    activeDaysForServiceId.computeIfAbsent(calendar.service_id, id -> new BitSet()).set(day);
+                }
+            }
+        }
+
+        // Next handle the calendar_dates, which specify exceptions to the repeating weekly schedules.
+        for (CalendarDate calendarDate : calendarDates) {
+            BitSet activeDays = activeDaysForServiceId.computeIfAbsent(calendarDate.service_id, id -> new BitSet());
+            if (calendarDate.date == null) continue; // Unparseable dates were reported during loading.
+            if (calendarDate.exception_type == 1) {
+                // Service added on this date.
+                activeDays.set(getDay(calendarDate.date));
+            } else if (calendarDate.exception_type == 2) {
+                // Service removed on this date.
+                activeDays.clear(getDay(calendarDate.date));
+            }
+            // Otherwise exception_type is out of range. This should already have been caught during the loading phase.
+        }
+    }
+
+    /**
+     * @return the service IDs appearing in calendar dates or active on at least one day of a calendar, in the order
+     * they were first encountered.
+     */
+    Set<String> getServiceIds () {
+        return activeDaysForServiceId.keySet();
+    }
+
+    /**
+     * @return the day numbers on which the service is active, which is empty if the service is not in the calendar.
+     * The bitset must not be modified.
+     */
+    BitSet getActiveDays (String serviceId) {
+        BitSet activeDays = activeDaysForServiceId.get(serviceId);
+        return activeDays == null ? new BitSet() : activeDays;
+    }
+
+    /** @return the day number of the date, which may be negative for dates before any date in the calendar. */
+    int getDay (LocalDate date) {
+        return Math.toIntExact(date.toEpochDay() - firstEpochDay);
+    }
+
+    LocalDate getDate (int day) {
+        return LocalDate.ofEpochDay(firstEpochDay + day);
+    }
+}
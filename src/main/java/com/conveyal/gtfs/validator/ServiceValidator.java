@@ -1,21 +1,24 @@
 package com.conveyal.gtfs.validator;
 
+import com.conveyal.gtfs.error.DeferredErrorStorage;
 import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.NewGTFSErrorType;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.BatchTracker;
+import com.conveyal.gtfs.loader.ColumnRegistry;
 import com.conveyal.gtfs.loader.DateField;
 import com.conveyal.gtfs.loader.Feed;
 import com.conveyal.gtfs.loader.Table;
-import com.conveyal.gtfs.model.Calendar;
-import com.conveyal.gtfs.model.CalendarDate;
 import com.conveyal.gtfs.model.Entity;
 import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
 import com.conveyal.gtfs.storage.StorageException;
+import com.google.common.collect.ImmutableSet;
+import gnu.trove.map.TIntObjectMap;
 import gnu.trove.map.hash.TIntIntHashMap;
+import gnu.trove.map.hash.TIntObjectHashMap;
 import org.apache.commons.dbutils.DbUtils;
 import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
@@ -24,11 +27,9 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.SQLException;
 import java.sql.Statement;
-import java.time.DayOfWeek;
-import java.time.LocalDate;
-import java.time.temporal.ChronoUnit;
 import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.BitSet;
 import java.util.Comparator;
 import java.util.HashMap;
 import java.util.HashSet;
@@ -58,13 +59,24 @@ public class ServiceValidator extends TripValidator {
     private static final Logger LOG = LoggerFactory.getLogger(ServiceValidator.class);
     private HashMap<String, List<BlockInterval>> blockIntervals = new HashMap<>();
     private Map<String, ServiceInfo> serviceInfoForServiceId = new HashMap<>();
-
-    private Map<LocalDate, DateInfo> dateInfoForDate = new HashMap<>();
+    // The days on which each service is active, built in complete().
+    private ServiceCalendar serviceCalendar;
 
     public ServiceValidator(Feed feed, SQLErrorStorage errorStorage) {
         super(feed, errorStorage);
     }
 
+    @Override
+    public Set<String> getTablesRead () {
+        // Besides the trips handed to validateTrip, complete() reads trips and stop_times to build trip_spans.
+        return ImmutableSet.of(Table.CALENDAR.name, Table.CALENDAR_DATES.name, Table.TRIPS.name, Table.STOP_TIMES.name);
+    }
+
+    @Override
+    public Set<String> getDerivedTablesWritten () {
+        return ImmutableSet.of("services", "service_dates", "service_durations", "trip_spans");
+    }
+
     @Override
     public void validateTrip(Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
         if (trip.block_id != null) {
@@ -103,6 +115,25 @@ public class ServiceValidator extends TripValidator {
         // TODO validate mode codes
     }
 
+    /**
+     * Add the block intervals and per-service trips and durations found in a later range of trips. Appending in trip
+     * order keeps each block's intervals in the same order as when all trips are validated here.
+     */
+    @Override
+    public void mergePartition (TripValidator partition, DeferredErrorStorage partitionErrors) {
+        ServiceValidator other = (ServiceValidator) partition;
+        other.blockIntervals.forEach((blockId, intervals) ->
+            blockIntervals.computeIfAbsent(blockId, k -> new ArrayList<>()).addAll(intervals));
+        other.serviceInfoForServiceId.forEach((serviceId, otherInfo) -> {
+            ServiceInfo serviceInfo = serviceInfoForServiceId.computeIfAbsent(serviceId, ServiceInfo::new);
+            otherInfo.durationByRouteType.forEachEntry((routeType, durationSeconds) -> {
+                serviceInfo.durationByRouteType.adjustOrPutValue(routeType, durationSeconds, durationSeconds);
+                return true; // Continue iteration.
+            });
+            serviceInfo.tripIds.addAll(otherInfo.tripIds);
+        });
+    }
+
     /**
      * You'd think we'd want to do this during the loading phase. But during the loading phase we don't have a reading
      * connection to the entity tables in the database. Rather than make the Feed object read-write, we want to leave
@@ -118,42 +149,9 @@ public class ServiceValidator extends TripValidator {
 
     private void validateServiceInfo(ValidationResult validationResult) {
         LOG.info("Merging calendars and calendar_dates...");
-
-        // First handle the calendar entries, which define repeating weekly schedules.
-        for (Calendar calendar : feed.calendars) {
-            try {
-                LocalDate endDate = calendar.end_date;
-                // Loop over all days in this calendar entry, recording on which ones it is active.
-                for (LocalDate date = calendar.start_date; date.isBefore(endDate) || date.isEqual(endDate); date = date.plusDays(1)) {
-                    DayOfWeek dayOfWeek = date.getDayOfWeek();
-                    if (    (dayOfWeek == DayOfWeek.MONDAY && calendar.monday > 0) ||
-                        (dayOfWeek == DayOfWeek.TUESDAY && calendar.tuesday > 0) ||
-                        (dayOfWeek == DayOfWeek.WEDNESDAY && calendar.wednesday > 0) ||
-                        (dayOfWeek == DayOfWeek.THURSDAY && calendar.thursday > 0) ||
-                        (dayOfWeek == DayOfWeek.FRIDAY && calendar.friday > 0) ||
-                        (dayOfWeek == DayOfWeek.SATURDAY && calendar.saturday > 0) ||
-                        (dayOfWeek == DayOfWeek.SUNDAY && calendar.sunday > 0)) {
-                        // Service is active on this date.
-                        serviceInfoForServiceId.computeIfAbsent(calendar.service_id, ServiceInfo::new).datesActive.add(date);
-                    }
-                }
-            } catch (Exception ex) {
-                LOG.error("Error validating service entries (merging calendars and calendar_dates)", ex);
-                // Continue on to next calendar entry.
-            }
-        }
-
-        // Next handle the calendar_dates, which specify exceptions to the repeating weekly schedules.
-        for (CalendarDate calendarDate : feed.calendarDates) {
-            ServiceInfo serviceInfo = serviceInfoForServiceId.computeIfAbsent(calendarDate.service_id, ServiceInfo::new);
-            if (calendarDate.exception_type == 1) {
-                // Service added, add to set for this date.
-                serviceInfo.datesActive.add(calendarDate.date);
-            } else if (calendarDate.exception_type == 2) {
-                // Service removed, remove from Set for this date.
-                serviceInfo.datesActive.remove(calendarDate.date);
-            }
-            // Otherwise exception_type is out of range. This should already have been caught during the loading phase.
+        serviceCalendar = new ServiceCalendar(feed.calendars, feed.calendarDates);
+        for (String serviceId : serviceCalendar.getServiceIds()) {
+            serviceInfoForServiceId.computeIfAbsent(serviceId, ServiceInfo::new);
         }
 
         /*
@@ -171,7 +169,7 @@ public class ServiceValidator extends TripValidator {
 
         // Check for incoherent or erroneous services.
         for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
-            if (serviceInfo.datesActive.isEmpty()) {
+            if (serviceCalendar.getActiveDays(serviceInfo.serviceId).isEmpty()) {
                 // This service must have been referenced by trips but is never active on any day.
                 registerError(NewGTFSError.forFeed(NewGTFSErrorType.SERVICE_NEVER_ACTIVE, serviceInfo.serviceId));
                 for (String tripId : serviceInfo.tripIds) {
@@ -186,62 +184,56 @@ public class ServiceValidator extends TripValidator {
             }
         }
 
-        // Accumulate info about services into each date that they are active.
-        for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
-            for (LocalDate date : serviceInfo.datesActive) {
-                dateInfoForDate.computeIfAbsent(date, DateInfo::new).add(serviceInfo);
-            }
-        }
-
         // Check for dates that have no service within full range of dates with defined service.
         // Sum up service duration by mode for each day within that range.
-        if (dateInfoForDate.isEmpty()) {
+        BitSet daysWithAnyService = new BitSet();
+        for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
+            daysWithAnyService.or(serviceCalendar.getActiveDays(serviceInfo.serviceId));
+        }
+        int firstDay = daysWithAnyService.nextSetBit(0);
+        if (firstDay < 0) {
             registerError(NewGTFSError.forFeed(NewGTFSErrorType.NO_SERVICE, null));
         } else {
-            LocalDate firstDate = LocalDate.MAX;
-            LocalDate lastDate = LocalDate.MIN;
-            for (LocalDate date : dateInfoForDate.keySet()) {
-                // If the date is invalid, skip.
-                if (date == null) {
-                    LOG.error("Encountered null date. Did something go wrong with computeIfAbsent?");
-                    continue;
-                }
-                if (date.isBefore(firstDate)) firstDate = date;
-                if (date.isAfter(lastDate)) lastDate = date;
-            }
+            int lastDay = daysWithAnyService.length() - 1;
             // Copy some useful information into the ValidationResult object to return to the caller.
             // These variables are actually not directly tied to data in the calendar_dates.txt file.  Instead, they
             // represent the first and last date respectively of any entry in the calendar.txt and calendar_dates.txt
             // files.
-            validationResult.firstCalendarDate = firstDate;
-            validationResult.lastCalendarDate = lastDate;
-            // Is this any different? firstDate.until(lastDate, ChronoUnit.DAYS);
-            // If no days were found in the dateInfoForDate, nDays is a very large negative number, so we default to 0.
-            int nDays = Math.max(0, (int) ChronoUnit.DAYS.between(firstDate, lastDate) + 1);
+            validationResult.firstCalendarDate = serviceCalendar.getDate(firstDay);
+            validationResult.lastCalendarDate = serviceCalendar.getDate(lastDay);
+            int nDays = lastDay - firstDay + 1;
             validationResult.dailyBusSeconds = new int[nDays];
             validationResult.dailyTramSeconds = new int[nDays];
             validationResult.dailyMetroSeconds = new int[nDays];
             validationResult.dailyRailSeconds = new int[nDays];
             validationResult.dailyTotalSeconds = new int[nDays];
             validationResult.dailyTripCounts = new int[nDays];
-            for (int d = 0; d < nDays; d++) {
-                LocalDate date = firstDate.plusDays(d); // current date being processed
-                // Add one value per day. Trove map returns zero for missing keys.
-                DateInfo dateInfo = dateInfoForDate.get(date);
-                if (dateInfo == null) {
-                    dateInfo = new DateInfo(date); // new empty object to get empty durations map.
+            // Accumulate info about services into each date that they are active. Trove map returns zero for
+            // missing keys.
+            for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
+                int busSeconds = serviceInfo.durationByRouteType.get(3);
+                int tramSeconds = serviceInfo.durationByRouteType.get(0);
+                int metroSeconds = serviceInfo.durationByRouteType.get(1);
+                int railSeconds = serviceInfo.durationByRouteType.get(2);
+                int totalSeconds = serviceInfo.getTotalServiceDurationSeconds();
+                int tripCount = serviceInfo.tripIds.size();
+                BitSet activeDays = serviceCalendar.getActiveDays(serviceInfo.serviceId);
+                for (int day = activeDays.nextSetBit(0); day >= 0; day = activeDays.nextSetBit(day + 1)) {
+                    int d = day - firstDay;
+                    validationResult.dailyBusSeconds[d] += busSeconds;
+                    validationResult.dailyTramSeconds[d] += tramSeconds;
+                    validationResult.dailyMetroSeconds[d] += metroSeconds;
+                    validationResult.dailyRailSeconds[d] += railSeconds;
+                    validationResult.dailyTotalSeconds[d] += totalSeconds;
+                    validationResult.dailyTripCounts[d] += tripCount;
                 }
-                validationResult.dailyBusSeconds[d] = dateInfo.durationByRouteType.get(3);
-                validationResult.dailyTramSeconds[d] = dateInfo.durationByRouteType.get(0);
-                validationResult.dailyMetroSeconds[d] = dateInfo.durationByRouteType.get(1);
-                validationResult.dailyRailSeconds[d] = dateInfo.durationByRouteType.get(2);
-                validationResult.dailyTotalSeconds[d] = dateInfo.getTotalServiceDurationSeconds();
-                validationResult.dailyTripCounts[d] = dateInfo.tripCount;
-                if (dateInfo.getTotalServiceDurationSeconds() <= 0) {
+            }
+            for (int d = 0; d < nDays; d++) {
+                if (validationResult.dailyTotalSeconds[d] <= 0) {
                     // Check for low or zero service, which seems to happen even when services are defined.
-                    // This will also catch cases where dateInfo was null and the new instance contains no service.
+                    // This will also catch dates on which no service is active.
                     registerError(NewGTFSError.forFeed(NewGTFSErrorType.DATE_NO_SERVICE,
-                                                       DateField.GTFS_DATE_FORMATTER.format(date)));
+                        DateField.GTFS_DATE_FORMATTER.format(serviceCalendar.getDate(firstDay + d))));
                 }
             }
         }
@@ -271,7 +263,7 @@ public class ServiceValidator extends TripValidator {
             final BatchTracker serviceTracker = new BatchTracker("services", serviceStatement);
             for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
                 serviceStatement.setString(1, serviceInfo.serviceId);
-                serviceStatement.setInt(2, serviceInfo.datesActive.size());
+                serviceStatement.setInt(2, serviceCalendar.getActiveDays(serviceInfo.serviceId).cardinality());
                 serviceStatement.setInt(3, serviceInfo.getTotalServiceDurationSeconds());
                 serviceStatement.setInt(4, serviceInfo.tripIds.size());
                 serviceTracker.addBatch();
@@ -286,18 +278,20 @@ public class ServiceValidator extends TripValidator {
             sql = String.format("insert into %s values (?, ?)", serviceDatesTableName);
             PreparedStatement serviceDateStatement = connection.prepareStatement(sql);
             final BatchTracker serviceDateTracker = new BatchTracker("service_dates", serviceDateStatement);
+            // Many services share the same dates, so format each date only once.
+            TIntObjectMap<String> formattedDateForDay = new TIntObjectHashMap<>();
             for (ServiceInfo serviceInfo : serviceInfoForServiceId.values()) {
-                for (LocalDate date : serviceInfo.datesActive) {
-                    if (date == null) continue; // TODO ERR? Can happen with bad data (unparseable dates).
-                    try {
-                        serviceDateStatement.setString(1, date.format(DateField.GTFS_DATE_FORMATTER));
-                        serviceDateStatement.setString(2, serviceInfo.serviceId);
-                        serviceDateTracker.addBatch();
-                    } catch (SQLException ex) {
-                        throw new StorageException(ex);
+                BitSet activeDays = serviceCalendar.getActiveDays(serviceInfo.serviceId);
+                for (int day = activeDays.nextSetBit(0); day >= 0; day = activeDays.nextSetBit(day + 1)) {
+                    String date = formattedDateForDay.get(day);
+                    if (date == null) {
+                        date = serviceCalendar.getDate(day).format(DateField.GTFS_DATE_FORMATTER);
+                        formattedDateForDay.put(day, date);
                     }
+                    serviceDateStatement.setString(1, date);
+                    serviceDateStatement.setString(2, serviceInfo.serviceId);
+                    serviceDateTracker.addBatch();
                 }
-
             }
             serviceDateTracker.executeRemaining();
 
@@ -339,7 +333,30 @@ public class ServiceValidator extends TripValidator {
             serviceDurationTracker.executeRemaining();
             // No need to build indexes because (service_id, route_type) is already the primary key of this table.
 
+            // Create a table holding the first departure and last arrival time of each trip with stop times, so that
+            // the trips running at a time of day on a date can be found without scanning all of the stop times (see the
+            // date and time arguments of JDBCFetcher). The times are taken from the stop times as they are stored,
+            // without the repairs made for validation.
+            String tripSpansTableName = feed.tablePrefix + "trip_spans";
+            sql = String.format("create table %s as " +
+                "select trips.trip_id, trips.service_id, spans.first_departure_time, spans.last_arrival_time " +
+                "from %strips as trips, (select trip_id, " +
+                    "(array_agg(departure_time order by stop_sequence))[1] as first_departure_time, " +
+                    "(array_agg(arrival_time order by stop_sequence desc))[1] as last_arrival_time " +
+                    "from %sstop_times group by trip_id) as spans " +
+                "where trips.trip_id = spans.trip_id",
+                tripSpansTableName, feed.tablePrefix, feed.tablePrefix);
+            LOG.info(sql);
+            statement.execute(sql);
+            // The index covers the trips on a set of services departing in a time window, matching the expression
+            // used to filter on departure time.
+            statement.execute(String.format(
+                "create index trip_spans_service_id_departure on %s (service_id, (first_departure_time %% 86399), trip_id)",
+                tripSpansTableName));
+
             connection.commit();
+            // The namespace has new tables, which may have been looked up as missing (e.g., trip_spans by GraphQL).
+            ColumnRegistry.invalidate(feed.tablePrefix);
         } catch (SQLException e) {
             e.printStackTrace();
             throw new RuntimeException(e);
@@ -353,7 +370,6 @@ public class ServiceValidator extends TripValidator {
 
         final String serviceId;
         TIntIntHashMap durationByRouteType = new TIntIntHashMap();
-        Set<LocalDate> datesActive = new HashSet<>();
         Set<String> tripIds = new HashSet<>();
 
         public ServiceInfo(String serviceId) {
@@ -366,51 +382,37 @@ public class ServiceValidator extends TripValidator {
 
     }
 
-    static class DateInfo {
-
-        final LocalDate date;
-        TIntIntHashMap durationByRouteType = new TIntIntHashMap();
-        int tripCount = 0; // Trip count could also in theory be broken down by route type.
-        Set<String> servicesActive = new HashSet<>();
-
-        public DateInfo(LocalDate date) {
-            this.date = date;
-        }
-
-        public int getTotalServiceDurationSeconds() {
-            return Arrays.stream(durationByRouteType.values()).sum();
-        }
-
-        public void add (ServiceInfo serviceInfo) {
-            servicesActive.add(serviceInfo.serviceId);
-            serviceInfo.durationByRouteType.forEachEntry((routeType, serviceDurationSeconds) -> {
-                durationByRouteType.adjustOrPutValue(routeType, serviceDurationSeconds, serviceDurationSeconds);
-                return true; // Continue iteration.
-            });
-            tripCount += serviceInfo.tripIds.size();
-        }
-    }
-
     /**
      * Checks that trips which run on the same block (i.e., share a block_id) do not overlap. The block_id
      * represents a vehicle in service, so there must not be any trips on the same block interval that start while another
      * block trip is running.
      *
+     * The trips in each block are sorted by start time and swept in that order, so each trip is only compared with the
+     * later trips that start before it ends rather than with every other trip in the block. Whether two different
+     * services run on a common date is tested on the bitsets of their active days in the {@link ServiceCalendar}.
+     *
      * NOTE: This validation check happens in the {@link ServiceValidator} because it depends on information derived
-     * about which service calendars operate on which feed dates ({@link #serviceInfoForServiceId}).
+     * about which service calendars operate on which feed dates ({@link #serviceCalendar}).
      */
     private void validateBlocks () {
         // Iterate over each block and determine if there are any trips that overlap one another.
         for (String blockId : blockIntervals.keySet()) {
             List<BlockInterval> intervals = blockIntervals.get(blockId);
             intervals.sort(Comparator.comparingInt(i -> i.startTime));
-            // Iterate over each interval (except for the last) comparing it to every other interval (so the last interval
-            // is handled through the course of iteration).
-            // FIXME this has complexity of n^2, there has to be a better way.
+            // Trips are sorted by their first departure, but overlap is checked against their first arrival. The longest
+            // dwell at a first stop bounds how much earlier than its departure a later trip can arrive.
+            long maxFirstStopDwell = 0;
+            for (BlockInterval interval : intervals) {
+                long dwell = (long) interval.firstStop.departure_time - interval.firstStop.arrival_time;
+                maxFirstStopDwell = Math.max(maxFirstStopDwell, dwell);
+            }
             for (int n = 0; n < intervals.size() - 1; n++) {
                 BlockInterval interval1 = intervals.get(n);
-                // Compare the interval at position N with all other intervals at position N+1 to the end of the list.
-                for (BlockInterval interval2 : intervals.subList(n + 1, intervals.size())) {
+                // Compare the interval at position N with the following intervals until none of them can overlap it.
+                for (int m = n + 1; m < intervals.size(); m++) {
+                    BlockInterval interval2 = intervals.get(m);
+                    // This and all later trips arrive at their first stop after interval1's last departure.
+                    if ((long) interval2.startTime - maxFirstStopDwell >= interval1.lastStop.departure_time) break;
                     if (interval1.lastStop.departure_time <= interval2.firstStop.arrival_time || interval2.lastStop.departure_time <= interval1.firstStop.arrival_time) {
                         continue;
                     }
@@ -422,11 +424,9 @@ public class ServiceValidator extends TripValidator {
                     } else {
                         // Trips overlap but don't have the same service_id.
                         // Check to see if service days fall on the same days of the week.
-                        ServiceValidator.ServiceInfo info1 = serviceInfoForServiceId.get(interval1.trip.service_id);
-                        ServiceValidator.ServiceInfo info2 = serviceInfoForServiceId.get(interval2.trip.service_id);
-                        Set<LocalDate> overlappingDates = new HashSet<>(info1.datesActive); // use the copy constructor
-                        overlappingDates.retainAll(info2.datesActive);
-                        if (overlappingDates.size() > 0) {
+                        BitSet activeDays1 = serviceCalendar.getActiveDays(interval1.trip.service_id);
+                        BitSet activeDays2 = serviceCalendar.getActiveDays(interval2.trip.service_id);
+                        if (activeDays1.intersects(activeDays2)) {
                             registerError(interval1.trip, TRIP_OVERLAP_IN_BLOCK, interval2.trip.trip_id);
                         }
                     }
@@ -435,7 +435,6 @@ public class ServiceValidator extends TripValidator {
         }
     }
 
-
     /**
      * A simple class used during validation to store details the run interval for a block trip.
      */
@@ -1,5 +1,6 @@
 package com.conveyal.gtfs.validator;
 
+import com.conveyal.gtfs.error.DeferredErrorStorage;
 import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.NewGTFSErrorType;
 import com.conveyal.gtfs.error.SQLErrorStorage;
@@ -9,8 +10,11 @@ import com.conveyal.gtfs.model.Route;
 import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.model.Trip;
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
 
-import java.util.HashSet;
+import java.util.ArrayList;
+import java.util.Collections;
 import java.util.List;
 import java.util.Set;
 
@@ -25,12 +29,21 @@ public class SpeedTripValidator extends TripValidator {
 
     public static final double MIN_SPEED_KPH = 0.5;
     private boolean allTravelTimesAreRounded = true;
-    private Set<NewGTFSError> travelTimeZeroErrors = new HashSet<>();
+    // Travel time zero errors held back while all travel times seen so far are rounded, in the order encountered.
+    private List<NewGTFSError> travelTimeZeroErrors = new ArrayList<>();
+    // For each held error, the number of errors that had been stored when it was held back. This is where the error
+    // belongs if it turns out an earlier range of trips had unrounded travel times (see mergePartition).
+    private TIntList travelTimeZeroErrorPositions = new TIntArrayList();
 
     public SpeedTripValidator(Feed feed, SQLErrorStorage errorStorage) {
         super(feed, errorStorage);
     }
 
+    @Override
+    public Set<String> getTablesRead () {
+        return Collections.emptySet();
+    }
+
     @Override
     public void validateTrip(Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops) {
         // The specific maximum speed for this trip's route's mode of travel.
@@ -120,10 +133,30 @@ public class SpeedTripValidator extends TripValidator {
      * encountered. If in fact all travel times are rounded to the minute, store a special feed-wide error in this case.
      */
     public void complete (ValidationResult validationResult) {
-        if (!allTravelTimesAreRounded) storeErrors(travelTimeZeroErrors);
+        if (!allTravelTimesAreRounded) travelTimeZeroErrors.forEach(this::registerError);
         else registerError(NewGTFSError.forFeed(FEED_TRAVEL_TIMES_ROUNDED, null));
     }
 
+    /**
+     * If no earlier trip had an unrounded travel time, the errors held back by the partition are still held back.
+     * Otherwise, validating one trip at a time would have registered them immediately, so they are put back into the
+     * partition's errors at the positions where they would have been registered.
+     */
+    @Override
+    public void mergePartition (TripValidator partition, DeferredErrorStorage partitionErrors) {
+        SpeedTripValidator other = (SpeedTripValidator) partition;
+        if (allTravelTimesAreRounded) {
+            travelTimeZeroErrors.addAll(other.travelTimeZeroErrors);
+            travelTimeZeroErrorPositions.addAll(other.travelTimeZeroErrorPositions);
+            allTravelTimesAreRounded = other.allTravelTimesAreRounded;
+        } else {
+            // Insert the last error first so that the positions of the others remain valid.
+            for (int i = other.travelTimeZeroErrors.size() - 1; i >= 0; i--) {
+                partitionErrors.insert(other.travelTimeZeroErrorPositions.get(i), other.travelTimeZeroErrors.get(i));
+            }
+        }
+    }
+
     /**
      * Check that arrival and departure time for a stop time are rounded to the minute and update
      * {@link #allTravelTimesAreRounded} accordingly.
@@ -152,7 +185,10 @@ public class SpeedTripValidator extends TripValidator {
             // Only register the travel time zero error if not all travel times are rounded. Otherwise, hold onto the
             // error in the travelTimeZeroErrors collection until the completion of this validator.
             if (!allTravelTimesAreRounded) registerError(stopTime, TRAVEL_TIME_ZERO);
-            else travelTimeZeroErrors.add(createUnregisteredError(stopTime, TRAVEL_TIME_ZERO));
+            else {
+                travelTimeZeroErrors.add(createUnregisteredError(stopTime, TRAVEL_TIME_ZERO));
+                travelTimeZeroErrorPositions.add(errorStorage.getErrorCount());
+            }
             good = false;
         }
         return good;
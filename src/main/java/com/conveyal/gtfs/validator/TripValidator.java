@@ -1,5 +1,6 @@
 package com.conveyal.gtfs.validator;
 
+import com.conveyal.gtfs.error.DeferredErrorStorage;
 import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
 import com.conveyal.gtfs.model.Route;
@@ -26,4 +27,13 @@ public abstract class TripValidator extends Validator {
      */
     public abstract void validateTrip (Trip trip, Route route, List<StopTime> stopTimes, List<Stop> stops);
 
+    /**
+     * When trips are validated in parallel (see {@link NewTripTimesValidator#withParallelism(int)}), each range of
+     * trips is validated by its own set of trip validators. This is called once for each range, in trip order, to
+     * accumulate the state of the validator that handled that range into this one before the complete stage. The
+     * partition is always a validator of the same class as this one. Its errors are held in partitionErrors and will be
+     * stored right after this call, so they may be adjusted here. Validators that keep no state need not override this.
+     */
+    public void mergePartition (TripValidator partition, DeferredErrorStorage partitionErrors) { }
+
 }
@@ -6,6 +6,7 @@ import com.conveyal.gtfs.error.SQLErrorStorage;
 import com.conveyal.gtfs.loader.Feed;
 import com.conveyal.gtfs.model.Entity;
 
+import java.util.Collections;
 import java.util.Set;
 
 /**
@@ -76,6 +77,25 @@ public abstract class Validator {
         errorStorage.storeError(error);
     }
 
+    /**
+     * Declares the tables (by unprefixed name, e.g. "stops") that this validator reads. This is used when validating in
+     * parallel (see {@link Feed#withParallelism(int)}) to decide which validators can run at the same time and in which
+     * order their complete stages must run. The default of null means the tables are not known, in which case the
+     * validator is run on its own, after every validator listed before it has finished.
+     */
+    public Set<String> getTablesRead () {
+        return null;
+    }
+
+    /**
+     * Declares the derived tables (e.g. "patterns") that this validator creates or modifies. These tables must only be
+     * written in the {@link #complete(ValidationResult)} stage, so that validators reading them can be ordered after
+     * this one. By default a validator writes no tables.
+     */
+    public Set<String> getDerivedTablesWritten () {
+        return Collections.emptySet();
+    }
+
     /**
      * This method will be called after the validation process is complete.
      * This allows the implementation to perform any analysis or checking that uses accumulated information, and
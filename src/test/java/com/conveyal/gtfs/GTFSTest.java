@@ -1,9 +1,14 @@
 package com.conveyal.gtfs;
 
 
+import com.conveyal.gtfs.error.NewGTFSError;
 import com.conveyal.gtfs.error.NewGTFSErrorType;
+import com.conveyal.gtfs.error.SQLErrorStorage;
+import com.conveyal.gtfs.loader.Feed;
 import com.conveyal.gtfs.loader.FeedLoadResult;
+import com.conveyal.gtfs.loader.JdbcGtfsLoader;
 import com.conveyal.gtfs.loader.SnapshotResult;
+import com.conveyal.gtfs.loader.Table;
 import com.conveyal.gtfs.storage.ErrorExpectation;
 import com.conveyal.gtfs.storage.ExpectedFieldType;
 import com.conveyal.gtfs.storage.PersistenceExpectation;
@@ -40,11 +45,15 @@ import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.Collection;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
 import java.util.zip.ZipFile;
 
+import static com.conveyal.gtfs.TestUtils.queryRowsAsStrings;
+import static com.conveyal.gtfs.TestUtils.readZipEntries;
 import static org.hamcrest.CoreMatchers.containsString;
 import static org.hamcrest.CoreMatchers.is;
 import static org.hamcrest.Matchers.equalTo;
@@ -307,6 +316,96 @@ public class GTFSTest {
     }
 
 
+    /**
+     * Tests that an exported zip file has no entry for a table without rows (fake-agency's transfers.txt has only a
+     * header), while tables with rows keep their header.
+     */
+    @Test
+    public void exportOmitsEmptyTables() throws IOException {
+        String zipFileName = TestUtils.zipFolderFiles("fake-agency", true);
+        String testDBName = TestUtils.generateNewDB();
+        DataSource dataSource = GTFS.createDataSource(String.join("/", JDBC_URL, testDBName), null, null);
+        try {
+            String namespace = GTFS.load(zipFileName, dataSource).uniqueIdentifier;
+            File exportFile = exportGtfs(namespace, dataSource, false);
+            Map<String, String> entries = readZipEntries(exportFile);
+            assertThat(entries.containsKey("transfers.txt"), is(false));
+            assertThat(entries.get("agency.txt"), containsString("agency_id"));
+            assertThat(entries.get("stop_times.txt").split("\n").length, equalTo(5));
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
+    /**
+     * The error counts kept in memory by the error storage should exactly match the contents of the errors table, both
+     * when errors are inserted directly and when they are inserted by the background writer.
+     */
+    @Test
+    public void errorCountsMatchDatabase() throws IOException, SQLException, InvalidNamespaceException {
+        String zipFileName = TestUtils.zipFolderFiles("fake-agency-bad-calendar-date", true);
+        String testDBName = TestUtils.generateNewDB();
+        DataSource dataSource = GTFS.createDataSource(String.join("/", JDBC_URL, testDBName), null, null);
+        try (Connection connection = dataSource.getConnection()) {
+            for (boolean backgroundWriter : new boolean[] {false, true}) {
+                FeedLoadResult loadResult = new JdbcGtfsLoader(zipFileName, dataSource)
+                    .withBackgroundErrorWriter(backgroundWriter)
+                    .loadTables();
+                String namespace = loadResult.uniqueIdentifier;
+                String countSql = String.format("select count(*) from %s.errors", namespace);
+                assertThat(loadResult.errorCount > 0, is(true));
+                assertThat(queryRowsAsStrings(connection, countSql).get(0), equalTo(loadResult.errorCount + "|"));
+                ValidationResult validationResult = new Feed(dataSource, namespace)
+                    .withBackgroundErrorWriter(backgroundWriter)
+                    .validate();
+                assertThat(queryRowsAsStrings(connection, countSql).get(0), equalTo(validationResult.errorCount + "|"));
+
+                // Store a large number of errors of different types and entity types, then compare the counts.
+                SQLErrorStorage errorStorage = new SQLErrorStorage(dataSource.getConnection(), namespace + ".", false);
+                if (backgroundWriter) errorStorage.withBackgroundWriter(dataSource.getConnection());
+                Table[] tables = {Table.STOPS, Table.TRIPS, Table.STOP_TIMES};
+                NewGTFSErrorType[] errorTypes = {
+                    NewGTFSErrorType.DUPLICATE_ID, NewGTFSErrorType.REFERENTIAL_INTEGRITY, NewGTFSErrorType.TIME_FORMAT
+                };
+                for (int i = 0; i < 25_000; i++) {
+                    NewGTFSError error = i % 10 == 0
+                        ? NewGTFSError.forFeed(NewGTFSErrorType.OTHER, Integer.toString(i))
+                        : NewGTFSError.forLine(tables[i % 3], i, errorTypes[i % 7 % 3], Integer.toString(i));
+                    errorStorage.storeError(error.addInfo("index", Integer.toString(i)));
+                }
+                errorStorage.flush();
+                assertThat(queryRowsAsStrings(connection, countSql).get(0), equalTo(errorStorage.getErrorCount() + "|"));
+                Map<String, Integer> countByType = new HashMap<>();
+                errorStorage.getErrorCountByType().forEach((type, count) -> countByType.put(type.name(), count));
+                assertThat(queryCounts(connection, namespace, "error_type"), equalTo(countByType));
+                assertThat(
+                    queryCounts(connection, namespace, "entity_type"),
+                    equalTo(errorStorage.getErrorCountByEntityType())
+                );
+                errorStorage.commitAndClose();
+                assertThat(
+                    queryRowsAsStrings(connection, String.format("select count(*) from %s.error_info", namespace)).isEmpty(),
+                    is(false)
+                );
+            }
+        } finally {
+            TestUtils.dropDB(testDBName);
+        }
+    }
+
+    /**
+     * Helper that counts the rows of a feed's errors table for each value of the given column.
+     */
+    private static Map<String, Integer> queryCounts(Connection connection, String namespace, String column)
+        throws SQLException {
+        String sql = String.format("select %s, count(*) from %s.errors group by %s", column, namespace, column);
+        LOG.info(sql);
+        ResultSet resultSet = connection.prepareStatement(sql).executeQuery();
+        Map<String, Integer> counts = new HashMap<>();
+        while (resultSet.next()) counts.put(resultSet.getString(1), resultSet.getInt(2));
+        return counts;
+    }
+
     /**
      * A helper method that will zip a specified folder in test/main/resources and call
      * {@link #runIntegrationTestOnZipFile} on that file.
@@ -0,0 +1,226 @@
+package com.conveyal.gtfs;
+
+import com.conveyal.gtfs.loader.Feed;
+import com.conveyal.gtfs.loader.FeedLoadResult;
+import com.conveyal.gtfs.loader.JdbcGtfsLoader;
+import com.conveyal.gtfs.loader.JdbcGtfsSnapshotter;
+import com.conveyal.gtfs.loader.SnapshotResult;
+import com.conveyal.gtfs.validator.ValidationResult;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.junit.runners.Parameterized;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.function.Consumer;
+
+import static com.conveyal.gtfs.TestUtils.queryRowsAsStrings;
+import static com.conveyal.gtfs.TestUtils.readZipEntries;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.is;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that each of the optional ways of loading, validating, snapshotting and exporting a feed (parallel loading,
+ * streaming copy, deferred indexes, background error writing, parallel validation and parallel export, alone and all
+ * together) leaves exactly the same tables, errors, indexes and exported files as the default way.
+ */
+@RunWith(Parameterized.class)
+public class ModeEquivalenceTest {
+
+    private static final String[] FEEDS = {
+        "fake-agency", "fake-agency-bad-calendar-date", "fake-agency-overlapping-trips"
+    };
+
+    private static String testDBName;
+    private static DataSource dataSource;
+    // The results of processing each feed in the default way, which are the same for every mode.
+    private static final Map<String, Map<String, Object>> defaultResultsForFeed = new HashMap<>();
+
+    @Parameterized.Parameter(0)
+    public String feed;
+
+    @Parameterized.Parameter(1)
+    public Mode mode;
+
+    @Parameterized.Parameters(name = "{0}: {1}")
+    public static Collection<Object[]> parameters () {
+        Mode[] modes = {
+            mode("parallel load", m -> m.loadParallelism = 4),
+            mode("streaming copy", m -> m.streamingCopy = true),
+            mode("deferred indexes", m -> m.deferredIndexes = true),
+            mode("background error writer", m -> m.backgroundErrorWriter = true),
+            mode("parallel validation", m -> m.validationParallelism = 4),
+            mode("parallel export", m -> m.exportParallelism = 4),
+            mode("all options", m -> {
+                m.loadParallelism = 4;
+                m.streamingCopy = true;
+                m.deferredIndexes = true;
+                m.backgroundErrorWriter = true;
+                m.validationParallelism = 4;
+                m.exportParallelism = 4;
+            })
+        };
+        List<Object[]> parameters = new ArrayList<>();
+        for (String feed : FEEDS) {
+            for (Mode mode : modes) parameters.add(new Object[] {feed, mode});
+        }
+        return parameters;
+    }
+
+    @BeforeClass
+    public static void setUpClass() {
+        testDBName = TestUtils.generateNewDB();
+        dataSource = GTFS.createDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName), null, null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    @Test
+    public void matchesDefaultMode() throws IOException, SQLException {
+        Map<String, Object> expected = defaultResultsForFeed.get(feed);
+        if (expected == null) {
+            expected = process(feed, mode("default", m -> {}));
+            assertThat(((List) expected.get("table stop_times")).isEmpty(), is(false));
+            defaultResultsForFeed.put(feed, expected);
+        }
+        Map<String, Object> results = process(feed, mode);
+        assertThat(new ArrayList<>(results.keySet()), equalTo(new ArrayList<>(expected.keySet())));
+        for (String key : expected.keySet()) {
+            assertThat(key, results.get(key), equalTo(expected.get(key)));
+        }
+    }
+
+    /**
+     * Load, validate, snapshot and export the feed in the given mode.
+     * @return the rows of every table, the index definitions and the exported files of both the loaded feed and its
+     * snapshot, keyed on a description of each.
+     */
+    private static Map<String, Object> process (String feed, Mode mode) throws IOException, SQLException {
+        JdbcGtfsLoader loader = new JdbcGtfsLoader(TestUtils.zipFolderFiles(feed, true), dataSource)
+            .withParallelism(mode.loadParallelism)
+            .withStreamingCopy(mode.streamingCopy)
+            .withBackgroundErrorWriter(mode.backgroundErrorWriter);
+        if (mode.deferredIndexes) loader.withDeferredIndexes(4, "64MB");
+        FeedLoadResult loadResult = loader.loadTables();
+        assertThat(loadResult.fatalException, nullValue());
+        String namespace = loadResult.uniqueIdentifier;
+        ValidationResult validationResult = new Feed(dataSource, namespace)
+            .withParallelism(mode.validationParallelism)
+            .withBackgroundErrorWriter(mode.backgroundErrorWriter)
+            .validate();
+        assertThat(validationResult.fatalException, nullValue());
+        JdbcGtfsSnapshotter snapshotter = new JdbcGtfsSnapshotter(namespace, dataSource);
+        if (mode.deferredIndexes) snapshotter.withDeferredIndexes(4, "64MB");
+        SnapshotResult snapshotResult = snapshotter.copyTables();
+        assertThat(snapshotResult.fatalException, nullValue());
+        String snapshotNamespace = snapshotResult.uniqueIdentifier;
+
+        // The snapshot may refer to the feed it was copied from, so both namespaces are removed from all values.
+        List<String> namespaces = Arrays.asList(namespace, snapshotNamespace);
+        Map<String, Object> results = new LinkedHashMap<>();
+        results.put("load error count", loadResult.errorCount);
+        results.put("validation error count", validationResult.errorCount);
+        try (Connection connection = dataSource.getConnection()) {
+            // The errors counted in memory are all in the database.
+            String countSql = String.format("select count(*) from %s.errors", namespace);
+            assertThat(queryRowsAsStrings(connection, countSql).get(0), equalTo(validationResult.errorCount + "|"));
+            describeTables(connection, namespace, namespaces, "", results);
+            describeTables(connection, snapshotNamespace, namespaces, "snapshot ", results);
+        }
+        describeExport(namespace, false, mode.exportParallelism, namespaces, "", results);
+        describeExport(snapshotNamespace, true, mode.exportParallelism, namespaces, "snapshot ", results);
+        return results;
+    }
+
+    /**
+     * Add the rows of each table in the namespace (in no particular order) and its index definitions to the results.
+     * The given namespaces are removed from all values, so that different namespaces holding the same feed are
+     * comparable.
+     */
+    private static void describeTables (Connection connection, String namespace, List<String> namespaces,
+                                        String prefix, Map<String, Object> results) throws SQLException {
+        String tableSql = String.format(
+            "select table_name from information_schema.tables where table_schema = '%s' order by 1",
+            namespace
+        );
+        for (String row : queryRowsAsStrings(connection, tableSql)) {
+            String table = row.substring(0, row.length() - 1);
+            String rowSql = String.format("select * from %s.%s", namespace, table);
+            List<String> rows = queryRowsAsStrings(connection, rowSql);
+            results.put(prefix + "table " + table, sortedWithoutNamespaces(rows, namespaces));
+        }
+        String indexSql = String.format("select indexdef from pg_indexes where schemaname = '%s'", namespace);
+        results.put(prefix + "indexes", sortedWithoutNamespaces(queryRowsAsStrings(connection, indexSql), namespaces));
+    }
+
+    /** Add the names (in order) and the contents of the entries of the exported zip file to the results. */
+    private static void describeExport (String namespace, boolean fromEditor, int parallelism, List<String> namespaces,
+                                        String prefix, Map<String, Object> results) throws IOException {
+        File file = File.createTempFile(namespace, ".zip");
+        FeedLoadResult exportResult =
+            GTFS.export(namespace, file.getAbsolutePath(), dataSource, fromEditor, parallelism);
+        assertThat(exportResult.fatalException, nullValue());
+        Map<String, String> entries = readZipEntries(file);
+        file.delete();
+        results.put(prefix + "export entries", new ArrayList<>(entries.keySet()));
+        entries.forEach((name, contents) ->
+            results.put(prefix + "export " + name, withoutNamespaces(contents, namespaces))
+        );
+    }
+
+    private static List<String> sortedWithoutNamespaces (List<String> rows, List<String> namespaces) {
+        List<String> sortedRows = new ArrayList<>();
+        for (String row : rows) sortedRows.add(withoutNamespaces(row, namespaces));
+        Collections.sort(sortedRows);
+        return sortedRows;
+    }
+
+    private static String withoutNamespaces (String value, List<String> namespaces) {
+        for (String namespace : namespaces) value = value.replace(namespace, "");
+        return value;
+    }
+
+    private static Mode mode (String name, Consumer<Mode> options) {
+        Mode mode = new Mode(name);
+        options.accept(mode);
+        return mode;
+    }
+
+    /** The options used for each step of processing a feed. */
+    static class Mode {
+        final String name;
+        int loadParallelism = 1;
+        boolean streamingCopy = false;
+        boolean deferredIndexes = false;
+        boolean backgroundErrorWriter = false;
+        int validationParallelism = 1;
+        int exportParallelism = 1;
+
+        Mode (String name) {
+            this.name = name;
+        }
+
+        @Override
+        public String toString () {
+            return name;
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package com.conveyal.gtfs;
+
+import com.conveyal.gtfs.model.Pattern;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import com.google.common.collect.HashMultimap;
+import com.google.common.collect.LinkedHashMultimap;
+import com.google.common.collect.Multimap;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.hasItem;
+
+/**
+ * Checks that {@link PatternFinder} groups trips into the same patterns, with the same names, as the original grouping
+ * of trips in a multimap keyed on {@link TripPatternKey} followed by the original pattern naming.
+ */
+public class PatternFinderTest {
+
+    private final Map<String, Stop> stopById = new HashMap<>();
+    private final List<Trip> trips = new ArrayList<>();
+    private final List<List<StopTime>> stopTimesForTrip = new ArrayList<>();
+
+    /**
+     * Several stops share a name, so that names built from first, last and via stops are not simply stop IDs.
+     */
+    private void createStops () {
+        String[] names = {"Main St", "1st Ave", "2nd Ave", "Park", "Main St", "Depot", "Park", "Harbor", "Mall", "Depot"};
+        for (int s = 0; s < names.length; s++) {
+            Stop stop = new Stop();
+            stop.stop_id = "stop-" + s;
+            stop.stop_name = names[s];
+            stopById.put(stop.stop_id, stop);
+        }
+    }
+
+    private void addTrip (String routeId, int pickupType, int... stops) {
+        Trip trip = new Trip();
+        trip.trip_id = String.format("trip-%04d", trips.size());
+        trip.route_id = routeId;
+        trip.service_id = "service";
+        List<StopTime> stopTimes = new ArrayList<>();
+        int time = 6 * 60 * 60 + trips.size() * 60;
+        for (int s : stops) {
+            StopTime stopTime = new StopTime();
+            stopTime.trip_id = trip.trip_id;
+            stopTime.stop_sequence = stopTimes.size();
+            stopTime.stop_id = "stop-" + s;
+            stopTime.pickup_type = pickupType;
+            stopTime.arrival_time = time;
+            stopTime.departure_time = time;
+            time += 120;
+            stopTimes.add(stopTime);
+        }
+        trips.add(trip);
+        stopTimesForTrip.add(stopTimes);
+    }
+
+    @Test
+    public void namesPatternsLikeLegacyGrouping() {
+        createStops();
+        // The only pattern on its route: named for its first and last stops.
+        addTrip("only", 0, 0, 1, 2, 3);
+        // Same first and last stop names, told apart by a via stop that only one of them visits.
+        addTrip("via", 0, 0, 1, 5, 7);
+        addTrip("via", 0, 0, 2, 5, 7);
+        addTrip("via", 0, 4, 8, 9, 7);
+        // Two patterns with no via stops where one skips a stop of the other: express and local.
+        addTrip("express", 0, 0, 4, 7);
+        addTrip("express", 0, 0, 7);
+        addTrip("express", 0, 0, 4, 7);
+        // Identical stops distinguished only by pickup type: named after their first trip.
+        addTrip("pickup", 0, 0, 1, 2, 7);
+        addTrip("pickup", 1, 0, 1, 2, 7);
+        addTrip("pickup", 0, 0, 1, 2, 7);
+        // The same stops on another route make another pattern.
+        addTrip("only-copy", 0, 0, 1, 2, 3);
+        List<String> expected = describePatterns(legacyPatterns());
+        assertThat(describePatterns(currentPatterns()), equalTo(expected));
+        assertThat(expected, hasItem("[trip-0000] 4 stops from Main St to Park (1 trips)"));
+        assertThat(expected, hasItem("[trip-0001] 4 stops from Main St to Harbor via 1st Ave (1 trips)"));
+        assertThat(expected, hasItem("[trip-0002] 4 stops from Main St to Harbor via 2nd Ave (1 trips)"));
+        assertThat(expected, hasItem("[trip-0003] 4 stops from Main St to Harbor via Mall (1 trips)"));
+        assertThat(expected, hasItem("[trip-0004, trip-0006] 3 stops from Main St to Harbor local (2 trips)"));
+        assertThat(expected, hasItem("[trip-0005] 2 stops from Main St to Harbor express (1 trips)"));
+        assertThat(expected, hasItem("[trip-0007, trip-0009] 4 stops from Main St to Harbor like trip trip-0007 (2 trips)"));
+        assertThat(expected, hasItem("[trip-0008] 4 stops from Main St to Harbor like trip trip-0008 (1 trips)"));
+    }
+
+    @Test
+    public void groupsRandomTripsLikeLegacyGrouping() {
+        createStops();
+        Random random = new Random(42);
+        for (int t = 0; t < 5_000; t++) {
+            int stopCount = 2 + random.nextInt(4);
+            int[] stops = new int[stopCount];
+            for (int s = 0; s < stopCount; s++) stops[s] = random.nextInt(stopById.size());
+            addTrip("route-" + random.nextInt(5), random.nextInt(20) == 0 ? 1 : 0, stops);
+        }
+        assertThat(describePatterns(currentPatterns()), equalTo(describePatterns(legacyPatterns())));
+    }
+
+    private Collection<Pattern> currentPatterns () {
+        PatternFinder patternFinder = new PatternFinder();
+        for (int t = 0; t < trips.size(); t++) patternFinder.processTrip(trips.get(t), stopTimesForTrip.get(t));
+        return patternFinder.createPatternObjects(stopById, null).values();
+    }
+
+    /**
+     * Groups the trips the way the pattern finder originally did. The multimap keeps trips in the order they are
+     * added (unlike the original hash multimap) so that names that refer to a pattern's first trip are comparable.
+     */
+    private Collection<Pattern> legacyPatterns () {
+        Multimap<TripPatternKey, Trip> tripsForPattern = LinkedHashMultimap.create();
+        for (int t = 0; t < trips.size(); t++) {
+            Trip trip = trips.get(t);
+            TripPatternKey key = new TripPatternKey(trip.route_id);
+            stopTimesForTrip.get(t).forEach(key::addStopTime);
+            tripsForPattern.put(key, trip);
+        }
+        List<Pattern> patterns = new ArrayList<>();
+        for (TripPatternKey key : tripsForPattern.keySet()) {
+            patterns.add(new Pattern(key.stops, tripsForPattern.get(key), null));
+        }
+        renamePatterns(patterns, stopById);
+        return patterns;
+    }
+
+    /** @return a description of the trips on and the name of each pattern, ordered by their first trip. */
+    private static List<String> describePatterns (Collection<Pattern> patterns) {
+        Map<String, String> descriptionForFirstTrip = new TreeMap<>();
+        for (Pattern pattern : patterns) {
+            descriptionForFirstTrip.put(pattern.associatedTrips.get(0), pattern.associatedTrips + " " + pattern.name);
+        }
+        return new ArrayList<>(descriptionForFirstTrip.values());
+    }
+
+    /** The original pattern naming, which tracked the patterns for each name in hash multimaps. */
+    private static void renamePatterns (Collection<Pattern> patterns, Map<String, Stop> stopById) {
+        Map<String, LegacyNamingInfo> namingInfoForRoute = new HashMap<>();
+        for (Pattern pattern : patterns) {
+            if (pattern.associatedTrips.isEmpty() || pattern.orderedStops.isEmpty()) continue;
+            LegacyNamingInfo namingInfo = namingInfoForRoute.computeIfAbsent(pattern.route_id, k -> new LegacyNamingInfo());
+            String fromName = stopById.get(pattern.orderedStops.get(0)).stop_name;
+            String toName = stopById.get(pattern.orderedStops.get(pattern.orderedStops.size() - 1)).stop_name;
+            namingInfo.fromStops.put(fromName, pattern);
+            namingInfo.toStops.put(toName, pattern);
+            for (String stopId : pattern.orderedStops) {
+                Stop stop = stopById.get(stopId);
+                if (fromName.equals(stop.stop_name) || toName.equals(stop.stop_name)) continue;
+                namingInfo.vias.put(stop.stop_name, pattern);
+            }
+            namingInfo.patternsOnRoute.add(pattern);
+        }
+        for (LegacyNamingInfo info : namingInfoForRoute.values()) {
+            for (Pattern pattern : info.patternsOnRoute) {
+                pattern.name = null;
+                String fromName = stopById.get(pattern.orderedStops.get(0)).stop_name;
+                String toName = stopById.get(pattern.orderedStops.get(pattern.orderedStops.size() - 1)).stop_name;
+                Set<Pattern> intersection = new HashSet<>(info.fromStops.get(fromName));
+                intersection.retainAll(info.toStops.get(toName));
+                if (intersection.size() == 1) {
+                    pattern.name = String.format(Locale.US, "from %s to %s", fromName, toName);
+                    continue;
+                }
+                pattern.orderedStops.stream().map(stopById::get).forEach(stop -> {
+                    Set<Pattern> viaIntersection = new HashSet<>(intersection);
+                    viaIntersection.retainAll(info.vias.get(stop.stop_name));
+                    if (viaIntersection.size() == 1) {
+                        pattern.name = String.format(Locale.US, "from %s to %s via %s", fromName, toName, stop.stop_name);
+                    }
+                });
+                if (pattern.name == null && intersection.size() == 2) {
+                    Iterator<Pattern> it = intersection.iterator();
+                    Pattern p0 = it.next();
+                    Pattern p1 = it.next();
+                    if (p0.orderedStops.size() > p1.orderedStops.size()) {
+                        p1.name = String.format(Locale.US, "from %s to %s express", fromName, toName);
+                        p0.name = String.format(Locale.US, "from %s to %s local", fromName, toName);
+                    } else if (p1.orderedStops.size() > p0.orderedStops.size()) {
+                        p0.name = String.format(Locale.US, "from %s to %s express", fromName, toName);
+                        p1.name = String.format(Locale.US, "from %s to %s local", fromName, toName);
+                    }
+                }
+                if (pattern.name == null) {
+                    pattern.name = String.format(Locale.US, "from %s to %s like trip %s", fromName, toName, pattern.associatedTrips.get(0));
+                }
+            }
+            for (Pattern pattern : info.patternsOnRoute) {
+                pattern.name = String.format(Locale.US, "%s stops %s (%s trips)",
+                        pattern.orderedStops.size(), pattern.name, pattern.associatedTrips.size());
+            }
+        }
+    }
+
+    private static class LegacyNamingInfo {
+        Multimap<String, Pattern> fromStops = HashMultimap.create();
+        Multimap<String, Pattern> toStops = HashMultimap.create();
+        Multimap<String, Pattern> vias = HashMultimap.create();
+        List<Pattern> patternsOnRoute = new ArrayList<>();
+    }
+}
@@ -11,8 +11,15 @@ import java.io.FileOutputStream;
 import java.io.IOException;
 import java.sql.Connection;
 import java.sql.DriverManager;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
 import java.util.zip.ZipOutputStream;
 
 import static com.conveyal.gtfs.util.Util.randomIdString;
@@ -148,4 +155,35 @@ public class TestUtils {
     public static String fileNameWithDir(String directory, String filename) {
         return String.join(File.separator, directory, filename);
     }
+
+    /**
+     * Helper that reads the contents of each entry of a zip file, keyed on entry name in the order of the entries.
+     */
+    public static Map<String, String> readZipEntries(File file) throws IOException {
+        Map<String, String> contentsForEntry = new LinkedHashMap<>();
+        try (ZipFile zipFile = new ZipFile(file)) {
+            Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                ZipEntry entry = entries.nextElement();
+                contentsForEntry.put(entry.getName(), IOUtils.toString(zipFile.getInputStream(entry), "UTF-8"));
+            }
+        }
+        return contentsForEntry;
+    }
+
+    /**
+     * Helper that runs a query and renders each row of the result as a string, for comparing query results.
+     */
+    public static List<String> queryRowsAsStrings(Connection connection, String sql) throws SQLException {
+        LOG.info(sql);
+        ResultSet resultSet = connection.prepareStatement(sql).executeQuery();
+        int columnCount = resultSet.getMetaData().getColumnCount();
+        List<String> rows = new ArrayList<>();
+        while (resultSet.next()) {
+            StringBuilder row = new StringBuilder();
+            for (int i = 1; i <= columnCount; i++) row.append(resultSet.getString(i)).append('|');
+            rows.add(row.toString());
+        }
+        return rows;
+    }
 }
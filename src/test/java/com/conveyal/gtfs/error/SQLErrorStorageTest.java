@@ -0,0 +1,61 @@
+package com.conveyal.gtfs.error;
+
+import com.conveyal.gtfs.TestUtils;
+import com.conveyal.gtfs.storage.StorageException;
+import com.conveyal.gtfs.util.InvalidNamespaceException;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+
+import static com.conveyal.gtfs.GTFS.createDataSource;
+import static org.hamcrest.Matchers.equalTo;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that {@link SQLErrorStorage} releases its connections when its background writer fails.
+ */
+public class SQLErrorStorageTest {
+
+    private static String testDBName;
+    private static DataSource testDataSource;
+
+    @BeforeClass
+    public static void setUpClass() {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = createDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName), null, null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    @Test
+    public void closesConnectionsWhenBackgroundWriterFails() throws SQLException, InvalidNamespaceException {
+        Connection connection = testDataSource.getConnection();
+        connection.createStatement().execute("create schema failed_writer");
+        connection.commit();
+        Connection writerConnection = testDataSource.getConnection();
+        SQLErrorStorage errorStorage = new SQLErrorStorage(connection, "failed_writer.", true)
+            .withBackgroundWriter(writerConnection);
+        // Remove the errors table from under the writer, so that its first insert fails.
+        try (Connection otherConnection = testDataSource.getConnection()) {
+            otherConnection.createStatement().execute("drop table failed_writer.errors cascade");
+            otherConnection.commit();
+        }
+        errorStorage.storeError(NewGTFSError.forFeed(NewGTFSErrorType.OTHER, "lost"));
+        try {
+            errorStorage.commitAndClose();
+            fail("The failure of the background writer should be reported.");
+        } catch (StorageException e) {
+            // Expected.
+        }
+        assertThat(writerConnection.isClosed(), equalTo(true));
+        assertThat(connection.isClosed(), equalTo(true));
+    }
+}
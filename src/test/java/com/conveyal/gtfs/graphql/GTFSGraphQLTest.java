@@ -2,6 +2,7 @@ package com.conveyal.gtfs.graphql;
 
 import com.conveyal.gtfs.TestUtils;
 import com.conveyal.gtfs.loader.FeedLoadResult;
+import com.conveyal.gtfs.loader.SearchIndexer;
 import graphql.ExecutionInput;
 import org.apache.commons.io.IOUtils;
 import org.junit.AfterClass;
@@ -12,11 +13,16 @@ import javax.sql.DataSource;
 import java.io.FileInputStream;
 import java.io.IOException;
 import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashMap;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
 
 import static com.conveyal.gtfs.GTFS.createDataSource;
 import static com.conveyal.gtfs.GTFS.load;
@@ -24,6 +30,7 @@ import static com.conveyal.gtfs.GTFS.validate;
 import static com.conveyal.gtfs.TestUtils.getResourceFileName;
 import static com.zenika.snapshotmatcher.SnapshotMatcher.matchesSnapshot;
 import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
 
 /**
  * A test suite for all things related to fetching objects with GraphQL.
@@ -228,6 +235,119 @@ public class GTFSGraphQLTest {
         );
     }
 
+    /**
+     * Tests that paging through stop times one at a time with the cursor of the previous page finds each stop time once,
+     * in the same order as fetching them all at once.
+     */
+    @Test(timeout=5000)
+    public void canPageThroughStopTimesWithCursor() throws IOException {
+        List<Map<String, Object>> allStopTimes = queryStopTimesAfter("", -1);
+        assertThat(allStopTimes.isEmpty(), equalTo(false));
+        List<Map<String, Object>> pagedStopTimes = new ArrayList<>();
+        String cursor = "";
+        while (true) {
+            List<Map<String, Object>> page = queryStopTimesAfter(cursor, 1);
+            if (page.isEmpty()) break;
+            pagedStopTimes.addAll(page);
+            cursor = (String) page.get(0).get("cursor");
+        }
+        assertThat(pagedStopTimes, equalTo(allStopTimes));
+    }
+
+    private List<Map<String, Object>> queryStopTimesAfter(String cursor, int limit) throws IOException {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("namespace", testNamespace);
+        variables.put("after", cursor);
+        variables.put("limit", limit);
+        Map<String, Object> data = (Map<String, Object>) queryGraphQL("feedStopTimesAfter.txt", variables, testDataSource)
+            .get("data");
+        return (List<Map<String, Object>>) ((Map<String, Object>) data.get("feed")).get("stop_times");
+    }
+
+    /**
+     * Tests that searching stops with search indexes (which are only created if the pg_trgm extension is available)
+     * finds the same stops as ILIKE matching on the search fields, with exact matches first.
+     */
+    @Test(timeout=5000)
+    public void canSearchStopsWithSearchIndexes() throws IOException, SQLException {
+        new SearchIndexer(testDataSource).createIndexes(testNamespace);
+        for (String search : Arrays.asList("123", "st", "VICTOR", "no such stop")) {
+            Set<String> expectedStopIds = new HashSet<>();
+            try (Connection connection = testDataSource.getConnection()) {
+                PreparedStatement statement = connection.prepareStatement(String.format(
+                    "select stop_id from %s.stops where stop_id ilike ? or stop_code ilike ? or stop_name ilike ?",
+                    testNamespace
+                ));
+                for (int i = 1; i <= 3; i++) statement.setString(i, "%" + search + "%");
+                ResultSet resultSet = statement.executeQuery();
+                while (resultSet.next()) expectedStopIds.add(resultSet.getString(1));
+            }
+            List<String> stopIds = searchStopIds(search);
+            assertThat(stopIds.size(), equalTo(expectedStopIds.size()));
+            assertThat(new HashSet<>(stopIds), equalTo(expectedStopIds));
+        }
+        // The exact match comes before the stop IDs that start with the search term.
+        assertThat(searchStopIds("123"), equalTo(Arrays.asList("123", "1234", "1234567")));
+    }
+
+    private List<String> searchStopIds(String search) throws IOException {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("namespace", testNamespace);
+        variables.put("search", search);
+        Map<String, Object> data = (Map<String, Object>) queryGraphQL("feedStopsSearch.txt", variables, testDataSource)
+            .get("data");
+        List<Map<String, Object>> stops = (List<Map<String, Object>>) ((Map<String, Object>) data.get("feed")).get("stops");
+        List<String> stopIds = new ArrayList<>();
+        for (Map<String, Object> stop : stops) stopIds.add((String) stop.get("stop_id"));
+        return stopIds;
+    }
+
+    /** Tests that the stops within a bounding box, and the patterns serving them, can be fetched. */
+    @Test(timeout=5000)
+    public void canFetchStopsAndPatternsInBoundingBox() throws IOException {
+        // Only Scotts Valley Dr & Victor Sq, which is served by one of the two patterns.
+        Map<String, Object> feed = queryStopsAndPatternsInBounds(37.059, -122.0097, 37.0595, -122.0095);
+        assertThat(getFieldValues(feed, "stops", "stop_id"), equalTo(new HashSet<>(Arrays.asList("johv"))));
+        assertThat(getFieldValues(feed, "patterns", "pattern_id").size(), equalTo(1));
+        // Butler Ln as well, which is served by both patterns.
+        feed = queryStopsAndPatternsInBounds(37.05, -122.01, 37.065, -122.0);
+        assertThat(getFieldValues(feed, "stops", "stop_id"), equalTo(new HashSet<>(Arrays.asList("4u6g", "johv"))));
+        assertThat(getFieldValues(feed, "patterns", "pattern_id").size(), equalTo(2));
+        // No stops at all.
+        feed = queryStopsAndPatternsInBounds(0, 0, 1, 1);
+        assertThat(getFieldValues(feed, "stops", "stop_id").isEmpty(), equalTo(true));
+        assertThat(getFieldValues(feed, "patterns", "pattern_id").isEmpty(), equalTo(true));
+    }
+
+    private Map<String, Object> queryStopsAndPatternsInBounds(
+        double minLat,
+        double minLon,
+        double maxLat,
+        double maxLon
+    ) throws IOException {
+        Map<String, Object> variables = new HashMap<>();
+        variables.put("namespace", testNamespace);
+        variables.put("minLat", minLat);
+        variables.put("minLon", minLon);
+        variables.put("maxLat", maxLat);
+        variables.put("maxLon", maxLon);
+        Map<String, Object> data = (Map<String, Object>) queryGraphQL(
+            "feedStopsAndPatternsInBounds.txt",
+            variables,
+            testDataSource
+        ).get("data");
+        return (Map<String, Object>) data.get("feed");
+    }
+
+    /** @return the values of a field in each of the entities in a list field of a query result. */
+    private static Set<Object> getFieldValues(Map<String, Object> parent, String listField, String field) {
+        Set<Object> values = new HashSet<>();
+        for (Map<String, Object> entity : (List<Map<String, Object>>) parent.get(listField)) {
+            values.add(entity.get(field));
+        }
+        return values;
+    }
+
     /**
      * Attempt to fetch more than one record with SQL injection as inputs.
      * The graphql library should properly escape the string and return 0 results for stops.
@@ -0,0 +1,187 @@
+package com.conveyal.gtfs.graphql.fetchers;
+
+import com.conveyal.gtfs.TestUtils;
+import com.conveyal.gtfs.graphql.GTFSGraphQL;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static com.conveyal.gtfs.GTFS.createDataSource;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Checks that fetching nested rows for many parent entities at once applies the limit and offset to each parent's rows
+ * separately, as fetching each parent on its own would, and takes one query per table rather than one per parent.
+ */
+public class BatchedFetcherTest {
+
+    private static final String NAMESPACE = "batch_test";
+    private static final int TRIP_COUNT = 30;
+    private static final int STOP_COUNT = 10;
+
+    private static String testDBName;
+    // Counts the connections taken, each of which the fetchers use for a single query.
+    private static final AtomicInteger connectionCount = new AtomicInteger();
+
+    @BeforeClass
+    public static void setUpClass() throws SQLException {
+        testDBName = TestUtils.generateNewDB();
+        DataSource dataSource = createDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName), null, null);
+        try (Connection connection = dataSource.getConnection()) {
+            Statement statement = connection.createStatement();
+            statement.execute("create schema batch_test");
+            statement.execute("create table batch_test.stop_times (id serial, trip_id varchar, stop_sequence integer)");
+            statement.execute("create table batch_test.routes (id serial, route_id varchar)");
+            statement.execute("create table batch_test.patterns (id serial, pattern_id varchar, route_id varchar)");
+            statement.execute("create table batch_test.pattern_stops (id serial, pattern_id varchar, stop_id varchar)");
+            // Trip t has stop sequences 1 through t, inserted in reverse so that ID order is not sequence order. The
+            // long trip has more stop times than any query may fetch.
+            statement.execute("insert into batch_test.stop_times (trip_id, stop_sequence) " +
+                "select 'trip-' || t, s from generate_series(1, 30) as t, generate_series(30, 1, -1) as s where s <= t");
+            statement.execute("insert into batch_test.stop_times (trip_id, stop_sequence) " +
+                "select 'long', s from generate_series(1, 600) as s");
+            // Route r has ID r. Patterns 1 through 40 are on routes 1 through 20, and each stop k is on the patterns
+            // whose number is a multiple of k, so most stops reach some routes by more than one pattern. The busy stop
+            // is on 600 patterns, each on a route of its own.
+            statement.execute("insert into batch_test.routes (route_id) " +
+                "select 'route-' || r from generate_series(1, 600) as r");
+            statement.execute("insert into batch_test.patterns (pattern_id, route_id) " +
+                "select 'pattern-' || p, 'route-' || (p % 20 + 1) from generate_series(1, 40) as p");
+            statement.execute("insert into batch_test.patterns (pattern_id, route_id) " +
+                "select 'pattern-' || p, 'route-' || (p - 40) from generate_series(41, 640) as p");
+            statement.execute("insert into batch_test.pattern_stops (pattern_id, stop_id) " +
+                "select 'pattern-' || p, 'stop-' || k from generate_series(1, 40) as p, generate_series(1, 10) as k " +
+                "where p % k = 0");
+            statement.execute("insert into batch_test.pattern_stops (pattern_id, stop_id) " +
+                "select 'pattern-' || p, 'busy' from generate_series(41, 640) as p");
+            connection.commit();
+        }
+        GTFSGraphQL.initialize((DataSource) Proxy.newProxyInstance(
+            DataSource.class.getClassLoader(),
+            new Class[] {DataSource.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("getConnection")) connectionCount.incrementAndGet();
+                try {
+                    return method.invoke(dataSource, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        ));
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    @Test
+    public void limitAndOffsetApplyToEachParent() {
+        JDBCFetcher fetcher = new JDBCFetcher("stop_times", "trip_id", "stop_sequence", true);
+        Map<String, Object> arguments = limitAndOffset(3, 2);
+        Map<String, Set<String>> parentsForJoinValue = new HashMap<>();
+        for (int t = 1; t <= TRIP_COUNT; t++) {
+            String tripId = "trip-" + t;
+            parentsForJoinValue.put(tripId, Collections.singleton(tripId));
+            // The rows fetched for the trip on its own.
+            List<Map<String, Object>> results =
+                fetcher.getResults(NAMESPACE, Collections.singletonList(tripId), arguments);
+            assertThat(getColumn(results, "stop_sequence"), equalTo(range(3, Math.min(t, 5))));
+        }
+        int connectionsBefore = connectionCount.get();
+        Map<String, List<Map<String, Object>>> resultsForTrip =
+            fetcher.getResultsForParents(NAMESPACE, parentsForJoinValue, arguments);
+        assertThat(connectionCount.get() - connectionsBefore, equalTo(1));
+        for (int t = 1; t <= TRIP_COUNT; t++) {
+            List<Map<String, Object>> results = resultsForTrip.getOrDefault("trip-" + t, new ArrayList<>());
+            assertThat(getColumn(results, "stop_sequence"), equalTo(range(3, Math.min(t, 5))));
+        }
+    }
+
+    @Test
+    public void limitForEachParentIsCapped() {
+        JDBCFetcher fetcher = new JDBCFetcher("stop_times", "trip_id", "stop_sequence", true);
+        Map<String, Set<String>> parentsForJoinValue = new HashMap<>();
+        parentsForJoinValue.put("long", Collections.singleton("long"));
+        parentsForJoinValue.put("trip-2", Collections.singleton("trip-2"));
+        Map<String, List<Map<String, Object>>> resultsForTrip =
+            fetcher.getResultsForParents(NAMESPACE, parentsForJoinValue, limitAndOffset(1000, 0));
+        assertThat(getColumn(resultsForTrip.get("long"), "stop_sequence"), equalTo(range(1, 500)));
+        assertThat(getColumn(resultsForTrip.get("trip-2"), "stop_sequence"), equalTo(range(1, 2)));
+    }
+
+    @Test
+    public void nestedLimitAndOffsetApplyToEachParent() {
+        NestedJDBCFetcher fetcher = new NestedJDBCFetcher(
+            new JDBCFetcher("pattern_stops", "stop_id", null, false),
+            new JDBCFetcher("patterns", "pattern_id", null, false),
+            new JDBCFetcher("routes", "route_id")
+        );
+        Map<String, Object> arguments = limitAndOffset(2, 1);
+        Set<String> stopIds = new LinkedHashSet<>();
+        for (int k = 1; k <= STOP_COUNT; k++) stopIds.add("stop-" + k);
+        stopIds.add("busy");
+        // Warm up the column registry, so that only the fetches themselves take connections.
+        fetcher.getResultsForParents(NAMESPACE, Collections.singleton("stop-1"), arguments);
+        int connectionsBefore = connectionCount.get();
+        Map<String, List<Map<String, Object>>> resultsForStop =
+            fetcher.getResultsForParents(NAMESPACE, stopIds, arguments);
+        // One query for each of the three tables, however many stops there are.
+        assertThat(connectionCount.get() - connectionsBefore, equalTo(3));
+        for (int k = 1; k <= STOP_COUNT; k++) {
+            // The routes of the patterns on the stop, each once and in ID order.
+            Set<Integer> routeIds = new TreeSet<>();
+            for (int p = 1; p <= 40; p++) if (p % k == 0) routeIds.add(p % 20 + 1);
+            List<Integer> routes = new ArrayList<>(routeIds);
+            List<Integer> expected = routes.subList(Math.min(1, routes.size()), Math.min(3, routes.size()));
+            List<Map<String, Object>> results = resultsForStop.getOrDefault("stop-" + k, new ArrayList<>());
+            assertThat(getColumn(results, "id"), equalTo(expected));
+            // The same rows are fetched for the stop on its own.
+            List<Map<String, Object>> resultsForStopAlone = fetcher
+                .getResultsForParents(NAMESPACE, Collections.singleton("stop-" + k), arguments)
+                .getOrDefault("stop-" + k, new ArrayList<>());
+            assertThat(getColumn(resultsForStopAlone, "id"), equalTo(expected));
+        }
+        // The limit for the busy stop's routes is capped, rather than fetching all of them.
+        Map<String, List<Map<String, Object>>> resultsForBusyStop = fetcher
+            .getResultsForParents(NAMESPACE, Collections.singleton("busy"), limitAndOffset(1000, 0));
+        assertThat(getColumn(resultsForBusyStop.get("busy"), "id"), equalTo(range(1, 500)));
+    }
+
+    private static Map<String, Object> limitAndOffset (int limit, int offset) {
+        Map<String, Object> arguments = new HashMap<>();
+        arguments.put(JDBCFetcher.LIMIT_ARG, limit);
+        arguments.put(JDBCFetcher.OFFSET_ARG, offset);
+        return arguments;
+    }
+
+    private static List<Integer> getColumn (List<Map<String, Object>> rows, String column) {
+        List<Integer> values = new ArrayList<>();
+        for (Map<String, Object> row : rows) values.add((Integer) row.get(column));
+        return values;
+    }
+
+    /** @return the integers from first to last inclusive, or an empty list if last is less than first. */
+    private static List<Integer> range (int first, int last) {
+        List<Integer> values = new ArrayList<>();
+        for (int i = first; i <= last; i++) values.add(i);
+        return values;
+    }
+}
@@ -0,0 +1,65 @@
+package com.conveyal.gtfs.loader;
+
+import org.junit.Test;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.nullValue;
+
+/**
+ * Checks eviction and invalidation in {@link EntityCache} without a database.
+ */
+public class EntityCacheTest {
+
+    @Test
+    public void evictsLeastRecentlyUsedEntity() {
+        EntityCache<String> cache = new EntityCache<>("lru_test", 2);
+        long version = cache.getVersion();
+        cache.put("a", "stop a", version);
+        cache.put("b", "stop b", version);
+        // Using a makes b the least recently used entity.
+        assertThat(cache.get("a"), equalTo("stop a"));
+        cache.put("c", "stop c", version);
+        assertThat(cache.get("b"), nullValue());
+        assertThat(cache.get("a"), equalTo("stop a"));
+        assertThat(cache.get("c"), equalTo("stop c"));
+        assertThat(cache.getHitCount(), equalTo(3L));
+        assertThat(cache.getMissCount(), equalTo(1L));
+    }
+
+    @Test
+    public void invalidationClearsOnlyThatNamespace() {
+        EntityCache<String> cache = new EntityCache<>("invalidated.", 10);
+        EntityCache<String> otherCache = new EntityCache<>("other", 10);
+        cache.put("a", "stop a", cache.getVersion());
+        otherCache.put("a", "stop a", otherCache.getVersion());
+        // Namespaces are the same with or without the separator dot.
+        EntityCache.invalidate("invalidated");
+        assertThat(cache.size(), equalTo(0));
+        assertThat(otherCache.size(), equalTo(1));
+    }
+
+    @Test
+    public void doesNotCacheEntityReadBeforeInvalidation() {
+        EntityCache<String> cache = new EntityCache<>("stale_test", 10);
+        long versionBeforeRead = cache.getVersion();
+        // A change is committed while the entity is being read from the database.
+        EntityCache.invalidate("stale_test");
+        cache.put("a", "old stop a", versionBeforeRead);
+        assertThat(cache.get("a"), nullValue());
+        cache.put("a", "new stop a", cache.getVersion());
+        assertThat(cache.get("a"), equalTo("new stop a"));
+    }
+
+    @Test
+    public void namespaceWithoutCachesIsNotTracked() {
+        EntityCache.invalidate("never_cached");
+        assertThat(EntityCache.isTracked("never_cached"), equalTo(false));
+        EntityCache<String> cache = new EntityCache<>("dropped.", 10);
+        assertThat(EntityCache.isTracked("dropped"), equalTo(true));
+        // Dropping the namespace clears its caches.
+        cache.put("a", "stop a", cache.getVersion());
+        EntityCache.invalidate("dropped");
+        assertThat(cache.size(), equalTo(0));
+    }
+}
@@ -8,6 +8,7 @@ import com.conveyal.gtfs.dto.FeedInfoDTO;
 import com.conveyal.gtfs.dto.FrequencyDTO;
 import com.conveyal.gtfs.dto.ScheduleExceptionDTO;
 import com.conveyal.gtfs.model.ScheduleException;
+import com.conveyal.gtfs.model.Stop;
 import com.conveyal.gtfs.model.StopTime;
 import com.conveyal.gtfs.util.InvalidNamespaceException;
 import com.conveyal.gtfs.dto.PatternDTO;
@@ -32,9 +33,12 @@ import java.sql.Connection;
 import java.sql.PreparedStatement;
 import java.sql.ResultSet;
 import java.sql.SQLException;
+import java.util.Arrays;
+import java.util.Map;
 import java.util.UUID;
 
 import static com.conveyal.gtfs.GTFS.createDataSource;
+import static com.conveyal.gtfs.GTFS.delete;
 import static com.conveyal.gtfs.GTFS.load;
 import static com.conveyal.gtfs.GTFS.makeSnapshot;
 import static com.conveyal.gtfs.GTFS.validate;
@@ -57,6 +61,7 @@ public class JDBCTableWriterTest {
     private static String testDBName;
     private static DataSource testDataSource;
     private static String testNamespace;
+    private static String testGtfsGLNamespace;
     private static String testGtfsGLSnapshotNamespace;
     private static String simpleServiceId = "1";
     private static String firstStopId = "1";
@@ -94,7 +99,7 @@ public class JDBCTableWriterTest {
         /** Load the following real-life GTFS for use with {@link JDBCTableWriterTest#canUpdateServiceId()}  **/
         // load feed into db
         FeedLoadResult feedLoadResult = load(getResourceFileName("real-world-gtfs-feeds/gtfs_GL.zip"), testDataSource);
-        String testGtfsGLNamespace = feedLoadResult.uniqueIdentifier;
+        testGtfsGLNamespace = feedLoadResult.uniqueIdentifier;
         // validate feed to create additional tables
         validate(testGtfsGLNamespace, testDataSource);
         // load into editor via snapshot
@@ -685,6 +690,125 @@ public class JDBCTableWriterTest {
         );
     }
 
+    /**
+     * Ensure that stops cached by a feed's table reader are replaced when a change to the stops is committed through
+     * {@link JdbcTableWriter}, and that fetching several stops at once uses and fills the same cache.
+     */
+    @Test
+    public void cachedEntitiesAreInvalidatedByTableWriter() throws InvalidNamespaceException, IOException, SQLException {
+        String stopId = "cached_stop";
+        StopDTO createdStop = createSimpleStop(stopId, "Cached Stop", firstStopLat, firstStopLon);
+        Feed feed = new Feed(testDataSource, testNamespace).withEntityCache(100);
+        EntityCache<Stop> cache = ((JDBCTableReader<Stop>) feed.stops).getCache();
+        assertThat(feed.stops.get(stopId).stop_name, equalTo("Cached Stop"));
+        assertThat(feed.stops.get(stopId).stop_name, equalTo("Cached Stop"));
+        assertThat(cache.getMissCount(), equalTo(1L));
+        assertThat(cache.getHitCount(), equalTo(1L));
+
+        // Rename the stop, which should invalidate the cache.
+        createdStop.stop_name = "Renamed Stop";
+        JdbcTableWriter updateTableWriter = createTestTableWriter(Table.STOPS);
+        updateTableWriter.update(createdStop.id, mapper.writeValueAsString(createdStop), true);
+        assertThat(cache.size(), equalTo(0));
+        assertThat(feed.stops.get(stopId).stop_name, equalTo("Renamed Stop"));
+        assertThat(cache.getMissCount(), equalTo(2L));
+
+        // Fetch the renamed stop from the cache and the other stops from the database, skipping an unknown ID.
+        Map<String, Stop> stopForId = feed.stops.getAll(Arrays.asList(stopId, firstStopId, lastStopId, "no_such_stop"));
+        assertThat(stopForId.size(), equalTo(3));
+        assertThat(stopForId.get(stopId).stop_name, equalTo("Renamed Stop"));
+        assertThat(stopForId.get(firstStopId).stop_name, equalTo("First Stop"));
+        assertThat(cache.getHitCount(), equalTo(2L));
+        assertThat(cache.size(), equalTo(3));
+
+        // Deleting the stop should also invalidate the cache.
+        JdbcTableWriter deleteTableWriter = createTestTableWriter(Table.STOPS);
+        deleteTableWriter.delete(createdStop.id, true);
+        assertThat(cache.size(), equalTo(0));
+        assertThat(feed.stops.getAll(Arrays.asList(stopId)).isEmpty(), equalTo(true));
+    }
+
+    /**
+     * Ensure that the editor columns added to the tables of a snapshot are in the column registry, while the columns
+     * of the feed it was copied from, which were registered before the snapshot was made, are unchanged.
+     */
+    @Test
+    public void columnRegistryHasEditorColumnsAfterSnapshot() throws SQLException {
+        assertThat(
+            ColumnRegistry.getColumns(testDataSource, testGtfsGLNamespace, "routes").contains("status"),
+            equalTo(false)
+        );
+        SnapshotResult snapshotResult = new JdbcGtfsSnapshotter(testGtfsGLNamespace, testDataSource).copyTables();
+        assertThat(
+            ColumnRegistry.getColumns(testDataSource, testGtfsGLNamespace, "routes").contains("status"),
+            equalTo(false)
+        );
+        for (Field field : Table.ROUTES.editorFields()) {
+            assertThat(
+                ColumnRegistry.getColumns(testDataSource, snapshotResult.uniqueIdentifier, "routes").contains(field.name),
+                equalTo(true)
+            );
+        }
+    }
+
+    /**
+     * Ensure that a column added to a table after the namespace's columns were registered is picked up once a change
+     * is committed through {@link JdbcTableWriter}. The column is added to a namespace of its own, so that it does not
+     * alter the tables that other tests write to.
+     */
+    @Test
+    public void columnRegistryIsInvalidatedByTableWriter() throws InvalidNamespaceException, IOException, SQLException {
+        String namespace = makeSnapshot(null, testDataSource).uniqueIdentifier;
+        String newColumn = "column_registry_test";
+        assertThat(ColumnRegistry.getColumns(testDataSource, namespace, "agency").contains(newColumn), equalTo(false));
+        Connection connection = testDataSource.getConnection();
+        connection.createStatement()
+            .execute(String.format("alter table %s.agency add column %s varchar", namespace, newColumn));
+        connection.commit();
+        connection.close();
+        // The registry still holds the columns read before the change.
+        assertThat(ColumnRegistry.getColumns(testDataSource, namespace, "agency").contains(newColumn), equalTo(false));
+        StopDTO input = new StopDTO();
+        input.stop_id = "column_registry_stop";
+        input.stop_name = "Column Registry Stop";
+        input.stop_lat = firstStopLat;
+        input.stop_lon = firstStopLon;
+        new JdbcTableWriter(Table.STOPS, testDataSource, namespace).create(mapper.writeValueAsString(input), true);
+        assertThat(ColumnRegistry.getColumns(testDataSource, namespace, "agency").contains(newColumn), equalTo(true));
+    }
+
+    /**
+     * Ensure that a table missing from a namespace is remembered as missing until the namespace is invalidated, rather
+     * than the metadata being read again on every lookup.
+     */
+    @Test
+    public void columnRegistryRemembersMissingTables() throws SQLException {
+        String namespace = makeSnapshot(null, testDataSource).uniqueIdentifier;
+        assertThat(ColumnRegistry.getColumns(testDataSource, namespace, "trip_spans").isEmpty(), equalTo(true));
+        Connection connection = testDataSource.getConnection();
+        connection.createStatement().execute(String.format("create table %s.trip_spans (trip_id varchar)", namespace));
+        connection.commit();
+        connection.close();
+        assertThat(ColumnRegistry.getColumns(testDataSource, namespace, "trip_spans").isEmpty(), equalTo(true));
+        ColumnRegistry.invalidate(namespace);
+        assertThat(
+            ColumnRegistry.getColumns(testDataSource, namespace, "trip_spans").contains("trip_id"),
+            equalTo(true)
+        );
+    }
+
+    /**
+     * Ensure that nothing is held in the column registry for a namespace once it is deleted.
+     */
+    @Test
+    public void columnRegistryForgetsDeletedNamespace() throws SQLException, InvalidNamespaceException {
+        String namespace = makeSnapshot(null, testDataSource).uniqueIdentifier;
+        assertThat(ColumnRegistry.getColumns(testDataSource, namespace, "stops").isEmpty(), equalTo(false));
+        assertThat(ColumnRegistry.isCached(namespace), equalTo(true));
+        delete(namespace, testDataSource);
+        assertThat(ColumnRegistry.isCached(namespace), equalTo(false));
+    }
+
     /*****************************************************************************************************************
      * End tests, begin helpers
      ****************************************************************************************************************/
@@ -0,0 +1,165 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.GTFS;
+import com.conveyal.gtfs.TestUtils;
+import org.apache.commons.io.IOUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipFile;
+
+import static com.conveyal.gtfs.GTFS.createDataSource;
+import static org.hamcrest.Matchers.containsString;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.not;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+
+/**
+ * Checks that exporting tables in parallel copies (or reads) every table from the same snapshot of the feed, and that a
+ * table that cannot be copied is reported without failing the rest of the export.
+ */
+public class JdbcGtfsExporterTest {
+
+    private static String testDBName;
+    private static DataSource testDataSource;
+
+    @BeforeClass
+    public static void setUpClass() {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = createDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName), null, null);
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    @Test
+    public void parallelExportCopiesTablesFromOneSnapshot() throws IOException {
+        String namespace = GTFS.load(TestUtils.zipFolderFiles("fake-agency", true), testDataSource).uniqueIdentifier;
+        // Add an agency once the export has begun but before the first table (agency) is copied on its own connection.
+        DataSource dataSource = dataSourceInterceptingConnections(count -> {
+            if (count != 2) return;
+            try (Connection connection = testDataSource.getConnection()) {
+                connection.createStatement().execute(String.format(
+                    "insert into %s.agency (agency_id, agency_name, agency_timezone) " +
+                        "values ('late', 'Late Agency', 'America/Los_Angeles')",
+                    namespace
+                ));
+                connection.commit();
+            }
+        });
+        File file = File.createTempFile("snapshot", ".zip");
+        FeedLoadResult result = new JdbcGtfsExporter(namespace, file.getAbsolutePath(), dataSource, false)
+            .withParallelism(4)
+            .exportTables();
+        assertThat(result.fatalException, nullValue());
+        assertThat(result.agency.rowCount, equalTo(1));
+        assertThat(readEntry(file, "agency.txt"), not(containsString("Late Agency")));
+        // The agency was added, and is exported by the next export.
+        FeedLoadResult laterResult = new JdbcGtfsExporter(namespace, file.getAbsolutePath(), testDataSource, false)
+            .withParallelism(4)
+            .exportTables();
+        assertThat(laterResult.agency.rowCount, equalTo(2));
+        assertThat(readEntry(file, "agency.txt"), containsString("Late Agency"));
+    }
+
+    @Test
+    public void parallelEditorExportReadsScheduleExceptionsFromSnapshot() throws IOException {
+        String feedNamespace =
+            GTFS.load(TestUtils.zipFolderFiles("fake-agency", true), testDataSource).uniqueIdentifier;
+        String namespace = GTFS.makeSnapshot(feedNamespace, testDataSource).uniqueIdentifier;
+        // Remove all service on the last day of the calendar once the export has begun, but before the schedule
+        // exceptions are read to build the calendar dates.
+        DataSource dataSource = dataSourceInterceptingConnections(count -> {
+            if (count != 2) return;
+            try (Connection connection = testDataSource.getConnection()) {
+                connection.createStatement().execute(String.format(
+                    "insert into %s.schedule_exceptions (name, dates, exemplar) values ('late', '{20170917}', 7)",
+                    namespace
+                ));
+                connection.commit();
+            }
+        });
+        File file = File.createTempFile("editor", ".zip");
+        FeedLoadResult result = new JdbcGtfsExporter(namespace, file.getAbsolutePath(), dataSource, true)
+            .withParallelism(4)
+            .exportTables();
+        assertThat(result.fatalException, nullValue());
+        String calendarDates = readEntry(file, "calendar_dates.txt");
+        assertThat(calendarDates, containsString("20170916"));
+        assertThat(calendarDates, not(containsString("20170917")));
+        // The exception was added, and is exported by the next export.
+        new JdbcGtfsExporter(namespace, file.getAbsolutePath(), testDataSource, true)
+            .withParallelism(4)
+            .exportTables();
+        assertThat(readEntry(file, "calendar_dates.txt"), containsString("20170917"));
+    }
+
+    @Test
+    public void failedTableCopyIsReported() throws IOException {
+        String namespace = GTFS.load(TestUtils.zipFolderFiles("fake-agency", true), testDataSource).uniqueIdentifier;
+        // Only the main connection can be had, so that copying each table on its own connection fails.
+        DataSource dataSource = dataSourceInterceptingConnections(count -> {
+            if (count > 1) throw new SQLException("No connections left.");
+        });
+        File file = File.createTempFile("failed", ".zip");
+        FeedLoadResult result = new JdbcGtfsExporter(namespace, file.getAbsolutePath(), dataSource, false)
+            .withParallelism(4)
+            .exportTables();
+        assertThat(result.fatalException, nullValue());
+        assertThat(result.agency.fatalException, containsString("No connections left."));
+        assertThat(result.stopTimes.fatalException, notNullValue());
+        assertThat(result.stopTimes.rowCount, equalTo(0));
+        try (ZipFile zipFile = new ZipFile(file)) {
+            assertThat(zipFile.size(), equalTo(0));
+        }
+    }
+
+    /** Called with the number of connections taken so far, including the one about to be returned. */
+    private interface ConnectionInterceptor {
+        void intercept (int count) throws SQLException;
+    }
+
+    /**
+     * @return a data source that takes its connections from the test data source, calling the interceptor before each
+     * connection is taken.
+     */
+    private static DataSource dataSourceInterceptingConnections (ConnectionInterceptor interceptor) {
+        AtomicInteger connectionCount = new AtomicInteger();
+        return (DataSource) Proxy.newProxyInstance(
+            DataSource.class.getClassLoader(),
+            new Class[] {DataSource.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("getConnection")) {
+                    // One at a time, so that no connection is returned before an earlier interception is finished.
+                    synchronized (connectionCount) {
+                        interceptor.intercept(connectionCount.incrementAndGet());
+                    }
+                }
+                try {
+                    return method.invoke(testDataSource, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        );
+    }
+
+    private static String readEntry (File file, String entryName) throws IOException {
+        try (ZipFile zipFile = new ZipFile(file)) {
+            return IOUtils.toString(zipFile.getInputStream(zipFile.getEntry(entryName)), "UTF-8");
+        }
+    }
+}
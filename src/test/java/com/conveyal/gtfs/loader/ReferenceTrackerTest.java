@@ -0,0 +1,128 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.error.NewGTFSError;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import static com.conveyal.gtfs.error.NewGTFSErrorType.DUPLICATE_ID;
+import static com.conveyal.gtfs.error.NewGTFSErrorType.REFERENTIAL_INTEGRITY;
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Unit tests for the reference tracker used to check uniqueness and referential integrity while loading GTFS.
+ */
+public class ReferenceTrackerTest {
+    private static final int TRIP_COUNT = 25_000;
+    private static final int STOPS_PER_TRIP = 20;
+    private static final int STOP_COUNT = 5_000;
+
+    /**
+     * Duplicate IDs and bad references should be reported with the same bad values as always (e.g., stop_id:1234 or
+     * stop_sequence:trip:1), and a trip_id seen only in stop_times should not make that trip appear to exist.
+     */
+    @Test
+    public void reportsDuplicatesAndBadReferences() {
+        ReferenceTracker tracker = new ReferenceTracker();
+        assertThat(checkRow(tracker, Table.STOPS, "stop-1").size(), equalTo(0));
+        assertThat(checkRow(tracker, Table.TRIPS, "trip-1").size(), equalTo(0));
+        assertThat(checkRow(tracker, Table.STOP_TIMES, "trip-1", "1", "stop-1").size(), equalTo(0));
+
+        Set<NewGTFSError> duplicateStop = checkRow(tracker, Table.STOPS, "stop-1");
+        assertThat(duplicateStop.size(), equalTo(1));
+        NewGTFSError error = duplicateStop.iterator().next();
+        assertThat(error.errorType, equalTo(DUPLICATE_ID));
+        assertThat(error.badValue, equalTo("stop_id:stop-1"));
+
+        Set<NewGTFSError> duplicateStopTime = checkRow(tracker, Table.STOP_TIMES, "trip-1", "1", "stop-1");
+        assertThat(duplicateStopTime.size(), equalTo(1));
+        error = duplicateStopTime.iterator().next();
+        assertThat(error.errorType, equalTo(DUPLICATE_ID));
+        assertThat(error.badValue, equalTo("stop_sequence:trip-1:1"));
+
+        Set<NewGTFSError> badReferences = checkRow(tracker, Table.STOP_TIMES, "trip-2", "1", "stop-2");
+        assertThat(badReferences.size(), equalTo(2));
+        for (NewGTFSError badReference : badReferences) {
+            assertThat(badReference.errorType, equalTo(REFERENTIAL_INTEGRITY));
+        }
+        assertThat("Stop times should not add trip IDs", tracker.containsId("trip_id", "trip-2"), equalTo(false));
+        assertThat(tracker.containsCompoundId("stop_sequence", "trip-2", "1"), equalTo(true));
+        assertThat(tracker.containsCompoundId("stop_sequence", "trip-2", "01"), equalTo(false));
+    }
+
+    /**
+     * The string views of the tracked keys should hold the same "field:id" strings that the tracker used to store, and
+     * strings added through the views should be visible to the tracker's own checks.
+     */
+    @Test
+    public void stringViewsMatchTrackedKeys() {
+        ReferenceTracker tracker = new ReferenceTracker();
+        checkRow(tracker, Table.STOPS, "stop-1");
+        checkRow(tracker, Table.TRIPS, "trip:1");
+        checkRow(tracker, Table.STOP_TIMES, "trip:1", "1", "stop-1");
+        checkRow(tracker, Table.STOP_TIMES, "trip:1", "2", "stop-1");
+
+        assertThat(tracker.transitIds, equalTo(new HashSet<>(Arrays.asList("stop_id:stop-1", "trip_id:trip:1"))));
+        assertThat(
+            tracker.transitIdsWithSequence,
+            equalTo(new HashSet<>(Arrays.asList("stop_sequence:trip:1:1", "stop_sequence:trip:1:2")))
+        );
+        assertThat(tracker.transitIds.contains("trip_id:trip"), equalTo(false));
+        assertThat(tracker.transitIdsWithSequence.contains("stop_sequence:trip:1:3"), equalTo(false));
+
+        assertThat(tracker.transitIds.add("stop_id:stop:2"), equalTo(true));
+        assertThat(tracker.transitIds.add("stop_id:stop:2"), equalTo(false));
+        assertThat(tracker.containsId("stop_id", "stop:2"), equalTo(true));
+        assertThat(checkRow(tracker, Table.STOP_TIMES, "trip:1", "3", "stop:2").size(), equalTo(0));
+        assertThat(tracker.transitIdsWithSequence.contains("stop_sequence:trip:1:3"), equalTo(true));
+        assertThat(tracker.transitIdsWithSequence.size(), equalTo(3));
+    }
+
+    /**
+     * Track the keys of a synthetic feed with half a million stop times, then check every row again: each key should
+     * be tracked exactly once, the first pass should find no errors and the second pass should find every duplicate.
+     */
+    @Test
+    public void largeFeedTracksEveryKeyOnce() {
+        ReferenceTracker tracker = new ReferenceTracker();
+        assertThat(checkFeed(tracker), equalTo(0));
+        int stopTimeCount = TRIP_COUNT * STOPS_PER_TRIP;
+        assertThat(tracker.transitIds.size(), equalTo(STOP_COUNT + TRIP_COUNT));
+        assertThat(tracker.transitIdsWithSequence.size(), equalTo(stopTimeCount));
+        assertThat(tracker.containsCompoundId("stop_sequence", "trip-" + (TRIP_COUNT - 1), "0"), equalTo(true));
+        assertThat(tracker.containsCompoundId("stop_sequence", "trip-0", Integer.toString(STOPS_PER_TRIP)), equalTo(false));
+        // Checking the same rows again reports one duplicate ID for every stop, trip and stop time.
+        assertThat(checkFeed(tracker), equalTo(STOP_COUNT + TRIP_COUNT + stopTimeCount));
+    }
+
+    /**
+     * Check all of the rows of a synthetic feed, returning the number of errors found.
+     */
+    private static int checkFeed(ReferenceTracker tracker) {
+        int errorCount = 0;
+        for (int s = 0; s < STOP_COUNT; s++) errorCount += checkRow(tracker, Table.STOPS, "stop-" + s).size();
+        for (int t = 0; t < TRIP_COUNT; t++) errorCount += checkRow(tracker, Table.TRIPS, "trip-" + t).size();
+        for (int t = 0; t < TRIP_COUNT; t++) {
+            String tripId = "trip-" + t;
+            for (int seq = 0; seq < STOPS_PER_TRIP; seq++) {
+                String stopId = "stop-" + ((t + seq) % STOP_COUNT);
+                errorCount += checkRow(tracker, Table.STOP_TIMES, tripId, Integer.toString(seq), stopId).size();
+            }
+        }
+        return errorCount;
+    }
+
+    /**
+     * Check each value in a row the same way that the loader does, returning all errors found.
+     */
+    private static Set<NewGTFSError> checkRow(ReferenceTracker tracker, Table table, String... values) {
+        Set<NewGTFSError> errors = new HashSet<>();
+        for (int i = 0; i < values.length; i++) {
+            errors.addAll(tracker.checkReferencesAndUniqueness(values[0], i + 2, table.fields[i], values[i], table));
+        }
+        return errors;
+    }
+}
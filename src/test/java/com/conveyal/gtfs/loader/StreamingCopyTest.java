@@ -0,0 +1,161 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.TestUtils;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Proxy;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static com.conveyal.gtfs.GTFS.createDataSource;
+import static org.hamcrest.Matchers.equalTo;
+import static org.hamcrest.Matchers.notNullValue;
+import static org.hamcrest.Matchers.nullValue;
+import static org.junit.Assert.assertThat;
+import static org.junit.Assert.fail;
+
+/**
+ * Checks that a {@link StreamingCopy} that fails or is abandoned leaves nothing committed in its table, and that a feed
+ * table whose streaming copy fails is removed while the loader goes on to load the other tables.
+ */
+public class StreamingCopyTest {
+
+    private static String testDBName;
+    private static DataSource testDataSource;
+
+    @BeforeClass
+    public static void setUpClass() throws SQLException {
+        testDBName = TestUtils.generateNewDB();
+        testDataSource = createDataSource(String.format("jdbc:postgresql://localhost/%s", testDBName), null, null);
+        try (Connection connection = testDataSource.getConnection()) {
+            connection.createStatement().execute("create table copy_rejected (value integer)");
+            connection.createStatement().execute("create table copy_abandoned (value integer)");
+            connection.createStatement().execute("create table copy_completed (value integer)");
+            connection.commit();
+        }
+    }
+
+    @AfterClass
+    public static void tearDownClass() {
+        TestUtils.dropDB(testDBName);
+    }
+
+    @Test
+    public void copiesStreamedRows() throws IOException, SQLException {
+        StreamingCopy copy = new StreamingCopy(testDataSource.getConnection(), "copy_completed");
+        writeRows(copy.getOutputStream(), 100_000);
+        assertThat(copy.finish(), equalTo(100_000L));
+        copy.close();
+        assertThat(countRows("copy_completed"), equalTo(100_000));
+    }
+
+    @Test
+    public void rejectedRowFailsCopy() throws IOException, SQLException {
+        StreamingCopy copy = new StreamingCopy(testDataSource.getConnection(), "copy_rejected");
+        OutputStream out = copy.getOutputStream();
+        writeRows(out, 1_000);
+        out.write("not a number\n".getBytes(StandardCharsets.UTF_8));
+        try {
+            copy.finish();
+            fail("A rejected row should fail the copy.");
+        } catch (SQLException e) {
+            // The database rejected the row.
+        }
+        // Once failed, the copy reports the failure to a producer that cannot see write exceptions.
+        try {
+            copy.checkFailure();
+            fail("A failed copy should be reported.");
+        } catch (IOException e) {
+            // Expected.
+        } finally {
+            copy.close();
+        }
+        assertThat(countRows("copy_rejected"), equalTo(0));
+    }
+
+    @Test
+    public void closingUnfinishedCopyRollsBack() throws IOException, SQLException {
+        StreamingCopy copy = new StreamingCopy(testDataSource.getConnection(), "copy_abandoned");
+        // More rows than fit in the queue, so some have already reached the database.
+        writeRows(copy.getOutputStream(), 1_000_000);
+        copy.close();
+        assertThat(countRows("copy_abandoned"), equalTo(0));
+    }
+
+    @Test
+    public void loaderDropsTableWhenStreamingCopyFails() throws IOException, SQLException {
+        // Once the stops table has been created, reject every row copied into it. The table is committed just before
+        // the connection for its copy is taken, so the rows are rejected by the copy rather than the table creation.
+        boolean[] stopsRejected = {false};
+        DataSource dataSource = (DataSource) Proxy.newProxyInstance(
+            DataSource.class.getClassLoader(),
+            new Class[] {DataSource.class},
+            (proxy, method, args) -> {
+                if (method.getName().equals("getConnection") && !stopsRejected[0]) {
+                    stopsRejected[0] = rejectStops();
+                }
+                try {
+                    return method.invoke(testDataSource, args);
+                } catch (InvocationTargetException e) {
+                    throw e.getCause();
+                }
+            }
+        );
+        FeedLoadResult result = new JdbcGtfsLoader(TestUtils.zipFolderFiles("fake-agency", true), dataSource)
+            .withStreamingCopy(true)
+            .loadTables();
+        assertThat(stopsRejected[0], equalTo(true));
+        assertThat(result.fatalException, nullValue());
+        assertThat(result.stops.fatalException, notNullValue());
+        assertThat(result.routes.fatalException, nullValue());
+        assertThat(countRows(result.uniqueIdentifier + ".routes"), equalTo(result.routes.rowCount));
+        assertThat(result.stopTimes.fatalException, nullValue());
+        try (Connection connection = testDataSource.getConnection()) {
+            ResultSet resultSet = connection.createStatement()
+                .executeQuery(String.format("select to_regclass('%s.stops')", result.uniqueIdentifier));
+            resultSet.next();
+            assertThat(resultSet.getString(1), nullValue());
+        }
+    }
+
+    /**
+     * Add a constraint that rejects every row to the stops table of the loaded feed, if it has been created yet.
+     * @return whether the constraint was added.
+     */
+    private static boolean rejectStops() throws SQLException {
+        try (Connection connection = testDataSource.getConnection()) {
+            ResultSet resultSet = connection.createStatement().executeQuery(
+                "select table_schema from information_schema.tables where table_name = 'stops'"
+            );
+            if (!resultSet.next()) return false;
+            connection.createStatement().execute(String.format(
+                "alter table %s.stops add constraint reject_stops check (false)",
+                resultSet.getString(1)
+            ));
+            connection.commit();
+            return true;
+        }
+    }
+
+    private static void writeRows(OutputStream out, int rowCount) throws IOException {
+        for (int i = 0; i < rowCount; i++) {
+            out.write((i + "\n").getBytes(StandardCharsets.UTF_8));
+        }
+    }
+
+    private static int countRows(String tableName) throws SQLException {
+        try (Connection connection = testDataSource.getConnection()) {
+            ResultSet resultSet = connection.createStatement().executeQuery("select count(*) from " + tableName);
+            resultSet.next();
+            return resultSet.getInt(1);
+        }
+    }
+}
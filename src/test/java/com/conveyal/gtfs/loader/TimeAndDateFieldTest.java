@@ -0,0 +1,217 @@
+package com.conveyal.gtfs.loader;
+
+import com.conveyal.gtfs.error.NewGTFSError;
+import com.conveyal.gtfs.error.NewGTFSErrorType;
+import org.junit.Test;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.time.LocalDate;
+import java.time.format.DateTimeParseException;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Checks that the character-scanning time and date parsers in {@link TimeField} and {@link DateField} agree with the
+ * split/parseInt and DateTimeFormatter based parsers they replaced, and compares their speed.
+ */
+public class TimeAndDateFieldTest {
+    private static final Logger LOG = LoggerFactory.getLogger(TimeAndDateFieldTest.class);
+
+    private static final TimeField TIME_FIELD = new TimeField("arrival_time", Requirement.REQUIRED);
+
+    /**
+     * Compare every combination of hour, minute and second values (with and without zero padding, including signs and
+     * out of range values) plus random strings made of time characters to the previous parser.
+     */
+    @Test
+    public void timeParsingMatchesPreviousParser() {
+        List<String> times = new ArrayList<>();
+        for (int h = -10; h <= 160; h++) {
+            for (int m = -10; m <= 100; m++) {
+                for (int s = -1; s <= 60; s++) {
+                    times.add(String.format("%d:%02d:%02d", h, m, s));
+                    times.add(String.format("%02d:%d:%d", h, m, s));
+                }
+            }
+        }
+        times.addAll(randomStrings("0123456789:+-", 0, 10, 500_000));
+        String[] specialCases = {"", ":", "::", "1:00:00:", "1:00:00::", ":1:00:00", "1::00:00", "+1:00:00", "\u0663:00:00"};
+        for (String specialCase : specialCases) times.add(specialCase);
+        for (String time : times) {
+            ValidateFieldResult<String> expected = legacyValidateTime(time);
+            ValidateFieldResult<String> actual = TIME_FIELD.validateAndConvert(time);
+            assertThat(time, actual.clean, equalTo(expected.clean));
+            assertThat(time, errorTypes(actual), equalTo(errorTypes(expected)));
+            int seconds = TimeField.getSeconds(time);
+            if (expected.errors.isEmpty()) assertThat(time, Integer.toString(seconds), equalTo(expected.clean));
+            else assertThat(time, seconds, equalTo(TimeField.INVALID_TIME));
+            // Entity.Loader#getTimeField uses the components without a length limit.
+            String[] fields = time.split(":");
+            for (int i = 0; i < 3; i++) {
+                long expectedComponent = TimeField.NOT_A_NUMBER;
+                if (fields.length == 3) try {
+                    expectedComponent = Integer.parseInt(fields[i]);
+                } catch (NumberFormatException e) {
+                    // The component is not a number.
+                }
+                if (expectedComponent == TimeField.NOT_A_NUMBER) {
+                    // Any malformed component makes the whole time unparseable.
+                    assertThat(time, hasMalformedComponent(time), equalTo(true));
+                } else {
+                    assertThat(time, TimeField.getComponent(time, i), equalTo(expectedComponent));
+                }
+            }
+        }
+    }
+
+    /**
+     * Compare every combination of year, month and day values around the valid ranges plus random strings made of date
+     * characters to the previous parser.
+     */
+    @Test
+    public void dateParsingMatchesPreviousParser() {
+        List<String> dates = new ArrayList<>();
+        for (int year = 0; year <= 2200; year++) {
+            for (int month = 0; month <= 13; month++) {
+                for (int day = 0; day <= 32; day++) {
+                    dates.add(String.format("%04d%02d%02d", year, month, day));
+                }
+            }
+        }
+        dates.add("99991231");
+        // Signed years with more than four digits (e.g., +120170101) were previously accepted and then rejected by the
+        // year range check, so they are left out of the random strings.
+        dates.addAll(randomStrings("0123456789- /", 6, 10, 500_000));
+        for (String date : dates) {
+            ValidateFieldResult<String> expected = legacyValidateDate(date);
+            ValidateFieldResult<String> actual = DateField.validate(date);
+            assertThat(date, actual.clean, equalTo(expected.clean));
+            assertThat(date, errorTypes(actual), equalTo(errorTypes(expected)));
+            LocalDate expectedDate;
+            try {
+                expectedDate = LocalDate.parse(date, DateField.GTFS_DATE_FORMATTER);
+            } catch (DateTimeParseException e) {
+                expectedDate = null;
+            }
+            assertThat(date, DateField.parseLocalDate(date), equalTo(expectedDate));
+        }
+    }
+
+    /**
+     * Not a true benchmark, but logs the time taken to parse a large number of times and dates with the previous and
+     * the current parsers to give an idea of the difference.
+     */
+    @Test
+    public void timeAndDateParsingMicrobenchmark() {
+        String[] times = new String[10_000];
+        String[] dates = new String[10_000];
+        Random random = new Random(42);
+        for (int i = 0; i < times.length; i++) {
+            times[i] = String.format("%02d:%02d:%02d", random.nextInt(30), random.nextInt(60), random.nextInt(60));
+            dates[i] = String.format("%04d%02d%02d", 2000 + random.nextInt(30), 1 + random.nextInt(12), 1 + random.nextInt(28));
+        }
+        int rounds = 200;
+        long checksum = 0;
+        // Warm up both implementations before measuring.
+        for (int round = 0; round < 2; round++) {
+            for (String time : times) checksum += legacyValidateTime(time).clean.length() + TimeField.getSeconds(time);
+            for (String date : dates) checksum += legacyValidateDate(date).errors.size() + DateField.parseDate(date);
+        }
+        long start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) for (String time : times) checksum += legacyValidateTime(time).clean.length();
+        long legacyTimeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) for (String time : times) checksum += TIME_FIELD.validateAndConvert(time).clean.length();
+        long timeNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) for (String date : dates) checksum += legacyValidateDate(date).clean.length();
+        long legacyDateNanos = System.nanoTime() - start;
+        start = System.nanoTime();
+        for (int round = 0; round < rounds; round++) for (String date : dates) checksum += DateField.validate(date).clean.length();
+        long dateNanos = System.nanoTime() - start;
+        int count = rounds * times.length;
+        LOG.info("Time parsing: previous {} ns/op, current {} ns/op", legacyTimeNanos / count, timeNanos / count);
+        LOG.info("Date parsing: previous {} ns/op, current {} ns/op", legacyDateNanos / count, dateNanos / count);
+        assertThat(checksum > 0, equalTo(true));
+    }
+
+    /** The previous TimeField parser, except that a number format exception is reported as a time format error. */
+    private static ValidateFieldResult<String> legacyValidateTime(String hhmmss) {
+        ValidateFieldResult<String> result = new ValidateFieldResult<>();
+        if (hhmmss.length() != 8 && hhmmss.length() != 7) {
+            result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.TIME_FORMAT, hhmmss));
+            return result;
+        }
+        String[] fields = hhmmss.split(":");
+        if (fields.length != 3) {
+            result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.TIME_FORMAT, hhmmss));
+            return result;
+        }
+        int h, m, s;
+        try {
+            h = Integer.parseInt(fields[0]);
+            m = Integer.parseInt(fields[1]);
+            s = Integer.parseInt(fields[2]);
+        } catch (NumberFormatException e) {
+            result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.TIME_FORMAT, hhmmss));
+            return result;
+        }
+        if (h < 0) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_NEGATIVE, hhmmss));
+        if (h > 150) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_TOO_LARGE, hhmmss));
+        if (m < 0) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_NEGATIVE, hhmmss));
+        if (m > 59) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_TOO_LARGE, hhmmss));
+        if (s < 0) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_NEGATIVE, hhmmss));
+        if (s > 59) result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.NUMBER_TOO_LARGE, hhmmss));
+        result.clean = Integer.toString(((h * 60) + m) * 60 + s);
+        return result;
+    }
+
+    /** The previous DateField parser. */
+    private static ValidateFieldResult<String> legacyValidateDate(String string) {
+        ValidateFieldResult<String> result = new ValidateFieldResult<>();
+        LocalDate date;
+        try {
+            date = LocalDate.parse(string, DateField.GTFS_DATE_FORMATTER);
+            result.clean = string;
+        } catch (DateTimeParseException ex) {
+            result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.DATE_FORMAT, string));
+            return result;
+        }
+        int year = date.getYear();
+        if (year < 2000 || year > 2100) {
+            result.errors.add(NewGTFSError.forFeed(NewGTFSErrorType.DATE_RANGE, string));
+        }
+        return result;
+    }
+
+    private static boolean hasMalformedComponent(String time) {
+        for (int i = 0; i < 3; i++) if (TimeField.getComponent(time, i) == TimeField.NOT_A_NUMBER) return true;
+        return false;
+    }
+
+    private static Set<NewGTFSErrorType> errorTypes(ValidateFieldResult<?> result) {
+        Set<NewGTFSErrorType> errorTypes = new HashSet<>();
+        for (NewGTFSError error : result.errors) errorTypes.add(error.errorType);
+        return errorTypes;
+    }
+
+    /** Random strings built from the supplied characters, with a fixed seed so failures can be reproduced. */
+    private static List<String> randomStrings(String characters, int minLength, int maxLength, int count) {
+        Random random = new Random(1234);
+        List<String> strings = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            int length = minLength + random.nextInt(maxLength - minLength + 1);
+            StringBuilder builder = new StringBuilder();
+            for (int c = 0; c < length; c++) builder.append(characters.charAt(random.nextInt(characters.length())));
+            strings.add(builder.toString());
+        }
+        return strings;
+    }
+}
@@ -1,7 +1,13 @@
 package com.conveyal.gtfs.storage;
 
+import org.apache.commons.io.IOUtils;
 import org.junit.Test;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+
 import static org.junit.Assert.*;
 
 public class BooleanAsciiGridTest {
@@ -24,4 +30,36 @@ public class BooleanAsciiGridTest {
         assertTrue("Maui has significant population density.", asciiGrid.getValueForCoords(-156.4915454, 20.8751302));
         assertFalse("The South Pacific Ocean has low population density.", asciiGrid.getValueForCoords(-149.7023417, -44.7672362));
     }
-}
\ No newline at end of file
+
+    /**
+     * Check that the committed binary population grid is exactly what the ASCII population grid converts to, and that
+     * the binary grid and the shared grid agree with the ASCII grid cell for cell. If the ASCII grid changes, regenerate
+     * the binary resource with {@link BooleanAsciiGrid#writeBinary(java.io.OutputStream)}.
+     */
+    @Test
+    public void testBinaryGridMatchesAsciiGrid() throws IOException {
+        BooleanAsciiGrid asciiGrid;
+        try (InputStream gridStream = BooleanAsciiGrid.class.getResourceAsStream("gpwv3-quarter-boolean.asc")) {
+            asciiGrid = new BooleanAsciiGrid(gridStream, false);
+        }
+        ByteArrayOutputStream binaryOutput = new ByteArrayOutputStream();
+        asciiGrid.writeBinary(binaryOutput);
+        try (InputStream binaryStream = BooleanAsciiGrid.class.getResourceAsStream("gpwv3-quarter-boolean.bin")) {
+            assertNotNull("The binary population grid is committed as a resource.", binaryStream);
+            assertArrayEquals(binaryOutput.toByteArray(), IOUtils.toByteArray(binaryStream));
+        }
+        BooleanAsciiGrid binaryGrid = BooleanAsciiGrid.readBinary(new ByteArrayInputStream(binaryOutput.toByteArray()));
+        for (BooleanAsciiGrid grid : new BooleanAsciiGrid[] {binaryGrid, BooleanAsciiGrid.forEarthPopulation()}) {
+            assertEquals(asciiGrid.ncols, grid.ncols);
+            assertEquals(asciiGrid.nrows, grid.nrows);
+            assertEquals(asciiGrid.xllcorner, grid.xllcorner, 0);
+            assertEquals(asciiGrid.yllcorner, grid.yllcorner, 0);
+            assertEquals(asciiGrid.cellsize, grid.cellsize, 0);
+            assertEquals(asciiGrid.nodata, grid.nodata, 0);
+            for (int i = 0; i < asciiGrid.ncols * asciiGrid.nrows; i++) {
+                assertEquals("Cell " + i, asciiGrid.grid.get(i), grid.grid.get(i));
+            }
+        }
+        assertSame(BooleanAsciiGrid.forEarthPopulation(), BooleanAsciiGrid.forEarthPopulation());
+    }
+}
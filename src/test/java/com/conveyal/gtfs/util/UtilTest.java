@@ -1,10 +1,18 @@
 package com.conveyal.gtfs.util;
 
+import com.google.common.hash.HashCode;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
 import org.hamcrest.core.IsInstanceOf;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
 import static com.conveyal.gtfs.util.Util.ensureValidNamespace;
+import static com.conveyal.gtfs.util.Util.hashFile;
 import static com.conveyal.gtfs.util.Util.human;
 import static org.hamcrest.MatcherAssert.assertThat;
 import static org.hamcrest.Matchers.is;
@@ -43,6 +51,22 @@ public class UtilTest {
         testNamespace("' OR 1=1;SELECT '1", true);
     }
 
+    /**
+     * Assert that hashing a file with several functions in one pass gives the same hashes as hashing it separately.
+     */
+    @Test
+    public void canHashFileInSinglePass() throws IOException {
+        File file = File.createTempFile("hash", ".zip");
+        file.deleteOnExit();
+        // Use a file larger than the read buffer with a size that is not a multiple of it.
+        byte[] bytes = new byte[3 * 1024 * 1024 + 123];
+        new Random(1).nextBytes(bytes);
+        Files.write(bytes, file);
+        HashCode[] hashes = hashFile(file, Hashing.md5(), Hashing.sha1());
+        assertThat(hashes[0].toString(), is(Files.hash(file, Hashing.md5()).toString()));
+        assertThat(hashes[1].toString(), is(Files.hash(file, Hashing.sha1()).toString()));
+    }
+
     private void testNamespace(String namespace, boolean shouldFail) {
         boolean errorThrown = false;
         try {
@@ -0,0 +1,56 @@
+package com.conveyal.gtfs.validator;
+
+import gnu.trove.list.TIntList;
+import gnu.trove.list.array.TIntArrayList;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Checks that the spatial hash used to find duplicate stops finds the same stops as the envelope query it replaced.
+ */
+public class DuplicateStopsValidatorTest {
+
+    /**
+     * Clusters of stops around random points, including stops exactly on cell boundaries and exactly at the threshold
+     * distance, compared to checking every pair of stops.
+     */
+    @Test
+    public void gridFindsSameStopsAsEnvelopeQuery() {
+        Random random = new Random(42);
+        for (double threshold : new double[] {0.5, 2, 15}) {
+            int nStops = 3000;
+            double[] xs = new double[nStops];
+            double[] ys = new double[nStops];
+            for (int s = 0; s < nStops; s++) {
+                if (s % 3 == 0) {
+                    // Spread cluster centers across a projected extent (in meters) the size of a large country.
+                    xs[s] = (random.nextDouble() - 0.5) * 2_000_000;
+                    ys[s] = (random.nextDouble() - 0.5) * 2_000_000;
+                } else if (s % 3 == 1) {
+                    // Snap some stops to cell boundaries.
+                    xs[s] = Math.floor(xs[s - 1] / threshold) * threshold;
+                    ys[s] = ys[s - 1] + (random.nextDouble() - 0.5) * 3 * threshold;
+                } else {
+                    // Place some stops exactly at the threshold from the previous one.
+                    xs[s] = xs[s - 1] + (random.nextBoolean() ? threshold : -threshold);
+                    ys[s] = ys[s - 1];
+                }
+            }
+            DuplicateStopsValidator.StopGrid grid = new DuplicateStopsValidator.StopGrid(xs, ys, threshold);
+            for (int s = 0; s < nStops; s++) {
+                TIntList expected = new TIntArrayList();
+                for (int other = 0; other < nStops; other++) {
+                    if (xs[other] >= xs[s] - threshold && xs[other] <= xs[s] + threshold &&
+                        ys[other] >= ys[s] - threshold && ys[other] <= ys[s] + threshold) {
+                        expected.add(other);
+                    }
+                }
+                assertThat(grid.findNearby(s), equalTo(expected));
+            }
+        }
+    }
+}
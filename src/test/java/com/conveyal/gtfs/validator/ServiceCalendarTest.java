@@ -0,0 +1,104 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.model.Calendar;
+import com.conveyal.gtfs.model.CalendarDate;
+import org.junit.Test;
+
+import java.time.DayOfWeek;
+import java.time.LocalDate;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Checks that the bitset service calendar agrees with expanding calendars and calendar dates into sets of dates.
+ */
+public class ServiceCalendarTest {
+
+    private static final LocalDate FIRST_DATE = LocalDate.of(2017, 12, 1);
+
+    /**
+     * Random weekly calendars over multi-year ranges, plus added and removed dates both inside and outside those
+     * ranges (including services that only appear in calendar_dates and exceptions that contradict each other).
+     */
+    @Test
+    public void activeDaysMatchDateSets() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            List<Calendar> calendars = new ArrayList<>();
+            List<CalendarDate> calendarDates = new ArrayList<>();
+            int serviceCount = 1 + random.nextInt(30);
+            for (int s = 0; s < serviceCount; s++) {
+                String serviceId = "service-" + s;
+                if (random.nextInt(4) > 0) {
+                    Calendar calendar = new Calendar();
+                    calendar.service_id = serviceId;
+                    calendar.start_date = FIRST_DATE.plusDays(random.nextInt(1000));
+                    // End dates are occasionally before start dates.
+                    calendar.end_date = calendar.start_date.plusDays(random.nextInt(1000) - 20);
+                    calendar.monday = random.nextInt(2);
+                    calendar.tuesday = random.nextInt(2);
+                    calendar.wednesday = random.nextInt(2);
+                    calendar.thursday = random.nextInt(2);
+                    calendar.friday = random.nextInt(2);
+                    calendar.saturday = random.nextInt(2);
+                    calendar.sunday = random.nextInt(2);
+                    calendars.add(calendar);
+                }
+                int exceptionCount = random.nextInt(20);
+                for (int e = 0; e < exceptionCount; e++) {
+                    CalendarDate calendarDate = new CalendarDate();
+                    calendarDate.service_id = serviceId;
+                    calendarDate.date = FIRST_DATE.plusDays(random.nextInt(1200) - 100);
+                    calendarDate.exception_type = 1 + random.nextInt(2);
+                    calendarDates.add(calendarDate);
+                }
+            }
+            Map<String, Set<LocalDate>> expected = legacyDatesActive(calendars, calendarDates);
+            ServiceCalendar serviceCalendar = new ServiceCalendar(calendars, calendarDates);
+            assertThat(serviceCalendar.getServiceIds(), equalTo(expected.keySet()));
+            for (Map.Entry<String, Set<LocalDate>> entry : expected.entrySet()) {
+                Set<LocalDate> actual = new HashSet<>();
+                BitSet activeDays = serviceCalendar.getActiveDays(entry.getKey());
+                for (int day = activeDays.nextSetBit(0); day >= 0; day = activeDays.nextSetBit(day + 1)) {
+                    actual.add(serviceCalendar.getDate(day));
+                }
+                assertThat(entry.getKey(), actual, equalTo(entry.getValue()));
+            }
+        }
+    }
+
+    /** The previous expansion of calendars and calendar dates in ServiceValidator. */
+    private static Map<String, Set<LocalDate>> legacyDatesActive(List<Calendar> calendars, List<CalendarDate> calendarDates) {
+        Map<String, Set<LocalDate>> datesActive = new HashMap<>();
+        for (Calendar calendar : calendars) {
+            LocalDate endDate = calendar.end_date;
+            for (LocalDate date = calendar.start_date; date.isBefore(endDate) || date.isEqual(endDate); date = date.plusDays(1)) {
+                DayOfWeek dayOfWeek = date.getDayOfWeek();
+                if (    (dayOfWeek == DayOfWeek.MONDAY && calendar.monday > 0) ||
+                    (dayOfWeek == DayOfWeek.TUESDAY && calendar.tuesday > 0) ||
+                    (dayOfWeek == DayOfWeek.WEDNESDAY && calendar.wednesday > 0) ||
+                    (dayOfWeek == DayOfWeek.THURSDAY && calendar.thursday > 0) ||
+                    (dayOfWeek == DayOfWeek.FRIDAY && calendar.friday > 0) ||
+                    (dayOfWeek == DayOfWeek.SATURDAY && calendar.saturday > 0) ||
+                    (dayOfWeek == DayOfWeek.SUNDAY && calendar.sunday > 0)) {
+                    datesActive.computeIfAbsent(calendar.service_id, id -> new HashSet<>()).add(date);
+                }
+            }
+        }
+        for (CalendarDate calendarDate : calendarDates) {
+            Set<LocalDate> dates = datesActive.computeIfAbsent(calendarDate.service_id, id -> new HashSet<>());
+            if (calendarDate.exception_type == 1) dates.add(calendarDate.date);
+            else if (calendarDate.exception_type == 2) dates.remove(calendarDate.date);
+        }
+        return datesActive;
+    }
+}
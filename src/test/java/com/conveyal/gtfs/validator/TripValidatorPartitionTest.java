@@ -0,0 +1,156 @@
+package com.conveyal.gtfs.validator;
+
+import com.conveyal.gtfs.PatternFinder;
+import com.conveyal.gtfs.TripPatternKey;
+import com.conveyal.gtfs.error.DeferredErrorStorage;
+import com.conveyal.gtfs.error.NewGTFSError;
+import com.conveyal.gtfs.model.Pattern;
+import com.conveyal.gtfs.model.Route;
+import com.conveyal.gtfs.model.Stop;
+import com.conveyal.gtfs.model.StopTime;
+import com.conveyal.gtfs.model.Trip;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.hamcrest.MatcherAssert.assertThat;
+import static org.hamcrest.Matchers.equalTo;
+
+/**
+ * Checks that validating consecutive ranges of trips with separate trip validators and merging them in trip order
+ * gives the same errors and patterns as validating all of the trips with a single set of validators.
+ */
+public class TripValidatorPartitionTest {
+
+    private static final int TRIP_COUNT = 60;
+    private static final int STOP_COUNT = 10;
+
+    private final Map<String, Stop> stopById = new HashMap<>();
+    private final Route route = new Route();
+    private final List<Trip> trips = new ArrayList<>();
+    private final List<List<StopTime>> stopTimesForTrip = new ArrayList<>();
+    private final List<List<Stop>> stopsForTrip = new ArrayList<>();
+
+    /**
+     * Build trips over a few different stop sequences, with one trip (if any) whose times are not rounded to the minute
+     * and some hops that are impossibly fast or have no travel distance.
+     */
+    private void createTrips (int unroundedTrip) {
+        Random random = new Random(42);
+        trips.clear();
+        stopTimesForTrip.clear();
+        stopsForTrip.clear();
+        route.route_id = "route";
+        route.route_type = Route.BUS;
+        for (int s = 0; s < STOP_COUNT; s++) {
+            Stop stop = new Stop();
+            stop.stop_id = "stop-" + s;
+            stop.stop_name = "Stop " + s;
+            stop.stop_lat = 45 + s * 0.001;
+            stop.stop_lon = -122;
+            stopById.put(stop.stop_id, stop);
+        }
+        for (int t = 0; t < TRIP_COUNT; t++) {
+            Trip trip = new Trip();
+            trip.trip_id = String.format("trip-%03d", t);
+            trip.route_id = route.route_id;
+            trip.service_id = "service";
+            List<StopTime> stopTimes = new ArrayList<>();
+            List<Stop> stops = new ArrayList<>();
+            int firstStop = random.nextInt(3);
+            int time = 8 * 60 * 60 + t * 600;
+            for (int s = firstStop; s < STOP_COUNT; s += 1 + random.nextInt(2)) {
+                StopTime stopTime = new StopTime();
+                stopTime.trip_id = trip.trip_id;
+                stopTime.stop_sequence = stopTimes.size();
+                // Repeat a stop now and then to produce zero distance errors.
+                stopTime.stop_id = random.nextInt(10) == 0 && !stops.isEmpty()
+                    ? stops.get(stops.size() - 1).stop_id
+                    : "stop-" + s;
+                stopTime.arrival_time = time;
+                stopTime.departure_time = time;
+                stopTimes.add(stopTime);
+                stops.add(stopById.get(stopTime.stop_id));
+                // Some hops take no time at all, which is too fast for a bus.
+                time += random.nextInt(8) == 0 ? 0 : 60 * (1 + random.nextInt(3));
+                if (t == unroundedTrip) time += 17;
+            }
+            trips.add(trip);
+            stopTimesForTrip.add(stopTimes);
+            stopsForTrip.add(stops);
+        }
+    }
+
+    @Test
+    public void mergedSpeedValidatorsMatchSingleValidator() {
+        for (int unroundedTrip : new int[] {-1, 0, 31, TRIP_COUNT - 1}) {
+            createTrips(unroundedTrip);
+            RecordingErrorStorage expectedErrors = new RecordingErrorStorage();
+            SpeedTripValidator expected = new SpeedTripValidator(null, expectedErrors);
+            validateTrips(expected, 0, TRIP_COUNT);
+            expected.complete(new ValidationResult());
+            for (int partitionCount = 1; partitionCount <= 7; partitionCount++) {
+                RecordingErrorStorage actualErrors = new RecordingErrorStorage();
+                SpeedTripValidator actual = new SpeedTripValidator(null, actualErrors);
+                for (int p = 0; p < partitionCount; p++) {
+                    DeferredErrorStorage partitionErrors = new DeferredErrorStorage();
+                    SpeedTripValidator partition = new SpeedTripValidator(null, partitionErrors);
+                    validateTrips(partition, TRIP_COUNT * p / partitionCount, TRIP_COUNT * (p + 1) / partitionCount);
+                    actual.mergePartition(partition, partitionErrors);
+                    partitionErrors.transferTo(actualErrors);
+                }
+                actual.complete(new ValidationResult());
+                assertThat(actualErrors.descriptions, equalTo(expectedErrors.descriptions));
+            }
+        }
+    }
+
+    @Test
+    public void mergedPatternFindersMatchSinglePatternFinder() {
+        createTrips(-1);
+        PatternFinder expected = new PatternFinder();
+        for (int t = 0; t < TRIP_COUNT; t++) expected.processTrip(trips.get(t), stopTimesForTrip.get(t));
+        List<String> expectedPatterns = describePatterns(expected.createPatternObjects(stopById, null));
+        for (int partitionCount = 1; partitionCount <= 7; partitionCount++) {
+            PatternFinder actual = new PatternFinder();
+            for (int p = 0; p < partitionCount; p++) {
+                PatternFinder partition = new PatternFinder();
+                for (int t = TRIP_COUNT * p / partitionCount; t < TRIP_COUNT * (p + 1) / partitionCount; t++) {
+                    partition.processTrip(trips.get(t), stopTimesForTrip.get(t));
+                }
+                actual.merge(partition);
+            }
+            assertThat(describePatterns(actual.createPatternObjects(stopById, null)), equalTo(expectedPatterns));
+        }
+    }
+
+    private void validateTrips (TripValidator validator, int fromTrip, int toTrip) {
+        for (int t = fromTrip; t < toTrip; t++) {
+            validator.validateTrip(trips.get(t), route, stopTimesForTrip.get(t), stopsForTrip.get(t));
+        }
+    }
+
+    private static List<String> describePatterns (Map<TripPatternKey, Pattern> patterns) {
+        List<String> descriptions = new ArrayList<>();
+        for (Pattern pattern : patterns.values()) {
+            descriptions.add(String.join("|", pattern.pattern_id, pattern.name, pattern.associatedTrips.toString()));
+        }
+        return descriptions;
+    }
+
+    /** Keeps a description of every error stored, in order. */
+    private static class RecordingErrorStorage extends DeferredErrorStorage {
+        final List<String> descriptions = new ArrayList<>();
+
+        @Override
+        public void storeError (NewGTFSError error) {
+            super.storeError(error);
+            descriptions.add(String.join("|", error.errorType.name(), String.valueOf(error.entityId),
+                String.valueOf(error.entitySequenceNumber), String.valueOf(error.badValue)));
+        }
+    }
+}